@@ -140,6 +140,7 @@ public class PlainAccessResource implements AccessResource {
                     accessResource.addResourceAndPerm(getRetryTopic(request.getExtFields().get("consumerGroup")), Permission.SUB);
                     break;
                 case RequestCode.QUERY_MESSAGE:
+                case RequestCode.QUERY_COMPACTED_MESSAGE:
                     accessResource.addResourceAndPerm(request.getExtFields().get("topic"), Permission.SUB);
                     break;
                 case RequestCode.HEART_BEAT:
@@ -240,6 +240,7 @@ public class DefaultAuthorizationContextBuilder implements AuthorizationContextB
                     result.add(DefaultAuthorizationContext.of(subject, group, Action.SUB, sourceIp));
                     break;
                 case RequestCode.QUERY_MESSAGE:
+                case RequestCode.QUERY_COMPACTED_MESSAGE:
                     topic = Resource.ofTopic(fields.get(TOPIC));
                     result.add(DefaultAuthorizationContext.of(subject, topic, Arrays.asList(Action.SUB, Action.GET), sourceIp));
                     break;
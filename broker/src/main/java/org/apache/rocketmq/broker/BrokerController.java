@@ -67,6 +67,7 @@ import org.apache.rocketmq.broker.filter.CommitLogDispatcherCalcBitMap;
 import org.apache.rocketmq.broker.filter.ConsumerFilterManager;
 import org.apache.rocketmq.broker.latency.BrokerFastFailure;
 import org.apache.rocketmq.broker.longpolling.LmqPullRequestHoldService;
+import org.apache.rocketmq.broker.longpolling.MessageArrivingCoalescer;
 import org.apache.rocketmq.broker.longpolling.NotifyMessageArrivingListener;
 import org.apache.rocketmq.broker.longpolling.PullRequestHoldService;
 import org.apache.rocketmq.broker.metrics.BrokerMetricsManager;
@@ -216,6 +217,7 @@ public class BrokerController {
     protected final RecallMessageProcessor recallMessageProcessor;
     protected final ReplyMessageProcessor replyMessageProcessor;
     protected final PullRequestHoldService pullRequestHoldService;
+    protected final MessageArrivingCoalescer messageArrivingCoalescer;
     protected final MessageArrivingListener messageArrivingListener;
     protected final Broker2Client broker2Client;
     protected final ConsumerIdsChangeListener consumerIdsChangeListener;
@@ -375,7 +377,10 @@ public class BrokerController {
         this.sendMessageProcessor = new SendMessageProcessor(this);
         this.recallMessageProcessor = new RecallMessageProcessor(this);
         this.replyMessageProcessor = new ReplyMessageProcessor(this);
-        this.messageArrivingListener = new NotifyMessageArrivingListener(this.pullRequestHoldService, this.popMessageProcessor, this.notificationProcessor);
+        this.messageArrivingCoalescer = this.brokerConfig.isEnableCoalescedMessageArriving() ?
+            new MessageArrivingCoalescer(this, this.pullRequestHoldService, this.popMessageProcessor, this.notificationProcessor) : null;
+        this.messageArrivingListener = new NotifyMessageArrivingListener(this.pullRequestHoldService, this.popMessageProcessor,
+            this.notificationProcessor, this.messageArrivingCoalescer);
         this.consumerIdsChangeListener = new DefaultConsumerIdsChangeListener(this);
         this.consumerManager = new ConsumerManager(this.consumerIdsChangeListener, this.brokerStatsManager, this.brokerConfig);
         this.producerManager = new ProducerManager(this.brokerStatsManager);
@@ -1163,9 +1168,11 @@ public class BrokerController {
         NettyRequestProcessor queryProcessor = new QueryMessageProcessor(this);
         this.remotingServer.registerProcessor(RequestCode.QUERY_MESSAGE, queryProcessor, this.queryMessageExecutor);
         this.remotingServer.registerProcessor(RequestCode.VIEW_MESSAGE_BY_ID, queryProcessor, this.queryMessageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.QUERY_COMPACTED_MESSAGE, queryProcessor, this.queryMessageExecutor);
 
         this.fastRemotingServer.registerProcessor(RequestCode.QUERY_MESSAGE, queryProcessor, this.queryMessageExecutor);
         this.fastRemotingServer.registerProcessor(RequestCode.VIEW_MESSAGE_BY_ID, queryProcessor, this.queryMessageExecutor);
+        this.fastRemotingServer.registerProcessor(RequestCode.QUERY_COMPACTED_MESSAGE, queryProcessor, this.queryMessageExecutor);
 
         /**
          * ClientManageProcessor
@@ -1420,6 +1427,10 @@ public class BrokerController {
             this.clientHousekeepingService.shutdown();
         }
 
+        if (this.messageArrivingCoalescer != null) {
+            this.messageArrivingCoalescer.shutdown();
+        }
+
         if (this.pullRequestHoldService != null) {
             this.pullRequestHoldService.shutdown();
         }
@@ -1713,6 +1724,10 @@ public class BrokerController {
             this.pullRequestHoldService.start();
         }
 
+        if (this.messageArrivingCoalescer != null) {
+            this.messageArrivingCoalescer.start();
+        }
+
         if (this.clientHousekeepingService != null) {
             this.clientHousekeepingService.start();
         }
@@ -238,6 +238,7 @@ public class ReplicasManager {
         synchronized (this) {
             if (newMasterEpoch > this.masterEpoch) {
                 LOGGER.info("Begin to change to master, brokerName:{}, replicas:{}, new Epoch:{}", this.brokerConfig.getBrokerName(), this.brokerAddress, newMasterEpoch);
+                final int lastMasterEpoch = this.masterEpoch;
                 this.masterEpoch = newMasterEpoch;
                 if (this.masterBrokerId != null && this.masterBrokerId.equals(this.brokerControllerId) && this.brokerController.getBrokerConfig().getBrokerId() == MixAll.MASTER_ID) {
                     // Change SyncStateSet
@@ -251,16 +252,26 @@ public class ReplicasManager {
                     return;
                 }
 
-                // Change SyncStateSet
+                // Change SyncStateSet, the ha service computes the confirm offset from it
+                final Set<Long> lastSyncStateSet = this.syncStateSet;
+                final int lastSyncStateSetEpoch = this.syncStateSetEpoch;
                 final HashSet<Long> newSyncStateSet = new HashSet<>(syncStateSet);
                 changeSyncStateSet(newSyncStateSet, syncStateSetEpoch);
 
+                // Notify ha service, change to master
+                if (!this.haService.changeToMaster(newMasterEpoch)) {
+                    // Stay a slave with the old state, so that the role change is tried again on the next metadata sync
+                    LOGGER.error("Failed to change to master, brokerName:{}, replicas:{}, new Epoch:{}", this.brokerConfig.getBrokerName(), this.brokerAddress, newMasterEpoch);
+                    this.masterEpoch = lastMasterEpoch;
+                    this.syncStateSetEpoch = lastSyncStateSetEpoch;
+                    this.syncStateSet = lastSyncStateSet;
+                    this.haService.setSyncStateSet(lastSyncStateSet);
+                    return;
+                }
+
                 // Handle the slave synchronise
                 handleSlaveSynchronize(BrokerRole.SYNC_MASTER);
 
-                // Notify ha service, change to master
-                this.haService.changeToMaster(newMasterEpoch);
-
                 this.brokerController.getBrokerConfig().setBrokerId(MixAll.MASTER_ID);
                 this.brokerController.getMessageStoreConfig().setBrokerRole(BrokerRole.SYNC_MASTER);
                 this.brokerController.changeSpecialServiceStatus(true);
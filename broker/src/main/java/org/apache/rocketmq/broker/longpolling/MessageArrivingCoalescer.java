@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.longpolling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.processor.NotificationProcessor;
+import org.apache.rocketmq.broker.processor.PopMessageProcessor;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+
+/**
+ * Batches the messages arriving at a queue within a short window, so that the requests held on the queue are
+ * checked once per batch instead of once per message, off the dispatching thread of the store.
+ */
+public class MessageArrivingCoalescer extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
+    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+
+    private final BrokerController brokerController;
+    private final PullRequestHoldService pullRequestHoldService;
+    private final PopMessageProcessor popMessageProcessor;
+    private final NotificationProcessor notificationProcessor;
+    private final ConcurrentMap<String/* topic@queueId */, ArrivingBatch> batchTable = new ConcurrentHashMap<>(1024);
+
+    public MessageArrivingCoalescer(final BrokerController brokerController,
+        final PullRequestHoldService pullRequestHoldService, final PopMessageProcessor popMessageProcessor,
+        final NotificationProcessor notificationProcessor) {
+        this.brokerController = brokerController;
+        this.pullRequestHoldService = pullRequestHoldService;
+        this.popMessageProcessor = popMessageProcessor;
+        this.notificationProcessor = notificationProcessor;
+    }
+
+    public void arriving(String topic, int queueId, long logicOffset, long tagsCode,
+        long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
+        ArrivingMessage message = new ArrivingMessage(logicOffset, tagsCode, msgStoreTime, filterBitMap, properties);
+        String key = topic + TOPIC_QUEUEID_SEPARATOR + queueId;
+        while (true) {
+            ArrivingBatch batch = this.batchTable.computeIfAbsent(key, k -> new ArrivingBatch(topic, queueId));
+            // the batch may be taken away by the flush in between, then start a new one
+            if (batch.add(message)) {
+                break;
+            }
+        }
+        this.wakeup();
+    }
+
+    protected void flush() {
+        for (String key : this.batchTable.keySet()) {
+            ArrivingBatch batch = this.batchTable.remove(key);
+            if (batch == null) {
+                continue;
+            }
+            List<ArrivingMessage> messages = batch.close();
+            if (messages.isEmpty()) {
+                continue;
+            }
+            this.notifyMessageArriving(batch.topic, batch.queueId, messages);
+        }
+    }
+
+    private void notifyMessageArriving(String topic, int queueId, List<ArrivingMessage> messages) {
+        long maxOffset = -1;
+        for (ArrivingMessage message : messages) {
+            maxOffset = Math.max(maxOffset, message.getLogicOffset());
+        }
+        try {
+            this.pullRequestHoldService.notifyMessageArriving(topic, queueId, maxOffset, messages);
+        } catch (Throwable e) {
+            log.error("MessageArrivingCoalescer: failed to notify pull requests, topic={}, queueId={}",
+                topic, queueId, e);
+        }
+
+        // each message arriving releases one pop request, so they are still notified one by one
+        for (ArrivingMessage message : messages) {
+            try {
+                this.popMessageProcessor.notifyMessageArriving(topic, queueId, message.getLogicOffset(),
+                    message.getTagsCode(), message.getMsgStoreTime(), message.getFilterBitMap(), message.getProperties());
+                this.notificationProcessor.notifyMessageArriving(topic, queueId, message.getLogicOffset(),
+                    message.getTagsCode(), message.getMsgStoreTime(), message.getFilterBitMap(), message.getProperties());
+            } catch (Throwable e) {
+                log.error("MessageArrivingCoalescer: failed to notify pop requests, topic={}, queueId={}",
+                    topic, queueId, e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        log.info("{} service started", this.getServiceName());
+        while (!this.isStopped()) {
+            try {
+                this.waitForRunning(1000);
+                long windowMicros = this.brokerController.getBrokerConfig().getMessageArrivingCoalesceWindowMicros();
+                if (windowMicros > 0) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(windowMicros));
+                }
+                this.flush();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+        this.flush();
+        log.info("{} service end", this.getServiceName());
+    }
+
+    @Override
+    public String getServiceName() {
+        if (brokerController != null && brokerController.getBrokerConfig().isInBrokerContainer()) {
+            return this.brokerController.getBrokerIdentity().getIdentifier() + MessageArrivingCoalescer.class.getSimpleName();
+        }
+        return MessageArrivingCoalescer.class.getSimpleName();
+    }
+
+    private static class ArrivingBatch {
+        private final String topic;
+        private final int queueId;
+        private List<ArrivingMessage> messages = new ArrayList<>();
+
+        ArrivingBatch(String topic, int queueId) {
+            this.topic = topic;
+            this.queueId = queueId;
+        }
+
+        synchronized boolean add(ArrivingMessage message) {
+            if (this.messages == null) {
+                return false;
+            }
+            this.messages.add(message);
+            return true;
+        }
+
+        synchronized List<ArrivingMessage> close() {
+            List<ArrivingMessage> result = this.messages;
+            this.messages = null;
+            return result;
+        }
+    }
+}
@@ -26,16 +26,28 @@ public class NotifyMessageArrivingListener implements MessageArrivingListener {
     private final PullRequestHoldService pullRequestHoldService;
     private final PopMessageProcessor popMessageProcessor;
     private final NotificationProcessor notificationProcessor;
+    private final MessageArrivingCoalescer messageArrivingCoalescer;
 
     public NotifyMessageArrivingListener(final PullRequestHoldService pullRequestHoldService, final PopMessageProcessor popMessageProcessor, final NotificationProcessor notificationProcessor) {
+        this(pullRequestHoldService, popMessageProcessor, notificationProcessor, null);
+    }
+
+    public NotifyMessageArrivingListener(final PullRequestHoldService pullRequestHoldService, final PopMessageProcessor popMessageProcessor,
+        final NotificationProcessor notificationProcessor, final MessageArrivingCoalescer messageArrivingCoalescer) {
         this.pullRequestHoldService = pullRequestHoldService;
         this.popMessageProcessor = popMessageProcessor;
         this.notificationProcessor = notificationProcessor;
+        this.messageArrivingCoalescer = messageArrivingCoalescer;
     }
 
     @Override
     public void arriving(String topic, int queueId, long logicOffset, long tagsCode,
                          long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
+        if (this.messageArrivingCoalescer != null) {
+            this.messageArrivingCoalescer.arriving(
+                topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties);
+            return;
+        }
 
         this.pullRequestHoldService.notifyMessageArriving(
             topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties);
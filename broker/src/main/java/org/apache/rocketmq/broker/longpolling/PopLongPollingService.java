@@ -19,16 +19,20 @@ package org.apache.rocketmq.broker.longpolling;
 
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.common.KeyBuilder;
 import org.apache.rocketmq.common.PopAckConstants;
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
@@ -58,6 +62,7 @@ public class PopLongPollingService extends ServiceThread {
 
     private final AtomicLong totalPollingNum = new AtomicLong(0);
     private final boolean notifyLast;
+    private final Timer timer;
 
     public PopLongPollingService(BrokerController brokerController, NettyRequestProcessor processor, boolean notifyLast) {
         this.brokerController = brokerController;
@@ -68,6 +73,21 @@ public class PopLongPollingService extends ServiceThread {
         this.pollingMap = new ConcurrentLinkedHashMap.Builder<String, ConcurrentSkipListSet<PopRequest>>()
             .maximumWeightedCapacity(this.brokerController.getBrokerConfig().getPopPollingMapSize()).build();
         this.notifyLast = notifyLast;
+        if (this.brokerController.getBrokerConfig().isEnableHoldRequestTimingWheel()) {
+            this.timer = new HashedWheelTimer(new ThreadFactoryImpl("PopLongPollingTimer_",
+                this.brokerController.getBrokerIdentity()),
+                this.brokerController.getBrokerConfig().getHoldRequestTimingWheelTickMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    @Override
+    public void shutdown(final boolean interrupt) {
+        super.shutdown(interrupt);
+        if (this.timer != null) {
+            this.timer.stop();
+        }
     }
 
     @Override
@@ -83,7 +103,8 @@ public class PopLongPollingService extends ServiceThread {
         int i = 0;
         while (!this.stopped) {
             try {
-                this.waitForRunning(20);
+                // with the timing wheel waking the timeout requests, the scan is only a backstop
+                this.waitForRunning(this.timer != null ? 1000 : 20);
                 i++;
                 if (pollingMap.isEmpty()) {
                     continue;
@@ -95,26 +116,7 @@ public class PopLongPollingService extends ServiceThread {
                     if (popQ == null) {
                         continue;
                     }
-                    PopRequest first;
-                    do {
-                        first = popQ.pollFirst();
-                        if (first == null) {
-                            break;
-                        }
-                        if (!first.isTimeout()) {
-                            if (popQ.add(first)) {
-                                break;
-                            } else {
-                                POP_LOGGER.info("polling, add fail again: {}", first);
-                            }
-                        }
-                        if (brokerController.getBrokerConfig().isEnablePopLog()) {
-                            POP_LOGGER.info("timeout , wakeUp polling : {}", first);
-                        }
-                        totalPollingNum.decrementAndGet();
-                        wakeUp(first);
-                    }
-                    while (true);
+                    wakeUpTimeoutRequests(popQ);
                     if (i >= 100) {
                         long tmpPollingNum = popQ.size();
                         tmpTotalPollingNum = tmpTotalPollingNum + tmpPollingNum;
@@ -329,6 +331,9 @@ public class PopLongPollingService extends ServiceThread {
         if (queue.add(request)) {
             remotingCommand.setSuspended(true);
             totalPollingNum.incrementAndGet();
+            if (this.timer != null) {
+                this.scheduleTimeout(request, queue);
+            }
             if (brokerController.getBrokerConfig().isEnablePopLog()) {
                 POP_LOGGER.info("polling {}, result POLLING_SUC", remotingCommand);
             }
@@ -339,6 +344,53 @@ public class PopLongPollingService extends ServiceThread {
         }
     }
 
+    /**
+     * Remove and wake the timeout requests at the head of the queue, which is ordered by expiry
+     */
+    private void wakeUpTimeoutRequests(final ConcurrentSkipListSet<PopRequest> popQ) {
+        PopRequest first;
+        do {
+            first = popQ.pollFirst();
+            if (first == null) {
+                break;
+            }
+            if (!first.isTimeout()) {
+                if (popQ.add(first)) {
+                    break;
+                } else {
+                    POP_LOGGER.info("polling, add fail again: {}", first);
+                }
+            }
+            if (brokerController.getBrokerConfig().isEnablePopLog()) {
+                POP_LOGGER.info("timeout , wakeUp polling : {}", first);
+            }
+            totalPollingNum.decrementAndGet();
+            wakeUp(first);
+        }
+        while (true);
+    }
+
+    /**
+     * Once the request times out, it and the requests expiring before it are removed from the polling queue and
+     * woken, as the comparator of the queue never matches a request to remove it alone
+     */
+    private void scheduleTimeout(final PopRequest request, final ConcurrentSkipListSet<PopRequest> queue) {
+        try {
+            request.setTimeout(this.timer.newTimeout(timeout -> {
+                if (request.isComplete()) {
+                    return;
+                }
+                if (!request.isTimeout()) {
+                    this.scheduleTimeout(request, queue);
+                    return;
+                }
+                wakeUpTimeoutRequests(queue);
+            }, Math.max(request.getExpired() - 50 - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+        } catch (IllegalStateException e) {
+            POP_LOGGER.warn("polling timer is stopped, leave the request to the scan");
+        }
+    }
+
     public ConcurrentLinkedHashMap<String, ConcurrentSkipListSet<PopRequest>> getPollingMap() {
         return pollingMap;
     }
@@ -411,7 +463,7 @@ public class PopLongPollingService extends ServiceThread {
                 popRequest = remotingCommands.pollFirst();
             }
             totalPollingNum.decrementAndGet();
-        } while (popRequest != null && !popRequest.getChannel().isActive());
+        } while (popRequest != null && (popRequest.isComplete() || !popRequest.getChannel().isActive()));
 
         return popRequest;
     }
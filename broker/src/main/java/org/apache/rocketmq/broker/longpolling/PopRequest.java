@@ -18,6 +18,7 @@ package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Timeout;
 import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,6 +32,7 @@ public class PopRequest {
     private final RemotingCommand remotingCommand;
     private final ChannelHandlerContext ctx;
     private final AtomicBoolean complete = new AtomicBoolean(false);
+    private volatile Timeout timeout;
     private final long op = COUNTER.getAndIncrement();
 
     private final long expired;
@@ -63,8 +65,29 @@ public class PopRequest {
         return System.currentTimeMillis() > (expired - 50);
     }
 
+    /**
+     * The timeout is cancelled once the request completes, so a woken request does not linger in the timer
+     */
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (complete.get()) {
+            timeout.cancel();
+        }
+    }
+
     public boolean complete() {
-        return complete.compareAndSet(false, true);
+        if (!complete.compareAndSet(false, true)) {
+            return false;
+        }
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return true;
+    }
+
+    public boolean isComplete() {
+        return complete.get();
     }
 
     public long getExpired() {
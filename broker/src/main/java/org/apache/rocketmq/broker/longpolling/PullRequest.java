@@ -17,6 +17,8 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.store.MessageFilter;
@@ -29,6 +31,8 @@ public class PullRequest {
     private final long pullFromThisOffset;
     private final SubscriptionData subscriptionData;
     private final MessageFilter messageFilter;
+    private final AtomicBoolean complete = new AtomicBoolean(false);
+    private volatile Timeout timeout;
 
     public PullRequest(RemotingCommand requestCommand, Channel clientChannel, long timeoutMillis, long suspendTimestamp,
         long pullFromThisOffset, SubscriptionData subscriptionData,
@@ -69,4 +73,29 @@ public class PullRequest {
     public MessageFilter getMessageFilter() {
         return messageFilter;
     }
+
+    /**
+     * The timeout is cancelled once the request completes, so a woken request does not linger in the timer
+     */
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+        if (complete.get()) {
+            timeout.cancel();
+        }
+    }
+
+    public boolean complete() {
+        if (!complete.compareAndSet(false, true)) {
+            return false;
+        }
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        return true;
+    }
+
+    public boolean isComplete() {
+        return complete.get();
+    }
 }
@@ -16,14 +16,19 @@
  */
 package org.apache.rocketmq.broker.longpolling;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.SystemClock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
@@ -33,13 +38,25 @@ import org.apache.rocketmq.store.exception.ConsumeQueueException;
 public class PullRequestHoldService extends ServiceThread {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
     protected static final String TOPIC_QUEUEID_SEPARATOR = "@";
+    /**
+     * With the timing wheel expiring the held requests, the full check only backs up the notifications
+     */
+    private static final long FULL_CHECK_INTERVAL_WITH_TIMER = 60 * 1000;
     protected final BrokerController brokerController;
     private final SystemClock systemClock = new SystemClock();
     protected ConcurrentMap<String/* topic@queueId */, ManyPullRequest> pullRequestTable =
         new ConcurrentHashMap<>(1024);
+    private final Timer timer;
 
     public PullRequestHoldService(final BrokerController brokerController) {
         this.brokerController = brokerController;
+        if (brokerController != null && brokerController.getBrokerConfig().isEnableHoldRequestTimingWheel()) {
+            this.timer = new HashedWheelTimer(new ThreadFactoryImpl("PullRequestHoldTimer_",
+                brokerController.getBrokerIdentity()),
+                brokerController.getBrokerConfig().getHoldRequestTimingWheelTickMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.timer = null;
+        }
     }
 
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
@@ -55,6 +72,53 @@ public class PullRequestHoldService extends ServiceThread {
 
         pullRequest.getRequestCommand().setSuspended(true);
         mpr.addPullRequest(pullRequest);
+
+        if (this.timer != null) {
+            this.scheduleTimeout(key, pullRequest,
+                pullRequest.getSuspendTimestamp() + pullRequest.getTimeoutMillis() - System.currentTimeMillis());
+            // messages arriving between the pull and the suspension are not left to the full check
+            try {
+                long maxOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
+                if (maxOffset > pullRequest.getPullFromThisOffset()) {
+                    this.notifyMessageArriving(topic, queueId, maxOffset);
+                }
+            } catch (ConsumeQueueException e) {
+                log.error("Failed tp get max offset in queue", e);
+            }
+        }
+    }
+
+    private void scheduleTimeout(final String key, final PullRequest pullRequest, final long delayMillis) {
+        try {
+            pullRequest.setTimeout(this.timer.newTimeout(timeout -> this.expirePullRequest(key, pullRequest),
+                Math.max(delayMillis, 0), TimeUnit.MILLISECONDS));
+        } catch (IllegalStateException e) {
+            log.warn("PullRequestHoldService: timer is stopped, leave the request to the full check");
+        }
+    }
+
+    private void expirePullRequest(final String key, final PullRequest pullRequest) {
+        if (pullRequest.isComplete()) {
+            return;
+        }
+        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        if (mpr == null) {
+            return;
+        }
+        if (!mpr.removePullRequest(pullRequest)) {
+            // taken out by a notification checking it right now, check it again next tick
+            this.scheduleTimeout(key, pullRequest, 0);
+            return;
+        }
+        if (pullRequest.complete()) {
+            try {
+                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(pullRequest.getClientChannel(),
+                    pullRequest.getRequestCommand());
+            } catch (Throwable e) {
+                log.error("PullRequestHoldService#expirePullRequest: failed to execute request when time's up, key={}",
+                    key, e);
+            }
+        }
     }
 
     private String buildKey(final String topic, final int queueId) {
@@ -71,7 +135,7 @@ public class PullRequestHoldService extends ServiceThread {
         while (!this.isStopped()) {
             try {
                 if (this.brokerController.getBrokerConfig().isLongPollingEnable()) {
-                    this.waitForRunning(5 * 1000);
+                    this.waitForRunning(this.timer != null ? FULL_CHECK_INTERVAL_WITH_TIMER : 5 * 1000);
                 } else {
                     this.waitForRunning(this.brokerController.getBrokerConfig().getShortPollingTimeMills());
                 }
@@ -90,6 +154,14 @@ public class PullRequestHoldService extends ServiceThread {
         log.info("{} service end", this.getServiceName());
     }
 
+    @Override
+    public void shutdown(final boolean interrupt) {
+        super.shutdown(interrupt);
+        if (this.timer != null) {
+            this.timer.stop();
+        }
+    }
+
     @Override
     public String getServiceName() {
         if (brokerController != null && brokerController.getBrokerConfig().isInBrokerContainer()) {
@@ -122,6 +194,16 @@ public class PullRequestHoldService extends ServiceThread {
 
     public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset, final Long tagsCode,
         long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
+        notifyMessageArriving(topic, queueId, maxOffset,
+            Collections.singletonList(new ArrivingMessage(maxOffset, tagsCode, msgStoreTime, filterBitMap, properties)));
+    }
+
+    /**
+     * Wakes each request held on the queue at most once for a batch of arriving messages, a request is matched if any
+     * message of the batch passes its filter.
+     */
+    public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset,
+        final List<ArrivingMessage> messages) {
         String key = this.buildKey(topic, queueId);
         ManyPullRequest mpr = this.pullRequestTable.get(key);
         if (mpr != null) {
@@ -141,15 +223,9 @@ public class PullRequestHoldService extends ServiceThread {
                     }
 
                     if (newestOffset > request.getPullFromThisOffset()) {
-                        boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
-                            new ConsumeQueueExt.CqExtUnit(tagsCode, msgStoreTime, filterBitMap));
-                        // match by bit map, need eval again when properties is not null.
-                        if (match && properties != null) {
-                            match = request.getMessageFilter().isMatchedByCommitLog(null, properties);
-                        }
-
-                        if (match) {
+                        if (this.isMatched(request, messages)) {
                             try {
+                                request.complete();
                                 this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
                                     request.getRequestCommand());
                             } catch (Throwable e) {
@@ -163,6 +239,7 @@ public class PullRequestHoldService extends ServiceThread {
 
                     if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
                         try {
+                            request.complete();
                             this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
                                 request.getRequestCommand());
                         } catch (Throwable e) {
@@ -183,6 +260,26 @@ public class PullRequestHoldService extends ServiceThread {
         }
     }
 
+    private boolean isMatched(final PullRequest request, final List<ArrivingMessage> messages) {
+        for (ArrivingMessage message : messages) {
+            // the request has already read the messages before the offset it pulls from
+            if (message.getLogicOffset() <= request.getPullFromThisOffset()) {
+                continue;
+            }
+            Long tagsCode = message.getTagsCode();
+            boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
+                new ConsumeQueueExt.CqExtUnit(tagsCode, message.getMsgStoreTime(), message.getFilterBitMap()));
+            // match by bit map, need eval again when properties is not null.
+            if (match && message.getProperties() != null) {
+                match = request.getMessageFilter().isMatchedByCommitLog(null, message.getProperties());
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void notifyMasterOnline() {
         for (ManyPullRequest mpr : this.pullRequestTable.values()) {
             if (mpr == null || mpr.isEmpty()) {
@@ -191,6 +288,7 @@ public class PullRequestHoldService extends ServiceThread {
             for (PullRequest request : mpr.cloneListAndClear()) {
                 try {
                     log.info("notify master online, wakeup {} {}", request.getClientChannel(), request.getRequestCommand());
+                    request.complete();
                     this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
                         request.getRequestCommand());
                 } catch (Throwable e) {
@@ -16,8 +16,11 @@
  */
 package org.apache.rocketmq.broker.metrics;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.rocketmq.broker.BrokerController;
@@ -49,6 +52,7 @@ import org.apache.rocketmq.remoting.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.protocol.subscription.SimpleSubscriptionData;
 import org.apache.rocketmq.remoting.protocol.subscription.SubscriptionGroupConfig;
 import org.apache.rocketmq.store.DefaultMessageFilter;
+import org.apache.rocketmq.store.MessageFilter;
 import org.apache.rocketmq.store.MessageStore;
 import org.apache.rocketmq.store.exception.ConsumeQueueException;
 
@@ -64,6 +68,7 @@ public class ConsumerLagCalculator {
     private final PopBufferMergeService popBufferMergeService;
     private final PopLongPollingService popLongPollingService;
     private final PopInflightMessageCounter popInflightMessageCounter;
+    private final ConcurrentMap<QueueStatsKey, QueueStatsCache> queueStatsCacheTable = new ConcurrentHashMap<>();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
 
@@ -133,6 +138,61 @@ public class ConsumerLagCalculator {
         }
     }
 
+    private enum StatsType {
+        LAG,
+        INFLIGHT,
+        AVAILABLE
+    }
+
+    /**
+     * Message count and store timestamp last calculated for a queue of a group, reused while the offsets they were
+     * calculated from do not move.
+     */
+    private static final class QueueStatsKey {
+        private final StatsType type;
+        private final String group;
+        private final String topic;
+        private final int queueId;
+
+        private QueueStatsKey(StatsType type, String group, String topic, int queueId) {
+            this.type = type;
+            this.group = group;
+            this.topic = topic;
+            this.queueId = queueId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueueStatsKey)) {
+                return false;
+            }
+            QueueStatsKey key = (QueueStatsKey) o;
+            return queueId == key.queueId && type == key.type && group.equals(key.group) && topic.equals(key.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = type.hashCode();
+            result = 31 * result + group.hashCode();
+            result = 31 * result + topic.hashCode();
+            result = 31 * result + queueId;
+            return result;
+        }
+    }
+
+    private static class QueueStatsCache {
+        private long from = -1;
+        private long to = -1;
+        private long count;
+        private long fullEstimateTimestamp;
+        private long timestampOffset = -1;
+        private long storeTimestamp;
+        private volatile long lastAccessTimestamp;
+    }
+
     private void processAllGroup(Consumer<ProcessGroupInfo> consumer) {
         for (Map.Entry<String, SubscriptionGroupConfig> subscriptionEntry :
             subscriptionGroupManager.getSubscriptionGroupTable().entrySet()) {
@@ -211,6 +271,7 @@ public class ConsumerLagCalculator {
     }
 
     public void calculateLag(Consumer<CalculateLagResult> lagRecorder) {
+        evictQueueStatsCache();
         processAllGroup(info -> {
             if (info.group == null || info.topic == null) {
                 return;
@@ -357,9 +418,9 @@ public class ConsumerLagCalculator {
                 pullOffset = brokerOffset;
             }
             long inFlightNum = popInflightMessageCounter.getGroupPopInFlightMessageNum(topic, group, queueId);
-            long lag = calculateMessageCount(group, topic, queueId, pullOffset, brokerOffset) + inFlightNum;
+            long lag = calculateMessageCount(StatsType.LAG, group, topic, queueId, pullOffset, brokerOffset) + inFlightNum;
             long consumerOffset = pullOffset - inFlightNum;
-            long consumerStoreTimeStamp = getStoreTimeStamp(topic, queueId, consumerOffset);
+            long consumerStoreTimeStamp = getStoreTimeStamp(StatsType.LAG, group, topic, queueId, consumerOffset);
             return new Pair<>(lag, consumerStoreTimeStamp);
         }
 
@@ -368,8 +429,8 @@ public class ConsumerLagCalculator {
             consumerOffset = brokerOffset;
         }
 
-        long lag = calculateMessageCount(group, topic, queueId, consumerOffset, brokerOffset);
-        long consumerStoreTimeStamp = getStoreTimeStamp(topic, queueId, consumerOffset);
+        long lag = calculateMessageCount(StatsType.LAG, group, topic, queueId, consumerOffset, brokerOffset);
+        long consumerStoreTimeStamp = getStoreTimeStamp(StatsType.LAG, group, topic, queueId, consumerOffset);
         return new Pair<>(lag, consumerStoreTimeStamp);
     }
 
@@ -410,7 +471,7 @@ public class ConsumerLagCalculator {
             if (pullOffset < 0) {
                 pullOffset = messageStore.getMaxOffsetInQueue(topic, queueId);
             }
-            long pullStoreTimeStamp = getStoreTimeStamp(topic, queueId, pullOffset);
+            long pullStoreTimeStamp = getStoreTimeStamp(StatsType.INFLIGHT, group, topic, queueId, pullOffset);
             return new Pair<>(inflight, pullStoreTimeStamp);
         }
 
@@ -424,8 +485,8 @@ public class ConsumerLagCalculator {
             commitOffset = pullOffset;
         }
 
-        long inflight = calculateMessageCount(group, topic, queueId, commitOffset, pullOffset);
-        long pullStoreTimeStamp = getStoreTimeStamp(topic, queueId, pullOffset);
+        long inflight = calculateMessageCount(StatsType.INFLIGHT, group, topic, queueId, commitOffset, pullOffset);
+        long pullStoreTimeStamp = getStoreTimeStamp(StatsType.INFLIGHT, group, topic, queueId, pullOffset);
         return new Pair<>(inflight, pullStoreTimeStamp);
     }
 
@@ -471,7 +532,7 @@ public class ConsumerLagCalculator {
             pullOffset = brokerOffset;
         }
 
-        return calculateMessageCount(group, topic, queueId, pullOffset, brokerOffset);
+        return calculateMessageCount(StatsType.AVAILABLE, group, topic, queueId, pullOffset, brokerOffset);
     }
 
     public long getStoreTimeStamp(String topic, int queueId, long offset) {
@@ -483,48 +544,135 @@ public class ConsumerLagCalculator {
         return storeTimeStamp;
     }
 
+    private QueueStatsCache getQueueStatsCache(StatsType type, String group, String topic, int queueId) {
+        QueueStatsKey key = new QueueStatsKey(type, group, topic, queueId);
+        QueueStatsCache cache = queueStatsCacheTable.get(key);
+        if (cache == null) {
+            if (queueStatsCacheTable.size() >= brokerConfig.getLagCalculationCacheMaxSize()) {
+                // Not cached, so the stats of this queue are calculated in full
+                return new QueueStatsCache();
+            }
+            cache = queueStatsCacheTable.computeIfAbsent(key, k -> new QueueStatsCache());
+        }
+        cache.lastAccessTimestamp = System.currentTimeMillis();
+        return cache;
+    }
+
+    private void evictQueueStatsCache() {
+        long expireTimestamp = System.currentTimeMillis() - brokerConfig.getLagCalculationFullRefreshInterval();
+        Iterator<QueueStatsCache> iterator = queueStatsCacheTable.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().lastAccessTimestamp < expireTimestamp) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private long getStoreTimeStamp(StatsType type, String group, String topic, int queueId, long offset) {
+        if (!brokerConfig.isEnableIncrementalLagCalculation()) {
+            return getStoreTimeStamp(topic, queueId, offset);
+        }
+        QueueStatsCache cache = getQueueStatsCache(type, group, topic, queueId);
+        synchronized (cache) {
+            if (cache.timestampOffset != offset) {
+                cache.storeTimestamp = getStoreTimeStamp(topic, queueId, offset);
+                cache.timestampOffset = offset;
+            }
+            return cache.storeTimestamp;
+        }
+    }
+
     public long calculateMessageCount(String group, String topic, int queueId, long from, long to) {
         long count = to - from;
 
         if (brokerConfig.isEstimateAccumulation() && to > from) {
-            SubscriptionData subscriptionData = null;
-            if (brokerConfig.isUseStaticSubscription()) {
-                SubscriptionGroupConfig subscriptionGroupConfig = subscriptionGroupManager.findSubscriptionGroupConfig(group);
-                if (subscriptionGroupConfig != null) {
-                    for (SimpleSubscriptionData simpleSubscriptionData : subscriptionGroupConfig.getSubscriptionDataSet()) {
-                        if (topic.equals(simpleSubscriptionData.getTopic())) {
-                            try {
-                                subscriptionData = FilterAPI.buildSubscriptionData(simpleSubscriptionData.getTopic(),
-                                    simpleSubscriptionData.getExpression(), simpleSubscriptionData.getExpressionType());
-                            } catch (Exception e) {
-                                LOGGER.error("Try to build subscription for group:{}, topic:{} exception.", group, topic, e);
-                            }
-                            break;
-                        }
-                    }
+            MessageFilter messageFilter = buildMessageFilter(group, topic);
+            if (messageFilter != null) {
+                count = messageStore.estimateMessageCount(topic, queueId, from, to, messageFilter);
+            }
+        }
+        return count < 0 ? 0 : count;
+    }
+
+    /**
+     * Count the messages of the queue between the offsets like {@link #calculateMessageCount}, starting from the count
+     * of the last collection. Of the filtered groups, only the messages appended since are estimated, and the consumed
+     * ones are assumed to have matched the filter at the rate of the last count, until the whole range is estimated
+     * again after lagCalculationFullRefreshInterval.
+     */
+    private long calculateMessageCount(StatsType type, String group, String topic, int queueId, long from, long to) {
+        if (!brokerConfig.isEnableIncrementalLagCalculation()) {
+            return calculateMessageCount(group, topic, queueId, from, to);
+        }
+
+        QueueStatsCache cache = getQueueStatsCache(type, group, topic, queueId);
+        synchronized (cache) {
+            long now = System.currentTimeMillis();
+            boolean expired = now - cache.fullEstimateTimestamp >= brokerConfig.getLagCalculationFullRefreshInterval();
+            if (!expired && cache.from == from && cache.to == to) {
+                return cache.count;
+            }
+
+            long count = to - from;
+            if (brokerConfig.isEstimateAccumulation() && to > from) {
+                MessageFilter messageFilter = buildMessageFilter(group, topic);
+                if (messageFilter == null) {
+                    cache.fullEstimateTimestamp = now;
+                } else if (!expired && cache.from >= 0 && from >= cache.from && from <= cache.to && to >= cache.to) {
+                    long retained = cache.to > cache.from
+                        ? (long) ((double) cache.count * (cache.to - from) / (cache.to - cache.from)) : 0;
+                    count = retained + messageStore.estimateMessageCount(topic, queueId, cache.to, to, messageFilter);
+                } else {
+                    count = messageStore.estimateMessageCount(topic, queueId, from, to, messageFilter);
+                    cache.fullEstimateTimestamp = now;
                 }
             } else {
-                ConsumerGroupInfo consumerGroupInfo = consumerManager.getConsumerGroupInfo(group, true);
-                if (consumerGroupInfo != null) {
-                    subscriptionData = consumerGroupInfo.findSubscriptionData(topic);
-                }
+                cache.fullEstimateTimestamp = now;
             }
+            count = count < 0 ? 0 : count;
+
+            cache.from = from;
+            cache.to = to;
+            cache.count = count;
+            return count;
+        }
+    }
 
-            if (null != subscriptionData) {
-                if (ExpressionType.TAG.equalsIgnoreCase(subscriptionData.getExpressionType())
-                    && !SubscriptionData.SUB_ALL.equals(subscriptionData.getSubString())) {
-                    count = messageStore.estimateMessageCount(topic, queueId, from, to,
-                        new DefaultMessageFilter(subscriptionData));
-                } else if (ExpressionType.SQL92.equalsIgnoreCase(subscriptionData.getExpressionType())) {
-                    ConsumerFilterData consumerFilterData = consumerFilterManager.get(topic, group);
-                    count = messageStore.estimateMessageCount(topic, queueId, from, to,
-                        new ExpressionMessageFilter(subscriptionData,
-                            consumerFilterData,
-                            consumerFilterManager));
+    private MessageFilter buildMessageFilter(String group, String topic) {
+        SubscriptionData subscriptionData = null;
+        if (brokerConfig.isUseStaticSubscription()) {
+            SubscriptionGroupConfig subscriptionGroupConfig = subscriptionGroupManager.findSubscriptionGroupConfig(group);
+            if (subscriptionGroupConfig != null) {
+                for (SimpleSubscriptionData simpleSubscriptionData : subscriptionGroupConfig.getSubscriptionDataSet()) {
+                    if (topic.equals(simpleSubscriptionData.getTopic())) {
+                        try {
+                            subscriptionData = FilterAPI.buildSubscriptionData(simpleSubscriptionData.getTopic(),
+                                simpleSubscriptionData.getExpression(), simpleSubscriptionData.getExpressionType());
+                        } catch (Exception e) {
+                            LOGGER.error("Try to build subscription for group:{}, topic:{} exception.", group, topic, e);
+                        }
+                        break;
+                    }
                 }
             }
+        } else {
+            ConsumerGroupInfo consumerGroupInfo = consumerManager.getConsumerGroupInfo(group, true);
+            if (consumerGroupInfo != null) {
+                subscriptionData = consumerGroupInfo.findSubscriptionData(topic);
+            }
+        }
 
+        if (null != subscriptionData) {
+            if (ExpressionType.TAG.equalsIgnoreCase(subscriptionData.getExpressionType())
+                && !SubscriptionData.SUB_ALL.equals(subscriptionData.getSubString())) {
+                return new DefaultMessageFilter(subscriptionData);
+            } else if (ExpressionType.SQL92.equalsIgnoreCase(subscriptionData.getExpressionType())) {
+                ConsumerFilterData consumerFilterData = consumerFilterManager.get(topic, group);
+                return new ExpressionMessageFilter(subscriptionData,
+                    consumerFilterData,
+                    consumerFilterManager);
+            }
         }
-        return count < 0 ? 0 : count;
+        return null;
     }
 }
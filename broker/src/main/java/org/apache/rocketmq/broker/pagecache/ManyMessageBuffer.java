@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.pagecache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.SocketChannel;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.GetMessageResult;
+
+/**
+ * Wraps the response header and the mapped buffers of the messages into one composite {@link ByteBuf}, without
+ * copying them. Unlike a {@link ManyMessageTransfer}, which has to be copied by the FileRegionEncoder once TLS is
+ * enabled, the SslHandler reads it directly from the page cache, and plain channels write it with a gathering write.
+ * <p>
+ * The wrapped buffers do not own the mapped memory, so the {@link GetMessageResult} still has to be released once
+ * the write completes.
+ */
+public class ManyMessageBuffer {
+
+    /**
+     * Only the socket channels of the remoting server write it out, the other channels, like the local ones of the
+     * proxy, complete on what they know how to handle, and heap transfer takes precedence.
+     */
+    public static boolean isApplicable(BrokerConfig brokerConfig, Channel channel) {
+        return brokerConfig.isTransferMsgByCompositeBuffer() && !brokerConfig.isTransferMsgByHeap()
+            && channel instanceof SocketChannel;
+    }
+
+    public static ByteBuf wrap(ByteBuffer byteBufferHeader, GetMessageResult getMessageResult) {
+        List<ByteBuffer> messageBufferList = getMessageResult.getMessageBufferList();
+        CompositeByteBuf compositeByteBuf = Unpooled.compositeBuffer(messageBufferList.size() + 1);
+        compositeByteBuf.addComponent(true, Unpooled.wrappedBuffer(byteBufferHeader));
+        for (ByteBuffer bb : messageBufferList) {
+            compositeByteBuf.addComponent(true, Unpooled.wrappedBuffer(bb.slice()));
+        }
+        return compositeByteBuf;
+    }
+}
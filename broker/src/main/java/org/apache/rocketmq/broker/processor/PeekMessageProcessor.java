@@ -19,7 +19,6 @@ package org.apache.rocketmq.broker.processor;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.FileRegion;
 import io.opentelemetry.api.common.Attributes;
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -27,6 +26,7 @@ import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.metrics.BrokerMetricsManager;
+import org.apache.rocketmq.broker.pagecache.ManyMessageBuffer;
 import org.apache.rocketmq.broker.pagecache.ManyMessageTransfer;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.KeyBuilder;
@@ -198,10 +198,11 @@ public class PeekMessageProcessor implements NettyRequestProcessor {
                 } else {
                     final GetMessageResult tmpGetMessageResult = getMessageResult;
                     try {
-                        FileRegion fileRegion =
-                            new ManyMessageTransfer(response.encodeHeader(getMessageResult.getBufferTotalSize()), getMessageResult);
+                        ByteBuffer header = response.encodeHeader(getMessageResult.getBufferTotalSize());
+                        Object transfer = ManyMessageBuffer.isApplicable(this.brokerController.getBrokerConfig(), channel)
+                            ? ManyMessageBuffer.wrap(header, getMessageResult) : new ManyMessageTransfer(header, getMessageResult);
                         RemotingCommand finalResponse = response;
-                        channel.writeAndFlush(fileRegion)
+                        channel.writeAndFlush(transfer)
                             .addListener((ChannelFutureListener) future -> {
                                 tmpGetMessageResult.release();
                                 Attributes attributes = RemotingMetricsManager.newAttributesBuilder()
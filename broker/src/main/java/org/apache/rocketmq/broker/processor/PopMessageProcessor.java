@@ -21,7 +21,6 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.FileRegion;
 import io.opentelemetry.api.common.Attributes;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -46,6 +45,7 @@ import org.apache.rocketmq.broker.longpolling.PollingResult;
 import org.apache.rocketmq.broker.longpolling.PopLongPollingService;
 import org.apache.rocketmq.broker.longpolling.PopRequest;
 import org.apache.rocketmq.broker.metrics.BrokerMetricsManager;
+import org.apache.rocketmq.broker.pagecache.ManyMessageBuffer;
 import org.apache.rocketmq.broker.pagecache.ManyMessageTransfer;
 import org.apache.rocketmq.broker.pop.PopConsumerContext;
 import org.apache.rocketmq.common.BrokerConfig;
@@ -450,9 +450,10 @@ public class PopMessageProcessor implements NettyRequestProcessor {
                 } else {
                     final GetMessageResult tmpGetMessageResult = getMessageResult;
                     try {
-                        FileRegion fileRegion = new ManyMessageTransfer(
-                            response.encodeHeader(getMessageResult.getBufferTotalSize()), getMessageResult);
-                        channel.writeAndFlush(fileRegion)
+                        ByteBuffer header = response.encodeHeader(getMessageResult.getBufferTotalSize());
+                        Object transfer = ManyMessageBuffer.isApplicable(this.brokerController.getBrokerConfig(), channel)
+                            ? ManyMessageBuffer.wrap(header, getMessageResult) : new ManyMessageTransfer(header, getMessageResult);
+                        channel.writeAndFlush(transfer)
                             .addListener((ChannelFutureListener) future -> {
                                 tmpGetMessageResult.release();
                                 Attributes attributes = RemotingMetricsManager.newAttributesBuilder()
@@ -598,10 +599,10 @@ public class PopMessageProcessor implements NettyRequestProcessor {
                     } else {
                         final GetMessageResult tmpGetMessageResult = getMessageResult;
                         try {
-                            FileRegion fileRegion =
-                                new ManyMessageTransfer(finalResponse.encodeHeader(getMessageResult.getBufferTotalSize()),
-                                    getMessageResult);
-                            channel.writeAndFlush(fileRegion)
+                            ByteBuffer header = finalResponse.encodeHeader(getMessageResult.getBufferTotalSize());
+                            Object transfer = ManyMessageBuffer.isApplicable(this.brokerController.getBrokerConfig(), channel)
+                                ? ManyMessageBuffer.wrap(header, getMessageResult) : new ManyMessageTransfer(header, getMessageResult);
+                            channel.writeAndFlush(transfer)
                                 .addListener((ChannelFutureListener) future -> {
                                     tmpGetMessageResult.release();
                                     Attributes attributes = RemotingMetricsManager.newAttributesBuilder()
@@ -35,6 +35,7 @@ import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.protocol.RequestCode;
 import org.apache.rocketmq.remoting.protocol.ResponseCode;
+import org.apache.rocketmq.remoting.protocol.header.QueryCompactedMessageRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.QueryMessageRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.QueryMessageResponseHeader;
 import org.apache.rocketmq.remoting.protocol.header.ViewMessageRequestHeader;
@@ -61,6 +62,8 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
                 return this.queryMessage(ctx, request);
             case RequestCode.VIEW_MESSAGE_BY_ID:
                 return this.viewMessageById(ctx, request);
+            case RequestCode.QUERY_COMPACTED_MESSAGE:
+                return this.queryCompactedMessage(ctx, request);
             default:
                 break;
         }
@@ -100,40 +103,70 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
         responseHeader.setIndexLastUpdateTimestamp(queryMessageResult.getIndexLastUpdateTimestamp());
 
         if (queryMessageResult.getBufferTotalSize() > 0) {
-            response.setCode(ResponseCode.SUCCESS);
-            response.setRemark(null);
+            this.transferQueryMessageResult(ctx, request, response, queryMessageResult);
+            return null;
+        }
 
-            try {
-                FileRegion fileRegion =
-                    new QueryMessageTransfer(response.encodeHeader(queryMessageResult
-                        .getBufferTotalSize()), queryMessageResult);
-                ctx.channel()
-                    .writeAndFlush(fileRegion)
-                    .addListener((ChannelFutureListener) future -> {
-                        queryMessageResult.release();
-                        Attributes attributes = RemotingMetricsManager.newAttributesBuilder()
-                            .put(LABEL_REQUEST_CODE, RemotingHelper.getRequestCodeDesc(request.getCode()))
-                            .put(LABEL_RESPONSE_CODE, RemotingHelper.getResponseCodeDesc(response.getCode()))
-                            .put(LABEL_RESULT, RemotingMetricsManager.getWriteAndFlushResult(future))
-                            .build();
-                        RemotingMetricsManager.rpcLatency.record(request.getProcessTimer().elapsed(TimeUnit.MILLISECONDS), attributes);
-                        if (!future.isSuccess()) {
-                            LOGGER.error("transfer query message by page cache failed, ", future.cause());
-                        }
-                    });
-            } catch (Throwable e) {
-                LOGGER.error("", e);
-                queryMessageResult.release();
-            }
+        response.setCode(ResponseCode.QUERY_NOT_FOUND);
+        response.setRemark("can not find message, maybe time range not correct");
+        return response;
+    }
 
+    public RemotingCommand queryCompactedMessage(ChannelHandlerContext ctx, RemotingCommand request)
+        throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        final QueryCompactedMessageRequestHeader requestHeader =
+            (QueryCompactedMessageRequestHeader) request
+                .decodeCommandCustomHeader(QueryCompactedMessageRequestHeader.class);
+
+        response.setOpaque(request.getOpaque());
+
+        int maxNum = Math.min(requestHeader.getMaxNum(),
+            this.brokerController.getMessageStoreConfig().getMaxMsgsNumBatch());
+        final QueryMessageResult queryMessageResult =
+            this.brokerController.getMessageStore().queryCompactedMessage(requestHeader.getTopic(),
+                requestHeader.getKey(), Boolean.TRUE.equals(requestHeader.getPrefix()), maxNum);
+        assert queryMessageResult != null;
+
+        if (queryMessageResult.getBufferTotalSize() > 0) {
+            this.transferQueryMessageResult(ctx, request, response, queryMessageResult);
             return null;
         }
 
         response.setCode(ResponseCode.QUERY_NOT_FOUND);
-        response.setRemark("can not find message, maybe time range not correct");
+        response.setRemark("can not find message, maybe the key was deleted or the key index is disabled");
         return response;
     }
 
+    private void transferQueryMessageResult(ChannelHandlerContext ctx, RemotingCommand request,
+        RemotingCommand response, QueryMessageResult queryMessageResult) {
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+
+        try {
+            FileRegion fileRegion =
+                new QueryMessageTransfer(response.encodeHeader(queryMessageResult
+                    .getBufferTotalSize()), queryMessageResult);
+            ctx.channel()
+                .writeAndFlush(fileRegion)
+                .addListener((ChannelFutureListener) future -> {
+                    queryMessageResult.release();
+                    Attributes attributes = RemotingMetricsManager.newAttributesBuilder()
+                        .put(LABEL_REQUEST_CODE, RemotingHelper.getRequestCodeDesc(request.getCode()))
+                        .put(LABEL_RESPONSE_CODE, RemotingHelper.getResponseCodeDesc(response.getCode()))
+                        .put(LABEL_RESULT, RemotingMetricsManager.getWriteAndFlushResult(future))
+                        .build();
+                    RemotingMetricsManager.rpcLatency.record(request.getProcessTimer().elapsed(TimeUnit.MILLISECONDS), attributes);
+                    if (!future.isSuccess()) {
+                        LOGGER.error("transfer query message by page cache failed, ", future.cause());
+                    }
+                });
+        } catch (Throwable e) {
+            LOGGER.error("", e);
+            queryMessageResult.release();
+        }
+    }
+
     public RemotingCommand viewMessageById(ChannelHandlerContext ctx, RemotingCommand request)
         throws RemotingCommandException {
         final RemotingCommand response = RemotingCommand.createResponseCommand(null);
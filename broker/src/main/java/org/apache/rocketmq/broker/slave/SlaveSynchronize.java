@@ -17,6 +17,7 @@
 package org.apache.rocketmq.broker.slave;
 
 import java.io.IOException;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -36,12 +37,14 @@ import org.apache.rocketmq.remoting.protocol.body.SubscriptionGroupWrapper;
 import org.apache.rocketmq.remoting.protocol.body.TopicConfigAndMappingSerializeWrapper;
 import org.apache.rocketmq.remoting.protocol.subscription.SubscriptionGroupConfig;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.ha.DefaultHAClient;
 import org.apache.rocketmq.store.timer.TimerCheckpoint;
 import org.apache.rocketmq.store.timer.TimerMetrics;
 
 public class SlaveSynchronize {
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
     private final BrokerController brokerController;
+    private static final String HA_TRANSFER_COMPRESSION_TYPE_KEY = "haTransferCompressionType";
     private volatile String masterAddr = null;
 
     public SlaveSynchronize(BrokerController brokerController) {
@@ -65,6 +68,7 @@ public class SlaveSynchronize {
         this.syncDelayOffset();
         this.syncSubscriptionGroupConfig();
         this.syncMessageRequestMode();
+        this.syncHaTransferCompression();
 
         if (brokerController.getMessageStoreConfig().isTimerWheelEnable()) {
             this.syncTimerMetrics();
@@ -215,6 +219,30 @@ public class SlaveSynchronize {
         }
     }
 
+    /**
+     * Learn whether the master accepts compressed HA transfers before the slave offers them, a master released
+     * without them would misread the offer
+     */
+    void syncHaTransferCompression() {
+        String masterAddrBak = this.masterAddr;
+        if (StringUtils.isBlank(brokerController.getMessageStoreConfig().getHaTransferCompressionType())
+            || brokerController.getMessageStore().getHaService() == null
+            || !(brokerController.getMessageStore().getHaService().getHAClient() instanceof DefaultHAClient)) {
+            return;
+        }
+        DefaultHAClient haClient = (DefaultHAClient) brokerController.getMessageStore().getHaService().getHAClient();
+        if (masterAddrBak != null && !masterAddrBak.equals(brokerController.getBrokerAddr())) {
+            try {
+                Properties masterConfig = MixAll.string2Properties(
+                        this.brokerController.getBrokerOuterAPI().getBrokerConfig(masterAddrBak));
+                haClient.updateMasterCompressionSupported(masterConfig != null
+                        && StringUtils.isNotBlank(masterConfig.getProperty(HA_TRANSFER_COMPRESSION_TYPE_KEY)));
+            } catch (Exception e) {
+                LOGGER.error("SyncHaTransferCompression Exception, {}", masterAddrBak, e);
+            }
+        }
+    }
+
     public void syncTimerCheckPoint() {
         String masterAddrBak = this.masterAddr;
         if (masterAddrBak != null) {
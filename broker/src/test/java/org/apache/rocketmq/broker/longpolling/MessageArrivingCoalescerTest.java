@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.longpolling;
+
+import java.util.List;
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.processor.NotificationProcessor;
+import org.apache.rocketmq.broker.processor.PopMessageProcessor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MessageArrivingCoalescerTest {
+    private static final String TEST_TOPIC = "TEST_TOPIC";
+
+    @Mock
+    private BrokerController brokerController;
+
+    @Mock
+    private PullRequestHoldService pullRequestHoldService;
+
+    @Mock
+    private PopMessageProcessor popMessageProcessor;
+
+    @Mock
+    private NotificationProcessor notificationProcessor;
+
+    private MessageArrivingCoalescer messageArrivingCoalescer;
+
+    @Before
+    public void before() {
+        messageArrivingCoalescer = new MessageArrivingCoalescer(brokerController, pullRequestHoldService,
+            popMessageProcessor, notificationProcessor);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFlushNotifiesOncePerQueue() {
+        long now = System.currentTimeMillis();
+        messageArrivingCoalescer.arriving(TEST_TOPIC, 0, 1L, 1L, now, null, null);
+        messageArrivingCoalescer.arriving(TEST_TOPIC, 0, 3L, 3L, now, null, null);
+        messageArrivingCoalescer.arriving(TEST_TOPIC, 0, 2L, 2L, now, null, null);
+        messageArrivingCoalescer.arriving(TEST_TOPIC, 1, 1L, 1L, now, null, null);
+        verify(pullRequestHoldService, never()).notifyMessageArriving(anyString(), anyInt(), anyLong(), any(List.class));
+
+        messageArrivingCoalescer.flush();
+
+        ArgumentCaptor<List<ArrivingMessage>> captor = ArgumentCaptor.forClass(List.class);
+        verify(pullRequestHoldService).notifyMessageArriving(eq(TEST_TOPIC), eq(0), eq(3L), captor.capture());
+        assertThat(captor.getValue()).hasSize(3);
+        verify(pullRequestHoldService).notifyMessageArriving(eq(TEST_TOPIC), eq(1), eq(1L), any(List.class));
+        verify(popMessageProcessor, times(4)).notifyMessageArriving(eq(TEST_TOPIC), anyInt(), anyLong(),
+            any(), anyLong(), any(), any());
+        verify(notificationProcessor, times(4)).notifyMessageArriving(eq(TEST_TOPIC), anyInt(), anyLong(),
+            any(), anyLong(), any(), any());
+
+        messageArrivingCoalescer.flush();
+        verify(pullRequestHoldService, times(2)).notifyMessageArriving(anyString(), anyInt(), anyLong(), any(List.class));
+    }
+}
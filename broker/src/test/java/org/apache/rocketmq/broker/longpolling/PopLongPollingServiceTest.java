@@ -38,7 +38,10 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -220,4 +223,40 @@ public class PopLongPollingServiceTest {
         PollingResult result = popLongPollingService.polling(ctx, remotingCommand, requestHeader, subscriptionData, messageFilter);
         assertEquals(PollingResult.POLLING_SUC, result);
     }
+
+    @Test
+    public void testPollingTimeoutByTimingWheel() throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setPopPollingMapSize(100);
+        brokerConfig.setEnableHoldRequestTimingWheel(true);
+        brokerConfig.setHoldRequestTimingWheelTickMillis(10);
+        when(brokerController.getBrokerConfig()).thenReturn(brokerConfig);
+        popLongPollingService = new PopLongPollingService(brokerController, processor, true);
+        try {
+            Channel channel = mock(Channel.class);
+            when(channel.isActive()).thenReturn(true);
+            when(ctx.channel()).thenReturn(channel);
+            when(brokerController.getPullMessageExecutor()).thenReturn(pullMessageExecutor);
+            PollingHeader requestHeader = mock(PollingHeader.class);
+            when(requestHeader.getPollTime()).thenReturn(300L);
+            when(requestHeader.getBornTime()).thenReturn(System.currentTimeMillis());
+            when(requestHeader.getTopic()).thenReturn(defaultTopic);
+            when(requestHeader.getConsumerGroup()).thenReturn("cid");
+            when(requestHeader.getQueueId()).thenReturn(0);
+
+            // The service thread is not started, only the timing wheel expires the request
+            PollingResult result = popLongPollingService.polling(ctx, mock(RemotingCommand.class), requestHeader,
+                mock(SubscriptionData.class), mock(MessageFilter.class));
+            assertEquals(PollingResult.POLLING_SUC, result);
+            ConcurrentSkipListSet<PopRequest> queue = popLongPollingService.getPollingMap()
+                .get(KeyBuilder.buildPollingKey(defaultTopic, "cid", 0));
+            assertEquals(1, queue.size());
+
+            await().atMost(3, TimeUnit.SECONDS).until(queue::isEmpty);
+            verify(pullMessageExecutor).submit(any(Runnable.class));
+            assertEquals(0L, ((AtomicLong) FieldUtils.readField(popLongPollingService, "totalPollingNum", true)).get());
+        } finally {
+            popLongPollingService.shutdown();
+        }
+    }
 }
@@ -18,8 +18,11 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.processor.PullMessageProcessor;
@@ -36,6 +39,13 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -113,6 +123,57 @@ public class PullRequestHoldServiceTest {
             1L, System.currentTimeMillis(), new byte[10], new HashMap<>())).doesNotThrowAnyException();
     }
 
+    @Test
+    public void expireByTimingWheelTest() throws Exception {
+        brokerConfig.setEnableHoldRequestTimingWheel(true);
+        when(brokerController.getMessageStore()).thenReturn(defaultMessageStore);
+        PullRequestHoldService timingWheelHoldService = new PullRequestHoldService(brokerController);
+        try {
+            PullRequest expiringRequest = new PullRequest(remotingCommand, channel, 100,
+                System.currentTimeMillis(), 0L, subscriptionData, defaultMessageFilter);
+            timingWheelHoldService.suspendPullRequest(TEST_TOPIC, DEFAULT_QUEUE_ID, expiringRequest);
+            Assertions.assertThat(expiringRequest.isComplete()).isFalse();
+
+            await().atMost(3, TimeUnit.SECONDS).until(expiringRequest::isComplete);
+            Assertions.assertThat(timingWheelHoldService.pullRequestTable.get(TEST_TOPIC + "@" + DEFAULT_QUEUE_ID).isEmpty()).isTrue();
+        } finally {
+            timingWheelHoldService.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelTimeoutOnCompleteTest() {
+        Timeout timeout = mock(Timeout.class);
+        pullRequest.setTimeout(timeout);
+        verify(timeout, never()).cancel();
+
+        Assertions.assertThat(pullRequest.complete()).isTrue();
+        verify(timeout).cancel();
+
+        // a timeout scheduled after the request was woken is cancelled right away
+        Timeout lateTimeout = mock(Timeout.class);
+        pullRequest.setTimeout(lateTimeout);
+        verify(lateTimeout).cancel();
+    }
+
+    @Test
+    public void notifyMessageArrivingSkipsReadMessagesTest() {
+        PullRequest request = new PullRequest(remotingCommand, channel, 3000, System.currentTimeMillis(), 5L,
+            subscriptionData, defaultMessageFilter);
+        // only a message the request has already read would match
+        lenient().when(defaultMessageFilter.isMatchedByConsumeQueue(eq(1L), any())).thenReturn(true);
+        when(defaultMessageFilter.isMatchedByConsumeQueue(eq(2L), any())).thenReturn(false);
+        pullRequestHoldService.suspendPullRequest(TEST_TOPIC, DEFAULT_QUEUE_ID, request);
+
+        pullRequestHoldService.notifyMessageArriving(TEST_TOPIC, DEFAULT_QUEUE_ID, 6L, Arrays.asList(
+            new ArrivingMessage(5L, 1L, System.currentTimeMillis(), null, null),
+            new ArrivingMessage(6L, 2L, System.currentTimeMillis(), null, null)));
+
+        Assertions.assertThat(request.isComplete()).isFalse();
+        Assertions.assertThat(pullRequestHoldService.pullRequestTable.get(TEST_TOPIC + "@" + DEFAULT_QUEUE_ID)
+            .cloneListAndClear()).containsExactly(request);
+    }
+
     @Test
     public void notifyMasterOnlineTest() {
         Assertions.assertThatCode(() -> pullRequestHoldService.suspendPullRequest(TEST_TOPIC, DEFAULT_QUEUE_ID, pullRequest)).doesNotThrowAnyException();
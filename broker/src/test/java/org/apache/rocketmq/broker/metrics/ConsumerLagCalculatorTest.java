@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.metrics;
+
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.client.ConsumerGroupInfo;
+import org.apache.rocketmq.broker.client.ConsumerManager;
+import org.apache.rocketmq.broker.offset.ConsumerOffsetManager;
+import org.apache.rocketmq.broker.processor.PopMessageProcessor;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.Pair;
+import org.apache.rocketmq.remoting.protocol.filter.FilterAPI;
+import org.apache.rocketmq.store.MessageFilter;
+import org.apache.rocketmq.store.MessageStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConsumerLagCalculatorTest {
+    private static final String GROUP = "group";
+    private static final String TOPIC = "topic";
+
+    private final BrokerConfig brokerConfig = new BrokerConfig();
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final ConsumerOffsetManager offsetManager = mock(ConsumerOffsetManager.class);
+    private ConsumerLagCalculator calculator;
+
+    @Before
+    public void setUp() throws Exception {
+        BrokerController brokerController = mock(BrokerController.class);
+        ConsumerManager consumerManager = mock(ConsumerManager.class);
+        ConsumerGroupInfo consumerGroupInfo = mock(ConsumerGroupInfo.class);
+        when(brokerController.getBrokerConfig()).thenReturn(brokerConfig);
+        when(brokerController.getMessageStore()).thenReturn(messageStore);
+        when(brokerController.getConsumerOffsetManager()).thenReturn(offsetManager);
+        when(brokerController.getConsumerManager()).thenReturn(consumerManager);
+        when(brokerController.getPopMessageProcessor()).thenReturn(mock(PopMessageProcessor.class));
+        when(consumerManager.getConsumerGroupInfo(GROUP, true)).thenReturn(consumerGroupInfo);
+        when(consumerGroupInfo.findSubscriptionData(TOPIC)).thenReturn(FilterAPI.buildSubscriptionData(TOPIC, "TagA"));
+        when(messageStore.estimateMessageCount(eq(TOPIC), anyInt(), anyLong(), anyLong(), any(MessageFilter.class)))
+            .thenAnswer(invocation -> ((long) invocation.getArgument(3) - (long) invocation.getArgument(2)) / 2);
+        when(messageStore.getMessageStoreTimeStamp(eq(TOPIC), anyInt(), anyLong())).thenReturn(1000L);
+
+        brokerConfig.setEnableIncrementalLagCalculation(true);
+        calculator = new ConsumerLagCalculator(brokerController);
+    }
+
+    @Test
+    public void testReuseUnchangedQueue() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(200L);
+        when(offsetManager.queryOffset(GROUP, TOPIC, 0)).thenReturn(100L);
+
+        Pair<Long, Long> lag = calculator.getConsumerLagStats(GROUP, TOPIC, 0, false);
+        assertThat(lag.getObject1()).isEqualTo(50L);
+        assertThat(lag.getObject2()).isEqualTo(1000L);
+
+        lag = calculator.getConsumerLagStats(GROUP, TOPIC, 0, false);
+        assertThat(lag.getObject1()).isEqualTo(50L);
+        verify(messageStore, times(1)).estimateMessageCount(eq(TOPIC), anyInt(), anyLong(), anyLong(), any(MessageFilter.class));
+        verify(messageStore, times(1)).getMessageStoreTimeStamp(TOPIC, 0, 100L);
+    }
+
+    @Test
+    public void testEstimateAppendedMessagesOnly() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(200L);
+        when(offsetManager.queryOffset(GROUP, TOPIC, 0)).thenReturn(100L);
+        assertThat(calculator.getConsumerLagStats(GROUP, TOPIC, 0, false).getObject1()).isEqualTo(50L);
+
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(300L);
+        when(offsetManager.queryOffset(GROUP, TOPIC, 0)).thenReturn(150L);
+        assertThat(calculator.getConsumerLagStats(GROUP, TOPIC, 0, false).getObject1()).isEqualTo(75L);
+        verify(messageStore).estimateMessageCount(eq(TOPIC), eq(0), eq(200L), eq(300L), any(MessageFilter.class));
+        verify(messageStore, never()).estimateMessageCount(eq(TOPIC), eq(0), eq(150L), eq(300L), any(MessageFilter.class));
+
+        brokerConfig.setLagCalculationFullRefreshInterval(0);
+        assertThat(calculator.getConsumerLagStats(GROUP, TOPIC, 0, false).getObject1()).isEqualTo(75L);
+        verify(messageStore).estimateMessageCount(eq(TOPIC), eq(0), eq(150L), eq(300L), any(MessageFilter.class));
+    }
+
+    @Test
+    public void testCacheMaxSize() throws Exception {
+        brokerConfig.setLagCalculationCacheMaxSize(1);
+        for (int queueId = 0; queueId < 2; queueId++) {
+            when(messageStore.getMaxOffsetInQueue(TOPIC, queueId)).thenReturn(200L);
+            when(offsetManager.queryOffset(GROUP, TOPIC, queueId)).thenReturn(100L);
+        }
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(calculator.getConsumerLagStats(GROUP, TOPIC, 0, false).getObject1()).isEqualTo(50L);
+            assertThat(calculator.getConsumerLagStats(GROUP, TOPIC, 1, false).getObject1()).isEqualTo(50L);
+        }
+        // Only the first queue is cached, the other one is estimated every time
+        verify(messageStore, times(1)).estimateMessageCount(eq(TOPIC), eq(0), anyLong(), anyLong(), any(MessageFilter.class));
+        verify(messageStore, times(2)).estimateMessageCount(eq(TOPIC), eq(1), anyLong(), anyLong(), any(MessageFilter.class));
+    }
+}
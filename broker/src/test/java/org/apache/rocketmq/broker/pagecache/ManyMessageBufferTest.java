@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.pagecache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.SocketChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+
+public class ManyMessageBufferTest {
+
+    @Test
+    public void testWrap() {
+        ByteBuffer byteBufferHeader = ByteBuffer.wrap("header".getBytes(StandardCharsets.UTF_8));
+        GetMessageResult getMessageResult = new GetMessageResult();
+        ByteBuffer first = ByteBuffer.allocateDirect(5);
+        first.put("hello".getBytes(StandardCharsets.UTF_8)).flip();
+        ByteBuffer second = ByteBuffer.allocateDirect(5);
+        second.put("world".getBytes(StandardCharsets.UTF_8)).flip();
+        getMessageResult.addMessage(new SelectMappedBufferResult(0, first, 5, null));
+        getMessageResult.addMessage(new SelectMappedBufferResult(5, second, 5, null));
+
+        ByteBuf byteBuf = ManyMessageBuffer.wrap(byteBufferHeader, getMessageResult);
+        Assert.assertEquals(16, byteBuf.readableBytes());
+        Assert.assertEquals("headerhelloworld", byteBuf.toString(StandardCharsets.UTF_8));
+
+        // the mapped memory is not copied and is left to the GetMessageResult
+        first.put(0, (byte) 'j');
+        Assert.assertEquals("headerjelloworld", byteBuf.toString(StandardCharsets.UTF_8));
+        Assert.assertTrue(byteBuf.release());
+        Assert.assertEquals(0, first.position());
+        Assert.assertEquals('j', first.get(0));
+    }
+
+    @Test
+    public void testIsApplicable() {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setTransferMsgByCompositeBuffer(true);
+        brokerConfig.setTransferMsgByHeap(false);
+        SocketChannel socketChannel = mock(SocketChannel.class);
+        EmbeddedChannel localChannel = new EmbeddedChannel();
+        try {
+            Assert.assertTrue(ManyMessageBuffer.isApplicable(brokerConfig, socketChannel));
+            // in-process channels such as the proxy's local mode must keep the heap or file region transfer
+            Assert.assertFalse(ManyMessageBuffer.isApplicable(brokerConfig, localChannel));
+
+            brokerConfig.setTransferMsgByHeap(true);
+            Assert.assertFalse(ManyMessageBuffer.isApplicable(brokerConfig, socketChannel));
+
+            brokerConfig.setTransferMsgByHeap(false);
+            brokerConfig.setTransferMsgByCompositeBuffer(false);
+            Assert.assertFalse(ManyMessageBuffer.isApplicable(brokerConfig, socketChannel));
+        } finally {
+            localChannel.close();
+        }
+    }
+}
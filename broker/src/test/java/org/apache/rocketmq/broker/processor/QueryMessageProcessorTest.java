@@ -28,6 +28,7 @@ import org.apache.rocketmq.remoting.netty.NettyServerConfig;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.protocol.RequestCode;
 import org.apache.rocketmq.remoting.protocol.ResponseCode;
+import org.apache.rocketmq.remoting.protocol.header.QueryCompactedMessageRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.QueryMessageRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.ViewMessageRequestHeader;
 import org.apache.rocketmq.store.MessageStore;
@@ -45,6 +46,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 import java.util.HashMap;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -95,6 +97,26 @@ public class QueryMessageProcessorTest {
         Assert.assertNull(response);
     }
 
+    @Test
+    public void testQueryCompactedMessage() throws RemotingCommandException {
+        QueryCompactedMessageRequestHeader requestHeader = new QueryCompactedMessageRequestHeader();
+        requestHeader.setTopic("topic");
+        requestHeader.setKey("msgKey");
+        requestHeader.setMaxNum(1);
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.QUERY_COMPACTED_MESSAGE, requestHeader);
+        request.makeCustomHeaderToNet();
+
+        when(messageStore.queryCompactedMessage(anyString(), anyString(), anyBoolean(), anyInt())).thenReturn(new QueryMessageResult());
+        RemotingCommand response = queryMessageProcessor.processRequest(handlerContext, request);
+        Assert.assertEquals(ResponseCode.QUERY_NOT_FOUND, response.getCode());
+
+        QueryMessageResult result = new QueryMessageResult();
+        result.addMessage(new SelectMappedBufferResult(0, null, 1, null));
+        when(messageStore.queryCompactedMessage(anyString(), anyString(), anyBoolean(), anyInt())).thenReturn(result);
+        response = queryMessageProcessor.processRequest(handlerContext, request);
+        Assert.assertNull(response);
+    }
+
     @Test
     public void testViewMessageById() throws RemotingCommandException {
         ViewMessageRequestHeader viewMessageRequestHeader = new ViewMessageRequestHeader();
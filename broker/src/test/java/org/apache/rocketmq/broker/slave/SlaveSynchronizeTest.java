@@ -39,6 +39,8 @@ import org.apache.rocketmq.remoting.protocol.body.SubscriptionGroupWrapper;
 import org.apache.rocketmq.remoting.protocol.body.TopicConfigAndMappingSerializeWrapper;
 import org.apache.rocketmq.store.MessageStore;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.ha.DefaultHAClient;
+import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.timer.TimerCheckpoint;
 import org.apache.rocketmq.store.timer.TimerMessageStore;
 import org.apache.rocketmq.store.timer.TimerMetrics;
@@ -54,6 +56,9 @@ import java.io.UnsupportedEncodingException;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -148,6 +153,30 @@ public class SlaveSynchronizeTest {
         Assert.assertEquals(1, timerMetrics.getDataVersion().getStateVersion());
     }
 
+    @Test
+    public void testSyncHaTransferCompression() throws Exception {
+        HAService haService = mock(HAService.class);
+        DefaultHAClient haClient = mock(DefaultHAClient.class);
+        when(messageStoreConfig.getHaTransferCompressionType()).thenReturn("ZSTD");
+        when(messageStore.getHaService()).thenReturn(haService);
+        when(haService.getHAClient()).thenReturn(haClient);
+
+        when(brokerOuterAPI.getBrokerConfig(anyString())).thenReturn("haTransferCompressionType=ZSTD\n");
+        slaveSynchronize.syncHaTransferCompression();
+        verify(haClient).updateMasterCompressionSupported(true);
+
+        // A master released before compressed transfers does not know the option
+        when(brokerOuterAPI.getBrokerConfig(anyString())).thenReturn("brokerName=broker-a\n");
+        slaveSynchronize.syncHaTransferCompression();
+        verify(haClient).updateMasterCompressionSupported(false);
+    }
+
+    @Test
+    public void testSyncHaTransferCompressionDisabled() throws Exception {
+        slaveSynchronize.syncHaTransferCompression();
+        verify(brokerOuterAPI, never()).getBrokerConfig(anyString());
+    }
+
     @Test
     public void testGetMasterAddr() {
         Assert.assertEquals(BROKER_ADDR, slaveSynchronize.getMasterAddr());
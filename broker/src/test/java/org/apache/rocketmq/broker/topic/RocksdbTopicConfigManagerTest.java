@@ -179,7 +179,7 @@ public class RocksdbTopicConfigManagerTest {
         topicConfig.setAttributes(attributes);
 
         RuntimeException runtimeException = Assert.assertThrows(RuntimeException.class, () -> topicConfigManager.updateTopicConfig(topicConfig));
-        Assert.assertEquals("value is not in set: [SimpleCQ, BatchCQ]", runtimeException.getMessage());
+        Assert.assertEquals("value is not in set: [SimpleCQ, CompressedCQ, BatchCQ]", runtimeException.getMessage());
     }
 
     @Test
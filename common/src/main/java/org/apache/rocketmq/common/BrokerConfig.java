@@ -119,6 +119,20 @@ public class BrokerConfig extends BrokerIdentity {
 
     private long shortPollingTimeMills = 1000;
 
+    /**
+     * Batch the messages arriving at a queue within the window, so that the held pull requests are checked once per batch
+     */
+    private boolean enableCoalescedMessageArriving = false;
+
+    private long messageArrivingCoalesceWindowMicros = 100;
+
+    /**
+     * Expire the held pull and pop requests by a hashed timing wheel instead of periodically scanning them
+     */
+    private boolean enableHoldRequestTimingWheel = false;
+
+    private long holdRequestTimingWheelTickMillis = 10;
+
     private boolean notifyConsumerIdsChangedEnable = true;
 
     private boolean highSpeedMode = false;
@@ -132,6 +146,13 @@ public class BrokerConfig extends BrokerIdentity {
 
     private boolean transferMsgByHeap = true;
 
+    /**
+     * Write pulled and popped messages as a composite buffer over the page cache instead of a heap copy or a file
+     * region, so TLS connections encrypt them without an intermediate copy. Only applies when transferMsgByHeap is false
+     * and the request came in over a socket channel.
+     */
+    private boolean transferMsgByCompositeBuffer = false;
+
     private String regionId = MixAll.DEFAULT_TRACE_REGION_ID;
     private int registerBrokerTimeoutMills = 24000;
 
@@ -394,6 +415,22 @@ public class BrokerConfig extends BrokerIdentity {
      */
     private boolean estimateAccumulation = true;
 
+    /**
+     * Reuse the lag of the queues whose offsets did not move since the last metrics collection, and only estimate
+     * the newly appended messages of the filtered groups.
+     */
+    private boolean enableIncrementalLagCalculation = false;
+
+    /**
+     * Interval to estimate the whole lag of the filtered groups again when calculating it incrementally.
+     */
+    private long lagCalculationFullRefreshInterval = 5 * 60 * 1000;
+
+    /**
+     * Max number of queues whose lag is cached when calculating it incrementally, the others are calculated in full.
+     */
+    private int lagCalculationCacheMaxSize = 100_000;
+
     private boolean coldCtrStrategyEnable = false;
     private boolean usePIDColdCtrStrategy = true;
     private long cgColdReadThreshold = 3 * 1024 * 1024;
@@ -735,6 +772,14 @@ public class BrokerConfig extends BrokerIdentity {
         this.transferMsgByHeap = transferMsgByHeap;
     }
 
+    public boolean isTransferMsgByCompositeBuffer() {
+        return transferMsgByCompositeBuffer;
+    }
+
+    public void setTransferMsgByCompositeBuffer(boolean transferMsgByCompositeBuffer) {
+        this.transferMsgByCompositeBuffer = transferMsgByCompositeBuffer;
+    }
+
     public String getMessageStorePlugIn() {
         return messageStorePlugIn;
     }
@@ -1071,6 +1116,38 @@ public class BrokerConfig extends BrokerIdentity {
         this.shortPollingTimeMills = shortPollingTimeMills;
     }
 
+    public boolean isEnableCoalescedMessageArriving() {
+        return enableCoalescedMessageArriving;
+    }
+
+    public void setEnableCoalescedMessageArriving(boolean enableCoalescedMessageArriving) {
+        this.enableCoalescedMessageArriving = enableCoalescedMessageArriving;
+    }
+
+    public long getMessageArrivingCoalesceWindowMicros() {
+        return messageArrivingCoalesceWindowMicros;
+    }
+
+    public void setMessageArrivingCoalesceWindowMicros(long messageArrivingCoalesceWindowMicros) {
+        this.messageArrivingCoalesceWindowMicros = messageArrivingCoalesceWindowMicros;
+    }
+
+    public boolean isEnableHoldRequestTimingWheel() {
+        return enableHoldRequestTimingWheel;
+    }
+
+    public void setEnableHoldRequestTimingWheel(boolean enableHoldRequestTimingWheel) {
+        this.enableHoldRequestTimingWheel = enableHoldRequestTimingWheel;
+    }
+
+    public long getHoldRequestTimingWheelTickMillis() {
+        return holdRequestTimingWheelTickMillis;
+    }
+
+    public void setHoldRequestTimingWheelTickMillis(long holdRequestTimingWheelTickMillis) {
+        this.holdRequestTimingWheelTickMillis = holdRequestTimingWheelTickMillis;
+    }
+
     public int getClientManageThreadPoolNums() {
         return clientManageThreadPoolNums;
     }
@@ -1823,6 +1900,30 @@ public class BrokerConfig extends BrokerIdentity {
         this.estimateAccumulation = estimateAccumulation;
     }
 
+    public boolean isEnableIncrementalLagCalculation() {
+        return enableIncrementalLagCalculation;
+    }
+
+    public void setEnableIncrementalLagCalculation(boolean enableIncrementalLagCalculation) {
+        this.enableIncrementalLagCalculation = enableIncrementalLagCalculation;
+    }
+
+    public long getLagCalculationFullRefreshInterval() {
+        return lagCalculationFullRefreshInterval;
+    }
+
+    public void setLagCalculationFullRefreshInterval(long lagCalculationFullRefreshInterval) {
+        this.lagCalculationFullRefreshInterval = lagCalculationFullRefreshInterval;
+    }
+
+    public int getLagCalculationCacheMaxSize() {
+        return lagCalculationCacheMaxSize;
+    }
+
+    public void setLagCalculationCacheMaxSize(int lagCalculationCacheMaxSize) {
+        this.lagCalculationCacheMaxSize = lagCalculationCacheMaxSize;
+    }
+
     public boolean isColdCtrStrategyEnable() {
         return coldCtrStrategyEnable;
     }
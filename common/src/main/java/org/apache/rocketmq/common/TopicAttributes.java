@@ -29,7 +29,7 @@ public class TopicAttributes {
     public static final EnumAttribute QUEUE_TYPE_ATTRIBUTE = new EnumAttribute(
         "queue.type",
         false,
-        newHashSet("BatchCQ", "SimpleCQ"),
+        newHashSet("BatchCQ", "SimpleCQ", "CompressedCQ"),
         "SimpleCQ"
     );
     public static final EnumAttribute CLEANUP_POLICY_ATTRIBUTE = new EnumAttribute(
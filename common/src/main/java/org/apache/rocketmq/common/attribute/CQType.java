@@ -20,5 +20,6 @@ package org.apache.rocketmq.common.attribute;
 public enum CQType {
     SimpleCQ,
     BatchCQ,
-    RocksDBCQ
+    RocksDBCQ,
+    CompressedCQ
 }
@@ -25,10 +25,11 @@ public class CQTypeTest {
     @Test
     public void testValues() {
         CQType[] values = CQType.values();
-        assertEquals(3, values.length);
+        assertEquals(4, values.length);
         assertEquals(CQType.SimpleCQ, values[0]);
         assertEquals(CQType.BatchCQ, values[1]);
         assertEquals(CQType.RocksDBCQ, values[2]);
+        assertEquals(CQType.CompressedCQ, values[3]);
     }
 
     @Test
@@ -36,6 +37,7 @@ public class CQTypeTest {
         assertEquals(CQType.SimpleCQ, CQType.valueOf("SimpleCQ"));
         assertEquals(CQType.BatchCQ, CQType.valueOf("BatchCQ"));
         assertEquals(CQType.RocksDBCQ, CQType.valueOf("RocksDBCQ"));
+        assertEquals(CQType.CompressedCQ, CQType.valueOf("CompressedCQ"));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -67,7 +67,8 @@ public class ConsumerManagerActivity extends AbstractRemotingActivity {
             case RequestCode.SEARCH_OFFSET_BY_TIMESTAMP:
             case RequestCode.GET_MIN_OFFSET:
             case RequestCode.GET_MAX_OFFSET:
-            case RequestCode.GET_EARLIEST_MSG_STORETIME: {
+            case RequestCode.GET_EARLIEST_MSG_STORETIME:
+            case RequestCode.QUERY_COMPACTED_MESSAGE: {
                 return request(ctx, request, context, Duration.ofSeconds(3).toMillis());
             }
             case RequestCode.GET_CONSUMER_CONNECTION_LIST: {
@@ -224,6 +224,11 @@ public class RequestCode {
     public static final int LITE_PULL_MESSAGE = 361;
     public static final int RECALL_MESSAGE = 370;
 
+    /**
+     * Look the latest messages of a compacted topic up by key
+     */
+    public static final int QUERY_COMPACTED_MESSAGE = 371;
+
     public static final int QUERY_ASSIGNMENT = 400;
     public static final int SET_MESSAGE_REQUEST_MODE = 401;
     public static final int GET_ALL_MESSAGE_REQUEST_MODE = 402;
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes the batching window of the SYNC_FLUSH group commit.
+ * <p>
+ * The flush latency is tracked the way TCP tracks round trip time, a smoothed mean plus four times the smoothed
+ * mean deviation standing for its tail. A request may arrive right after a flush started, wait for the window and
+ * then for its own flush, so the window is what is left of the target latency after two tail flushes. The window
+ * is only opened when at least one more request is expected to arrive within it, otherwise waiting would only add
+ * latency without saving any flush.
+ * <p>
+ * Observations are made by the group commit thread only, the other methods may be called from any thread.
+ */
+public class AdaptiveGroupCommitWindow {
+
+    private static final double FLUSH_GAIN = 0.125;
+    private static final double DEVIATION_GAIN = 0.25;
+    private static final double ARRIVAL_GAIN = 0.125;
+
+    private final long targetLatencyNanos;
+    private final long maxWindowNanos;
+
+    private final LongAdder arrivals = new LongAdder();
+    private long lastArrivals = 0;
+    private long lastObserveNanos = System.nanoTime();
+
+    private double smoothedFlushNanos = -1;
+    private double flushDeviationNanos = 0;
+    private double arrivalIntervalNanos = -1;
+
+    private volatile long windowNanos = 0;
+    private volatile long tailFlushNanos = 0;
+    private volatile int lastBatchSize = 0;
+
+    public AdaptiveGroupCommitWindow(long targetLatencyMicros, long maxWindowMicros) {
+        this.targetLatencyNanos = TimeUnit.MICROSECONDS.toNanos(targetLatencyMicros);
+        this.maxWindowNanos = TimeUnit.MICROSECONDS.toNanos(maxWindowMicros);
+    }
+
+    /**
+     * Called for every request put to the group commit service.
+     */
+    public void onArrival() {
+        arrivals.increment();
+    }
+
+    /**
+     * Called after each group commit with the time spent flushing and the number of requests completed.
+     */
+    public void onFlush(long flushCostNanos, int batchSize) {
+        if (smoothedFlushNanos < 0) {
+            smoothedFlushNanos = flushCostNanos;
+            flushDeviationNanos = flushCostNanos / 2.0;
+        } else {
+            flushDeviationNanos += DEVIATION_GAIN * (Math.abs(flushCostNanos - smoothedFlushNanos) - flushDeviationNanos);
+            smoothedFlushNanos += FLUSH_GAIN * (flushCostNanos - smoothedFlushNanos);
+        }
+
+        long now = System.nanoTime();
+        long totalArrivals = arrivals.sum();
+        long newArrivals = totalArrivals - lastArrivals;
+        double interval = newArrivals > 0 ? (double) (now - lastObserveNanos) / newArrivals : now - lastObserveNanos;
+        if (arrivalIntervalNanos < 0) {
+            arrivalIntervalNanos = interval;
+        } else {
+            arrivalIntervalNanos += ARRIVAL_GAIN * (interval - arrivalIntervalNanos);
+        }
+        lastArrivals = totalArrivals;
+        lastObserveNanos = now;
+        lastBatchSize = batchSize;
+
+        tailFlushNanos = (long) (smoothedFlushNanos + 4 * flushDeviationNanos);
+        windowNanos = computeWindowNanos();
+    }
+
+    private long computeWindowNanos() {
+        double window = Math.min(maxWindowNanos, targetLatencyNanos - 2.0 * tailFlushNanos);
+        if (window < arrivalIntervalNanos) {
+            return 0;
+        }
+        return (long) window;
+    }
+
+    /**
+     * @return how long the group commit thread should wait for more requests before flushing, 0 to flush at once
+     */
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getTailFlushNanos() {
+        return tailFlushNanos;
+    }
+}
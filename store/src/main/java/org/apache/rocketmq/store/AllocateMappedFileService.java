@@ -31,6 +31,7 @@ import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.logfile.DefaultMappedFile;
+import org.apache.rocketmq.store.logfile.DirectIOMappedFile;
 import org.apache.rocketmq.store.logfile.MappedFile;
 
 /**
@@ -172,7 +173,10 @@ public class AllocateMappedFileService extends ServiceThread {
                 long beginTime = System.currentTimeMillis();
 
                 MappedFile mappedFile;
-                if (messageStore.isTransientStorePoolEnable()) {
+                if (messageStore.isTransientStorePoolEnable()
+                    && messageStore.getMessageStoreConfig().isEnableDirectIOCommit()) {
+                    mappedFile = new DirectIOMappedFile(req.getFilePath(), req.getFileSize(), messageStore.getTransientStorePool());
+                } else if (messageStore.isTransientStorePoolEnable()) {
                     try {
                         mappedFile = ServiceLoader.load(MappedFile.class).iterator().next();
                         mappedFile.init(req.getFilePath(), req.getFileSize(), messageStore.getTransientStorePool());
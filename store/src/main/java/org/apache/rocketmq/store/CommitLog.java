@@ -21,6 +21,7 @@ import java.net.Inet6Address;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -30,8 +31,12 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import com.sun.jna.NativeLong;
@@ -39,6 +44,7 @@ import com.sun.jna.Pointer;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.SystemClock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.attribute.CQType;
@@ -52,6 +58,7 @@ import org.apache.rocketmq.common.message.MessageVersion;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.topic.TopicValidator;
 import org.apache.rocketmq.common.utils.QueueTypeUtils;
+import org.apache.rocketmq.common.utils.ThreadUtils;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.store.MessageExtEncoder.PutMessageThreadLocal;
@@ -64,6 +71,9 @@ import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.ha.autoswitch.AutoSwitchHAService;
 import org.apache.rocketmq.store.lock.AdaptiveBackOffSpinLockImpl;
 import org.apache.rocketmq.store.logfile.MappedFile;
+import org.apache.rocketmq.store.logfile.ReservableMappedFile;
+import org.apache.rocketmq.store.queue.ConsumeQueueInterface;
+import org.apache.rocketmq.store.queue.CqUnit;
 import org.apache.rocketmq.store.util.LibC;
 import org.rocksdb.RocksDBException;
 
@@ -88,8 +98,9 @@ public class CommitLog implements Swappable {
     private final FlushManager flushManager;
     private final ColdDataCheckService coldDataCheckService;
 
-    private final AppendMessageCallback appendMessageCallback;
+    private final DefaultAppendMessageCallback appendMessageCallback;
     private final ThreadLocal<PutMessageThreadLocal> putMessageThreadLocal;
+    private final ThreadLocal<DispatchDecodeBuffer> dispatchDecodeBuffer = ThreadLocal.withInitial(DispatchDecodeBuffer::new);
 
     protected volatile long confirmOffset = -1L;
 
@@ -99,6 +110,10 @@ public class CommitLog implements Swappable {
 
     protected final TopicQueueLock topicQueueLock;
 
+    private final PutMessageCombiner<AppendRequest> putMessageCombiner;
+
+    private final AdaptiveGroupCommitWindow groupCommitWindow;
+
     private volatile Set<String> fullStorePaths = Collections.emptySet();
 
     private final FlushDiskWatcher flushDiskWatcher;
@@ -107,6 +122,8 @@ public class CommitLog implements Swappable {
 
     private final boolean enabledAppendPropCRC;
 
+    private final boolean reservedAppend;
+
     public CommitLog(final DefaultMessageStore messageStore) {
         String storePath = messageStore.getMessageStoreConfig().getStorePathCommitLog();
         if (storePath.contains(MixAll.MULTI_PATH_SPLITTER)) {
@@ -121,6 +138,12 @@ public class CommitLog implements Swappable {
 
         this.defaultMessageStore = messageStore;
 
+        MessageStoreConfig messageStoreConfig = messageStore.getMessageStoreConfig();
+        this.groupCommitWindow = FlushDiskType.SYNC_FLUSH == messageStoreConfig.getFlushDiskType()
+            && messageStoreConfig.isEnableAdaptiveGroupCommit() ?
+            new AdaptiveGroupCommitWindow(messageStoreConfig.getGroupCommitTargetLatencyMicros(),
+                messageStoreConfig.getGroupCommitMaxWindowMicros()) : null;
+
         this.flushManager = new DefaultFlushManager();
         this.coldDataCheckService = new ColdDataCheckService();
 
@@ -141,9 +164,15 @@ public class CommitLog implements Swappable {
 
         this.topicQueueLock = new TopicQueueLock(messageStore.getMessageStoreConfig().getTopicQueueLockNum());
 
+        this.putMessageCombiner = messageStore.getMessageStoreConfig().isEnableCombinedAppend() ?
+            new PutMessageCombiner<>(this.putMessageLock, this::appendMessageInLock,
+                messageStore.getMessageStoreConfig().getCombinedAppendMaxBatchSize()) : null;
+
         this.commitLogSize = messageStore.getMessageStoreConfig().getMappedFileSizeCommitLog();
 
         this.enabledAppendPropCRC = messageStore.getMessageStoreConfig().isEnabledAppendPropCRC();
+
+        this.reservedAppend = messageStore.getMessageStoreConfig().isEnableReservedAppend();
     }
 
     public void setFullStorePaths(Set<String> fullStorePaths) {
@@ -337,13 +366,14 @@ public class CommitLog implements Swappable {
             }
             // TODO: Discuss if we need to load more commit-log mapped files into memory.
 
+            boolean[] checkCRC = this.verifyMappedFilesBeforeRecover(mappedFiles, index, checkCRCOnRecover);
             MappedFile mappedFile = mappedFiles.get(index);
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
             long processOffset = mappedFile.getFileFromOffset();
             long mappedFileOffset = 0;
             long lastValidMsgPhyOffset = this.getConfirmOffset();
             while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover, checkDupInfo);
+                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRC[index], checkDupInfo);
                 int size = dispatchRequest.getMsgSize();
                 boolean doDispatch = dispatchRequest.getCommitLogOffset() > maxPhyOffsetOfConsumeQueue;
                 // Normal data
@@ -403,6 +433,7 @@ public class CommitLog implements Swappable {
             this.mappedFileQueue.setFlushedWhere(processOffset);
             this.mappedFileQueue.setCommittedWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            this.truncateVerifiedPhyOffset(processOffset);
         } else {
             // Commitlog case files are deleted
             log.warn("The commitlog files are deleted, and delete the consume queue files");
@@ -418,6 +449,107 @@ public class CommitLog implements Swappable {
         return this.checkMessageAndReturnSize(byteBuffer, checkCRC, checkDupInfo, true);
     }
 
+    /**
+     * Check the CRC of the mapped files to recover ahead of the ordered recover pass, several files at a time. Every
+     * CommitLog file begins at a message boundary, so each one is verified on its own, and the ordered pass only
+     * checks the CRC again in the files whose verification did not reach their end. Files lying entirely below the
+     * verified offset of the store checkpoint were flushed before the restart and are not checked at all.
+     *
+     * @return whether the ordered pass has to check the CRC of the messages, indexed like mappedFiles
+     */
+    private boolean[] verifyMappedFilesBeforeRecover(final List<MappedFile> mappedFiles, final int fromIndex,
+        final boolean checkCRCOnRecover) {
+        final boolean[] checkCRC = new boolean[mappedFiles.size()];
+        Arrays.fill(checkCRC, checkCRCOnRecover);
+        if (!checkCRCOnRecover) {
+            return checkCRC;
+        }
+
+        MessageStoreConfig messageStoreConfig = this.defaultMessageStore.getMessageStoreConfig();
+        long verifiedPhyOffset = messageStoreConfig.isSkipCheckCRCOfFlushedFilesOnRecover() ?
+            this.defaultMessageStore.getStoreCheckpoint().getVerifiedPhyOffset() : 0;
+        final List<Integer> toVerify = new ArrayList<>();
+        for (int i = fromIndex; i < mappedFiles.size(); i++) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            if (mappedFile.getFileFromOffset() + mappedFile.getFileSize() <= verifiedPhyOffset) {
+                checkCRC[i] = false;
+            } else {
+                toVerify.add(i);
+            }
+        }
+        if (toVerify.size() < mappedFiles.size() - fromIndex) {
+            log.info("recover skip checking CRC of {} flushed files, verifiedPhyOffset={}",
+                mappedFiles.size() - fromIndex - toVerify.size(), verifiedPhyOffset);
+        }
+
+        int threadNum = Math.min(messageStoreConfig.getParallelRecoverThreadNum(), toVerify.size());
+        if (threadNum <= 1) {
+            return checkCRC;
+        }
+
+        long beginTime = System.currentTimeMillis();
+        final AtomicInteger verifiedFiles = new AtomicInteger(0);
+        ExecutorService executorService = ThreadUtils.newThreadPoolExecutor(threadNum,
+            new ThreadFactoryImpl("CommitLogRecoverThread_"));
+        try {
+            List<Future<?>> futures = new ArrayList<>(toVerify.size());
+            for (final int index : toVerify) {
+                futures.add(executorService.submit(() -> {
+                    MappedFile mappedFile = mappedFiles.get(index);
+                    if (this.verifyMappedFile(mappedFile)) {
+                        checkCRC[index] = false;
+                    }
+                    log.info("recover verify physics file {}, progress {}/{}",
+                        mappedFile.getFileName(), verifiedFiles.incrementAndGet(), toVerify.size());
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // The ordered pass still checks the CRC of this file
+                    log.warn("recover failed to verify physics file in parallel", e);
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        log.info("recover verify {} physics files with {} threads, cost {} ms",
+            toVerify.size(), threadNum, System.currentTimeMillis() - beginTime);
+        return checkCRC;
+    }
+
+    /**
+     * @return true if every message of the file passes the checks, up to the blank at the end of a full file
+     */
+    private boolean verifyMappedFile(final MappedFile mappedFile) {
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        while (true) {
+            DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, true, false);
+            if (!dispatchRequest.isSuccess()) {
+                return false;
+            }
+            if (dispatchRequest.getMsgSize() == 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the offset below which every CommitLog file is full and flushed
+     */
+    public long getFlushedSealedOffset() {
+        long flushedWhere = this.getFlushedWhere();
+        return flushedWhere - flushedWhere % this.defaultMessageStore.getMessageStoreConfig().getMappedFileSizeCommitLog();
+    }
+
+    private void truncateVerifiedPhyOffset(long phyOffset) {
+        StoreCheckpoint storeCheckpoint = this.defaultMessageStore.getStoreCheckpoint();
+        if (storeCheckpoint != null && storeCheckpoint.getVerifiedPhyOffset() > phyOffset) {
+            storeCheckpoint.setVerifiedPhyOffset(phyOffset);
+        }
+    }
+
     private void doNothingForDeadCode(final Object obj) {
         if (obj != null) {
             log.debug(String.valueOf(obj.hashCode()));
@@ -456,7 +588,9 @@ public class CommitLog implements Swappable {
 
             MessageVersion messageVersion = MessageVersion.valueOfMagicCode(magicCode);
 
-            byte[] bytesContent = new byte[totalSize];
+            DispatchDecodeBuffer decodeBuffer = this.dispatchDecodeBuffer.get();
+            // Only the body may not fit in the scratch array, it is skipped unless it is read
+            byte[] bytesContent = decodeBuffer.scratch(readBody ? totalSize : 0);
 
             int bodyCRC = byteBuffer.getInt();
 
@@ -516,8 +650,7 @@ public class CommitLog implements Swappable {
             }
 
             int topicLen = messageVersion.getTopicLength(byteBuffer);
-            byteBuffer.get(bytesContent, 0, topicLen);
-            String topic = new String(bytesContent, 0, topicLen, MessageDecoder.CHARSET_UTF8);
+            String topic = decodeBuffer.readTopic(byteBuffer, topicLen);
 
             long tagsCode = 0;
             String keys = "";
@@ -728,6 +861,7 @@ public class CommitLog implements Swappable {
                 mappedFile = mappedFiles.get(index);
             }
 
+            boolean[] checkCRC = this.verifyMappedFilesBeforeRecover(mappedFiles, index, checkCRCOnRecover);
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
             long processOffset = mappedFile.getFileFromOffset();
             long mappedFileOffset = 0;
@@ -736,7 +870,7 @@ public class CommitLog implements Swappable {
             // abnormal recover require dispatching
             boolean doDispatch = true;
             while (true) {
-                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRCOnRecover, checkDupInfo);
+                DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRC[index], checkDupInfo);
                 int size = dispatchRequest.getMsgSize();
 
                 if (dispatchRequest.isSuccess()) {
@@ -812,6 +946,7 @@ public class CommitLog implements Swappable {
             this.mappedFileQueue.setFlushedWhere(processOffset);
             this.mappedFileQueue.setCommittedWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            this.truncateVerifiedPhyOffset(processOffset);
         }
         // Commitlog case files are deleted
         else {
@@ -833,6 +968,7 @@ public class CommitLog implements Swappable {
         }
 
         this.mappedFileQueue.truncateDirtyFiles(phyOffset);
+        this.truncateVerifiedPhyOffset(phyOffset);
         if (this.confirmOffset > phyOffset) {
             this.setConfirmOffset(phyOffset);
         }
@@ -986,6 +1122,16 @@ public class CommitLog implements Swappable {
             }
         }
 
+        // Inner-batch messages get the assigned queue offset written into their properties, the others are fully
+        // encoded before taking any lock and only have their position dependent fields stamped on append
+        boolean encodeBeforeLock = !MessageSysFlag.check(msg.getSysFlag(), MessageSysFlag.INNER_BATCH_FLAG);
+        if (encodeBeforeLock) {
+            PutMessageResult encodeResult = putMessageThreadLocal.getEncoder().encode(msg);
+            if (encodeResult != null) {
+                return CompletableFuture.completedFuture(encodeResult);
+            }
+        }
+
         topicQueueLock.lock(topicQueueKey);
         try {
 
@@ -998,77 +1144,62 @@ public class CommitLog implements Swappable {
                 defaultMessageStore.assignOffset(msg);
             }
 
-            PutMessageResult encodeResult = putMessageThreadLocal.getEncoder().encode(msg);
-            if (encodeResult != null) {
-                return CompletableFuture.completedFuture(encodeResult);
+            if (!encodeBeforeLock) {
+                PutMessageResult encodeResult = putMessageThreadLocal.getEncoder().encode(msg);
+                if (encodeResult != null) {
+                    return CompletableFuture.completedFuture(encodeResult);
+                }
             }
             msg.setEncodedBuff(putMessageThreadLocal.getEncoder().getEncoderBuffer());
             PutMessageContext putMessageContext = new PutMessageContext(topicQueueKey);
 
-            putMessageLock.lock(); //spin or ReentrantLock, depending on store config
+            // LMQ messages rewrite their properties in lock, so they can not be copied outside of it
+            boolean reserved = reservedAppend && !(defaultMessageStore.getMessageStoreConfig().isEnableLmq() && msg.needDispatchLMQ());
+            AppendRequest appendRequest = new AppendRequest(msg, putMessageContext, mappedFile, reserved);
             try {
-                long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
-                this.beginTimeInLock = beginLockTimestamp;
-
-                // Here settings are stored timestamp, in order to ensure an orderly
-                // global
-                if (!defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
-                    msg.setStoreTimestamp(beginLockTimestamp);
-                }
-
-                if (null == mappedFile || mappedFile.isFull()) {
-                    mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
-                    if (isCloseReadAhead()) {
-                        setFileReadMode(mappedFile, LibC.MADV_RANDOM);
+                Throwable appendError = null;
+                if (putMessageCombiner != null) {
+                    putMessageCombiner.append(appendRequest);
+                    appendError = appendRequest.getError();
+                } else {
+                    putMessageLock.lock(); //spin or ReentrantLock, depending on store config
+                    try {
+                        appendMessageInLock(appendRequest);
+                    } catch (RuntimeException e) {
+                        if (appendRequest.reservedResult == null) {
+                            throw e;
+                        }
+                        appendError = e;
+                    } finally {
+                        putMessageLock.unlock();
                     }
                 }
-                if (null == mappedFile) {
-                    log.error("create mapped file1 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
-                    beginTimeInLock = 0;
-                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, null));
-                }
-
-                result = mappedFile.appendMessage(msg, this.appendMessageCallback, putMessageContext);
-                switch (result.getStatus()) {
-                    case PUT_OK:
-                        onCommitLogAppend(msg, result, mappedFile);
-                        break;
-                    case END_OF_FILE:
-                        onCommitLogAppend(msg, result, mappedFile);
-                        unlockMappedFile = mappedFile;
-                        // Create a new file, re-write the message
-                        mappedFile = this.mappedFileQueue.getLastMappedFile(0);
-                        if (null == mappedFile) {
-                            // XXX: warn and notify me
-                            log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
-                            beginTimeInLock = 0;
-                            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, result));
-                        }
-                        if (isCloseReadAhead()) {
-                            setFileReadMode(mappedFile, LibC.MADV_RANDOM);
-                        }
-                        result = mappedFile.appendMessage(msg, this.appendMessageCallback, putMessageContext);
-                        if (AppendMessageStatus.PUT_OK.equals(result.getStatus())) {
-                            onCommitLogAppend(msg, result, mappedFile);
-                        }
-                        break;
-                    case MESSAGE_SIZE_EXCEEDED:
-                    case PROPERTIES_SIZE_EXCEEDED:
-                        beginTimeInLock = 0;
-                        return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result));
-                    case UNKNOWN_ERROR:
-                    default:
-                        beginTimeInLock = 0;
-                        return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
+                if (appendError != null) {
+                    if (appendRequest.reservedResult == null) {
+                        log.error("putMessage append error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString(), appendError);
+                        return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null));
+                    }
+                    // The reserved slice is written below whatever failed, so the message is stored and reported as
+                    // such, otherwise the producer would retry and store it twice
+                    log.warn("putMessage append error after reservation, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString(), appendError);
+                    appendRequest.result = appendRequest.reservedResult;
                 }
-
-                elapsedTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
-                beginTimeInLock = 0;
             } finally {
-                putMessageLock.unlock();
+                if (appendRequest.reservedResult != null) {
+                    // A reserved slice holds back the publishing of every later one, so it is written whatever failed
+                    // after the reservation. Its position fields are already stamped and its queue offset is taken.
+                    this.appendMessageCallback.doWriteReserved(appendRequest.reservedMappedFile, appendRequest.reservedResult, msg);
+                    this.defaultMessageStore.increaseOffset(msg, getMessageNum(msg));
+                }
+            }
+            result = appendRequest.result;
+            if (appendRequest.putMessageResult != null) {
+                return CompletableFuture.completedFuture(appendRequest.putMessageResult);
             }
+            elapsedTimeInLock = appendRequest.elapsedTimeInLock;
+            unlockMappedFile = appendRequest.unlockMappedFile;
             // Increase queue offset when messages are successfully written
-            if (AppendMessageStatus.PUT_OK.equals(result.getStatus())) {
+            if (AppendMessageStatus.PUT_OK.equals(result.getStatus()) && appendRequest.reservedResult == null) {
                 this.defaultMessageStore.increaseOffset(msg, getMessageNum(msg));
             }
         } catch (RocksDBException e) {
@@ -1094,6 +1225,94 @@ public class CommitLog implements Swappable {
         return handleDiskFlushAndHA(putMessageResult, msg, needAckNums, needHandleHA);
     }
 
+    /**
+     * Append a single encoded message to the last mapped file, must be called with the put message lock held.
+     * The outcome is recorded in the request rather than returned, so that it can be driven either by the
+     * writer itself or by the {@link PutMessageCombiner} on behalf of the writer.
+     */
+    private void appendMessageInLock(final AppendRequest request) {
+        final MessageExtBrokerInner msg = request.msg;
+        final PutMessageContext putMessageContext = request.putMessageContext;
+        MappedFile mappedFile = request.mappedFile;
+
+        long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+        this.beginTimeInLock = beginLockTimestamp;
+
+        // Here settings are stored timestamp, in order to ensure an orderly
+        // global
+        if (!defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
+            msg.setStoreTimestamp(beginLockTimestamp);
+        }
+
+        if (null == mappedFile || mappedFile.isFull()) {
+            mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
+            if (isCloseReadAhead()) {
+                setFileReadMode(mappedFile, LibC.MADV_RANDOM);
+            }
+        }
+        if (null == mappedFile) {
+            log.error("create mapped file1 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
+            beginTimeInLock = 0;
+            request.putMessageResult = new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, null);
+            return;
+        }
+
+        AppendMessageResult result = appendOrReserve(request, mappedFile);
+        request.result = result;
+        switch (result.getStatus()) {
+            case PUT_OK:
+                onCommitLogAppend(msg, result, mappedFile);
+                break;
+            case END_OF_FILE:
+                onCommitLogAppend(msg, result, mappedFile);
+                request.unlockMappedFile = mappedFile;
+                // Create a new file, re-write the message
+                mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                if (null == mappedFile) {
+                    // XXX: warn and notify me
+                    log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
+                    beginTimeInLock = 0;
+                    request.putMessageResult = new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, result);
+                    return;
+                }
+                if (isCloseReadAhead()) {
+                    setFileReadMode(mappedFile, LibC.MADV_RANDOM);
+                }
+                result = appendOrReserve(request, mappedFile);
+                request.result = result;
+                if (AppendMessageStatus.PUT_OK.equals(result.getStatus())) {
+                    onCommitLogAppend(msg, result, mappedFile);
+                }
+                break;
+            case MESSAGE_SIZE_EXCEEDED:
+            case PROPERTIES_SIZE_EXCEEDED:
+                beginTimeInLock = 0;
+                request.putMessageResult = new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                return;
+            case UNKNOWN_ERROR:
+            default:
+                beginTimeInLock = 0;
+                request.putMessageResult = new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                return;
+        }
+
+        request.elapsedTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+        beginTimeInLock = 0;
+    }
+
+    private AppendMessageResult appendOrReserve(final AppendRequest request, final MappedFile mappedFile) {
+        if (request.reserved && mappedFile instanceof ReservableMappedFile) {
+            ReservableMappedFile reservableMappedFile = (ReservableMappedFile) mappedFile;
+            AppendMessageResult result = this.appendMessageCallback.doReserve(reservableMappedFile, request.msg);
+            if (AppendMessageStatus.PUT_OK.equals(result.getStatus())) {
+                request.reservedMappedFile = reservableMappedFile;
+                request.reservedResult = result;
+            }
+            return result;
+        }
+        return mappedFile.appendMessage(request.msg, this.appendMessageCallback, request.putMessageContext);
+    }
+
     public CompletableFuture<PutMessageResult> asyncPutMessages(final MessageExtBatch messageExtBatch) {
         messageExtBatch.setStoreTimestamp(System.currentTimeMillis());
         AppendMessageResult result = null;
@@ -1587,6 +1806,34 @@ public class CommitLog implements Swappable {
         }
     }
 
+    static class AppendRequest extends PutMessageCombiner.Request {
+        private final MessageExtBrokerInner msg;
+        private final PutMessageContext putMessageContext;
+        private final MappedFile mappedFile;
+        private final boolean reserved;
+        private ReservableMappedFile reservedMappedFile;
+        private AppendMessageResult reservedResult;
+        private AppendMessageResult result;
+        private PutMessageResult putMessageResult;
+        private MappedFile unlockMappedFile;
+        private long elapsedTimeInLock;
+
+        AppendRequest(MessageExtBrokerInner msg, PutMessageContext putMessageContext, MappedFile mappedFile,
+            boolean reserved) {
+            this.msg = msg;
+            this.putMessageContext = putMessageContext;
+            this.mappedFile = mappedFile;
+            this.reserved = reserved;
+        }
+
+        @Override
+        protected boolean endsBatch() {
+            // The slice is only written by the writer once it is woken up, an end of file or a non reserved append
+            // later in the same batch would wait for it forever while holding the put lock
+            return reservedResult != null;
+        }
+    }
+
     public static class GroupCommitRequest {
         private final long nextOffset;
         // Indicate the GroupCommitRequest result: true or false
@@ -1640,6 +1887,9 @@ public class CommitLog implements Swappable {
             } finally {
                 lock.unlock();
             }
+            if (groupCommitWindow != null) {
+                groupCommitWindow.onArrival();
+            }
             this.wakeup();
         }
 
@@ -1690,6 +1940,80 @@ public class CommitLog implements Swappable {
             }
         }
 
+        /**
+         * Hold the swapped requests for the adaptive window so that more requests share the coming flush, then flush
+         * once up to the furthest request and complete the whole batch in a single pass.
+         */
+        private void doCommitInWindow() {
+            if (this.requestsRead.isEmpty()) {
+                CommitLog.this.mappedFileQueue.flush(0);
+                return;
+            }
+
+            // Requests already covered by an earlier flush are completed right away, waiting could only add latency
+            long maxNextOffset = maxNextOffset(this.requestsRead);
+            long windowNanos = CommitLog.this.mappedFileQueue.getFlushedWhere() >= maxNextOffset ?
+                0 : groupCommitWindow.getWindowNanos();
+            if (windowNanos > 0) {
+                long deadline = System.nanoTime() + windowNanos;
+                long remaining;
+                while (!this.isStopped() && (remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                lock.lock();
+                try {
+                    this.requestsRead.addAll(this.requestsWrite);
+                    this.requestsWrite.clear();
+                } finally {
+                    lock.unlock();
+                }
+                maxNextOffset = maxNextOffset(this.requestsRead);
+            }
+
+            // Only the flush itself feeds the window, the waits for the transient store pool are excluded
+            long flushCostNanos = 0;
+            boolean flushed = false;
+            boolean flushOK = CommitLog.this.mappedFileQueue.getFlushedWhere() >= maxNextOffset;
+            for (int i = 0; i < 1000 && !flushOK; i++) {
+                flushed = true;
+                long beginFlushNanos = System.nanoTime();
+                CommitLog.this.mappedFileQueue.flush(0);
+                flushCostNanos += System.nanoTime() - beginFlushNanos;
+                flushOK = CommitLog.this.mappedFileQueue.getFlushedWhere() >= maxNextOffset;
+                if (!flushOK) {
+                    // Same as doCommit, wait for the transient store pool to commit data to page cache
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            // A batch already covered by an earlier flush says nothing about the flush cost, keep it out of the window
+            if (flushed) {
+                groupCommitWindow.onFlush(flushCostNanos, this.requestsRead.size());
+            }
+
+            long flushedWhere = CommitLog.this.mappedFileQueue.getFlushedWhere();
+            for (GroupCommitRequest req : this.requestsRead) {
+                req.wakeupCustomer(flushedWhere >= req.getNextOffset() ? PutMessageStatus.PUT_OK : PutMessageStatus.FLUSH_DISK_TIMEOUT);
+            }
+
+            long storeTimestamp = CommitLog.this.mappedFileQueue.getStoreTimestamp();
+            if (storeTimestamp > 0) {
+                CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
+            }
+
+            this.requestsRead = new LinkedList<>();
+        }
+
+        private long maxNextOffset(final List<GroupCommitRequest> requests) {
+            long maxNextOffset = 0;
+            for (GroupCommitRequest req : requests) {
+                maxNextOffset = Math.max(maxNextOffset, req.getNextOffset());
+            }
+            return maxNextOffset;
+        }
+
         @Override
         public void run() {
             CommitLog.log.info(this.getServiceName() + " service started");
@@ -1697,6 +2021,10 @@ public class CommitLog implements Swappable {
             while (!this.isStopped()) {
                 try {
                     this.waitForRunning(10);
+                    if (groupCommitWindow != null) {
+                        this.doCommitInWindow();
+                        continue;
+                    }
                     this.doCommit();
                 } catch (Exception e) {
                     CommitLog.log.warn(this.getServiceName() + " service has exception. ", e);
@@ -1992,30 +2320,9 @@ public class CommitLog implements Swappable {
                     queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
             }
 
-            int pos = 4     // 1 TOTALSIZE
-                + 4     // 2 MAGICCODE
-                + 4     // 3 BODYCRC
-                + 4     // 4 QUEUEID
-                + 4;    // 5 FLAG
-            // 6 QUEUEOFFSET
-            preEncodeBuffer.putLong(pos, queueOffset);
-            pos += 8;
-            // 7 PHYSICALOFFSET
-            preEncodeBuffer.putLong(pos, fileFromOffset + byteBuffer.position());
-            pos += 8;
-            int ipLen = (msgInner.getSysFlag() & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
-            // 8 SYSFLAG, 9 BORNTIMESTAMP, 10 BORNHOST
-            pos += 4 + 8 + ipLen;
-            // 11 STORETIMESTAMP refresh store time stamp in lock
-            preEncodeBuffer.putLong(pos, msgInner.getStoreTimestamp());
+            fillPositionFields(preEncodeBuffer, msgInner, queueOffset, fileFromOffset + byteBuffer.position());
             if (enabledAppendPropCRC) {
-                // 18 CRC32
-                int checkSize = msgLen - crc32ReservedLength;
-                ByteBuffer tmpBuffer = preEncodeBuffer.duplicate();
-                tmpBuffer.limit(tmpBuffer.position() + checkSize);
-                int crc32 = UtilAll.crc32(tmpBuffer);   // UtilAll.crc32 function will change the position to limit of the buffer
-                tmpBuffer.limit(tmpBuffer.position() + crc32ReservedLength);
-                MessageDecoder.createCrc32(tmpBuffer, crc32);
+                fillPropCRC(preEncodeBuffer, msgLen);
             }
 
             final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
@@ -2038,6 +2345,107 @@ public class CommitLog implements Swappable {
                 msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills, messageNum);
         }
 
+        /**
+         * The locked half of a reserved append: reserve a slice of the mapped file for the encoded message and
+         * stamp the position dependent fields, the body is copied later by {@link #doWriteReserved}.
+         */
+        public AppendMessageResult doReserve(final ReservableMappedFile mappedFile, final MessageExtBrokerInner msgInner) {
+            ByteBuffer preEncodeBuffer = msgInner.getEncodedBuff();
+            final int msgLen = preEncodeBuffer.getInt(0);
+
+            final int currentPos = mappedFile.getReservedPosition();
+            final int maxBlank = mappedFile.getFileSize() - currentPos;
+            final long wroteOffset = mappedFile.getFileFromOffset() + currentPos;
+
+            Supplier<String> msgIdSupplier = () -> {
+                int sysflag = msgInner.getSysFlag();
+                int msgIdLen = (sysflag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 4 + 4 + 8 : 16 + 4 + 8;
+                ByteBuffer msgIdBuffer = ByteBuffer.allocate(msgIdLen);
+                MessageExt.socketAddress2ByteBuffer(msgInner.getStoreHost(), msgIdBuffer);
+                msgIdBuffer.clear();//because socketAddress2ByteBuffer flip the buffer
+                msgIdBuffer.putLong(msgIdLen - 8, wroteOffset);
+                return UtilAll.bytes2string(msgIdBuffer.array());
+            };
+
+            Long queueOffset = msgInner.getQueueOffset();
+            short messageNum = getMessageNum(msgInner);
+            final int tranType = MessageSysFlag.getTransactionValue(msgInner.getSysFlag());
+            if (tranType == MessageSysFlag.TRANSACTION_PREPARED_TYPE || tranType == MessageSysFlag.TRANSACTION_ROLLBACK_TYPE) {
+                queueOffset = 0L;
+            }
+
+            if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                this.msgStoreItemMemory.clear();
+                this.msgStoreItemMemory.putInt(maxBlank);
+                this.msgStoreItemMemory.putInt(CommitLog.BLANK_MAGIC_CODE);
+                this.msgStoreItemMemory.flip();
+                // The end of file is written in lock, so the file is full once the lock is released
+                mappedFile.writeReserved(mappedFile.reserve(maxBlank), maxBlank, this.msgStoreItemMemory, msgInner.getStoreTimestamp());
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset,
+                    maxBlank, msgIdSupplier, msgInner.getStoreTimestamp(), queueOffset, 0);
+            }
+
+            fillPositionFields(preEncodeBuffer, msgInner, queueOffset, wroteOffset);
+            mappedFile.reserve(msgLen);
+            return new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgIdSupplier,
+                msgInner.getStoreTimestamp(), queueOffset, 0, messageNum);
+        }
+
+        /**
+         * The unlocked half of a reserved append: checksum the message and copy it into its reserved slice.
+         */
+        public void doWriteReserved(final ReservableMappedFile mappedFile, final AppendMessageResult result,
+            final MessageExtBrokerInner msgInner) {
+            ByteBuffer preEncodeBuffer = msgInner.getEncodedBuff();
+            final int msgLen = result.getWroteBytes();
+            preEncodeBuffer.position(0);
+            preEncodeBuffer.limit(msgLen);
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+            try {
+                if (enabledAppendPropCRC) {
+                    fillPropCRC(preEncodeBuffer, msgLen);
+                }
+            } finally {
+                // the slice is always written, a failed checksum is caught by the CRC check on read and recovery
+                CommitLog.this.getMessageStore().getPerfCounter().startTick("WRITE_MEMORY_TIME_MS");
+                mappedFile.writeReserved((int) (result.getWroteOffset() - mappedFile.getFileFromOffset()), msgLen,
+                    preEncodeBuffer, msgInner.getStoreTimestamp());
+                CommitLog.this.getMessageStore().getPerfCounter().endTick("WRITE_MEMORY_TIME_MS");
+            }
+            result.setPagecacheRT(CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            msgInner.setEncodedBuff(null);
+        }
+
+        private void fillPositionFields(final ByteBuffer preEncodeBuffer, final MessageExtBrokerInner msgInner,
+            final long queueOffset, final long physicalOffset) {
+            int pos = 4     // 1 TOTALSIZE
+                + 4     // 2 MAGICCODE
+                + 4     // 3 BODYCRC
+                + 4     // 4 QUEUEID
+                + 4;    // 5 FLAG
+            // 6 QUEUEOFFSET
+            preEncodeBuffer.putLong(pos, queueOffset);
+            pos += 8;
+            // 7 PHYSICALOFFSET
+            preEncodeBuffer.putLong(pos, physicalOffset);
+            pos += 8;
+            int ipLen = (msgInner.getSysFlag() & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 4 + 4 : 16 + 4;
+            // 8 SYSFLAG, 9 BORNTIMESTAMP, 10 BORNHOST
+            pos += 4 + 8 + ipLen;
+            // 11 STORETIMESTAMP refresh store time stamp in lock
+            preEncodeBuffer.putLong(pos, msgInner.getStoreTimestamp());
+        }
+
+        private void fillPropCRC(final ByteBuffer preEncodeBuffer, final int msgLen) {
+            // 18 CRC32
+            int checkSize = msgLen - crc32ReservedLength;
+            ByteBuffer tmpBuffer = preEncodeBuffer.duplicate();
+            tmpBuffer.limit(tmpBuffer.position() + checkSize);
+            int crc32 = UtilAll.crc32(tmpBuffer);   // UtilAll.crc32 function will change the position to limit of the buffer
+            tmpBuffer.limit(tmpBuffer.position() + crc32ReservedLength);
+            MessageDecoder.createCrc32(tmpBuffer, crc32);
+        }
+
         public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank,
             final MessageExtBatch messageExtBatch, PutMessageContext putMessageContext) {
             byteBuffer.mark();
@@ -2280,6 +2688,20 @@ public class CommitLog implements Swappable {
         this.getMappedFileQueue().cleanSwappedMap(forceCleanSwapIntervalMs);
     }
 
+    /**
+     * @return the combiner in front of the put lock, or null if combined append is not enabled
+     */
+    public PutMessageCombiner<?> getPutMessageCombiner() {
+        return putMessageCombiner;
+    }
+
+    /**
+     * @return the adaptive window of the SYNC_FLUSH group commit, or null if adaptive group commit is not in use
+     */
+    public AdaptiveGroupCommitWindow getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
     public FlushManager getFlushManager() {
         return flushManager;
     }
@@ -2442,15 +2864,15 @@ public class CommitLog implements Swappable {
                 return false;
             }
             try {
-                ConsumeQueue consumeQueue = (ConsumeQueue) defaultMessageStore.findConsumeQueue(topic, queueId);
+                ConsumeQueueInterface consumeQueue = defaultMessageStore.findConsumeQueue(topic, queueId);
                 if (null == consumeQueue) {
                     return false;
                 }
-                SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(offset);
-                if (null == bufferConsumeQueue || null == bufferConsumeQueue.getByteBuffer()) {
+                CqUnit cqUnit = consumeQueue.get(offset);
+                if (null == cqUnit) {
                     return false;
                 }
-                long offsetPy = bufferConsumeQueue.getByteBuffer().getLong();
+                long offsetPy = cqUnit.getPos();
                 return defaultMessageStore.checkInColdAreaByCommitOffset(offsetPy, getMaxOffset());
             } catch (Exception e) {
                 log.error("isMsgInColdArea group: {}, topic: {}, queueId: {}, offset: {}",
@@ -30,4 +30,12 @@ public interface CommitLogDispatcher {
      * @throws RocksDBException only in rocksdb mode
      */
     void dispatch(final DispatchRequest request) throws RocksDBException;
+
+    /**
+     * @return whether the dispatch can be done after the message is visible in its consume queue, on a pipeline of
+     * its own when pipelines are enabled
+     */
+    default boolean isPipelineSupported() {
+        return false;
+    }
 }
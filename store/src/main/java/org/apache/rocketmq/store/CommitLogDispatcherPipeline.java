@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.rocksdb.RocksDBException;
+
+/**
+ * Runs a dispatcher on its own thread, so that it does not delay the consume queues built by the reput service.
+ * Requests are dispatched in commit log order by batches, the reput service waits when the pipeline is full.
+ */
+public class CommitLogDispatcherPipeline extends ServiceThread {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final String serviceName;
+    private final CommitLogDispatcher dispatcher;
+    private final BlockingQueue<DispatchRequest> requestQueue;
+    private final int batchSize;
+    private final List<DispatchRequest> batch;
+    private final AtomicInteger pendingRequestNum = new AtomicInteger(0);
+
+    /**
+     * Commit log offset after the last dispatched request, or of the first queued request before any is dispatched
+     */
+    private volatile long dispatchedOffset = -1;
+
+    public CommitLogDispatcherPipeline(final String serviceNamePrefix, final CommitLogDispatcher dispatcher,
+        final int capacity, final int batchSize) {
+        this.serviceName = serviceNamePrefix + CommitLogDispatcherPipeline.class.getSimpleName() + "-"
+            + dispatcher.getClass().getSimpleName();
+        this.dispatcher = dispatcher;
+        this.requestQueue = new LinkedBlockingQueue<>(Math.max(capacity, 1));
+        this.batchSize = Math.max(batchSize, 1);
+        this.batch = new ArrayList<>(this.batchSize);
+    }
+
+    /**
+     * Queue the request, waiting while the pipeline is full. The request is dispatched by the caller once the
+     * pipeline is stopped.
+     */
+    public void putRequest(final DispatchRequest request) throws RocksDBException {
+        this.pendingRequestNum.incrementAndGet();
+        if (this.dispatchedOffset < 0) {
+            this.dispatchedOffset = request.getCommitLogOffset();
+        }
+        try {
+            while (!this.isStopped()) {
+                if (this.requestQueue.offer(request, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.pendingRequestNum.decrementAndGet();
+        this.dispatcher.dispatch(request);
+    }
+
+    public long getDispatchedOffset() {
+        return dispatchedOffset;
+    }
+
+    /**
+     * @return the number of requests queued or being dispatched
+     */
+    public int getPendingRequestNum() {
+        return this.pendingRequestNum.get();
+    }
+
+    /**
+     * Wait until all the queued requests are dispatched
+     *
+     * @return whether the pipeline is idle before the timeout
+     */
+    public boolean waitForIdle(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.pendingRequestNum.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean dispatchBatch(long timeoutMillis) throws InterruptedException {
+        DispatchRequest first = this.requestQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return false;
+        }
+        this.batch.add(first);
+        this.requestQueue.drainTo(this.batch, this.batchSize - 1);
+        for (DispatchRequest request : this.batch) {
+            try {
+                this.dispatcher.dispatch(request);
+            } catch (Throwable e) {
+                LOGGER.error("{} dispatch exception, commitLogOffset={}", this.serviceName,
+                    request.getCommitLogOffset(), e);
+            }
+            this.dispatchedOffset = request.getCommitLogOffset() + request.getMsgSize();
+            this.pendingRequestNum.decrementAndGet();
+        }
+        this.batch.clear();
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        if (!this.waitForIdle(5000)) {
+            LOGGER.warn("shutdown {}, but {} requests have not been dispatched, dispatchedOffset={}",
+                this.serviceName, this.pendingRequestNum.get(), this.dispatchedOffset);
+        }
+        super.shutdown();
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                this.dispatchBatch(10);
+            } catch (Throwable e) {
+                LOGGER.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        try {
+            while (this.dispatchBatch(0)) {
+                LOGGER.info("{} dispatched the rest of the requests, dispatchedOffset={}", this.serviceName,
+                    this.dispatchedOffset);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn(this.getServiceName() + " service has exception. ", e);
+        }
+
+        LOGGER.info(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return this.serviceName;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.logfile.DefaultMappedFile;
+import org.apache.rocketmq.store.logfile.MappedFile;
+import org.apache.rocketmq.store.metrics.DefaultStoreMetricsManager;
+import org.apache.rocketmq.store.queue.ConsumeQueueInterface;
+import org.apache.rocketmq.store.queue.CqUnit;
+import org.apache.rocketmq.store.queue.ReferredIterator;
+import org.apache.rocketmq.store.util.LibC;
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * Reads ahead the CommitLog ranges that a consumer catching up on a queue is going to pull next, so that their pages
+ * are faulted in by this service instead of the pull threads. A queue is read ahead once a group pulls it
+ * sequentially from the cold area of the CommitLog. The pages are advised with madvise(WILLNEED), or touched where
+ * that is not available, within a global budget of bytes per second.
+ */
+public class CommitLogPrefetchService extends ServiceThread {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int PAGE_SIZE = DefaultMappedFile.OS_PAGE_SIZE;
+
+    /**
+     * Messages of a queue closer than this are read ahead as one range, along with the pages in between
+     */
+    private static final int MERGE_GAP = 16 * PAGE_SIZE;
+
+    private static final long READER_EXPIRED_MILLIS = 60 * 1000;
+
+    private final DefaultMessageStore messageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final BlockingQueue<PrefetchRequest> requestQueue;
+    private final ConcurrentMap<String, QueueReader> readerTable = new ConcurrentHashMap<>();
+    private final boolean adviseSupported = !MixAll.isWindows();
+
+    private long budgetWindowStart;
+    private long budgetUsed;
+    private long lastCleanTimestamp = System.currentTimeMillis();
+
+    public CommitLogPrefetchService(final DefaultMessageStore messageStore) {
+        this.messageStore = messageStore;
+        this.messageStoreConfig = messageStore.getMessageStoreConfig();
+        this.requestQueue = new LinkedBlockingQueue<>(Math.max(this.messageStoreConfig.getCommitLogPrefetchQueueCapacity(), 1));
+    }
+
+    /**
+     * Called after the group pulled messages of the queue, cheap enough for the pull threads.
+     *
+     * @param offset          the queue offset pulled from
+     * @param nextBeginOffset the queue offset to pull from next time
+     * @param cold            whether the messages pulled are in the cold area of the CommitLog
+     */
+    public void onMessagePulled(final String group, final String topic, final int queueId, final long offset,
+        final long nextBeginOffset, final boolean cold) {
+        // Reads of the hot area are served from the page cache, keep them free of allocations and table lookups.
+        // A reader becoming cold is tracked from its next pull on, and prefetched once it is found sequential.
+        if (!cold) {
+            return;
+        }
+        String key = topic + "@" + queueId + "@" + group;
+        QueueReader reader = this.readerTable.computeIfAbsent(key, k -> new QueueReader());
+        int prefetchMsgNums = this.messageStoreConfig.getCommitLogPrefetchMsgNums();
+        long from;
+        long to;
+        synchronized (reader) {
+            reader.lastAccessTimestamp = System.currentTimeMillis();
+            boolean sequential = reader.nextOffset == offset;
+            reader.nextOffset = nextBeginOffset;
+            if (!sequential || reader.prefetchedOffset < nextBeginOffset) {
+                reader.prefetchedOffset = nextBeginOffset;
+            }
+            if (!sequential || reader.prefetchedOffset - nextBeginOffset > prefetchMsgNums / 2) {
+                return;
+            }
+            from = reader.prefetchedOffset;
+            to = nextBeginOffset + prefetchMsgNums;
+            reader.prefetchedOffset = to;
+        }
+
+        if (!this.requestQueue.offer(new PrefetchRequest(reader, topic, queueId, from, to))) {
+            DefaultStoreMetricsManager.incCommitLogPrefetchDropped();
+            rollback(reader, from);
+        }
+    }
+
+    /**
+     * Move the reader back to the queue offset, so that its next pull requests again the messages not prefetched
+     */
+    private static void rollback(final QueueReader reader, final long queueOffset) {
+        synchronized (reader) {
+            reader.prefetchedOffset = Math.min(reader.prefetchedOffset, queueOffset);
+        }
+    }
+
+    private void prefetch(final PrefetchRequest request) throws Exception {
+        ConsumeQueueInterface consumeQueue = this.messageStore.findConsumeQueue(request.topic, request.queueId);
+        if (consumeQueue == null) {
+            return;
+        }
+        ReferredIterator<CqUnit> iterator = consumeQueue.iterateFrom(request.from, (int) (request.to - request.from));
+        if (iterator == null) {
+            return;
+        }
+
+        int mappedFileSize = this.messageStoreConfig.getMappedFileSizeCommitLog();
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        long rangeStartQueueOffset = -1;
+        try {
+            while (iterator.hasNext()) {
+                CqUnit cqUnit = iterator.next();
+                if (cqUnit.getQueueOffset() >= request.to) {
+                    break;
+                }
+                long offsetPy = cqUnit.getPos();
+                long endPy = offsetPy + cqUnit.getSize();
+                if (rangeStart >= 0 && offsetPy >= rangeStart && offsetPy <= rangeEnd + MERGE_GAP
+                    && offsetPy / mappedFileSize == rangeStart / mappedFileSize) {
+                    rangeEnd = Math.max(rangeEnd, endPy);
+                    continue;
+                }
+                if (rangeStart >= 0 && !this.prefetchRange(rangeStart, rangeEnd)) {
+                    rollback(request.reader, rangeStartQueueOffset);
+                    return;
+                }
+                rangeStart = offsetPy;
+                rangeEnd = endPy;
+                rangeStartQueueOffset = cqUnit.getQueueOffset();
+            }
+        } finally {
+            iterator.release();
+        }
+        if (rangeStart >= 0 && !this.prefetchRange(rangeStart, rangeEnd)) {
+            rollback(request.reader, rangeStartQueueOffset);
+        }
+    }
+
+    /**
+     * @return false once the budget of this second is used up
+     */
+    private boolean prefetchRange(final long start, final long end) {
+        MappedFile mappedFile = this.messageStore.getCommitLog().getMappedFileQueue().findMappedFileByOffset(start, false);
+        if (mappedFile == null || !mappedFile.hold()) {
+            return true;
+        }
+        try {
+            int startPos = (int) (start - mappedFile.getFileFromOffset());
+            startPos -= startPos % PAGE_SIZE;
+            int endPos = (int) Math.min(end - mappedFile.getFileFromOffset(), mappedFile.getFileSize());
+            if (endPos <= startPos) {
+                return true;
+            }
+            if (!this.acquireBudget(endPos - startPos)) {
+                DefaultStoreMetricsManager.incCommitLogPrefetchDropped();
+                return false;
+            }
+
+            ByteBuffer mappedByteBuffer = mappedFile.getMappedByteBuffer();
+            boolean advised = false;
+            if (this.adviseSupported) {
+                long address = ((DirectBuffer) mappedByteBuffer).address() + startPos;
+                advised = LibC.INSTANCE.madvise(new Pointer(address), new NativeLong(endPos - startPos),
+                    LibC.MADV_WILLNEED) == 0;
+            }
+            if (!advised) {
+                for (int pos = startPos; pos < endPos; pos += PAGE_SIZE) {
+                    mappedByteBuffer.get(pos);
+                }
+            }
+            DefaultStoreMetricsManager.incCommitLogPrefetchBytes(endPos - startPos);
+            return true;
+        } finally {
+            mappedFile.release();
+        }
+    }
+
+    private boolean acquireBudget(final long bytes) {
+        long now = System.currentTimeMillis();
+        if (now - this.budgetWindowStart >= 1000) {
+            this.budgetWindowStart = now;
+            this.budgetUsed = 0;
+        }
+        if (this.budgetUsed + bytes > this.messageStoreConfig.getCommitLogPrefetchMaxBytesPerSecond()) {
+            return false;
+        }
+        this.budgetUsed += bytes;
+        return true;
+    }
+
+    private void cleanExpiredReaders() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastCleanTimestamp < READER_EXPIRED_MILLIS) {
+            return;
+        }
+        this.lastCleanTimestamp = now;
+        Iterator<Map.Entry<String, QueueReader>> iterator = this.readerTable.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue().lastAccessTimestamp > READER_EXPIRED_MILLIS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                PrefetchRequest request = this.requestQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (request != null) {
+                    this.prefetch(request);
+                }
+                this.cleanExpiredReaders();
+            } catch (Throwable e) {
+                LOGGER.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        LOGGER.info(this.getServiceName() + " service end");
+    }
+
+    int getPendingRequestCount() {
+        return this.requestQueue.size();
+    }
+
+    long getPrefetchedOffset(final String group, final String topic, final int queueId) {
+        QueueReader reader = this.readerTable.get(topic + "@" + queueId + "@" + group);
+        if (reader == null) {
+            return -1;
+        }
+        synchronized (reader) {
+            return reader.prefetchedOffset;
+        }
+    }
+
+    @Override
+    public String getServiceName() {
+        if (this.messageStore.getBrokerConfig().isInBrokerContainer()) {
+            return this.messageStore.getBrokerIdentity().getIdentifier() + CommitLogPrefetchService.class.getSimpleName();
+        }
+        return CommitLogPrefetchService.class.getSimpleName();
+    }
+
+    private static class QueueReader {
+        private long nextOffset = -1;
+        private long prefetchedOffset = -1;
+        private volatile long lastAccessTimestamp;
+    }
+
+    private static class PrefetchRequest {
+        private final QueueReader reader;
+        private final String topic;
+        private final int queueId;
+        private final long from;
+        private final long to;
+
+        PrefetchRequest(QueueReader reader, String topic, int queueId, long from, long to) {
+            this.reader = reader;
+            this.topic = topic;
+            this.queueId = queueId;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
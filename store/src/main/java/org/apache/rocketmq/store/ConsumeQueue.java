@@ -34,7 +34,9 @@ import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.apache.rocketmq.store.logfile.MappedFile;
+import org.apache.rocketmq.store.queue.CompressedConsumeQueue;
 import org.apache.rocketmq.store.queue.ConsumeQueueInterface;
+import org.apache.rocketmq.store.queue.ConsumeQueueSnapshot;
 import org.apache.rocketmq.store.queue.CqUnit;
 import org.apache.rocketmq.store.queue.FileQueueLifeCycle;
 import org.apache.rocketmq.store.queue.MultiDispatchUtils;
@@ -129,63 +131,127 @@ public class ConsumeQueue implements ConsumeQueueInterface, FileQueueLifeCycle {
                 index = 0;
             }
 
-            int mappedFileSizeLogics = this.mappedFileSize;
-            MappedFile mappedFile = mappedFiles.get(index);
-            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
-            long processOffset = mappedFile.getFileFromOffset();
-            long mappedFileOffset = 0;
-            long maxExtAddr = 1;
-            while (true) {
-                for (int i = 0; i < mappedFileSizeLogics; i += CQ_STORE_UNIT_SIZE) {
-                    long offset = byteBuffer.getLong();
-                    int size = byteBuffer.getInt();
-                    long tagsCode = byteBuffer.getLong();
+            this.recover(mappedFiles, index, 0);
+        }
+    }
 
-                    if (offset >= 0 && size > 0) {
-                        mappedFileOffset = i + CQ_STORE_UNIT_SIZE;
-                        this.setMaxPhysicOffset(offset + size);
-                        if (isExtAddr(tagsCode)) {
-                            maxExtAddr = tagsCode;
-                        }
-                    } else {
-                        log.info("recover current consume queue file over,  " + mappedFile.getFileName() + " "
-                            + offset + " " + size + " " + tagsCode);
-                        break;
-                    }
-                }
+    /**
+     * Recover from the end of the entries flushed when the snapshot was taken, only scanning the entries appended
+     * after it. The last flushed entry must still point right before the recorded commit log offset, and the min
+     * logic offset must still be in the first file.
+     *
+     * @return false if the snapshot does not match the files, in which case the queue is left untouched
+     */
+    public boolean recover(ConsumeQueueSnapshot.Entry snapshot) {
+        long flushedOffset = snapshot.getFlushedOffset();
+        if (isExtReadEnable() || flushedOffset < CQ_STORE_UNIT_SIZE || flushedOffset % CQ_STORE_UNIT_SIZE != 0
+            || snapshot.getMinLogicOffset() > flushedOffset) {
+            return false;
+        }
 
-                if (mappedFileOffset == mappedFileSizeLogics) {
-                    index++;
-                    if (index >= mappedFiles.size()) {
+        // The min logic offset must still fall in the first file, otherwise files were deleted or reset after the
+        // snapshot and correctMinOffset would start its search from a stale position
+        MappedFile firstMappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (firstMappedFile == null || snapshot.getMinLogicOffset() < firstMappedFile.getFileFromOffset()
+            || snapshot.getMinLogicOffset() >= firstMappedFile.getFileFromOffset() + this.mappedFileSize) {
+            log.info("consume queue snapshot of {}-{} is stale, min logic offset {}, first file {}", topic, queueId,
+                snapshot.getMinLogicOffset(), firstMappedFile == null ? null : firstMappedFile.getFileName());
+            return false;
+        }
 
-                        log.info("recover last consume queue file over, last mapped file "
-                            + mappedFile.getFileName());
-                        break;
-                    } else {
-                        mappedFile = mappedFiles.get(index);
-                        byteBuffer = mappedFile.sliceByteBuffer();
-                        processOffset = mappedFile.getFileFromOffset();
-                        mappedFileOffset = 0;
-                        log.info("recover next consume queue file, " + mappedFile.getFileName());
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(flushedOffset - CQ_STORE_UNIT_SIZE);
+        int index = mappedFile == null ? -1 : mappedFiles.indexOf(mappedFile);
+        if (index < 0) {
+            return false;
+        }
+
+        int lastEntryPosition = (int) (flushedOffset - CQ_STORE_UNIT_SIZE - mappedFile.getFileFromOffset());
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        long offset = byteBuffer.getLong(lastEntryPosition);
+        int size = byteBuffer.getInt(lastEntryPosition + 8);
+        if (offset < 0 || size <= 0 || offset + size != snapshot.getMaxPhysicOffset()) {
+            return false;
+        }
+
+        this.setMaxPhysicOffset(snapshot.getMaxPhysicOffset());
+        this.setMinLogicOffset(snapshot.getMinLogicOffset());
+        this.recover(mappedFiles, index, lastEntryPosition + CQ_STORE_UNIT_SIZE);
+        return true;
+    }
+
+    /**
+     * @return the recover state to snapshot, or null if the queue has entries not flushed yet
+     */
+    public ConsumeQueueSnapshot.Entry buildSnapshotEntry() {
+        long maxPhysicOffset = this.getMaxPhysicOffset();
+        long flushedOffset = this.mappedFileQueue.getFlushedWhere();
+        if (isExtReadEnable() || maxPhysicOffset < 0 || flushedOffset <= 0
+            || flushedOffset != this.mappedFileQueue.getMaxOffset()) {
+            return null;
+        }
+        return new ConsumeQueueSnapshot.Entry(topic, queueId, flushedOffset, maxPhysicOffset, minLogicOffset);
+    }
+
+    private void recover(final List<MappedFile> mappedFiles, int index, int startPosition) {
+        int mappedFileSizeLogics = this.mappedFileSize;
+        MappedFile mappedFile = mappedFiles.get(index);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        byteBuffer.position(startPosition);
+        long processOffset = mappedFile.getFileFromOffset();
+        long mappedFileOffset = startPosition;
+        long maxExtAddr = 1;
+        while (true) {
+            for (int i = startPosition; i < mappedFileSizeLogics; i += CQ_STORE_UNIT_SIZE) {
+                long offset = byteBuffer.getLong();
+                int size = byteBuffer.getInt();
+                long tagsCode = byteBuffer.getLong();
+
+                if (offset >= 0 && size > 0) {
+                    mappedFileOffset = i + CQ_STORE_UNIT_SIZE;
+                    this.setMaxPhysicOffset(offset + size);
+                    if (isExtAddr(tagsCode)) {
+                        maxExtAddr = tagsCode;
                     }
                 } else {
-                    log.info("recover current consume queue over " + mappedFile.getFileName() + " "
-                        + (processOffset + mappedFileOffset));
+                    log.info("recover current consume queue file over,  " + mappedFile.getFileName() + " "
+                        + offset + " " + size + " " + tagsCode);
                     break;
                 }
             }
 
-            processOffset += mappedFileOffset;
-            this.mappedFileQueue.setFlushedWhere(processOffset);
-            this.mappedFileQueue.setCommittedWhere(processOffset);
-            this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            if (mappedFileOffset == mappedFileSizeLogics) {
+                index++;
+                if (index >= mappedFiles.size()) {
 
-            if (isExtReadEnable()) {
-                this.consumeQueueExt.recover();
-                log.info("Truncate consume queue extend file by max {}", maxExtAddr);
-                this.consumeQueueExt.truncateByMaxAddress(maxExtAddr);
+                    log.info("recover last consume queue file over, last mapped file "
+                        + mappedFile.getFileName());
+                    break;
+                } else {
+                    mappedFile = mappedFiles.get(index);
+                    byteBuffer = mappedFile.sliceByteBuffer();
+                    processOffset = mappedFile.getFileFromOffset();
+                    mappedFileOffset = 0;
+                    startPosition = 0;
+                    log.info("recover next consume queue file, " + mappedFile.getFileName());
+                }
+            } else {
+                log.info("recover current consume queue over " + mappedFile.getFileName() + " "
+                    + (processOffset + mappedFileOffset));
+                break;
             }
         }
+
+        processOffset += mappedFileOffset;
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+
+        if (isExtReadEnable()) {
+            this.consumeQueueExt.recover();
+            log.info("Truncate consume queue extend file by max {}", maxExtAddr);
+            this.consumeQueueExt.truncateByMaxAddress(maxExtAddr);
+        }
     }
 
     @Override
@@ -752,9 +818,11 @@ public class ConsumeQueue implements ConsumeQueueInterface, FileQueueLifeCycle {
         ConsumeQueueInterface cq = this.messageStore.findConsumeQueue(queueName, queueId);
         boolean canWrite = this.messageStore.getRunningFlags().isCQWriteable();
         for (int i = 0; i < maxRetries && canWrite; i++) {
-            boolean result = ((ConsumeQueue) cq).putMessagePositionInfo(request.getCommitLogOffset(), request.getMsgSize(),
-                request.getTagsCode(),
-                queueOffset);
+            boolean result = cq instanceof CompressedConsumeQueue
+                ? ((CompressedConsumeQueue) cq).putMessagePositionInfo(request.getCommitLogOffset(), request.getMsgSize(),
+                    request.getTagsCode(), queueOffset)
+                : ((ConsumeQueue) cq).putMessagePositionInfo(request.getCommitLogOffset(), request.getMsgSize(),
+                    request.getTagsCode(), queueOffset);
             if (result) {
                 break;
             } else {
@@ -784,7 +852,7 @@ public class ConsumeQueue implements ConsumeQueueInterface, FileQueueLifeCycle {
         queueOffsetOperator.increaseQueueOffset(topicQueueKey, messageNum);
     }
 
-    private boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+    public boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
         final long cqOffset) {
 
         if (offset + size <= this.getMaxPhysicOffset()) {
@@ -50,6 +50,7 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -100,7 +101,9 @@ import org.apache.rocketmq.store.ha.autoswitch.AutoSwitchHAService;
 import org.apache.rocketmq.store.hook.PutMessageHook;
 import org.apache.rocketmq.store.hook.SendMessageBackHook;
 import org.apache.rocketmq.store.index.IndexService;
+import org.apache.rocketmq.store.index.IndexServiceInterface;
 import org.apache.rocketmq.store.index.QueryOffsetResult;
+import org.apache.rocketmq.store.index.RocksDBIndexService;
 import org.apache.rocketmq.store.kv.CommitLogDispatcherCompaction;
 import org.apache.rocketmq.store.kv.CompactionService;
 import org.apache.rocketmq.store.kv.CompactionStore;
@@ -111,6 +114,7 @@ import org.apache.rocketmq.store.queue.ConsumeQueueStore;
 import org.apache.rocketmq.store.queue.ConsumeQueueStoreInterface;
 import org.apache.rocketmq.store.queue.CqUnit;
 import org.apache.rocketmq.store.queue.ReferredIterator;
+import org.apache.rocketmq.store.rocksdb.RocksDBOptionsFactory;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
 import org.apache.rocketmq.store.timer.TimerMessageStore;
 import org.apache.rocketmq.store.util.PerfCounter;
@@ -136,7 +140,7 @@ public class DefaultMessageStore implements MessageStore {
 
     private final CorrectLogicOffsetService correctLogicOffsetService;
 
-    protected final IndexService indexService;
+    protected final IndexServiceInterface indexService;
 
     private final AllocateMappedFileService allocateMappedFileService;
 
@@ -149,6 +153,10 @@ public class DefaultMessageStore implements MessageStore {
 
     private CompactionService compactionService;
 
+    private CommitLogPrefetchService commitLogPrefetchService;
+
+    private ExecutorService getMessageExecutor;
+
     private final StoreStatsService storeStatsService;
 
     private final TransientStorePool transientStorePool;
@@ -169,6 +177,8 @@ public class DefaultMessageStore implements MessageStore {
 
     private final LinkedList<CommitLogDispatcher> dispatcherList;
 
+    private final Map<CommitLogDispatcher, CommitLogDispatcherPipeline> dispatcherPipelineTable = new ConcurrentHashMap<>();
+
     private RocksDBMessageStore rocksDBMessageStore;
 
     private final RandomAccessFile lockFile;
@@ -222,6 +232,7 @@ public class DefaultMessageStore implements MessageStore {
         this.messageArrivingListener = messageArrivingListener;
         this.brokerConfig = brokerConfig;
         this.messageStoreConfig = messageStoreConfig;
+        RocksDBOptionsFactory.initSharedBlockCache(messageStoreConfig.getRocksdbSharedBlockCacheSize());
         this.aliveReplicasNum = messageStoreConfig.getTotalReplicas();
         this.brokerStatsManager = brokerStatsManager;
         this.topicConfigTable = topicConfigTable;
@@ -239,7 +250,7 @@ public class DefaultMessageStore implements MessageStore {
         this.cleanConsumeQueueService = createCleanConsumeQueueService();
         this.correctLogicOffsetService = createCorrectLogicOffsetService();
         this.storeStatsService = new StoreStatsService(getBrokerIdentity());
-        this.indexService = new IndexService(this);
+        this.indexService = messageStoreConfig.isEnableRocksDBIndex() ? new RocksDBIndexService(this) : new IndexService(this);
 
         if (!messageStoreConfig.isEnableDLegerCommitLog() && !this.messageStoreConfig.isDuplicationEnable()) {
             if (brokerConfig.isEnableControllerMode()) {
@@ -260,7 +271,23 @@ public class DefaultMessageStore implements MessageStore {
             this.reputMessageService = new ConcurrentReputMessageService();
         }
 
-        this.transientStorePool = new TransientStorePool(messageStoreConfig.getTransientStorePoolSize(), messageStoreConfig.getMappedFileSizeCommitLog());
+        if (messageStoreConfig.isEnableCommitLogPrefetch()) {
+            this.commitLogPrefetchService = new CommitLogPrefetchService(this);
+        }
+
+        if (messageStoreConfig.isEnableAsyncGetMessage()) {
+            this.getMessageExecutor = ThreadUtils.newThreadPoolExecutor(
+                messageStoreConfig.getAsyncGetMessageThreadPoolNums(),
+                messageStoreConfig.getAsyncGetMessageThreadPoolNums(),
+                1000 * 60,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(messageStoreConfig.getAsyncGetMessageThreadQueueCapacity()),
+                new ThreadFactoryImpl("GetMessageThread_", getBrokerIdentity()),
+                new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        this.transientStorePool = new TransientStorePool(messageStoreConfig.getTransientStorePoolSize(), messageStoreConfig.getMappedFileSizeCommitLog(),
+            messageStoreConfig.isTransientStorePoolHugePageEnable(), messageStoreConfig.getTransientStorePoolNumaNode());
 
         this.scheduledExecutorService =
             ThreadUtils.newSingleThreadScheduledExecutor(new ThreadFactoryImpl("StoreScheduledThread", getBrokerIdentity()));
@@ -413,6 +440,8 @@ public class DefaultMessageStore implements MessageStore {
         lockFile.getChannel().write(ByteBuffer.wrap("lock".getBytes(StandardCharsets.UTF_8)));
         lockFile.getChannel().force(true);
 
+        this.startDispatcherPipelines();
+        this.replayDispatcherPipelines(this.commitLog.getConfirmOffset());
         this.reputMessageService.setReputFromOffset(this.commitLog.getConfirmOffset());
         this.reputMessageService.start();
 
@@ -424,6 +453,9 @@ public class DefaultMessageStore implements MessageStore {
         this.commitLog.start();
         this.consumeQueueStore.start();
         this.storeStatsService.start();
+        if (this.commitLogPrefetchService != null) {
+            this.commitLogPrefetchService.start();
+        }
 
         if (this.haService != null) {
             this.haService.start();
@@ -509,10 +541,19 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             this.storeStatsService.shutdown();
+            if (this.commitLogPrefetchService != null) {
+                this.commitLogPrefetchService.shutdown();
+            }
+            if (this.getMessageExecutor != null) {
+                this.getMessageExecutor.shutdown();
+            }
             this.commitLog.shutdown();
             this.reputMessageService.shutdown();
             this.consumeQueueStore.shutdown();
             // dispatch-related services must be shut down after reputMessageService
+            for (CommitLogDispatcherPipeline pipeline : this.dispatcherPipelineTable.values()) {
+                pipeline.shutdown();
+            }
             this.indexService.shutdown();
             if (this.compactionService != null) {
                 this.compactionService.shutdown();
@@ -522,6 +563,7 @@ public class DefaultMessageStore implements MessageStore {
             }
             this.flushConsumeQueueService.shutdown();
             this.allocateMappedFileService.shutdown();
+            this.storeCheckpoint.setVerifiedPhyOffset(this.commitLog.getFlushedSealedOffset());
             this.storeCheckpoint.flush();
             this.storeCheckpoint.shutdown();
 
@@ -715,19 +757,40 @@ public class DefaultMessageStore implements MessageStore {
         return commitLog;
     }
 
-    public void truncateDirtyFiles(long offsetToTruncate) throws RocksDBException {
+    /**
+     * Truncate the commitLog and the logic files to the given offset
+     *
+     * @return false if the dispatcher pipelines could not be drained, in which case nothing is truncated
+     */
+    public boolean truncateDirtyFiles(long offsetToTruncate) throws RocksDBException {
+        return truncateDirtyFiles(offsetToTruncate, messageStoreConfig.getDispatcherPipelineDrainTimeoutMs());
+    }
+
+    /**
+     * Truncate the commitLog and the logic files to the given offset, waiting at most the given time for the
+     * dispatcher pipelines to drain. Reput stays stopped for the whole wait, so the pipelines are not refilled.
+     *
+     * @return false if the dispatcher pipelines could not be drained, in which case nothing is truncated
+     */
+    public boolean truncateDirtyFiles(long offsetToTruncate, long drainTimeoutMillis) throws RocksDBException {
 
         LOGGER.info("truncate dirty files to {}", offsetToTruncate);
 
         if (offsetToTruncate >= this.getMaxPhyOffset()) {
             LOGGER.info("no need to truncate files, truncate offset is {}, max physical offset is {}", offsetToTruncate, this.getMaxPhyOffset());
-            return;
+            return true;
         }
 
         this.reputMessageService.shutdown();
 
         long oldReputFromOffset = this.reputMessageService.getReputFromOffset();
 
+        if (!this.waitForDispatcherPipelinesIdle(drainTimeoutMillis)) {
+            LOGGER.error("dispatcher pipelines are still busy, give up truncating files to {}", offsetToTruncate);
+            this.restartReputMessageService(oldReputFromOffset);
+            return false;
+        }
+
         // truncate consume queue
         this.truncateDirtyLogicFiles(offsetToTruncate);
 
@@ -736,17 +799,39 @@ public class DefaultMessageStore implements MessageStore {
 
         this.recoverTopicQueueTable();
 
+        long resetReputOffset = Math.min(oldReputFromOffset, offsetToTruncate);
+
+        LOGGER.info("oldReputFromOffset is {}, reset reput from offset to {}", oldReputFromOffset, resetReputOffset);
+
+        this.restartReputMessageService(resetReputOffset);
+        return true;
+    }
+
+    /**
+     * Wait until every dispatcher pipeline has dispatched the requests queued so far
+     *
+     * @return whether all the pipelines are idle before the timeout, which covers all of them together
+     */
+    public boolean waitForDispatcherPipelinesIdle(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean idle = true;
+        for (CommitLogDispatcherPipeline pipeline : this.dispatcherPipelineTable.values()) {
+            if (!pipeline.waitForIdle(Math.max(deadline - System.currentTimeMillis(), 0))) {
+                LOGGER.warn("{} is not idle after {}ms, {} requests pending", pipeline.getServiceName(),
+                    timeoutMillis, pipeline.getPendingRequestNum());
+                idle = false;
+            }
+        }
+        return idle;
+    }
+
+    private void restartReputMessageService(long reputFromOffset) {
         if (!messageStoreConfig.isEnableBuildConsumeQueueConcurrently()) {
             this.reputMessageService = new ReputMessageService();
         } else {
             this.reputMessageService = new ConcurrentReputMessageService();
         }
-
-        long resetReputOffset = Math.min(oldReputFromOffset, offsetToTruncate);
-
-        LOGGER.info("oldReputFromOffset is {}, reset reput from offset to {}", oldReputFromOffset, resetReputOffset);
-
-        this.reputMessageService.setReputFromOffset(resetReputOffset);
+        this.reputMessageService.setReputFromOffset(reputFromOffset);
         this.reputMessageService.start();
     }
 
@@ -761,8 +846,7 @@ public class DefaultMessageStore implements MessageStore {
             LOGGER.error("offset {} is not align, truncate failed, need manual fix", offsetToTruncate);
             return false;
         }
-        truncateDirtyFiles(offsetToTruncate);
-        return true;
+        return truncateDirtyFiles(offsetToTruncate);
     }
 
     @Override
@@ -786,7 +870,7 @@ public class DefaultMessageStore implements MessageStore {
     @Override
     public CompletableFuture<GetMessageResult> getMessageAsync(String group, String topic,
         int queueId, long offset, int maxMsgNums, MessageFilter messageFilter) {
-        return CompletableFuture.completedFuture(getMessage(group, topic, queueId, offset, maxMsgNums, messageFilter));
+        return getMessageAsync(group, topic, queueId, offset, maxMsgNums, MAX_PULL_MSG_SIZE, messageFilter);
     }
 
     @Override
@@ -945,6 +1029,11 @@ public class DefaultMessageStore implements MessageStore {
                     }
                 }
 
+                if (this.commitLogPrefetchService != null && GetMessageStatus.FOUND == status) {
+                    this.commitLogPrefetchService.onMessagePulled(group, topic, queueId, offset, nextBeginOffset,
+                        checkInColdAreaByCommitOffset(maxPhyOffsetPulling, maxOffsetPy));
+                }
+
                 if (diskFallRecorded) {
                     long fallBehind = maxOffsetPy - maxPhyOffsetPulling;
                     brokerStatsManager.recordDiskFallBehindSize(group, topic, queueId, fallBehind);
@@ -983,9 +1072,46 @@ public class DefaultMessageStore implements MessageStore {
     @Override
     public CompletableFuture<GetMessageResult> getMessageAsync(String group, String topic,
         int queueId, long offset, int maxMsgNums, int maxTotalMsgSize, MessageFilter messageFilter) {
+        if (this.getMessageExecutor != null && !this.shutdown
+            && !this.isMessageInPageCache(topic, queueId, offset, maxTotalMsgSize)) {
+            try {
+                return CompletableFuture.supplyAsync(
+                    () -> getMessage(group, topic, queueId, offset, maxMsgNums, maxTotalMsgSize, messageFilter),
+                    this.getMessageExecutor);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("get message executor is busy, read the messages of {}-{} inline", topic, queueId);
+            }
+        }
         return CompletableFuture.completedFuture(getMessage(group, topic, queueId, offset, maxMsgNums, maxTotalMsgSize, messageFilter));
     }
 
+    /**
+     * Whether the CommitLog pages of the messages to read from the offset are resident, messages in the hot area are
+     * taken as resident without asking the OS.
+     */
+    private boolean isMessageInPageCache(String topic, int queueId, long offset, int maxTotalMsgSize) {
+        ConsumeQueueInterface consumeQueue = findConsumeQueue(topic, queueId);
+        if (consumeQueue == null) {
+            return true;
+        }
+        CqUnit cqUnit = consumeQueue.get(offset);
+        if (cqUnit == null) {
+            return true;
+        }
+        long offsetPy = cqUnit.getPos();
+        if (!checkInColdAreaByCommitOffset(offsetPy, this.commitLog.getMaxOffset())) {
+            return true;
+        }
+        MappedFile mappedFile = this.commitLog.getMappedFileQueue().findMappedFileByOffset(offsetPy, false);
+        if (mappedFile == null) {
+            return true;
+        }
+        int position = (int) (offsetPy - mappedFile.getFileFromOffset());
+        int size = Math.min(Math.min(maxTotalMsgSize, this.messageStoreConfig.getMaxTransferBytesOnMessageInDisk()),
+            mappedFile.getFileSize() - position);
+        return size <= 0 || mappedFile.isLoaded(position, size);
+    }
+
     @Override
     public long getMaxOffsetInQueue(String topic, int queueId) throws ConsumeQueueException {
         return getMaxOffsetInQueue(topic, queueId, true);
@@ -1323,6 +1449,19 @@ public class DefaultMessageStore implements MessageStore {
         return CompletableFuture.completedFuture(queryMessage(topic, key, maxNum, begin, end));
     }
 
+    @Override
+    public QueryMessageResult queryCompactedMessage(String topic, String key, boolean prefix, int maxNum) {
+        if (compactionStore == null) {
+            return new QueryMessageResult();
+        }
+        try {
+            return compactionStore.queryByKey(topic, key, prefix, maxNum);
+        } catch (Exception e) {
+            LOGGER.error("queryCompactedMessage exception", e);
+            return new QueryMessageResult();
+        }
+    }
+
     @Override
     public void updateHaMasterAddress(String newAddr) {
         if (this.haService != null) {
@@ -1417,10 +1556,13 @@ public class DefaultMessageStore implements MessageStore {
                 this.messageStoreConfig.getStorePathRootDir()) + File.separator + topic;
             String batchConsumeQueueDir = StorePathConfigHelper.getStorePathBatchConsumeQueue(
                 this.messageStoreConfig.getStorePathRootDir()) + File.separator + topic;
+            String compressedConsumeQueueDir = StorePathConfigHelper.getStorePathCompressedConsumeQueue(
+                this.messageStoreConfig.getStorePathRootDir()) + File.separator + topic;
 
             UtilAll.deleteEmptyDirectory(new File(consumeQueueDir));
             UtilAll.deleteEmptyDirectory(new File(consumeQueueExtDir));
             UtilAll.deleteEmptyDirectory(new File(batchConsumeQueueDir));
+            UtilAll.deleteEmptyDirectory(new File(compressedConsumeQueueDir));
 
             LOGGER.info("DeleteTopic: Topic has been destroyed, topic={}", topic);
             deleteCount++;
@@ -1847,6 +1989,7 @@ public class DefaultMessageStore implements MessageStore {
         this.scheduledExecutorService.scheduleAtFixedRate(new AbstractBrokerRunnable(this.getBrokerIdentity()) {
             @Override
             public void run0() {
+                DefaultMessageStore.this.storeCheckpoint.setVerifiedPhyOffset(DefaultMessageStore.this.commitLog.getFlushedSealedOffset());
                 DefaultMessageStore.this.storeCheckpoint.flush();
             }
         }, 1, 1, TimeUnit.SECONDS);
@@ -1933,6 +2076,10 @@ public class DefaultMessageStore implements MessageStore {
         return messageStoreConfig;
     }
 
+    public CommitLogPrefetchService getCommitLogPrefetchService() {
+        return commitLogPrefetchService;
+    }
+
     @Override
     public TransientStorePool getTransientStorePool() {
         return transientStorePool;
@@ -1987,8 +2134,97 @@ public class DefaultMessageStore implements MessageStore {
 
     public void doDispatch(DispatchRequest req) throws RocksDBException {
         for (CommitLogDispatcher dispatcher : this.dispatcherList) {
-            dispatcher.dispatch(req);
+            CommitLogDispatcherPipeline pipeline = this.dispatcherPipelineTable.get(dispatcher);
+            if (pipeline != null) {
+                pipeline.putRequest(req);
+            } else {
+                dispatcher.dispatch(req);
+            }
+        }
+    }
+
+    /**
+     * Move the dispatchers that do not gate the message arrival, such as the index, to pipelines of their own, so the
+     * reput service only waits for the consume queues before notifying the consumers.
+     */
+    private void startDispatcherPipelines() {
+        if (!this.messageStoreConfig.isEnableDispatcherPipeline()) {
+            return;
+        }
+        String prefix = this.brokerConfig.isInBrokerContainer() ? this.getBrokerIdentity().getIdentifier() : "";
+        for (CommitLogDispatcher dispatcher : this.dispatcherList) {
+            if (!dispatcher.isPipelineSupported() || this.dispatcherPipelineTable.containsKey(dispatcher)) {
+                continue;
+            }
+            CommitLogDispatcherPipeline pipeline = new CommitLogDispatcherPipeline(prefix, dispatcher,
+                this.messageStoreConfig.getDispatcherPipelineCapacity(),
+                this.messageStoreConfig.getDispatcherPipelineBatchSize());
+            pipeline.start();
+            this.dispatcherPipelineTable.put(dispatcher, pipeline);
+            LOGGER.info("start dispatcher pipeline {}", pipeline.getServiceName());
+        }
+    }
+
+    /**
+     * Requests queued in the pipelines are lost if the broker crashes, while the reput service restarts after them.
+     * Replay the commit log from the offset the pipelines have dispatched at the last checkpoint, the index and the
+     * compaction dispatchers skip the messages they already have.
+     */
+    private void replayDispatcherPipelines(long toOffset) throws RocksDBException {
+        long fromOffset = this.storeCheckpoint.getPipelineDispatchedPhyOffset();
+        if (this.dispatcherPipelineTable.isEmpty() || fromOffset <= 0 || fromOffset >= toOffset) {
+            return;
         }
+        fromOffset = Math.max(fromOffset, this.commitLog.getMinOffset());
+        LOGGER.info("replay dispatcher pipelines from {} to {}", fromOffset, toOffset);
+
+        long offset = fromOffset;
+        while (offset < toOffset) {
+            SelectMappedBufferResult result = this.commitLog.getData(offset);
+            if (result == null) {
+                break;
+            }
+            try {
+                offset = result.getStartOffset();
+                for (int readSize = 0; readSize < result.getSize() && offset < toOffset; ) {
+                    DispatchRequest dispatchRequest = this.commitLog.checkMessageAndReturnSize(result.getByteBuffer(), false, false, false);
+                    int size = dispatchRequest.getBufferSize() == -1 ? dispatchRequest.getMsgSize() : dispatchRequest.getBufferSize();
+                    if (!dispatchRequest.isSuccess() || size < 0) {
+                        LOGGER.warn("stop replaying dispatcher pipelines at {}, the message is invalid", offset);
+                        return;
+                    }
+                    if (size == 0) {
+                        offset = this.commitLog.rollNextFile(offset);
+                        break;
+                    }
+                    for (CommitLogDispatcherPipeline pipeline : this.dispatcherPipelineTable.values()) {
+                        pipeline.putRequest(dispatchRequest);
+                    }
+                    offset += size;
+                    readSize += size;
+                }
+            } finally {
+                result.release();
+            }
+        }
+    }
+
+    /**
+     * @return the commit log offset below which the pipelines have dispatched every request, 0 if there are none
+     */
+    long getPipelineDispatchedOffset() {
+        long minOffset = Long.MAX_VALUE;
+        for (CommitLogDispatcherPipeline pipeline : this.dispatcherPipelineTable.values()) {
+            long dispatchedOffset = pipeline.getDispatchedOffset();
+            if (dispatchedOffset >= 0) {
+                minOffset = Math.min(minOffset, dispatchedOffset);
+            }
+        }
+        return minOffset == Long.MAX_VALUE ? 0 : minOffset;
+    }
+
+    public Map<CommitLogDispatcher, CommitLogDispatcherPipeline> getDispatcherPipelineTable() {
+        return dispatcherPipelineTable;
     }
 
     /**
@@ -2188,6 +2424,11 @@ public class DefaultMessageStore implements MessageStore {
                 DefaultMessageStore.this.indexService.buildIndex(request);
             }
         }
+
+        @Override
+        public boolean isPipelineSupported() {
+            return true;
+        }
     }
 
     class CleanCommitLogService {
@@ -2647,6 +2888,8 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             long logicsMsgTimestamp = 0;
+            // taken before flushing, so the checkpoint never gets ahead of what the dispatchers have flushed
+            long pipelineDispatchedOffset = DefaultMessageStore.this.getPipelineDispatchedOffset();
 
             int flushConsumeQueueThoroughInterval = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
             long currentTimeMillis = System.currentTimeMillis();
@@ -2675,7 +2918,11 @@ public class DefaultMessageStore implements MessageStore {
                 if (logicsMsgTimestamp > 0) {
                     DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
                 }
+                DefaultMessageStore.this.getStoreCheckpoint().setPipelineDispatchedPhyOffset(pipelineDispatchedOffset);
                 DefaultMessageStore.this.getStoreCheckpoint().flush();
+                if (messageStoreConfig.isEnableConsumeQueueSnapshot()) {
+                    DefaultMessageStore.this.consumeQueueStore.persistSnapshot();
+                }
             }
         }
 
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.rocketmq.common.message.MessageDecoder;
+
+/**
+ * Per thread state reused when decoding the messages of the CommitLog for dispatch: a scratch array for the fields
+ * which are read but not kept, and a cache of the decoded topics, so that decoding a message of a known topic does
+ * not allocate it again.
+ */
+class DispatchDecodeBuffer {
+    /**
+     * Large enough for the host addresses, the topic and the properties, which lengths are stored on a short
+     */
+    static final int SCRATCH_SIZE = 64 * 1024;
+
+    private static final int TOPIC_CACHE_SIZE = 1024;
+
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+
+    private final byte[][] topicBytesCache = new byte[TOPIC_CACHE_SIZE][];
+    private final String[] topicCache = new String[TOPIC_CACHE_SIZE];
+
+    /**
+     * @return the scratch array if it holds the given length, a new array otherwise
+     */
+    byte[] scratch(int length) {
+        return length <= SCRATCH_SIZE ? scratch : new byte[length];
+    }
+
+    /**
+     * Read a topic of the given length from the buffer, returning the same instance for the same bytes as long as it
+     * stays in the cache.
+     */
+    String readTopic(ByteBuffer byteBuffer, int topicLen) {
+        byteBuffer.get(scratch, 0, topicLen);
+        int hash = 1;
+        for (int i = 0; i < topicLen; i++) {
+            hash = 31 * hash + scratch[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TOPIC_CACHE_SIZE - 1);
+        byte[] cachedBytes = topicBytesCache[slot];
+        if (cachedBytes != null && cachedBytes.length == topicLen && equals(cachedBytes, scratch, topicLen)) {
+            return topicCache[slot];
+        }
+        String topic = new String(scratch, 0, topicLen, MessageDecoder.CHARSET_UTF8);
+        topicBytesCache[slot] = Arrays.copyOf(scratch, topicLen);
+        topicCache[slot] = topic;
+        return topic;
+    }
+
+    private static boolean equals(byte[] cached, byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
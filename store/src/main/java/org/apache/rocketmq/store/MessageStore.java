@@ -422,6 +422,19 @@ public interface MessageStore {
     CompletableFuture<QueryMessageResult> queryMessageAsync(final String topic, final String key, final int maxNum,
         final long begin, final long end);
 
+    /**
+     * Query the latest messages of a compacted topic by key.
+     *
+     * @param topic  topic of the message.
+     * @param key    message key, or key prefix.
+     * @param prefix whether to return all the keys starting with the key.
+     * @param maxNum maximum number of the messages possible.
+     */
+    default QueryMessageResult queryCompactedMessage(final String topic, final String key, final boolean prefix,
+        final int maxNum) {
+        return new QueryMessageResult();
+    }
+
     /**
      * Update HA master address.
      *
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Flat combining in front of the {@link PutMessageLock}.
+ * <p>
+ * Writers publish their request to a pending queue instead of competing for the put lock. Whoever wins the
+ * combiner role takes the put lock once and appends a whole batch of pending requests on behalf of the others,
+ * so the lock changes hands once per batch rather than once per message, and waiting writers park on their own
+ * request instead of spinning on the shared lock word.
+ */
+public class PutMessageCombiner<T extends PutMessageCombiner.Request> {
+
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final PutMessageLock putMessageLock;
+    private final Consumer<T> appender;
+    private final int maxBatchSize;
+    // Only touched by the thread holding the combiner role
+    private final Object[] batch;
+
+    private final ConcurrentLinkedQueue<T> pendingRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean combining = new AtomicBoolean(false);
+
+    private final LongAdder combinedBatches = new LongAdder();
+    private final LongAdder combinedRequests = new LongAdder();
+
+    public PutMessageCombiner(PutMessageLock putMessageLock, Consumer<T> appender, int maxBatchSize) {
+        this.putMessageLock = putMessageLock;
+        this.appender = appender;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batch = new Object[this.maxBatchSize];
+    }
+
+    /**
+     * Append the request, returning once it has been appended either by the calling thread or by another
+     * combiner. The appender is always invoked with the put lock held.
+     */
+    public void append(final T request) {
+        ((Request) request).waiter = Thread.currentThread();
+        pendingRequests.offer(request);
+
+        while (!request.isDone()) {
+            if (combining.compareAndSet(false, true)) {
+                try {
+                    combine();
+                } finally {
+                    combining.set(false);
+                }
+                continue;
+            }
+            // A combiner may have drained the queue right before our offer became visible, hence the bounded park
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    private void combine() {
+        T head = pendingRequests.poll();
+        if (head == null) {
+            return;
+        }
+
+        int batchSize = 0;
+        putMessageLock.lock();
+        try {
+            T request = head;
+            while (request != null) {
+                try {
+                    appender.accept(request);
+                } catch (Throwable t) {
+                    ((Request) request).error = t;
+                }
+                batch[batchSize++] = request;
+                // A request that leaves work for its own writer to finish after the append must be released before
+                // anything else is appended, later appends of the same batch may have to wait for that work
+                if (batchSize >= maxBatchSize || ((Request) request).endsBatch()) {
+                    break;
+                }
+                request = pendingRequests.poll();
+            }
+        } finally {
+            putMessageLock.unlock();
+        }
+
+        combinedBatches.increment();
+        combinedRequests.add(batchSize);
+
+        // Wake up the writers outside the put lock, so that they do not contend with the next combiner
+        for (int i = 0; i < batchSize; i++) {
+            Request request = (Request) batch[i];
+            batch[i] = null;
+            Thread waiter = request.waiter;
+            request.done = true;
+            if (waiter != Thread.currentThread()) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    public long getCombinedBatches() {
+        return combinedBatches.sum();
+    }
+
+    public long getCombinedRequests() {
+        return combinedRequests.sum();
+    }
+
+    public abstract static class Request {
+        private volatile boolean done = false;
+        private volatile Throwable error;
+        private Thread waiter;
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return the exception thrown by the appender for this request, or null if it completed normally
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * Checked right after the request is appended, return true to close the batch with this request so that
+         * its writer is woken up before any other request is appended.
+         */
+        protected boolean endsBatch() {
+            return false;
+        }
+    }
+}
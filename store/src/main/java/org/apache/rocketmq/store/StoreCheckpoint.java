@@ -38,6 +38,14 @@ public class StoreCheckpoint {
     private volatile long indexMsgTimestamp = 0;
     private volatile long masterFlushedOffset = 0;
     private volatile long confirmPhyOffset = 0;
+    /**
+     * CommitLog files below this offset were full and flushed, recover needs not check their CRC again
+     */
+    private volatile long verifiedPhyOffset = 0;
+    /**
+     * The dispatcher pipelines have dispatched the commit log below this offset, 0 if nothing is left to replay
+     */
+    private volatile long pipelineDispatchedPhyOffset = 0;
 
     public StoreCheckpoint(final String scpPath) throws IOException {
         File file = new File(scpPath);
@@ -55,6 +63,8 @@ public class StoreCheckpoint {
             this.indexMsgTimestamp = this.mappedByteBuffer.getLong(16);
             this.masterFlushedOffset = this.mappedByteBuffer.getLong(24);
             this.confirmPhyOffset = this.mappedByteBuffer.getLong(32);
+            this.verifiedPhyOffset = this.mappedByteBuffer.getLong(40);
+            this.pipelineDispatchedPhyOffset = this.mappedByteBuffer.getLong(48);
 
             log.info("store checkpoint file physicMsgTimestamp " + this.physicMsgTimestamp + ", "
                 + UtilAll.timeMillisToHumanString(this.physicMsgTimestamp));
@@ -64,6 +74,8 @@ public class StoreCheckpoint {
                 + UtilAll.timeMillisToHumanString(this.indexMsgTimestamp));
             log.info("store checkpoint file masterFlushedOffset " + this.masterFlushedOffset);
             log.info("store checkpoint file confirmPhyOffset " + this.confirmPhyOffset);
+            log.info("store checkpoint file verifiedPhyOffset " + this.verifiedPhyOffset);
+            log.info("store checkpoint file pipelineDispatchedPhyOffset " + this.pipelineDispatchedPhyOffset);
         } else {
             log.info("store checkpoint file not exists, " + scpPath);
         }
@@ -88,6 +100,8 @@ public class StoreCheckpoint {
         this.mappedByteBuffer.putLong(16, this.indexMsgTimestamp);
         this.mappedByteBuffer.putLong(24, this.masterFlushedOffset);
         this.mappedByteBuffer.putLong(32, this.confirmPhyOffset);
+        this.mappedByteBuffer.putLong(40, this.verifiedPhyOffset);
+        this.mappedByteBuffer.putLong(48, this.pipelineDispatchedPhyOffset);
         this.mappedByteBuffer.force();
     }
 
@@ -145,4 +159,20 @@ public class StoreCheckpoint {
     public void setMasterFlushedOffset(long masterFlushedOffset) {
         this.masterFlushedOffset = masterFlushedOffset;
     }
+
+    public long getVerifiedPhyOffset() {
+        return verifiedPhyOffset;
+    }
+
+    public void setVerifiedPhyOffset(long verifiedPhyOffset) {
+        this.verifiedPhyOffset = verifiedPhyOffset;
+    }
+
+    public long getPipelineDispatchedPhyOffset() {
+        return pipelineDispatchedPhyOffset;
+    }
+
+    public void setPipelineDispatchedPhyOffset(long pipelineDispatchedPhyOffset) {
+        this.pipelineDispatchedPhyOffset = pipelineDispatchedPhyOffset;
+    }
 }
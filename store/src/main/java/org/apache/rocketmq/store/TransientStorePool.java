@@ -16,28 +16,54 @@
  */
 package org.apache.rocketmq.store;
 
+import com.sun.jna.Native;
 import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.store.util.LibC;
+import org.apache.rocketmq.store.util.LibNuma;
 import sun.nio.ch.DirectBuffer;
 
 public class TransientStorePool {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final int PAGE_SIZE = 1024 * 4;
+
+    private static final long HUGE_PAGE_SIZE = 2L * 1024 * 1024;
 
     private final int poolSize;
     private final int fileSize;
+    private final boolean hugePageEnable;
+    private final int numaNode;
     private final Deque<ByteBuffer> availableBuffers;
+    /**
+     * Buffers allocated with mmap and their mapped length, keyed by identity since ByteBuffer equality is by content.
+     */
+    private final Map<ByteBuffer, Long> mappedBuffers = new IdentityHashMap<>();
+    private volatile int hugePageBuffers = 0;
     private volatile boolean isRealCommit = true;
 
     public TransientStorePool(final int poolSize, final int fileSize) {
+        this(poolSize, fileSize, false, -1);
+    }
+
+    /**
+     * @param hugePageEnable back the buffers with 2MB huge pages, falling back to transparent huge pages when no
+     * hugetlb page is reserved
+     * @param numaNode the NUMA node to allocate the buffers on, -1 to leave placement to the kernel
+     */
+    public TransientStorePool(final int poolSize, final int fileSize, final boolean hugePageEnable, final int numaNode) {
         this.poolSize = poolSize;
         this.fileSize = fileSize;
+        this.hugePageEnable = hugePageEnable;
+        this.numaNode = numaNode;
         this.availableBuffers = new ConcurrentLinkedDeque<>();
     }
 
@@ -45,19 +71,105 @@ public class TransientStorePool {
      * It's a heavy init method.
      */
     public void init() {
+        boolean mapped = hugePageEnable || numaNode >= 0;
         for (int i = 0; i < poolSize; i++) {
-            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(fileSize);
-
-            final long address = ((DirectBuffer) byteBuffer).address();
-            Pointer pointer = new Pointer(address);
-            LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+            ByteBuffer byteBuffer = mapped ? allocateMapped(fileSize) : null;
+            if (byteBuffer == null) {
+                byteBuffer = allocatePageAligned(fileSize);
+                final long address = ((DirectBuffer) byteBuffer).address();
+                Pointer pointer = new Pointer(address);
+                LibC.INSTANCE.mlock(pointer, new NativeLong(fileSize));
+            }
 
             availableBuffers.offer(byteBuffer);
         }
+        if (mapped) {
+            log.info("TransientStorePool init {} buffers, {} mapped, {} on huge pages, numa node {}",
+                poolSize, mappedBuffers.size(), hugePageBuffers, numaNode);
+        }
+    }
+
+    /**
+     * Page aligned buffers can be committed with direct I/O, the slice keeps the allocated buffer reachable.
+     */
+    private static ByteBuffer allocatePageAligned(int size) {
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(size + PAGE_SIZE);
+        int offset = (int) (PAGE_SIZE - ((DirectBuffer) byteBuffer).address() % PAGE_SIZE) % PAGE_SIZE;
+        byteBuffer.position(offset);
+        byteBuffer.limit(offset + size);
+        return byteBuffer.slice();
+    }
+
+    /**
+     * Map anonymous memory, so that the NUMA policy is set before any page is touched, then fault all pages in
+     * with mlock. Returns null if the memory could not be mapped.
+     */
+    private ByteBuffer allocateMapped(int size) {
+        int prot = LibC.PROT_READ | LibC.PROT_WRITE;
+        int flags = LibC.MAP_PRIVATE | LibC.MAP_ANONYMOUS;
+        boolean hugePage = false;
+        long length = size;
+        Pointer pointer = null;
+        try {
+            if (hugePageEnable) {
+                long hugeLength = (size + HUGE_PAGE_SIZE - 1) / HUGE_PAGE_SIZE * HUGE_PAGE_SIZE;
+                pointer = mmap(hugeLength, prot, flags | LibC.MAP_HUGETLB);
+                if (pointer != null) {
+                    hugePage = true;
+                    length = hugeLength;
+                }
+            }
+            if (pointer == null) {
+                pointer = mmap(length, prot, flags);
+                if (pointer == null) {
+                    log.warn("TransientStorePool failed to mmap {} bytes, use direct buffer instead", length);
+                    return null;
+                }
+                if (hugePageEnable) {
+                    LibC.INSTANCE.madvise(pointer, new NativeLong(length), LibC.MADV_HUGEPAGE);
+                }
+            }
+        } catch (Throwable e) {
+            log.warn("TransientStorePool failed to mmap {} bytes, use direct buffer instead", length, e);
+            return null;
+        }
+
+        if (numaNode >= 0) {
+            if (LibNuma.INSTANCE != null && numaNode <= LibNuma.INSTANCE.numa_max_node()) {
+                LibNuma.INSTANCE.numa_tonode_memory(pointer, new NativeLong(length), numaNode);
+            } else {
+                log.warn("TransientStorePool can not bind memory to numa node {}, libnuma is not available", numaNode);
+            }
+        }
+        LibC.INSTANCE.mlock(pointer, new NativeLong(size));
+
+        ByteBuffer byteBuffer = pointer.getByteBuffer(0, size).order(ByteOrder.BIG_ENDIAN);
+        mappedBuffers.put(byteBuffer, length);
+        if (hugePage) {
+            hugePageBuffers++;
+        }
+        return byteBuffer;
+    }
+
+    private static Pointer mmap(long length, int prot, int flags) {
+        Pointer pointer = LibC.INSTANCE.mmap(null, new NativeLong(length), prot, flags, -1, new NativeLong(0));
+        // MAP_FAILED
+        if (pointer == null || Pointer.nativeValue(pointer) == -1L) {
+            return null;
+        }
+        return pointer;
     }
 
     public void destroy() {
         for (ByteBuffer byteBuffer : availableBuffers) {
+            Long mappedLength = mappedBuffers.remove(byteBuffer);
+            if (mappedLength != null) {
+                // Buffers still borrowed by mapped files are left mapped, they may still be accessed
+                Pointer pointer = Native.getDirectBufferPointer(byteBuffer);
+                LibC.INSTANCE.munlock(pointer, new NativeLong(fileSize));
+                LibC.INSTANCE.munmap(pointer, new NativeLong(mappedLength));
+                continue;
+            }
             final long address = ((DirectBuffer) byteBuffer).address();
             Pointer pointer = new Pointer(address);
             LibC.INSTANCE.munlock(pointer, new NativeLong(fileSize));
@@ -82,6 +194,17 @@ public class TransientStorePool {
         return availableBuffers.size();
     }
 
+    public boolean isHugePageEnable() {
+        return hugePageEnable;
+    }
+
+    /**
+     * @return the number of buffers actually backed by hugetlb pages
+     */
+    public int getHugePageBuffers() {
+        return hugePageBuffers;
+    }
+
     public boolean isRealCommit() {
         return isRealCommit;
     }
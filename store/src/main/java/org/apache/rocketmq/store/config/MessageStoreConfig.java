@@ -472,6 +472,204 @@ public class MessageStoreConfig {
      **/
     private boolean useABSLock = false;
 
+    /**
+     * Let one writer append the pending messages of all concurrent writers under a single put message lock
+     * acquisition (flat combining), instead of handing the lock over once per message.
+     */
+    private boolean enableCombinedAppend = false;
+
+    /**
+     * Max number of messages appended by one combiner per put message lock acquisition.
+     */
+    private int combinedAppendMaxBatchSize = 64;
+
+    /**
+     * Only reserve the position of a message in the commit log under the put message lock, the checksum and copy
+     * of the message body are done by the sending thread afterwards, in parallel with other writers.
+     */
+    private boolean enableReservedAppend = false;
+
+    /**
+     * SYNC_FLUSH only, let the group commit wait a window sized from the observed flush latency and request arrival
+     * rate before flushing, so that more requests share one flush without exceeding groupCommitTargetLatencyMicros.
+     */
+    private boolean enableAdaptiveGroupCommit = false;
+
+    private long groupCommitTargetLatencyMicros = 2000;
+
+    private long groupCommitMaxWindowMicros = 1000;
+
+    /**
+     * With transientStorePoolEnable, commit the CommitLog with O_DIRECT writes instead of going through the page
+     * cache. Falls back to the file channel when the JDK or the file system does not support direct I/O.
+     */
+    private boolean enableDirectIOCommit = false;
+
+    /**
+     * Back the transient store pool with 2MB huge pages, transparent huge pages are used when no hugetlb page is
+     * reserved.
+     */
+    private boolean transientStorePoolHugePageEnable = false;
+
+    /**
+     * NUMA node to allocate the transient store pool on, usually the node the broker is pinned to. -1 leaves the
+     * placement to the kernel. Requires libnuma.
+     */
+    private int transientStorePoolNumaNode = -1;
+
+    /**
+     * Threads checking the CRC of CommitLog files ahead of the ordered recover pass, 0 or 1 to check in that pass.
+     */
+    private int parallelRecoverThreadNum = 0;
+
+    /**
+     * Do not check the CRC of CommitLog files that were full and flushed at the last store checkpoint on recover.
+     */
+    private boolean skipCheckCRCOfFlushedFilesOnRecover = false;
+
+    /**
+     * Snapshot the consume queues on thorough flush and shutdown, recover then only scans what was appended after it.
+     */
+    private boolean enableConsumeQueueSnapshot = false;
+
+    private int mappedFileSizeCompressedConsumeQueue = 300000 * 6;
+
+    /**
+     * Store LMQ consume queues as compressed consume queues, whatever the queue type of their topic.
+     */
+    private boolean enableCompressedLmqConsumeQueue = false;
+
+    /**
+     * Keep the message key index in RocksDB instead of index files.
+     */
+    private boolean enableRocksDBIndex = false;
+
+    /**
+     * Time span of the index entries deleted together when the RocksDB index is enabled.
+     */
+    private long rocksdbIndexBucketIntervalMs = 60 * 60 * 1000;
+
+    /**
+     * Run the dispatchers which do not gate the message arrival, such as the index and compaction, on pipelines of
+     * their own instead of the reput thread
+     */
+    private boolean enableDispatcherPipeline = false;
+
+    private int dispatcherPipelineCapacity = 32768;
+
+    private int dispatcherPipelineBatchSize = 128;
+
+    /**
+     * Overall time the truncation of dirty files waits for the dispatcher pipelines to drain before giving up
+     */
+    private long dispatcherPipelineDrainTimeoutMs = 3000;
+
+    /**
+     * Max number of dispatch requests written to the RocksDB consume queue by one write batch
+     */
+    private int rocksdbCQGroupCommitBatchSize = 256;
+
+    private int rocksdbCQGroupCommitBufferSize = 100_000;
+
+    /**
+     * When positive, the RocksDB consume queue writer waits up to this delay, counted from the first queued request,
+     * for a full batch instead of committing after every dispatch round, trading visibility latency for fewer and
+     * larger writes
+     */
+    private long rocksdbCQGroupCommitMaxWaitMs = 0;
+
+    /**
+     * Capacity of one block cache shared by the RocksDB instances of the broker, 0 to size a cache per column family
+     */
+    private long rocksdbSharedBlockCacheSize = 0;
+
+    /**
+     * Read a range of the RocksDB consume queue with an iterator scan instead of a multiGet of every offset
+     */
+    private boolean rocksdbCQRangeQueryByIterator = false;
+
+    private int rocksdbCQIteratorPoolSize = 64;
+
+    /**
+     * Pooled RocksDB consume queue iterators idle for longer are closed, as they pin memtables and files
+     */
+    private int rocksdbCQIteratorMaxIdleMillis = 10 * 1000;
+
+    /**
+     * How long the shutdown of the RocksDB consume queue waits for the borrowed iterators to be returned, it fails
+     * and leaves the database open if some are still in use afterwards
+     */
+    private int rocksdbCQIteratorReturnTimeoutMillis = 3 * 1000;
+
+    /**
+     * Compression of the CommitLog data replicated to the slaves, LZ4, ZSTD or ZLIB, empty to transfer it as stored.
+     * A slave offers it when connecting to a master whose broker config, read by the slave synchronization, has it
+     * set too, so masters are upgraded and enabled first and slaves of older masters keep the uncompressed protocol.
+     */
+    private String haTransferCompressionType = "";
+
+    private int haTransferCompressionLevel = 3;
+
+    /**
+     * Send the replicated CommitLog data from the files by FileChannel#transferTo instead of writing the mapped buffers
+     */
+    private boolean haTransferByFileChannel = false;
+
+    /**
+     * Read the replicated CommitLog data once into a ring shared by all the slaves of the master, instead of once per
+     * slave. A slave behind the oldest data of the ring catches up by reading the CommitLog itself. The ring only runs
+     * with two slaves or more, as the data it holds is not sent by haTransferByFileChannel.
+     */
+    private boolean haTransferFanOut = false;
+
+    /**
+     * Number of transfer batches held by the fan-out ring, each up to haTransferBatchSize
+     */
+    private int haFanOutRingSize = 256;
+
+    /**
+     * Allocate the OffsetMap of the compaction out of the heap, and free it once the compaction is done
+     */
+    private boolean compactionOffsetMapOffHeap = false;
+
+    /**
+     * Every how many compactions of a queue look for superseded messages in all of its sealed files, the others
+     * start after the files already compacted, 1 to always scan them all
+     */
+    private int compactionFullScanInterval = 10;
+
+    /**
+     * Keep a RocksDB index from the keys of the compacted topics to their latest queue offset, to query them by key
+     */
+    private boolean enableCompactionKeyIndex = false;
+
+    /**
+     * Read ahead the CommitLog pages of the queues pulled sequentially from the cold area, off the pull threads
+     */
+    private boolean enableCommitLogPrefetch = false;
+
+    /**
+     * Messages of a queue read ahead of the consumer pulling it
+     */
+    private int commitLogPrefetchMsgNums = 1024;
+
+    /**
+     * Global budget of CommitLog bytes read ahead per second, the rest of the requests are dropped
+     */
+    private long commitLogPrefetchMaxBytesPerSecond = 256 * 1024 * 1024;
+
+    private int commitLogPrefetchQueueCapacity = 1024;
+
+    /**
+     * Serve the async reads of messages not in the page cache on a dedicated pool, so that the page faults do not
+     * block the pull threads
+     */
+    private boolean enableAsyncGetMessage = false;
+
+    private int asyncGetMessageThreadPoolNums = 8;
+
+    private int asyncGetMessageThreadQueueCapacity = 10000;
+
     public boolean isRocksdbCQDoubleWriteEnable() {
         return rocksdbCQDoubleWriteEnable;
     }
@@ -1950,4 +2148,348 @@ public class MessageStoreConfig {
     public boolean getUseABSLock() {
         return useABSLock;
     }
+
+    public boolean isEnableCombinedAppend() {
+        return enableCombinedAppend;
+    }
+
+    public void setEnableCombinedAppend(boolean enableCombinedAppend) {
+        this.enableCombinedAppend = enableCombinedAppend;
+    }
+
+    public int getCombinedAppendMaxBatchSize() {
+        return combinedAppendMaxBatchSize;
+    }
+
+    public void setCombinedAppendMaxBatchSize(int combinedAppendMaxBatchSize) {
+        this.combinedAppendMaxBatchSize = combinedAppendMaxBatchSize;
+    }
+
+    public boolean isEnableReservedAppend() {
+        return enableReservedAppend;
+    }
+
+    public void setEnableReservedAppend(boolean enableReservedAppend) {
+        this.enableReservedAppend = enableReservedAppend;
+    }
+
+    public boolean isEnableAdaptiveGroupCommit() {
+        return enableAdaptiveGroupCommit;
+    }
+
+    public void setEnableAdaptiveGroupCommit(boolean enableAdaptiveGroupCommit) {
+        this.enableAdaptiveGroupCommit = enableAdaptiveGroupCommit;
+    }
+
+    public long getGroupCommitTargetLatencyMicros() {
+        return groupCommitTargetLatencyMicros;
+    }
+
+    public void setGroupCommitTargetLatencyMicros(long groupCommitTargetLatencyMicros) {
+        this.groupCommitTargetLatencyMicros = groupCommitTargetLatencyMicros;
+    }
+
+    public long getGroupCommitMaxWindowMicros() {
+        return groupCommitMaxWindowMicros;
+    }
+
+    public void setGroupCommitMaxWindowMicros(long groupCommitMaxWindowMicros) {
+        this.groupCommitMaxWindowMicros = groupCommitMaxWindowMicros;
+    }
+
+    public boolean isEnableDirectIOCommit() {
+        return enableDirectIOCommit;
+    }
+
+    public void setEnableDirectIOCommit(boolean enableDirectIOCommit) {
+        this.enableDirectIOCommit = enableDirectIOCommit;
+    }
+
+    public boolean isTransientStorePoolHugePageEnable() {
+        return transientStorePoolHugePageEnable;
+    }
+
+    public void setTransientStorePoolHugePageEnable(boolean transientStorePoolHugePageEnable) {
+        this.transientStorePoolHugePageEnable = transientStorePoolHugePageEnable;
+    }
+
+    public int getTransientStorePoolNumaNode() {
+        return transientStorePoolNumaNode;
+    }
+
+    public void setTransientStorePoolNumaNode(int transientStorePoolNumaNode) {
+        this.transientStorePoolNumaNode = transientStorePoolNumaNode;
+    }
+
+    public int getParallelRecoverThreadNum() {
+        return parallelRecoverThreadNum;
+    }
+
+    public void setParallelRecoverThreadNum(int parallelRecoverThreadNum) {
+        this.parallelRecoverThreadNum = parallelRecoverThreadNum;
+    }
+
+    public boolean isSkipCheckCRCOfFlushedFilesOnRecover() {
+        return skipCheckCRCOfFlushedFilesOnRecover;
+    }
+
+    public void setSkipCheckCRCOfFlushedFilesOnRecover(boolean skipCheckCRCOfFlushedFilesOnRecover) {
+        this.skipCheckCRCOfFlushedFilesOnRecover = skipCheckCRCOfFlushedFilesOnRecover;
+    }
+
+    public boolean isEnableConsumeQueueSnapshot() {
+        return enableConsumeQueueSnapshot;
+    }
+
+    public void setEnableConsumeQueueSnapshot(boolean enableConsumeQueueSnapshot) {
+        this.enableConsumeQueueSnapshot = enableConsumeQueueSnapshot;
+    }
+
+    public int getMappedFileSizeCompressedConsumeQueue() {
+        return mappedFileSizeCompressedConsumeQueue;
+    }
+
+    public void setMappedFileSizeCompressedConsumeQueue(int mappedFileSizeCompressedConsumeQueue) {
+        this.mappedFileSizeCompressedConsumeQueue = mappedFileSizeCompressedConsumeQueue;
+    }
+
+    public boolean isEnableCompressedLmqConsumeQueue() {
+        return enableCompressedLmqConsumeQueue;
+    }
+
+    public void setEnableCompressedLmqConsumeQueue(boolean enableCompressedLmqConsumeQueue) {
+        this.enableCompressedLmqConsumeQueue = enableCompressedLmqConsumeQueue;
+    }
+
+    public boolean isEnableRocksDBIndex() {
+        return enableRocksDBIndex;
+    }
+
+    public void setEnableRocksDBIndex(boolean enableRocksDBIndex) {
+        this.enableRocksDBIndex = enableRocksDBIndex;
+    }
+
+    public long getRocksdbIndexBucketIntervalMs() {
+        return rocksdbIndexBucketIntervalMs;
+    }
+
+    public void setRocksdbIndexBucketIntervalMs(long rocksdbIndexBucketIntervalMs) {
+        this.rocksdbIndexBucketIntervalMs = rocksdbIndexBucketIntervalMs;
+    }
+
+    public boolean isEnableDispatcherPipeline() {
+        return enableDispatcherPipeline;
+    }
+
+    public void setEnableDispatcherPipeline(boolean enableDispatcherPipeline) {
+        this.enableDispatcherPipeline = enableDispatcherPipeline;
+    }
+
+    public int getDispatcherPipelineCapacity() {
+        return dispatcherPipelineCapacity;
+    }
+
+    public void setDispatcherPipelineCapacity(int dispatcherPipelineCapacity) {
+        this.dispatcherPipelineCapacity = dispatcherPipelineCapacity;
+    }
+
+    public int getDispatcherPipelineBatchSize() {
+        return dispatcherPipelineBatchSize;
+    }
+
+    public void setDispatcherPipelineBatchSize(int dispatcherPipelineBatchSize) {
+        this.dispatcherPipelineBatchSize = dispatcherPipelineBatchSize;
+    }
+
+    public long getDispatcherPipelineDrainTimeoutMs() {
+        return dispatcherPipelineDrainTimeoutMs;
+    }
+
+    public void setDispatcherPipelineDrainTimeoutMs(long dispatcherPipelineDrainTimeoutMs) {
+        this.dispatcherPipelineDrainTimeoutMs = dispatcherPipelineDrainTimeoutMs;
+    }
+
+    public int getRocksdbCQGroupCommitBatchSize() {
+        return rocksdbCQGroupCommitBatchSize;
+    }
+
+    public void setRocksdbCQGroupCommitBatchSize(int rocksdbCQGroupCommitBatchSize) {
+        this.rocksdbCQGroupCommitBatchSize = rocksdbCQGroupCommitBatchSize;
+    }
+
+    public int getRocksdbCQGroupCommitBufferSize() {
+        return rocksdbCQGroupCommitBufferSize;
+    }
+
+    public void setRocksdbCQGroupCommitBufferSize(int rocksdbCQGroupCommitBufferSize) {
+        this.rocksdbCQGroupCommitBufferSize = rocksdbCQGroupCommitBufferSize;
+    }
+
+    public long getRocksdbCQGroupCommitMaxWaitMs() {
+        return rocksdbCQGroupCommitMaxWaitMs;
+    }
+
+    public void setRocksdbCQGroupCommitMaxWaitMs(long rocksdbCQGroupCommitMaxWaitMs) {
+        this.rocksdbCQGroupCommitMaxWaitMs = rocksdbCQGroupCommitMaxWaitMs;
+    }
+
+    public long getRocksdbSharedBlockCacheSize() {
+        return rocksdbSharedBlockCacheSize;
+    }
+
+    public void setRocksdbSharedBlockCacheSize(long rocksdbSharedBlockCacheSize) {
+        this.rocksdbSharedBlockCacheSize = rocksdbSharedBlockCacheSize;
+    }
+
+    public boolean isRocksdbCQRangeQueryByIterator() {
+        return rocksdbCQRangeQueryByIterator;
+    }
+
+    public void setRocksdbCQRangeQueryByIterator(boolean rocksdbCQRangeQueryByIterator) {
+        this.rocksdbCQRangeQueryByIterator = rocksdbCQRangeQueryByIterator;
+    }
+
+    public int getRocksdbCQIteratorPoolSize() {
+        return rocksdbCQIteratorPoolSize;
+    }
+
+    public void setRocksdbCQIteratorPoolSize(int rocksdbCQIteratorPoolSize) {
+        this.rocksdbCQIteratorPoolSize = rocksdbCQIteratorPoolSize;
+    }
+
+    public int getRocksdbCQIteratorMaxIdleMillis() {
+        return rocksdbCQIteratorMaxIdleMillis;
+    }
+
+    public void setRocksdbCQIteratorMaxIdleMillis(int rocksdbCQIteratorMaxIdleMillis) {
+        this.rocksdbCQIteratorMaxIdleMillis = rocksdbCQIteratorMaxIdleMillis;
+    }
+
+    public int getRocksdbCQIteratorReturnTimeoutMillis() {
+        return rocksdbCQIteratorReturnTimeoutMillis;
+    }
+
+    public void setRocksdbCQIteratorReturnTimeoutMillis(int rocksdbCQIteratorReturnTimeoutMillis) {
+        this.rocksdbCQIteratorReturnTimeoutMillis = rocksdbCQIteratorReturnTimeoutMillis;
+    }
+
+    public String getHaTransferCompressionType() {
+        return haTransferCompressionType;
+    }
+
+    public void setHaTransferCompressionType(String haTransferCompressionType) {
+        this.haTransferCompressionType = haTransferCompressionType;
+    }
+
+    public int getHaTransferCompressionLevel() {
+        return haTransferCompressionLevel;
+    }
+
+    public void setHaTransferCompressionLevel(int haTransferCompressionLevel) {
+        this.haTransferCompressionLevel = haTransferCompressionLevel;
+    }
+
+    public boolean isHaTransferByFileChannel() {
+        return haTransferByFileChannel;
+    }
+
+    public void setHaTransferByFileChannel(boolean haTransferByFileChannel) {
+        this.haTransferByFileChannel = haTransferByFileChannel;
+    }
+
+    public boolean isHaTransferFanOut() {
+        return haTransferFanOut;
+    }
+
+    public void setHaTransferFanOut(boolean haTransferFanOut) {
+        this.haTransferFanOut = haTransferFanOut;
+    }
+
+    public int getHaFanOutRingSize() {
+        return haFanOutRingSize;
+    }
+
+    public void setHaFanOutRingSize(int haFanOutRingSize) {
+        this.haFanOutRingSize = haFanOutRingSize;
+    }
+
+    public boolean isCompactionOffsetMapOffHeap() {
+        return compactionOffsetMapOffHeap;
+    }
+
+    public void setCompactionOffsetMapOffHeap(boolean compactionOffsetMapOffHeap) {
+        this.compactionOffsetMapOffHeap = compactionOffsetMapOffHeap;
+    }
+
+    public int getCompactionFullScanInterval() {
+        return compactionFullScanInterval;
+    }
+
+    public void setCompactionFullScanInterval(int compactionFullScanInterval) {
+        this.compactionFullScanInterval = compactionFullScanInterval;
+    }
+
+    public boolean isEnableCompactionKeyIndex() {
+        return enableCompactionKeyIndex;
+    }
+
+    public void setEnableCompactionKeyIndex(boolean enableCompactionKeyIndex) {
+        this.enableCompactionKeyIndex = enableCompactionKeyIndex;
+    }
+
+    public boolean isEnableCommitLogPrefetch() {
+        return enableCommitLogPrefetch;
+    }
+
+    public void setEnableCommitLogPrefetch(boolean enableCommitLogPrefetch) {
+        this.enableCommitLogPrefetch = enableCommitLogPrefetch;
+    }
+
+    public int getCommitLogPrefetchMsgNums() {
+        return commitLogPrefetchMsgNums;
+    }
+
+    public void setCommitLogPrefetchMsgNums(int commitLogPrefetchMsgNums) {
+        this.commitLogPrefetchMsgNums = commitLogPrefetchMsgNums;
+    }
+
+    public long getCommitLogPrefetchMaxBytesPerSecond() {
+        return commitLogPrefetchMaxBytesPerSecond;
+    }
+
+    public void setCommitLogPrefetchMaxBytesPerSecond(long commitLogPrefetchMaxBytesPerSecond) {
+        this.commitLogPrefetchMaxBytesPerSecond = commitLogPrefetchMaxBytesPerSecond;
+    }
+
+    public int getCommitLogPrefetchQueueCapacity() {
+        return commitLogPrefetchQueueCapacity;
+    }
+
+    public void setCommitLogPrefetchQueueCapacity(int commitLogPrefetchQueueCapacity) {
+        this.commitLogPrefetchQueueCapacity = commitLogPrefetchQueueCapacity;
+    }
+
+    public boolean isEnableAsyncGetMessage() {
+        return enableAsyncGetMessage;
+    }
+
+    public void setEnableAsyncGetMessage(boolean enableAsyncGetMessage) {
+        this.enableAsyncGetMessage = enableAsyncGetMessage;
+    }
+
+    public int getAsyncGetMessageThreadPoolNums() {
+        return asyncGetMessageThreadPoolNums;
+    }
+
+    public void setAsyncGetMessageThreadPoolNums(int asyncGetMessageThreadPoolNums) {
+        this.asyncGetMessageThreadPoolNums = asyncGetMessageThreadPoolNums;
+    }
+
+    public int getAsyncGetMessageThreadQueueCapacity() {
+        return asyncGetMessageThreadQueueCapacity;
+    }
+
+    public void setAsyncGetMessageThreadQueueCapacity(int asyncGetMessageThreadQueueCapacity) {
+        this.asyncGetMessageThreadQueueCapacity = asyncGetMessageThreadQueueCapacity;
+    }
 }
@@ -31,14 +31,26 @@ public class StorePathConfigHelper {
         return rootDir + File.separator + "batchconsumequeue";
     }
 
+    public static String getStorePathCompressedConsumeQueue(final String rootDir) {
+        return rootDir + File.separator + "compressedconsumequeue";
+    }
+
     public static String getStorePathIndex(final String rootDir) {
         return rootDir + File.separator + "index";
     }
 
+    public static String getStorePathRocksDBIndex(final String rootDir) {
+        return rootDir + File.separator + "rocksdb_index";
+    }
+
     public static String getStoreCheckpoint(final String rootDir) {
         return rootDir + File.separator + "checkpoint";
     }
 
+    public static String getConsumeQueueSnapshot(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_snapshot";
+    }
+
     public static String getAbortFile(final String rootDir) {
         return rootDir + File.separator + "abort";
     }
@@ -24,8 +24,12 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.utils.NetworkUtil;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
@@ -50,6 +54,16 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
      */
     public static final int REPORT_HEADER_SIZE = 8;
 
+    /**
+     * Sent once before the first offset report by a slave accepting compressed transfers, with the compression type
+     * value in the lowest byte. Offsets are never negative, so a master finds it among the reports. Masters released
+     * before compressed transfers would take it for an offset, so it is only sent to a master known to accept it, see
+     * {@link #updateMasterCompressionSupported(boolean)}.
+     */
+    public static final long COMPRESSION_REPORT_MAGIC = 0xC0DEC00000000000L;
+
+    public static final long COMPRESSION_REPORT_MASK = 0xFFFFFFFFFFFFFF00L;
+
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024 * 4;
     private final AtomicReference<String> masterHaAddress = new AtomicReference<>();
@@ -73,6 +87,14 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
     private DefaultMessageStore defaultMessageStore;
     private volatile HAConnectionState currentState = HAConnectionState.READY;
     private FlowMonitor flowMonitor;
+    /**
+     * Compression offered to the master on the current connection, null to receive the data as stored
+     */
+    private CompressionType compressionType;
+    /**
+     * Whether the master of the current address has announced that it accepts compressed transfers
+     */
+    private volatile boolean masterCompressionSupported = false;
 
     public DefaultHAClient(DefaultMessageStore defaultMessageStore) throws IOException {
         this.selector = NetworkUtil.openSelector();
@@ -84,6 +106,9 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
         String currentAddr = this.masterHaAddress.get();
         if (masterHaAddress.compareAndSet(currentAddr, newAddr)) {
             log.info("update master ha address, OLD: " + currentAddr + " NEW: " + newAddr);
+            if (!Objects.equals(currentAddr, newAddr)) {
+                this.masterCompressionSupported = false;
+            }
         }
     }
 
@@ -94,6 +119,25 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
         }
     }
 
+    /**
+     * Set by the broker once it has learnt from the master, outside the HA protocol, whether the master accepts
+     * compressed transfers. The offer is only made to such a master, which reconnects a running transfer to make it.
+     */
+    public void updateMasterCompressionSupported(final boolean supported) {
+        if (this.masterCompressionSupported != supported) {
+            log.info("update master compression supported, OLD: {} NEW: {}", this.masterCompressionSupported, supported);
+            this.masterCompressionSupported = supported;
+        }
+    }
+
+    public boolean isMasterCompressionSupported() {
+        return masterCompressionSupported;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
     public String getHaMasterAddress() {
         return this.masterHaAddress.get();
     }
@@ -188,7 +232,9 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
             int diff = this.byteBufferRead.position() - this.dispatchPosition;
             if (diff >= DefaultHAConnection.TRANSFER_HEADER_SIZE) {
                 long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPosition);
-                int bodySize = this.byteBufferRead.getInt(this.dispatchPosition + 8);
+                int bodySizeField = this.byteBufferRead.getInt(this.dispatchPosition + 8);
+                boolean compressed = (bodySizeField & DefaultHAConnection.TRANSFER_COMPRESSED_FLAG) != 0;
+                int bodySize = bodySizeField & ~DefaultHAConnection.TRANSFER_COMPRESSED_FLAG;
 
                 long slavePhyOffset = this.defaultMessageStore.getMaxPhyOffset();
 
@@ -204,8 +250,14 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
                     byte[] bodyData = byteBufferRead.array();
                     int dataStart = this.dispatchPosition + DefaultHAConnection.TRANSFER_HEADER_SIZE;
 
-                    this.defaultMessageStore.appendToCommitLog(
-                        masterPhyOffset, bodyData, dataStart, bodySize);
+                    if (compressed) {
+                        if (!this.appendCompressedBody(masterPhyOffset, bodyData, dataStart, bodySize)) {
+                            return false;
+                        }
+                    } else {
+                        this.defaultMessageStore.appendToCommitLog(
+                            masterPhyOffset, bodyData, dataStart, bodySize);
+                    }
 
                     this.byteBufferRead.position(readSocketPos);
                     this.dispatchPosition += DefaultHAConnection.TRANSFER_HEADER_SIZE + bodySize;
@@ -228,6 +280,49 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
         return true;
     }
 
+    /**
+     * A compressed body holds the size of the data followed by the data compressed by the negotiated compressor
+     */
+    private boolean appendCompressedBody(long masterPhyOffset, byte[] bodyData, int dataStart, int bodySize) {
+        int rawSize = ByteBuffer.wrap(bodyData, dataStart, 4).getInt();
+        byte[] data;
+        try {
+            data = CompressorFactory.getCompressor(this.compressionType)
+                .decompress(Arrays.copyOfRange(bodyData, dataStart + 4, dataStart + bodySize));
+        } catch (Exception e) {
+            log.error("HAClient, failed to decompress the data of master offset {}", masterPhyOffset, e);
+            return false;
+        }
+        if (data.length != rawSize) {
+            log.error("HAClient, decompressed {} bytes instead of {} at master offset {}", data.length, rawSize,
+                masterPhyOffset);
+            return false;
+        }
+        this.defaultMessageStore.appendToCommitLog(masterPhyOffset, data, 0, rawSize);
+        return true;
+    }
+
+    /**
+     * Offer the compression of the transfers before the first report, the master may ignore it
+     */
+    private boolean reportCompressionAndOffset(final long maxOffset) {
+        ByteBuffer report = ByteBuffer.allocate(REPORT_HEADER_SIZE * 2);
+        report.putLong(COMPRESSION_REPORT_MAGIC | this.compressionType.getValue());
+        report.putLong(maxOffset);
+        report.flip();
+        for (int i = 0; i < 3 && report.hasRemaining(); i++) {
+            try {
+                this.socketChannel.write(report);
+            } catch (IOException e) {
+                log.error(this.getServiceName()
+                    + "reportCompressionAndOffset this.socketChannel.write exception", e);
+                return false;
+            }
+        }
+        lastWriteTimestamp = this.defaultMessageStore.getSystemClock().now();
+        return !report.hasRemaining();
+    }
+
     private boolean reportSlaveMaxOffsetPlus() {
         boolean result = true;
         long currentPhyOffset = this.defaultMessageStore.getMaxPhyOffset();
@@ -248,6 +343,12 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
         this.currentState = currentState;
     }
 
+    private CompressionType configuredCompressionType() {
+        String compressionTypeName = this.defaultMessageStore.getMessageStoreConfig().getHaTransferCompressionType();
+        return compressionTypeName == null || compressionTypeName.trim().isEmpty() ?
+            null : CompressionType.of(compressionTypeName);
+    }
+
     public boolean connectMaster() throws ClosedChannelException {
         if (null == socketChannel) {
             String addr = this.masterHaAddress.get();
@@ -264,6 +365,12 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
             this.currentReportedOffset = this.defaultMessageStore.getMaxPhyOffset();
 
             this.lastReadTimestamp = System.currentTimeMillis();
+
+            this.compressionType = this.masterCompressionSupported ? this.configuredCompressionType() : null;
+            if (this.socketChannel != null && this.compressionType != null
+                && !this.reportCompressionAndOffset(this.currentReportedOffset)) {
+                this.closeMaster();
+            }
         }
 
         return this.socketChannel != null;
@@ -322,6 +429,13 @@ public class DefaultHAClient extends ServiceThread implements HAClient {
                             closeMasterAndWait();
                             continue;
                         }
+                        if (this.compressionType == null && this.masterCompressionSupported
+                            && this.configuredCompressionType() != null) {
+                            log.info("HAClient, master {} accepts compressed transfers, reconnect to offer it",
+                                this.masterHaAddress.get());
+                            this.closeMaster();
+                            continue;
+                        }
                         break;
                     default:
                         this.waitForRunning(1000 * 2);
@@ -23,12 +23,15 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.utils.NetworkUtil;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.remoting.netty.NettySystemConfig;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.ha.io.HAWriter;
 
 public class DefaultHAConnection implements HAConnection {
 
@@ -47,6 +50,11 @@ public class DefaultHAConnection implements HAConnection {
      */
     public static final int TRANSFER_HEADER_SIZE = 8 + 4;
 
+    /**
+     * Set in the body size of a transfer header when the body is compressed, see DefaultHAClient
+     */
+    public static final int TRANSFER_COMPRESSED_FLAG = 0x80000000;
+
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private final DefaultHAService haService;
     private final SocketChannel socketChannel;
@@ -57,6 +65,10 @@ public class DefaultHAConnection implements HAConnection {
     private volatile long slaveRequestOffset = -1;
     private volatile long slaveAckOffset = -1;
     private FlowMonitor flowMonitor;
+    /**
+     * Compression offered by the slave, when the master enables it too
+     */
+    private volatile CompressionType transferCompressionType;
 
     public DefaultHAConnection(final DefaultHAService haService, final SocketChannel socketChannel) throws IOException {
         this.haService = haService;
@@ -134,6 +146,14 @@ public class DefaultHAConnection implements HAConnection {
         return writeSocketService.getNextTransferFromWhere();
     }
 
+    public CompressionType getTransferCompressionType() {
+        return transferCompressionType;
+    }
+
+    public FlowMonitor getFlowMonitor() {
+        return flowMonitor;
+    }
+
     class ReadSocketService extends ServiceThread {
         private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024;
         private final Selector selector;
@@ -224,8 +244,15 @@ public class DefaultHAConnection implements HAConnection {
                         this.lastReadTimestamp = DefaultHAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
                         if ((this.byteBufferRead.position() - this.processPosition) >= DefaultHAClient.REPORT_HEADER_SIZE) {
                             int pos = this.byteBufferRead.position() - (this.byteBufferRead.position() % DefaultHAClient.REPORT_HEADER_SIZE);
+                            if (DefaultHAConnection.this.slaveRequestOffset < 0) {
+                                this.negotiateCompression(this.processPosition, pos);
+                            }
                             long readOffset = this.byteBufferRead.getLong(pos - 8);
                             this.processPosition = pos;
+                            if (readOffset < 0) {
+                                // Only the compression offer has been read
+                                continue;
+                            }
 
                             DefaultHAConnection.this.slaveAckOffset = readOffset;
                             if (DefaultHAConnection.this.slaveRequestOffset < 0) {
@@ -251,6 +278,27 @@ public class DefaultHAConnection implements HAConnection {
 
             return true;
         }
+
+        private void negotiateCompression(int from, int to) {
+            String compressionTypeName = haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferCompressionType();
+            for (int pos = from; pos + DefaultHAClient.REPORT_HEADER_SIZE <= to; pos += DefaultHAClient.REPORT_HEADER_SIZE) {
+                long report = this.byteBufferRead.getLong(pos);
+                if ((report & DefaultHAClient.COMPRESSION_REPORT_MASK) != DefaultHAClient.COMPRESSION_REPORT_MAGIC) {
+                    continue;
+                }
+                if (compressionTypeName == null || compressionTypeName.trim().isEmpty()) {
+                    log.info("slave[{}] offers compressed transfer, but it is not enabled", clientAddress);
+                    return;
+                }
+                try {
+                    transferCompressionType = CompressionType.findByValue((int) (report & 0xFF));
+                    log.info("slave[{}] transfer compressed by {}", clientAddress, transferCompressionType);
+                } catch (RuntimeException e) {
+                    log.warn("slave[{}] offers an unknown compression, transfer uncompressed", clientAddress, e);
+                }
+                return;
+            }
+        }
     }
 
     class WriteSocketService extends ServiceThread {
@@ -260,15 +308,30 @@ public class DefaultHAConnection implements HAConnection {
         private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(TRANSFER_HEADER_SIZE);
         private long nextTransferFromWhere = -1;
         private SelectMappedBufferResult selectMappedBufferResult;
+        /**
+         * Body of the current transfer when it is not the mapped buffer, compressed or taken from the fan-out ring
+         */
+        private ByteBuffer heapBody;
+        private boolean transferFromFanOut = false;
         private boolean lastWriteOver = true;
         private long lastPrintTimestamp = System.currentTimeMillis();
         private long lastWriteTimestamp = System.currentTimeMillis();
 
+        /**
+         * Sends the bodies from the CommitLog files when haTransferByFileChannel is enabled
+         */
+        private final HAWriter fileChannelWriter = new HAWriter();
+
         public WriteSocketService(final SocketChannel socketChannel) throws IOException {
             this.selector = NetworkUtil.openSelector();
             this.socketChannel = socketChannel;
             this.socketChannel.register(this.selector, SelectionKey.OP_WRITE);
             this.setDaemon(true);
+            this.fileChannelWriter.registerHook(writeSize -> {
+                if (writeSize > 0) {
+                    this.lastWriteTimestamp = haService.getDefaultMessageStore().getSystemClock().now();
+                }
+            });
         }
 
         @Override
@@ -330,10 +393,11 @@ public class DefaultHAConnection implements HAConnection {
                             continue;
                     }
 
-                    SelectMappedBufferResult selectResult =
-                        DefaultHAConnection.this.haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
-                    if (selectResult != null) {
-                        int size = selectResult.getSize();
+                    ByteBuffer fanOutData = this.selectFromFanOut();
+                    SelectMappedBufferResult selectResult = fanOutData != null ? null
+                        : DefaultHAConnection.this.haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
+                    if (fanOutData != null || selectResult != null) {
+                        int size = fanOutData != null ? fanOutData.remaining() : selectResult.getSize();
                         if (size > DefaultHAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize()) {
                             size = DefaultHAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize();
                         }
@@ -352,14 +416,30 @@ public class DefaultHAConnection implements HAConnection {
                         long thisOffset = this.nextTransferFromWhere;
                         this.nextTransferFromWhere += size;
 
-                        selectResult.getByteBuffer().limit(size);
-                        this.selectMappedBufferResult = selectResult;
+                        ByteBuffer data = fanOutData != null ? fanOutData : selectResult.getByteBuffer();
+                        data.limit(size);
+                        int bodySize = size;
+                        CompressionType compressionType = DefaultHAConnection.this.transferCompressionType;
+                        if (compressionType != null && size > 0) {
+                            try {
+                                bodySize = this.compressBody(data, size, compressionType);
+                            } finally {
+                                if (selectResult != null) {
+                                    selectResult.release();
+                                }
+                            }
+                        } else if (fanOutData != null) {
+                            this.heapBody = fanOutData;
+                        } else {
+                            this.selectMappedBufferResult = selectResult;
+                        }
+                        flowMonitor.setInFlightBytes(this.nextTransferFromWhere - Math.max(slaveAckOffset, 0));
 
                         // Build Header
                         this.byteBufferHeader.position(0);
                         this.byteBufferHeader.limit(TRANSFER_HEADER_SIZE);
                         this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
+                        this.byteBufferHeader.putInt(bodySize);
                         this.byteBufferHeader.flip();
 
                         this.lastWriteOver = this.transferData();
@@ -375,6 +455,9 @@ public class DefaultHAConnection implements HAConnection {
             }
 
             DefaultHAConnection.this.haService.getWaitNotifyObject().removeFromWaitingThreadTable();
+            if (DefaultHAConnection.this.haService.getFanOutService() != null) {
+                DefaultHAConnection.this.haService.getFanOutService().removeFromWaitingThreadTable();
+            }
 
             if (this.selectMappedBufferResult != null) {
                 this.selectMappedBufferResult.release();
@@ -423,16 +506,20 @@ public class DefaultHAConnection implements HAConnection {
                 }
             }
 
-            if (null == this.selectMappedBufferResult) {
+            if (null == this.selectMappedBufferResult && null == this.heapBody) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
             writeSizeZeroTimes = 0;
+            ByteBuffer body = this.heapBody != null ? this.heapBody : this.selectMappedBufferResult.getByteBuffer();
 
             // Write Body
-            if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
+            if (!this.byteBufferHeader.hasRemaining() && this.heapBody == null
+                && haService.getDefaultMessageStore().getMessageStoreConfig().isHaTransferByFileChannel()) {
+                this.fileChannelWriter.transfer(this.socketChannel, this.selectMappedBufferResult);
+            } else if (!this.byteBufferHeader.hasRemaining()) {
+                while (body.hasRemaining()) {
+                    int writeSize = this.socketChannel.write(body);
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp = DefaultHAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -446,16 +533,60 @@ public class DefaultHAConnection implements HAConnection {
                 }
             }
 
-            boolean result = !this.byteBufferHeader.hasRemaining() && !this.selectMappedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !body.hasRemaining();
 
-            if (!this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMappedBufferResult.release();
-                this.selectMappedBufferResult = null;
+            if (!body.hasRemaining()) {
+                if (this.selectMappedBufferResult != null) {
+                    this.selectMappedBufferResult.release();
+                    this.selectMappedBufferResult = null;
+                }
+                this.heapBody = null;
             }
 
             return result;
         }
 
+        /**
+         * @return the data to transfer from the fan-out ring, or null to read it from the CommitLog
+         */
+        private ByteBuffer selectFromFanOut() {
+            HAFanOutService fanOutService = DefaultHAConnection.this.haService.getFanOutService();
+            if (fanOutService == null) {
+                return null;
+            }
+            ByteBuffer data = fanOutService.select(this.nextTransferFromWhere, 100);
+            if (data != null && !this.transferFromFanOut) {
+                log.info("slave[{}] transfer from the fan-out ring at offset {}", clientAddress, this.nextTransferFromWhere);
+                this.transferFromFanOut = true;
+            } else if (data == null && this.transferFromFanOut && !fanOutService.isPending(this.nextTransferFromWhere)) {
+                log.warn("slave[{}] falls behind the fan-out ring at offset {}, catch up from the CommitLog",
+                    clientAddress, this.nextTransferFromWhere);
+                this.transferFromFanOut = false;
+            }
+            return data;
+        }
+
+        /**
+         * Compress the data of the transfer, which is sent as is when compression does not make it smaller
+         *
+         * @return the body size of the transfer header
+         */
+        private int compressBody(ByteBuffer source, int size, CompressionType compressionType) throws Exception {
+            byte[] data = new byte[size];
+            source.get(data);
+            byte[] compressed = CompressorFactory.getCompressor(compressionType).compress(data,
+                haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferCompressionLevel());
+            if (compressed.length + 4 >= size) {
+                flowMonitor.addCompressedByteCount(size, size);
+                this.heapBody = ByteBuffer.wrap(data);
+                return size;
+            }
+            flowMonitor.addCompressedByteCount(size, compressed.length + 4);
+            this.heapBody = ByteBuffer.allocate(compressed.length + 4);
+            this.heapBody.putInt(size).put(compressed).flip();
+            return this.heapBody.remaining() | TRANSFER_COMPRESSED_FLAG;
+        }
+
         @Override
         public String getServiceName() {
             if (haService.getDefaultMessageStore().getBrokerConfig().isInBrokerContainer()) {
@@ -61,6 +61,8 @@ public class DefaultHAService implements HAService {
 
     protected HAConnectionStateNotificationService haConnectionStateNotificationService;
 
+    protected HAFanOutService fanOutService;
+
     public DefaultHAService() {
     }
 
@@ -127,6 +129,10 @@ public class DefaultHAService implements HAService {
         this.acceptSocketService.start();
         this.groupTransferService.start();
         this.haConnectionStateNotificationService.start();
+        if (this.defaultMessageStore.getMessageStoreConfig().isHaTransferFanOut()) {
+            this.fanOutService = new HAFanOutService(this);
+            this.fanOutService.start();
+        }
         if (haClient != null) {
             this.haClient.start();
         }
@@ -152,6 +158,9 @@ public class DefaultHAService implements HAService {
         }
         this.acceptSocketService.shutdown(true);
         this.destroyConnections();
+        if (this.fanOutService != null) {
+            this.fanOutService.shutdown();
+        }
         this.groupTransferService.shutdown();
         this.haConnectionStateNotificationService.shutdown();
     }
@@ -170,6 +179,13 @@ public class DefaultHAService implements HAService {
         return defaultMessageStore;
     }
 
+    /**
+     * @return the reader shared by the connections, null when haTransferFanOut is disabled
+     */
+    public HAFanOutService getFanOutService() {
+        return fanOutService;
+    }
+
     @Override
     public WaitNotifyObject getWaitNotifyObject() {
         return waitNotifyObject;
@@ -25,6 +25,10 @@ import org.apache.rocketmq.store.config.MessageStoreConfig;
 public class FlowMonitor extends ServiceThread {
     private final AtomicLong transferredByte = new AtomicLong(0L);
     private volatile long transferredByteInSecond;
+    private final AtomicLong rawByte = new AtomicLong(0L);
+    private final AtomicLong compressedByte = new AtomicLong(0L);
+    private volatile double compressionRatio = 1.0;
+    private volatile long inFlightBytes;
     protected MessageStoreConfig messageStoreConfig;
 
     public FlowMonitor(MessageStoreConfig messageStoreConfig) {
@@ -42,6 +46,11 @@ public class FlowMonitor extends ServiceThread {
     public void calculateSpeed() {
         this.transferredByteInSecond = this.transferredByte.get();
         this.transferredByte.set(0);
+        long compressed = this.compressedByte.getAndSet(0);
+        long raw = this.rawByte.getAndSet(0);
+        if (compressed > 0) {
+            this.compressionRatio = (double) raw / compressed;
+        }
     }
 
     public int canTransferMaxByteNum() {
@@ -61,6 +70,26 @@ public class FlowMonitor extends ServiceThread {
         return this.transferredByteInSecond;
     }
 
+    public void addCompressedByteCount(long rawCount, long compressedCount) {
+        this.rawByte.addAndGet(rawCount);
+        this.compressedByte.addAndGet(compressedCount);
+    }
+
+    /**
+     * @return raw bytes divided by transferred bytes of the compressed batches over the last second
+     */
+    public double getCompressionRatio() {
+        return this.compressionRatio;
+    }
+
+    public long getInFlightBytes() {
+        return this.inFlightBytes;
+    }
+
+    public void setInFlightBytes(long inFlightBytes) {
+        this.inFlightBytes = inFlightBytes;
+    }
+
     @Override
     public String getServiceName() {
         return FlowMonitor.class.getSimpleName();
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.ha;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * Reads the CommitLog data to replicate once for all the HA connections of a master, into a ring of batches that every
+ * connection sends from at its own offset. A connection whose offset is older than the ring, like a slave catching up
+ * or one too slow to keep up, reads the CommitLog itself until it is back in the ring.
+ * <p>
+ * The batches are heap copies, which the connections cannot send with a file channel transfer, so the ring only runs
+ * with two connections or more, where the single read makes up for the copy.
+ */
+public class HAFanOutService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultHAService haService;
+    private final Batch[] ring;
+    /**
+     * Connections wait on it for the next batch, the reader itself waits on the one of the HA service
+     */
+    private final WaitNotifyObject batchNotifyObject = new WaitNotifyObject();
+    private volatile long lastSequence = -1;
+    private volatile long nextReadOffset = -1;
+    private volatile boolean resetRequested = false;
+
+    public HAFanOutService(final DefaultHAService haService) {
+        this.haService = haService;
+        this.ring = new Batch[Math.max(haService.getDefaultMessageStore().getMessageStoreConfig().getHaFanOutRingSize(), 2)];
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                if (this.haService.getConnectionCount().get() < 2 || this.resetRequested) {
+                    this.reset();
+                    this.haService.getWaitNotifyObject().allWaitForRunning(100);
+                    continue;
+                }
+                if (!this.readBatch()) {
+                    this.haService.getWaitNotifyObject().allWaitForRunning(100);
+                }
+            } catch (Exception e) {
+                log.warn(this.getServiceName() + " service has exception.", e);
+                this.reset();
+            }
+        }
+
+        this.haService.getWaitNotifyObject().removeFromWaitingThreadTable();
+        this.batchNotifyObject.wakeupAll();
+        log.info(this.getServiceName() + " service end");
+    }
+
+    private boolean readBatch() {
+        long maxOffset = this.haService.getDefaultMessageStore().getCommitLog().getMaxOffset();
+        if (this.nextReadOffset < 0 || this.nextReadOffset > maxOffset) {
+            this.reset();
+            this.nextReadOffset = maxOffset;
+            return false;
+        }
+
+        long offset = this.nextReadOffset;
+        SelectMappedBufferResult result = this.haService.getDefaultMessageStore().getCommitLogData(offset);
+        if (result == null) {
+            return false;
+        }
+        byte[] data;
+        try {
+            int size = Math.min(result.getSize(), this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize());
+            if (size <= 0) {
+                return false;
+            }
+            data = new byte[size];
+            result.getByteBuffer().get(data);
+        } finally {
+            result.release();
+        }
+
+        long sequence = this.lastSequence + 1;
+        this.ring[(int) (sequence % this.ring.length)] = new Batch(sequence, offset, data);
+        this.lastSequence = sequence;
+        this.nextReadOffset = offset + data.length;
+        this.batchNotifyObject.wakeupAll();
+        return true;
+    }
+
+    private void reset() {
+        if (this.nextReadOffset >= 0 || this.resetRequested) {
+            this.resetRequested = false;
+            this.nextReadOffset = -1;
+            for (int i = 0; i < this.ring.length; i++) {
+                this.ring[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the data of the ring, when the CommitLog is truncated
+     */
+    public void requestReset() {
+        this.resetRequested = true;
+        this.haService.getWaitNotifyObject().wakeupAll();
+    }
+
+    /**
+     * @return the data from the offset to the end of the batch holding it, or null when the ring does not hold it
+     */
+    public ByteBuffer select(final long offset) {
+        long sequence = this.lastSequence;
+        for (long s = sequence; s >= 0 && s > sequence - this.ring.length; s--) {
+            Batch batch = this.ring[(int) (s % this.ring.length)];
+            if (batch == null || batch.sequence != s || offset >= batch.startOffset + batch.data.length) {
+                return null;
+            }
+            if (offset >= batch.startOffset) {
+                int position = (int) (offset - batch.startOffset);
+                return ByteBuffer.wrap(batch.data, position, batch.data.length - position).slice();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #select(long)}, but waits up to the interval for the batch when it is the next one to read
+     */
+    public ByteBuffer select(final long offset, final long interval) {
+        ByteBuffer data = this.select(offset);
+        if (data == null && this.isPending(offset)) {
+            this.batchNotifyObject.allWaitForRunning(interval);
+            data = this.select(offset);
+        }
+        return data;
+    }
+
+    /**
+     * @return whether the offset is not read yet, rather than dropped from the ring
+     */
+    public boolean isPending(final long offset) {
+        long readOffset = this.nextReadOffset;
+        return !this.isStopped() && readOffset >= 0 && offset >= readOffset;
+    }
+
+    public void removeFromWaitingThreadTable() {
+        this.batchNotifyObject.removeFromWaitingThreadTable();
+    }
+
+    public long getNextReadOffset() {
+        return nextReadOffset;
+    }
+
+    @Override
+    public String getServiceName() {
+        if (this.haService.getDefaultMessageStore().getBrokerConfig().isInBrokerContainer()) {
+            return this.haService.getDefaultMessageStore().getBrokerIdentity().getIdentifier() + HAFanOutService.class.getSimpleName();
+        }
+        return HAFanOutService.class.getSimpleName();
+    }
+
+    static class Batch {
+        private final long sequence;
+        private final long startOffset;
+        private final byte[] data;
+
+        Batch(long sequence, long startOffset, byte[] data) {
+            this.sequence = sequence;
+            this.startOffset = startOffset;
+            this.data = data;
+        }
+    }
+}
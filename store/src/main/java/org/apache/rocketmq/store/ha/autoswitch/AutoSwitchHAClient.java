@@ -390,6 +390,10 @@ public class AutoSwitchHAClient extends ServiceThread implements HAClient {
                     case READY:
                         // Truncate invalid msg first
                         final long truncateOffset = AutoSwitchHAClient.this.haService.truncateInvalidMsg();
+                        if (truncateOffset == AutoSwitchHAService.TRUNCATE_FAILED) {
+                            waitForRunning(1000);
+                            continue;
+                        }
                         if (truncateOffset >= 0) {
                             AutoSwitchHAClient.this.epochCache.truncateSuffixByOffset(truncateOffset);
                         }
@@ -35,6 +35,7 @@ import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.ha.FlowMonitor;
 import org.apache.rocketmq.store.ha.HAConnection;
 import org.apache.rocketmq.store.ha.HAConnectionState;
+import org.apache.rocketmq.store.ha.HAFanOutService;
 import org.apache.rocketmq.store.ha.io.AbstractHAReader;
 import org.apache.rocketmq.store.ha.io.HAWriter;
 
@@ -376,6 +377,10 @@ public class AutoSwitchHAConnection implements HAConnection {
 
     class WriteSocketService extends AbstractWriteSocketService {
         private SelectMappedBufferResult selectMappedBufferResult;
+        /**
+         * Data of the current transfer when it is taken from the fan-out ring instead of the CommitLog
+         */
+        private ByteBuffer fanOutData;
 
         public WriteSocketService(final SocketChannel socketChannel) throws IOException {
             super(socketChannel);
@@ -383,6 +388,16 @@ public class AutoSwitchHAConnection implements HAConnection {
 
         @Override
         protected int getNextTransferDataSize() {
+            // Never let a leftover buffer from an abandoned round shadow the data selected below
+            releaseData();
+            HAFanOutService fanOutService = haService.getFanOutService();
+            if (fanOutService != null) {
+                ByteBuffer data = fanOutService.select(this.nextTransferFromWhere, 100);
+                if (data != null) {
+                    this.fanOutData = data;
+                    return data.remaining();
+                }
+            }
             SelectMappedBufferResult selectResult = haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
             if (selectResult == null || selectResult.getSize() <= 0) {
                 return 0;
@@ -393,8 +408,11 @@ public class AutoSwitchHAConnection implements HAConnection {
 
         @Override
         protected void releaseData() {
-            this.selectMappedBufferResult.release();
-            this.selectMappedBufferResult = null;
+            if (this.selectMappedBufferResult != null) {
+                this.selectMappedBufferResult.release();
+                this.selectMappedBufferResult = null;
+            }
+            this.fanOutData = null;
         }
 
         @Override
@@ -403,6 +421,9 @@ public class AutoSwitchHAConnection implements HAConnection {
             if (null != this.selectMappedBufferResult && maxTransferSize >= 0) {
                 this.selectMappedBufferResult.getByteBuffer().limit(maxTransferSize);
             }
+            if (null != this.fanOutData && maxTransferSize >= 0) {
+                this.fanOutData.limit(maxTransferSize);
+            }
 
             // Write Header
             boolean result = haWriter.write(this.socketChannel, this.byteBufferHeader);
@@ -411,12 +432,18 @@ public class AutoSwitchHAConnection implements HAConnection {
                 return false;
             }
 
-            if (null == this.selectMappedBufferResult) {
+            if (null == this.selectMappedBufferResult && null == this.fanOutData) {
                 return true;
             }
 
             // Write Body
-            result = haWriter.write(this.socketChannel, this.selectMappedBufferResult.getByteBuffer());
+            if (null != this.fanOutData) {
+                result = haWriter.write(this.socketChannel, this.fanOutData);
+            } else if (haService.getDefaultMessageStore().getMessageStoreConfig().isHaTransferByFileChannel()) {
+                result = haWriter.transfer(this.socketChannel, this.selectMappedBufferResult);
+            } else {
+                result = haWriter.write(this.socketChannel, this.selectMappedBufferResult.getByteBuffer());
+            }
 
             if (result) {
                 releaseData();
@@ -429,6 +456,9 @@ public class AutoSwitchHAConnection implements HAConnection {
             if (this.selectMappedBufferResult != null) {
                 this.selectMappedBufferResult.release();
             }
+            if (haService.getFanOutService() != null) {
+                haService.getFanOutService().removeFromWaitingThreadTable();
+            }
         }
 
         @Override
@@ -600,6 +630,7 @@ public class AutoSwitchHAConnection implements HAConnection {
                     final EpochEntry epochEntry = AutoSwitchHAConnection.this.epochCache.nextEntry(AutoSwitchHAConnection.this.currentTransferEpoch);
                     if (epochEntry == null) {
                         LOGGER.error("Can't find a bigger epochEntry than epoch {}", AutoSwitchHAConnection.this.currentTransferEpoch);
+                        this.releaseData();
                         waitForRunning(100);
                         return;
                     }
@@ -58,6 +58,9 @@ import org.rocksdb.RocksDBException;
  */
 public class AutoSwitchHAService extends DefaultHAService {
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final long TRUNCATE_FAILED = -2;
+
     private final ExecutorService executorService = ThreadUtils.newSingleThreadExecutor(new ThreadFactoryImpl("AutoSwitchHAService_Executor_"));
     private final ConcurrentHashMap<Long/*brokerId*/, Long/*lastCaughtUpTimestamp*/> connectionCaughtUpTimeTable = new ConcurrentHashMap<>();
     private final List<Consumer<Set<Long/*brokerId*/>>> syncStateSetChangedListeners = new ArrayList<>();
@@ -118,14 +121,31 @@ public class AutoSwitchHAService extends DefaultHAService {
             LOGGER.warn("newMasterEpoch {} < lastEpoch {}, fail to change to master", masterEpoch, lastEpoch);
             return false;
         }
+        // Make sure the dispatcher pipelines can drain before replication is stopped, a broker that can not truncate
+        // is left a working slave and the failure is reported to the controller right away
+        final long drainTimeoutMillis = this.defaultMessageStore.getMessageStoreConfig().getDispatcherPipelineDrainTimeoutMs();
+        final long drainDeadline = System.currentTimeMillis() + drainTimeoutMillis;
+        if (!this.defaultMessageStore.waitForDispatcherPipelinesIdle(drainTimeoutMillis)) {
+            LOGGER.warn("Dispatcher pipelines are busy, fail to change to master, newMasterEpoch {}", masterEpoch);
+            return false;
+        }
+
         destroyConnections();
         // Stop ha client if needed
         if (this.haClient != null) {
             this.haClient.shutdown();
         }
 
-        // Truncate dirty file
-        final long truncateOffset = truncateInvalidMsg();
+        // Truncate dirty file, within what is left of the drain timeout
+        final long truncateOffset = truncateInvalidMsg(Math.max(drainDeadline - System.currentTimeMillis(), 0));
+        if (truncateOffset == TRUNCATE_FAILED) {
+            LOGGER.error("Failed to truncate invalid msg, fail to change to master, newMasterEpoch {}", masterEpoch);
+            restartHAClient();
+            return false;
+        }
+        if (this.fanOutService != null) {
+            this.fanOutService.requestReset();
+        }
 
         this.defaultMessageStore.setConfirmOffset(computeConfirmOffset());
 
@@ -161,6 +181,18 @@ public class AutoSwitchHAService extends DefaultHAService {
         return true;
     }
 
+    private void restartHAClient() {
+        if (this.haClient == null) {
+            return;
+        }
+        try {
+            this.haClient.reOpen();
+            this.haClient.start();
+        } catch (final Exception e) {
+            LOGGER.error("Error happen when restart ha client", e);
+        }
+    }
+
     @Override
     public boolean changeToSlave(String newMasterAddr, int newMasterEpoch, Long slaveId) {
         final int lastEpoch = this.epochCache.lastEpoch();
@@ -491,8 +523,20 @@ public class AutoSwitchHAService extends DefaultHAService {
 
     /**
      * Try to truncate incomplete msg transferred from master.
+     *
+     * @return the offset truncated to, -1 if nothing needs to be truncated, or {@link #TRUNCATE_FAILED}
      */
     public long truncateInvalidMsg() throws RocksDBException {
+        return truncateInvalidMsg(this.defaultMessageStore.getMessageStoreConfig().getDispatcherPipelineDrainTimeoutMs());
+    }
+
+    /**
+     * Try to truncate incomplete msg transferred from master, waiting at most the given time for the dispatcher
+     * pipelines to drain.
+     *
+     * @return the offset truncated to, -1 if nothing needs to be truncated, or {@link #TRUNCATE_FAILED}
+     */
+    public long truncateInvalidMsg(long drainTimeoutMillis) throws RocksDBException {
         long dispatchBehind = this.defaultMessageStore.dispatchBehindBytes();
         if (dispatchBehind <= 0) {
             LOGGER.info("Dispatch complete, skip truncate");
@@ -535,7 +579,10 @@ public class AutoSwitchHAService extends DefaultHAService {
         } while (reputFromOffset < this.defaultMessageStore.getMaxPhyOffset() && doNext);
 
         LOGGER.info("Truncate commitLog to {}", reputFromOffset);
-        this.defaultMessageStore.truncateDirtyFiles(reputFromOffset);
+        if (!this.defaultMessageStore.truncateDirtyFiles(reputFromOffset, drainTimeoutMillis)) {
+            LOGGER.error("Failed to truncate commitLog to {}", reputFromOffset);
+            return TRUNCATE_FAILED;
+        }
         return reputFromOffset;
     }
 
@@ -19,12 +19,15 @@ package org.apache.rocketmq.store.ha.io;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
 import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.logfile.MappedFile;
 
 public class HAWriter {
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -51,6 +54,38 @@ public class HAWriter {
         return !byteBufferWrite.hasRemaining();
     }
 
+    /**
+     * Send the remaining data of the result from its file by {@link FileChannel#transferTo}, so the kernel copies the
+     * page cache to the socket without touching the mapping, or by writing the buffer when there is no file channel.
+     * The position of the buffer of the result tracks the transferred data in both cases.
+     */
+    public boolean transfer(SocketChannel socketChannel, SelectMappedBufferResult result) throws IOException {
+        ByteBuffer byteBuffer = result.getByteBuffer();
+        MappedFile mappedFile = result.getMappedFile();
+        FileChannel fileChannel = mappedFile != null ? mappedFile.getFileChannel() : null;
+        if (fileChannel == null) {
+            return write(socketChannel, byteBuffer);
+        }
+
+        long filePosition = result.getStartOffset() - mappedFile.getFileFromOffset();
+        int writeSizeZeroTimes = 0;
+        while (byteBuffer.hasRemaining()) {
+            int writeSize = (int) fileChannel.transferTo(filePosition + byteBuffer.position(), byteBuffer.remaining(),
+                socketChannel);
+            for (HAWriteHook writeHook : writeHookList) {
+                writeHook.afterWrite(writeSize);
+            }
+            if (writeSize > 0) {
+                byteBuffer.position(byteBuffer.position() + writeSize);
+                writeSizeZeroTimes = 0;
+            } else if (++writeSizeZeroTimes >= 3) {
+                break;
+            }
+        }
+
+        return !byteBuffer.hasRemaining();
+    }
+
     public void registerHook(HAWriteHook writeHook) {
         writeHookList.add(writeHook);
     }
@@ -34,13 +34,13 @@ import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.DispatchRequest;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 
-public class IndexService {
+public class IndexService implements IndexServiceInterface {
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     /**
      * Maximum times to attempt index file creation.
      */
     private static final int MAX_TRY_IDX_CREATE = 3;
-    private final DefaultMessageStore defaultMessageStore;
+    protected final DefaultMessageStore defaultMessageStore;
     private final int hashSlotNum;
     private final int indexNum;
     private final String storePath;
@@ -55,6 +55,7 @@ public class IndexService {
             StorePathConfigHelper.getStorePathIndex(defaultMessageStore.getMessageStoreConfig().getStorePathRootDir());
     }
 
+    @Override
     public boolean load(final boolean lastExitOK) {
         File dir = new File(this.storePath);
         File[] files = dir.listFiles();
@@ -88,6 +89,7 @@ public class IndexService {
         return true;
     }
 
+    @Override
     public long getTotalSize() {
         if (indexFileList.isEmpty()) {
             return 0;
@@ -96,6 +98,7 @@ public class IndexService {
         return (long) indexFileList.get(0).getFileSize() * indexFileList.size();
     }
 
+    @Override
     public void deleteExpiredFile(long offset) {
         Object[] files = null;
         try {
@@ -149,6 +152,7 @@ public class IndexService {
         }
     }
 
+    @Override
     public void destroy() {
         try {
             this.readWriteLock.writeLock().lock();
@@ -163,6 +167,7 @@ public class IndexService {
         }
     }
 
+    @Override
     public QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end) {
         List<Long> phyOffsets = new ArrayList<>(maxNum);
 
@@ -203,10 +208,11 @@ public class IndexService {
         return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
     }
 
-    private String buildKey(final String topic, final String key) {
+    protected String buildKey(final String topic, final String key) {
         return topic + "#" + key;
     }
 
+    @Override
     public void buildIndex(DispatchRequest req) {
         IndexFile indexFile = retryGetAndCreateIndexFile();
         if (indexFile != null) {
@@ -374,10 +380,12 @@ public class IndexService {
         }
     }
 
+    @Override
     public void start() {
 
     }
 
+    @Override
     public void shutdown() {
         try {
             this.readWriteLock.writeLock().lock();
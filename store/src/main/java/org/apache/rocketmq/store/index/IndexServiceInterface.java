@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.index;
+
+import org.apache.rocketmq.store.DispatchRequest;
+
+/**
+ * Index of the message keys, used to query messages by key and unique key.
+ */
+public interface IndexServiceInterface {
+
+    /**
+     * Load the index.
+     *
+     * @param lastExitOK whether the broker exited normally, the entries after the checkpoint are dropped otherwise
+     * @return true if loaded successfully
+     */
+    boolean load(boolean lastExitOK);
+
+    void start();
+
+    void shutdown();
+
+    /**
+     * Delete the index, the service can not be used afterwards.
+     */
+    void destroy();
+
+    /**
+     * @return the disk space used by the index in bytes
+     */
+    long getTotalSize();
+
+    /**
+     * Delete the index entries of messages below the commit log offset.
+     */
+    void deleteExpiredFile(long offset);
+
+    QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end);
+
+    /**
+     * Index the keys of the dispatched message, messages below the last indexed offset are skipped.
+     */
+    void buildIndex(DispatchRequest req);
+}
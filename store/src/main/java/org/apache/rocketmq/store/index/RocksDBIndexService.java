@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.index;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.rocksdb.IndexRocksDBStorage;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+/**
+ * Index service keeping the message keys sorted in RocksDB instead of hash chains in index files, so that a key
+ * lookup is a few seeks whatever the number of messages, and indexing never waits for a new file.
+ * <p>
+ * Index entries are grouped by time bucket of their store timestamp. Format of the keys:
+ * <pre>
+ * ┌───────────────┬──────────────┬────────────┬────────────┬────────────────┬─────────────────────────┐
+ * │  Time Bucket  │ Key HashCode │ Key Length │    Key     │ Store Timestamp│ CommitLog Physical Offset│
+ * │   (8 Bytes)   │  (4 Bytes)   │ (4 Bytes)  │(Key Length)│   (8 Bytes)    │        (8 Bytes)        │
+ * └───────────────┴──────────────┴────────────┴────────────┴────────────────┴─────────────────────────┘
+ * </pre>
+ * A query seeks the key in each bucket of its time range, newest first, the bloom filters on the bucket and hash
+ * code prefix skip the files without the key. The commit log range of each bucket is kept in its own column family,
+ * buckets are deleted as a whole once the commit log no longer holds their messages.
+ */
+public class RocksDBIndexService implements IndexServiceInterface {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final IndexRocksDBStorage rocksDBStorage;
+    private final long bucketInterval;
+    private final int flushWalFrequency;
+
+    /**
+     * Max commit log offset of each bucket
+     */
+    private final ConcurrentSkipListMap<Long, Long> bucketTable = new ConcurrentSkipListMap<>();
+    private final ByteBuffer bucketValue = ByteBuffer.allocate(16);
+
+    private volatile long lastUpdateTimestamp = 0;
+    private volatile long lastUpdatePhyOffset = 0;
+    private long lastFlushedTimestamp = 0;
+    // Counted by the dispatch thread, reset by whichever of dispatch and shutdown flushes the WAL
+    private final AtomicLong unflushedWrites = new AtomicLong(0);
+
+    public RocksDBIndexService(final DefaultMessageStore store) {
+        this.defaultMessageStore = store;
+        this.rocksDBStorage = new IndexRocksDBStorage(
+            StorePathConfigHelper.getStorePathRocksDBIndex(store.getMessageStoreConfig().getStorePathRootDir()));
+        this.bucketInterval = Math.max(store.getMessageStoreConfig().getRocksdbIndexBucketIntervalMs(), 1);
+        this.flushWalFrequency = Math.max(store.getMessageStoreConfig().getRocksdbFlushWalFrequency(), 1);
+    }
+
+    /**
+     * Entries written after the last checkpoint are written again by the dispatch of the recovered messages, so
+     * nothing is dropped on an abnormal exit.
+     */
+    @Override
+    public boolean load(final boolean lastExitOK) {
+        if (!this.rocksDBStorage.start()) {
+            return false;
+        }
+        try (RocksIterator iterator = this.rocksDBStorage.seekBucket()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                ByteBuffer value = ByteBuffer.wrap(iterator.value());
+                long maxPhyOffset = value.getLong();
+                long maxTimestamp = value.getLong();
+                this.bucketTable.put(ByteBuffer.wrap(iterator.key()).getLong(), maxPhyOffset);
+                if (maxPhyOffset > this.lastUpdatePhyOffset) {
+                    this.lastUpdatePhyOffset = maxPhyOffset;
+                    this.lastUpdateTimestamp = maxTimestamp;
+                }
+            }
+        }
+        this.lastFlushedTimestamp = this.lastUpdateTimestamp;
+        LOGGER.info("load rocksdb index OK, buckets: {}, lastUpdatePhyOffset: {}", this.bucketTable.size(),
+            this.lastUpdatePhyOffset);
+        return true;
+    }
+
+    @Override
+    public long getTotalSize() {
+        return this.rocksDBStorage.getTotalSize();
+    }
+
+    @Override
+    public void deleteExpiredFile(long offset) {
+        // The last bucket is kept like the last index file
+        Map.Entry<Long, Long> lastBucket = this.bucketTable.lastEntry();
+        for (Map.Entry<Long, Long> entry : this.bucketTable.entrySet()) {
+            if (lastBucket == null || entry.getKey() >= lastBucket.getKey() || entry.getValue() >= offset) {
+                break;
+            }
+            long bucket = entry.getKey();
+            try {
+                this.rocksDBStorage.deleteBucket(bucketKey(bucket), bucketKey(bucket), bucketKey(bucket + 1));
+                this.bucketTable.remove(bucket);
+                LOGGER.info("delete expired index bucket {}, max phy offset {}", bucket, entry.getValue());
+            } catch (Exception e) {
+                LOGGER.error("delete expired index bucket {} failed", bucket, e);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.rocksDBStorage.shutdown();
+        this.bucketTable.clear();
+        UtilAll.deleteFile(new File(
+            StorePathConfigHelper.getStorePathRocksDBIndex(this.defaultMessageStore.getMessageStoreConfig().getStorePathRootDir())));
+    }
+
+    @Override
+    public QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end) {
+        maxNum = Math.min(maxNum, this.defaultMessageStore.getMessageStoreConfig().getMaxMsgsNumBatch());
+        List<Long> phyOffsets = new ArrayList<>(maxNum);
+        long indexLastUpdateTimestamp = this.lastUpdateTimestamp;
+        long indexLastUpdatePhyoffset = this.lastUpdatePhyOffset;
+        if (begin > end || !this.rocksDBStorage.hold()) {
+            return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
+        }
+
+        String indexKey = buildKey(topic, key);
+        byte[] idxKey = indexKey.getBytes(StandardCharsets.UTF_8);
+        int hashCode = indexKey.hashCode();
+        try (RocksIterator iterator = this.rocksDBStorage.seekIndex()) {
+            for (long bucket : this.bucketTable.subMap(bucketOf(begin), true, bucketOf(end), true).descendingKeySet()) {
+                ByteBuffer seekKey = ByteBuffer.allocate(16 + idxKey.length + 16);
+                seekKey.putLong(bucket).putInt(hashCode).putInt(idxKey.length).put(idxKey).putLong(end).putLong(Long.MAX_VALUE);
+                byte[] seekKeyBytes = seekKey.array();
+                int prefixLength = 16 + idxKey.length;
+
+                for (iterator.seekForPrev(seekKeyBytes); iterator.isValid() && phyOffsets.size() < maxNum; iterator.prev()) {
+                    byte[] keyBytes = iterator.key();
+                    if (keyBytes.length != seekKeyBytes.length || !samePrefix(keyBytes, seekKeyBytes, prefixLength)) {
+                        break;
+                    }
+                    ByteBuffer keyBuffer = ByteBuffer.wrap(keyBytes);
+                    if (keyBuffer.getLong(prefixLength) < begin) {
+                        break;
+                    }
+                    phyOffsets.add(keyBuffer.getLong(prefixLength + 8));
+                }
+                if (phyOffsets.size() >= maxNum) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("queryMsg exception", e);
+        } finally {
+            this.rocksDBStorage.release();
+        }
+
+        return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
+    }
+
+    @Override
+    public void buildIndex(DispatchRequest req) {
+        if (req.getCommitLogOffset() < this.lastUpdatePhyOffset) {
+            return;
+        }
+        if (MessageSysFlag.getTransactionValue(req.getSysFlag()) == MessageSysFlag.TRANSACTION_ROLLBACK_TYPE) {
+            return;
+        }
+
+        long bucket = bucketOf(req.getStoreTimestamp());
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            if (req.getUniqKey() != null) {
+                putKey(writeBatch, bucket, req, buildKey(req.getTopic(), req.getUniqKey()));
+            }
+            String keys = req.getKeys();
+            if (keys != null && keys.length() > 0) {
+                for (String key : keys.split(MessageConst.KEY_SEPARATOR)) {
+                    if (key.length() > 0) {
+                        putKey(writeBatch, bucket, req, buildKey(req.getTopic(), key));
+                    }
+                }
+            }
+            if (writeBatch.count() == 0) {
+                return;
+            }
+
+            this.bucketValue.clear();
+            this.bucketValue.putLong(req.getCommitLogOffset()).putLong(req.getStoreTimestamp());
+            writeBatch.put(this.rocksDBStorage.getBucketCFHandle(), bucketKey(bucket), this.bucketValue.array());
+            this.rocksDBStorage.batchPut(writeBatch);
+        } catch (RocksDBException e) {
+            LOGGER.error("build index error, commitlog {} uniqkey {}", req.getCommitLogOffset(), req.getUniqKey(), e);
+            this.defaultMessageStore.getRunningFlags().makeIndexFileError();
+            return;
+        }
+
+        this.bucketTable.put(bucket, req.getCommitLogOffset());
+        this.lastUpdatePhyOffset = req.getCommitLogOffset();
+        this.lastUpdateTimestamp = req.getStoreTimestamp();
+        if (this.unflushedWrites.incrementAndGet() >= this.flushWalFrequency) {
+            this.flushWal();
+        }
+    }
+
+    private void putKey(WriteBatch writeBatch, long bucket, DispatchRequest req, String idxKey) throws RocksDBException {
+        byte[] keyBytes = idxKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer key = ByteBuffer.allocate(16 + keyBytes.length + 16);
+        key.putLong(bucket).putInt(idxKey.hashCode()).putInt(keyBytes.length).put(keyBytes)
+            .putLong(req.getStoreTimestamp()).putLong(req.getCommitLogOffset());
+        writeBatch.put(key.array(), new byte[0]);
+    }
+
+    /**
+     * The checkpoint only covers the entries whose WAL is synced, the others are built again after a crash.
+     */
+    private synchronized void flushWal() {
+        // Writes counted after the reset are covered by this sync or counted towards the next one
+        long writes = this.unflushedWrites.getAndSet(0);
+        if (writes == 0) {
+            return;
+        }
+        try {
+            this.rocksDBStorage.flushWAL();
+        } catch (RocksDBException e) {
+            LOGGER.error("flush rocksdb index wal error", e);
+            this.unflushedWrites.addAndGet(writes);
+            return;
+        }
+        long timestamp = this.lastUpdateTimestamp;
+        if (timestamp > this.lastFlushedTimestamp) {
+            this.lastFlushedTimestamp = timestamp;
+            this.defaultMessageStore.getStoreCheckpoint().setIndexMsgTimestamp(timestamp);
+        }
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.rocksDBStorage.hold()) {
+            try {
+                this.flushWal();
+            } finally {
+                this.rocksDBStorage.release();
+            }
+        }
+        this.rocksDBStorage.shutdown();
+        this.bucketTable.clear();
+    }
+
+    private static String buildKey(final String topic, final String key) {
+        return topic + "#" + key;
+    }
+
+    private long bucketOf(long timestamp) {
+        return Math.max(timestamp, 0) / this.bucketInterval * this.bucketInterval;
+    }
+
+    private static byte[] bucketKey(long bucket) {
+        return ByteBuffer.allocate(8).putLong(bucket).array();
+    }
+
+    private static boolean samePrefix(byte[] a, byte[] b, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -32,4 +32,9 @@ public class CommitLogDispatcherCompaction implements CommitLogDispatcher {
             cptService.putRequest(request);
         }
     }
+
+    @Override
+    public boolean isPipelineSupported() {
+        return true;
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.kv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.config.ConfigRocksDBStorage;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+/**
+ * Persistent index from the keys of the compacted topics to the queue offset of their latest message, so that the
+ * latest value of a key is looked up without replaying the queue. Deleted keys, with an empty body, are removed.
+ * <p>
+ * The queue offset up to which each queue is indexed is updated with its keys, so that the messages the index has
+ * missed, such as those replicated from the master or lost on a crash, are indexed again from the compaction log.
+ */
+public class CompactionKeyIndex {
+    public static final String KEY_INDEX_DIR = "keyIndex";
+
+    private static final byte KEY_SEPARATOR = 0;
+    /**
+     * Topic names never start with it, so the indexed offsets are apart from the keys
+     */
+    private static final byte INDEXED_OFFSET_PREFIX = 1;
+    private static final int VALUE_SIZE = 4 + 8;
+
+    private final ConfigRocksDBStorage storage;
+
+    public CompactionKeyIndex(final String dbPath) {
+        this.storage = new ConfigRocksDBStorage(dbPath);
+    }
+
+    public boolean load() {
+        return this.storage.start();
+    }
+
+    public void shutdown() {
+        this.storage.shutdown();
+    }
+
+    /**
+     * Point the key at the message, and mark the queue as indexed up to it.
+     */
+    public void update(final String topic, final String key, final int queueId, final long queueOffset,
+        final boolean deleted) throws Exception {
+        byte[] keyBytes = buildKey(topic, key);
+        try (WriteBatch writeBatch = new WriteBatch()) {
+            if (deleted) {
+                writeBatch.delete(keyBytes);
+            } else {
+                writeBatch.put(keyBytes, ByteBuffer.allocate(VALUE_SIZE).putInt(queueId).putLong(queueOffset).array());
+            }
+            writeBatch.put(buildIndexedOffsetKey(topic, queueId), ByteBuffer.allocate(8).putLong(queueOffset + 1).array());
+            this.storage.batchPut(writeBatch);
+        }
+    }
+
+    /**
+     * @return the queue offset below which the messages of the queue are indexed, -1 if none is
+     */
+    public long getIndexedOffset(final String topic, final int queueId) throws Exception {
+        byte[] valueBytes = this.storage.get(buildIndexedOffsetKey(topic, queueId));
+        if (valueBytes == null || valueBytes.length != 8) {
+            return -1;
+        }
+        return ByteBuffer.wrap(valueBytes).getLong();
+    }
+
+    public Entry get(final String topic, final String key) throws Exception {
+        byte[] valueBytes = this.storage.get(buildKey(topic, key));
+        if (valueBytes == null || valueBytes.length != VALUE_SIZE) {
+            return null;
+        }
+        ByteBuffer value = ByteBuffer.wrap(valueBytes);
+        return new Entry(key, value.getInt(), value.getLong());
+    }
+
+    /**
+     * @return the entries of the keys starting with the prefix, in key order
+     */
+    public List<Entry> scan(final String topic, final String prefix, final int maxNum) {
+        byte[] prefixBytes = buildKey(topic, prefix);
+        int topicLength = prefixBytes.length - prefix.getBytes(StandardCharsets.UTF_8).length;
+        List<Entry> entries = new ArrayList<>();
+        try (RocksIterator iterator = this.storage.iterator()) {
+            for (iterator.seek(prefixBytes); iterator.isValid() && entries.size() < maxNum; iterator.next()) {
+                byte[] keyBytes = iterator.key();
+                if (!startsWith(keyBytes, prefixBytes)) {
+                    break;
+                }
+                byte[] valueBytes = iterator.value();
+                if (valueBytes.length != VALUE_SIZE) {
+                    continue;
+                }
+                ByteBuffer value = ByteBuffer.wrap(valueBytes);
+                String key = new String(keyBytes, topicLength, keyBytes.length - topicLength, StandardCharsets.UTF_8);
+                entries.add(new Entry(key, value.getInt(), value.getLong()));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] buildKey(final String topic, final String key) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(topicBytes.length + 1 + keyBytes.length)
+            .put(topicBytes).put(KEY_SEPARATOR).put(keyBytes).array();
+    }
+
+    private static byte[] buildIndexedOffsetKey(final String topic, final int queueId) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + topicBytes.length + 1 + 4)
+            .put(INDEXED_OFFSET_PREFIX).put(topicBytes).put(KEY_SEPARATOR).putInt(queueId).array();
+    }
+
+    private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static class Entry {
+        private final String key;
+        private final int queueId;
+        private final long queueOffset;
+
+        public Entry(String key, int queueId, long queueOffset) {
+            this.key = key;
+            this.queueId = queueId;
+            this.queueOffset = queueOffset;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getQueueId() {
+            return queueId;
+        }
+
+        public long getQueueOffset() {
+            return queueOffset;
+        }
+    }
+}
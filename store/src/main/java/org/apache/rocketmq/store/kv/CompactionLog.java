@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
@@ -58,6 +59,7 @@ import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -87,6 +89,7 @@ public class CompactionLog {
     private final String topic;
     private final int queueId;
     private final int offsetMapMemorySize;
+    private final boolean offsetMapOffHeap;
     private final PutMessageLock putMessageLock;
     private final PutMessageLock readMessageLock;
     private TopicPartitionLog current;
@@ -94,6 +97,7 @@ public class CompactionLog {
     private TopicPartitionLog replicating;
     private final CompactionPositionMgr positionMgr;
     private final AtomicReference<State> state;
+    private int compactionTimes = 0;
 
     public CompactionLog(final MessageStore messageStore, final CompactionStore compactionStore, final String topic, final int queueId)
         throws IOException {
@@ -103,6 +107,7 @@ public class CompactionLog {
         this.compactionStore = compactionStore;
         this.messageStoreConfig = messageStore.getMessageStoreConfig();
         this.offsetMapMemorySize = compactionStore.getOffsetMapSize();
+        this.offsetMapOffHeap = messageStoreConfig.isCompactionOffsetMapOffHeap();
         this.compactionCqMappedFileSize =
             messageStoreConfig.getCompactionCqMappedFileSize() / BatchConsumeQueue.CQ_STORE_UNIT_SIZE
                 * BatchConsumeQueue.CQ_STORE_UNIT_SIZE;
@@ -328,7 +333,7 @@ public class CompactionLog {
         if (StringUtils.isNotBlank(key)) {
             boolean keyNotExistOrOffsetBigger = msgExt.getQueueOffset() >= map.get(key);
             boolean hasBody = ArrayUtils.isNotEmpty(msgExt.getBody());
-            return keyNotExistOrOffsetBigger && hasBody;
+            return keyNotExistOrOffsetBigger && (hasBody || map.isRetainDeleted());
         } else {
             log.error("message has no keys");
             return false;
@@ -614,13 +619,34 @@ public class CompactionLog {
 
         long startTime = System.nanoTime();
         OffsetMap offsetMap = getOffsetMap(compactFiles.newFiles);
-        compaction(compactFiles.toCompactFiles, offsetMap);
-        replaceFiles(compactFiles.toCompactFiles, current, compacting);
-        positionMgr.setOffset(topic, queueId, offsetMap.lastOffset);
-        positionMgr.persist();
-        compacting.clean(false, false);
-        log.info("this compaction elapsed {} milliseconds",
-            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        try {
+            // files before the first one losing a message are kept as they are, and the files compacted before
+            // are not scanned again but for every few compactions
+            List<MappedFile> toCompactFiles = compactFiles.toCompactFiles;
+            int scanIndex = 0;
+            if (compactionTimes++ % Math.max(messageStoreConfig.getCompactionFullScanInterval(), 1) != 0) {
+                scanIndex = getFirstFileAfterCleanOffset(toCompactFiles);
+            }
+            offsetMap.setRetainDeleted(scanIndex > 0);
+            int firstIndex = scanIndex
+                + getFirstFileToCompact(toCompactFiles.subList(scanIndex, toCompactFiles.size()), offsetMap);
+            if (firstIndex < toCompactFiles.size()) {
+                toCompactFiles = toCompactFiles.subList(firstIndex, toCompactFiles.size());
+                compaction(toCompactFiles, offsetMap);
+                replaceFiles(toCompactFiles, current, compacting);
+            }
+            positionMgr.setOffset(topic, queueId, offsetMap.lastOffset);
+            positionMgr.setCleanOffset(topic, queueId, offsetMap.lastOffset);
+            positionMgr.persist();
+            if (firstIndex < compactFiles.toCompactFiles.size()) {
+                compacting.clean(false, false);
+            }
+            log.info("this compaction of {}:{} scanned {} and rewrote {} of {} files, elapsed {} milliseconds", topic,
+                queueId, compactFiles.toCompactFiles.size() - scanIndex, compactFiles.toCompactFiles.size() - firstIndex,
+                compactFiles.toCompactFiles.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } finally {
+            offsetMap.release();
+        }
 
     }
 
@@ -638,8 +664,51 @@ public class CompactionLog {
         state.compareAndSet(State.COMPACTING, State.NORMAL);
     }
 
+    /**
+     * @return index of the first file holding a message after the clean offset, 0 if the queue was never compacted
+     */
+    int getFirstFileAfterCleanOffset(List<MappedFile> mappedFileList) {
+        long cleanOffset = positionMgr.getCleanOffset(topic, queueId);
+        if (cleanOffset < 0) {
+            return 0;
+        }
+        for (int i = 0; i < mappedFileList.size(); i++) {
+            if (getCQ().getMaxMsgOffsetFromFile(mappedFileList.get(i).getFile().getName()) > cleanOffset) {
+                return i;
+            }
+        }
+        return mappedFileList.size();
+    }
+
+    /**
+     * @return index of the first file holding a message the compaction removes, the size of the list if none
+     */
+    int getFirstFileToCompact(List<MappedFile> mappedFileList, OffsetMap offsetMap) throws DigestException {
+        for (int i = 0; i < mappedFileList.size(); i++) {
+            Iterator<SelectMappedBufferResult> iterator = mappedFileList.get(i).iterator(0);
+            while (iterator.hasNext()) {
+                SelectMappedBufferResult smb = null;
+                try {
+                    smb = iterator.next();
+                    MessageExt msgExt = MessageDecoder.decode(smb.getByteBuffer(), true, false);
+                    if (msgExt == null) {
+                        // file end
+                        break;
+                    } else if (!shouldRetainMsg(msgExt, offsetMap)) {
+                        return i;
+                    }
+                } finally {
+                    if (smb != null) {
+                        smb.release();
+                    }
+                }
+            }
+        }
+        return mappedFileList.size();
+    }
+
     protected OffsetMap getOffsetMap(List<MappedFile> mappedFileList) throws NoSuchAlgorithmException, DigestException {
-        OffsetMap offsetMap = new OffsetMap(offsetMapMemorySize);
+        OffsetMap offsetMap = new OffsetMap(offsetMapMemorySize, offsetMapOffHeap);
 
         for (MappedFile mappedFile : mappedFileList) {
             Iterator<SelectMappedBufferResult> iterator = mappedFile.iterator(0);
@@ -679,7 +748,8 @@ public class CompactionLog {
     }
 
     protected void compaction(List<MappedFile> mappedFileList, OffsetMap offsetMap) throws DigestException {
-        compacting = new TopicPartitionLog(this, COMPACTING_SUB_FOLDER);
+        long startOffset = mappedFileList.isEmpty() ? 0 : mappedFileList.get(0).getFileFromOffset();
+        compacting = new TopicPartitionLog(this, COMPACTING_SUB_FOLDER, startOffset);
 
         for (MappedFile mappedFile : mappedFileList) {
             Iterator<SelectMappedBufferResult> iterator = mappedFile.iterator(0);
@@ -734,6 +804,7 @@ public class CompactionLog {
         dest.getMappedFiles().stream()
             .filter(m -> !mappedFileList.contains(m))
             .forEach(m -> src.getMappedFiles().add(m));
+        src.getMappedFiles().sort(Comparator.comparingLong(MappedFile::getFileFromOffset));
 
         readMessageLock.lock();
         try {
@@ -774,6 +845,7 @@ public class CompactionLog {
         currentMq.getMappedFiles().stream()
             .filter(m -> !fileListToDelete.contains(m))
             .forEach(m -> compactMq.getMappedFiles().add(m));
+        compactMq.getMappedFiles().sort(Comparator.comparingLong(MappedFile::getFileFromOffset));
 
         fileListToDelete.forEach(mappedFile -> mappedFile.destroy(1000));
 
@@ -891,16 +963,25 @@ public class CompactionLog {
         private long lastOffset;
         private final byte[] hash1;
         private final byte[] hash2;
+        private boolean retainDeleted = false;
 
         public OffsetMap(int memorySize) throws NoSuchAlgorithmException {
             this(memorySize, MessageDigest.getInstance("MD5"));
         }
 
+        public OffsetMap(int memorySize, boolean offHeap) throws NoSuchAlgorithmException {
+            this(memorySize, MessageDigest.getInstance("MD5"), offHeap);
+        }
+
         public OffsetMap(int memorySize, MessageDigest digest) {
+            this(memorySize, digest, false);
+        }
+
+        public OffsetMap(int memorySize, MessageDigest digest, boolean offHeap) {
             this.hashSize = digest.getDigestLength();
             this.entrySize = hashSize + (Long.SIZE / Byte.SIZE);
             this.capacity = Math.max(memorySize / entrySize, 100);
-            this.dataBytes = ByteBuffer.allocate(capacity * entrySize);
+            this.dataBytes = offHeap ? ByteBuffer.allocateDirect(capacity * entrySize) : ByteBuffer.allocate(capacity * entrySize);
             this.hash1 = new byte[hashSize];
             this.hash2 = new byte[hashSize];
             this.entryNum = 0;
@@ -957,6 +1038,26 @@ public class CompactionLog {
             return lastOffset;
         }
 
+        /**
+         * Keep the messages deleting their keys, as the files skipped by the compaction may still hold the keys
+         */
+        public void setRetainDeleted(boolean retainDeleted) {
+            this.retainDeleted = retainDeleted;
+        }
+
+        public boolean isRetainDeleted() {
+            return retainDeleted;
+        }
+
+        /**
+         * Frees the memory of an off heap map, which is not usable anymore
+         */
+        public void release() {
+            if (dataBytes.isDirect()) {
+                UtilAll.cleanBuffer(dataBytes);
+            }
+        }
+
         private boolean isEmpty(int pos) {
             return dataBytes.getLong(pos) == 0
                 && dataBytes.getLong(pos + 8) == 0
@@ -985,11 +1086,20 @@ public class CompactionLog {
     static class TopicPartitionLog {
         MappedFileQueue mappedFileQueue;
         SparseConsumeQueue consumeQueue;
+        private final long startOffset;
 
         public TopicPartitionLog(CompactionLog compactionLog) {
             this(compactionLog, null);
         }
         public TopicPartitionLog(CompactionLog compactionLog, String subFolder) {
+            this(compactionLog, subFolder, 0);
+        }
+
+        /**
+         * @param startOffset offset of the first file created when the log is empty
+         */
+        public TopicPartitionLog(CompactionLog compactionLog, String subFolder, long startOffset) {
+            this.startOffset = startOffset;
             if (StringUtils.isBlank(subFolder)) {
                 mappedFileQueue = new MappedFileQueue(compactionLog.compactionLogFilePath,
                     compactionLog.compactionLogMappedFileSize, null);
@@ -1059,7 +1169,7 @@ public class CompactionLog {
         }
 
         public synchronized void roll() throws IOException {
-            MappedFile mappedFile = mappedFileQueue.getLastMappedFile(0);
+            MappedFile mappedFile = mappedFileQueue.getLastMappedFile(startOffset);
             if (mappedFile == null) {
                 throw new IOException("create new file error");
             }
@@ -30,6 +30,7 @@ public class CompactionPositionMgr extends ConfigManager {
     private transient String checkpointFileName;
 
     private ConcurrentHashMap<String, Long> queueOffsetMap = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Long> cleanOffsetMap = new ConcurrentHashMap<>();
 
     private CompactionPositionMgr() {
 
@@ -49,6 +50,18 @@ public class CompactionPositionMgr extends ConfigManager {
         return queueOffsetMap.getOrDefault(topic + "_" + queueId, -1L);
     }
 
+    /**
+     * The sealed files holding no message after the clean offset were compacted against the keys up to it, so the
+     * next compaction may start looking for superseded messages in the file after them.
+     */
+    public void setCleanOffset(String topic, int queueId, final long offset) {
+        cleanOffsetMap.put(topic + "_" + queueId, offset);
+    }
+
+    public long getCleanOffset(String topic, int queueId) {
+        return cleanOffsetMap.getOrDefault(topic + "_" + queueId, -1L);
+    }
+
     public boolean isEmpty() {
         return queueOffsetMap.isEmpty();
     }
@@ -78,6 +91,9 @@ public class CompactionPositionMgr extends ConfigManager {
             CompactionPositionMgr obj = RemotingSerializable.fromJson(jsonString, CompactionPositionMgr.class);
             if (obj != null) {
                 this.queueOffsetMap = obj.queueOffsetMap;
+                if (obj.cleanOffsetMap != null) {
+                    this.cleanOffsetMap = obj.cleanOffsetMap;
+                }
             }
         }
     }
@@ -89,4 +105,12 @@ public class CompactionPositionMgr extends ConfigManager {
     public void setQueueOffsetMap(ConcurrentHashMap<String, Long> queueOffsetMap) {
         this.queueOffsetMap = queueOffsetMap;
     }
+
+    public ConcurrentHashMap<String, Long> getCleanOffsetMap() {
+        return cleanOffsetMap;
+    }
+
+    public void setCleanOffsetMap(ConcurrentHashMap<String, Long> cleanOffsetMap) {
+        this.cleanOffsetMap = cleanOffsetMap;
+    }
 }
@@ -18,21 +18,28 @@ package org.apache.rocketmq.store.kv;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.attribute.CleanupPolicy;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.common.utils.CleanupPolicyUtils;
 import org.apache.rocketmq.common.utils.ThreadUtils;
 import org.apache.rocketmq.logging.org.slf4j.Logger;
@@ -40,6 +47,8 @@ import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
 import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.DispatchRequest;
 import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.QueryMessageResult;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
 
@@ -60,6 +69,7 @@ public class CompactionStore {
     private final int compactionInterval;
     private final int compactionThreadNum;
     private final int offsetMapSize;
+    private final CompactionKeyIndex keyIndex;
     private String masterAddr;
 
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -80,9 +90,15 @@ public class CompactionStore {
         this.offsetMapSize = config.getMaxOffsetMapSize() / compactionThreadNum;
 
         this.compactionInterval = defaultMessageStore.getMessageStoreConfig().getCompactionScheduleInternal();
+        this.keyIndex = config.isEnableCompactionKeyIndex()
+            ? new CompactionKeyIndex(Paths.get(compactionPath, CompactionKeyIndex.KEY_INDEX_DIR).toString()) : null;
     }
 
     public void load(boolean exitOk) throws Exception {
+        if (keyIndex != null && !keyIndex.load()) {
+            throw new Exception("load compaction key index " + compactionPath + " failed");
+        }
+
         File logRoot = new File(compactionLogPath);
         File[] fileTopicList = logRoot.listFiles();
         if (fileTopicList != null) {
@@ -102,7 +118,10 @@ public class CompactionStore {
                             int queueId = Integer.parseInt(fileQueueId.getName());
 
                             if (Files.isDirectory(Paths.get(compactionCqPath, topic, String.valueOf(queueId)))) {
-                                loadAndGetClog(topic, queueId);
+                                CompactionLog clog = loadAndGetClog(topic, queueId);
+                                if (clog != null && keyIndex != null) {
+                                    rebuildKeyIndex(topic, queueId, clog);
+                                }
                             } else {
                                 log.error("{}:{} compactionLog mismatch with compactionCq", topic, queueId);
                             }
@@ -173,10 +192,119 @@ public class CompactionStore {
         CompactionLog clog = loadAndGetClog(dispatchRequest.getTopic(), dispatchRequest.getQueueId());
 
         if (clog != null) {
-            clog.asyncPutMessage(smr.getByteBuffer(), dispatchRequest);
+            // Read before the put completes, the caller releases the buffer on return
+            boolean tombstone = getBodyLength(smr.getByteBuffer()) <= 0;
+            CompletableFuture<PutMessageResult> putFuture = clog.asyncPutMessage(smr.getByteBuffer(), dispatchRequest);
+            if (keyIndex != null && StringUtils.isNotBlank(dispatchRequest.getKeys())) {
+                // Only index what the compaction log has taken, a rejected duplicate must not move the key
+                putFuture.thenAccept(result -> {
+                    if (result == null || !result.isOk()) {
+                        return;
+                    }
+                    try {
+                        keyIndex.update(dispatchRequest.getTopic(), dispatchRequest.getKeys(),
+                            dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset(), tombstone);
+                    } catch (Exception e) {
+                        log.error("update compaction key index of {}:{} exception: ", dispatchRequest.getTopic(),
+                            dispatchRequest.getQueueId(), e);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Index the messages of the compaction log after the offset the key index has reached.
+     */
+    void rebuildKeyIndex(final String topic, final int queueId, final CompactionLog clog) throws Exception {
+        long maxOffset = clog.getCQ().getMaxOffsetInQueue();
+        long offset = Math.max(keyIndex.getIndexedOffset(topic, queueId), clog.getCQ().getMinOffsetInQueue());
+        if (offset >= maxOffset) {
+            return;
+        }
+        log.info("rebuild compaction key index of {}:{} from {} to {}", topic, queueId, offset, maxOffset);
+
+        int maxTotalMsgSize = defaultMessageStore.getMessageStoreConfig().getMaxTransferBytesOnMessageInDisk();
+        int maxMsgNums = defaultMessageStore.getMessageStoreConfig().getMaxTransferCountOnMessageInDisk();
+        while (offset < maxOffset) {
+            GetMessageResult getResult = clog.getMessage("", topic, queueId, offset, maxMsgNums, maxTotalMsgSize);
+            try {
+                for (SelectMappedBufferResult result : getResult.getMessageMapedList()) {
+                    ByteBuffer buffer = result.getByteBuffer();
+                    boolean tombstone = getBodyLength(buffer) <= 0;
+                    MessageExt msg = MessageDecoder.decode(buffer, false, false);
+                    if (msg != null && StringUtils.isNotBlank(msg.getKeys())) {
+                        keyIndex.update(topic, msg.getKeys(), queueId, msg.getQueueOffset(), tombstone);
+                    }
+                }
+            } finally {
+                getResult.release();
+            }
+            if (getResult.getNextBeginOffset() <= offset) {
+                log.warn("rebuild compaction key index of {}:{} stopped at {}, {}", topic, queueId, offset,
+                    getResult.getStatus());
+                break;
+            }
+            offset = getResult.getNextBeginOffset();
         }
     }
 
+    /**
+     * Look the latest messages of the keys up through the key index. An entry only points at the queue offset last
+     * dispatched for its key, so the message read back is checked against it, as compaction may have dropped it.
+     */
+    public QueryMessageResult queryByKey(final String topic, final String key, final boolean prefix,
+        final int maxNum) throws Exception {
+        QueryMessageResult queryResult = new QueryMessageResult();
+        if (keyIndex == null || StringUtils.isBlank(key) || maxNum <= 0) {
+            return queryResult;
+        }
+
+        List<CompactionKeyIndex.Entry> entries;
+        if (prefix) {
+            entries = keyIndex.scan(topic, key, maxNum);
+        } else {
+            CompactionKeyIndex.Entry entry = keyIndex.get(topic, key);
+            entries = entry == null ? Collections.emptyList() : Collections.singletonList(entry);
+        }
+
+        int maxTotalMsgSize = defaultMessageStore.getMessageStoreConfig().getMaxTransferBytesOnMessageInDisk();
+        for (CompactionKeyIndex.Entry entry : entries) {
+            CompactionLog clog = compactionLogTable.get(topic + "_" + entry.getQueueId());
+            if (clog == null) {
+                continue;
+            }
+            GetMessageResult getResult = clog.getMessage("", topic, entry.getQueueId(), entry.getQueueOffset(),
+                1, maxTotalMsgSize);
+            for (SelectMappedBufferResult result : getResult.getMessageMapedList()) {
+                ByteBuffer buffer = result.getByteBuffer();
+                if (buffer.getLong(buffer.position() + MessageDecoder.QUEUE_OFFSET_POSITION) == entry.getQueueOffset()
+                    && getBodyLength(buffer) > 0) {
+                    queryResult.addMessage(result);
+                } else {
+                    result.release();
+                }
+            }
+        }
+        return queryResult;
+    }
+
+    private static int getBodyLength(final ByteBuffer msgBuffer) {
+        int start = msgBuffer.position();
+        int sysFlag = msgBuffer.getInt(start + MessageDecoder.SYSFLAG_POSITION);
+        int bornHostLength = (sysFlag & MessageSysFlag.BORNHOST_V6_FLAG) == 0 ? 8 : 20;
+        int storeHostLength = (sysFlag & MessageSysFlag.STOREHOSTADDRESS_V6_FLAG) == 0 ? 8 : 20;
+        int bodySizePosition = MessageDecoder.SYSFLAG_POSITION
+            + 4 // SYSFLAG
+            + 8 // BORNTIMESTAMP
+            + bornHostLength // BORNHOST
+            + 8 // STORETIMESTAMP
+            + storeHostLength // STOREHOSTADDRESS
+            + 4 // RECONSUMETIMES
+            + 8; // Prepared Transaction Offset
+        return msgBuffer.getInt(start + bodySizePosition);
+    }
+
     public GetMessageResult getMessage(final String group, final String topic, final int queueId, final long offset,
         final int maxMsgNums, final int maxTotalMsgSize) {
         CompactionLog log = compactionLogTable.get(topic + "_" + queueId);
@@ -217,6 +345,9 @@ public class CompactionStore {
         }
         this.flush(0);
         positionMgr.persist();
+        if (keyIndex != null) {
+            keyIndex.shutdown();
+        }
     }
 
     public ScheduledExecutorService getCompactionSchedule() {
@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import org.apache.commons.lang3.SystemUtils;
 import org.apache.rocketmq.common.UtilAll;
@@ -58,7 +59,7 @@ import org.apache.rocketmq.store.util.LibC;
 import sun.misc.Unsafe;
 import sun.nio.ch.DirectBuffer;
 
-public class DefaultMappedFile extends AbstractMappedFile {
+public class DefaultMappedFile extends AbstractMappedFile implements ReservableMappedFile {
     public static final int OS_PAGE_SIZE = 1024 * 4;
     public static final Unsafe UNSAFE = getUnsafe();
     private static final Method IS_LOADED_METHOD;
@@ -73,8 +74,14 @@ public class DefaultMappedFile extends AbstractMappedFile {
     protected static final AtomicIntegerFieldUpdater<DefaultMappedFile> WROTE_POSITION_UPDATER;
     protected static final AtomicIntegerFieldUpdater<DefaultMappedFile> COMMITTED_POSITION_UPDATER;
     protected static final AtomicIntegerFieldUpdater<DefaultMappedFile> FLUSHED_POSITION_UPDATER;
+    protected static final AtomicIntegerFieldUpdater<DefaultMappedFile> RESERVED_POSITION_UPDATER;
+    private static final int RESERVED_WAIT_SPIN_ROUNDS = 64;
 
     protected volatile int wrotePosition;
+    /**
+     * End of the slices handed out by reserve(), the wrote position catches up with it as they are written.
+     */
+    protected volatile int reservedPosition;
     protected volatile int committedPosition;
     protected volatile int flushedPosition;
     protected int fileSize;
@@ -112,6 +119,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
         WROTE_POSITION_UPDATER = AtomicIntegerFieldUpdater.newUpdater(DefaultMappedFile.class, "wrotePosition");
         COMMITTED_POSITION_UPDATER = AtomicIntegerFieldUpdater.newUpdater(DefaultMappedFile.class, "committedPosition");
         FLUSHED_POSITION_UPDATER = AtomicIntegerFieldUpdater.newUpdater(DefaultMappedFile.class, "flushedPosition");
+        RESERVED_POSITION_UPDATER = AtomicIntegerFieldUpdater.newUpdater(DefaultMappedFile.class, "reservedPosition");
 
         Method isLoaded0method = null;
         // On the windows platform and openjdk 11 method isLoaded0 always returns false.
@@ -242,6 +250,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
         assert byteBufferMsg != null;
         assert cb != null;
 
+        awaitReservedWritten();
         int currentPos = WROTE_POSITION_UPDATER.get(this);
         if (currentPos < this.fileSize) {
             ByteBuffer byteBuffer = appendMessageBuffer().slice();
@@ -272,6 +281,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
         assert messageExt != null;
         assert cb != null;
 
+        awaitReservedWritten();
         int currentPos = WROTE_POSITION_UPDATER.get(this);
 
         if (currentPos < this.fileSize) {
@@ -297,6 +307,65 @@ public class DefaultMappedFile extends AbstractMappedFile {
         return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
     }
 
+    @Override
+    public int getReservedPosition() {
+        return Math.max(RESERVED_POSITION_UPDATER.get(this), WROTE_POSITION_UPDATER.get(this));
+    }
+
+    @Override
+    public int reserve(final int size) {
+        int currentPos = getReservedPosition();
+        if (currentPos + size > this.fileSize) {
+            return -1;
+        }
+        RESERVED_POSITION_UPDATER.set(this, currentPos + size);
+        return currentPos;
+    }
+
+    @Override
+    public void writeReserved(final int pos, final int size, final ByteBuffer data, final long storeTimestamp) {
+        try {
+            ByteBuffer byteBuffer = appendMessageBuffer().slice();
+            byteBuffer.position(pos);
+            byteBuffer.put(data);
+        } finally {
+            // Publish in reservation order, a slice is only readable once all slices before it are
+            long waitBeginTime = System.currentTimeMillis();
+            for (int round = 0; WROTE_POSITION_UPDATER.get(this) != pos; round++) {
+                waitBackoff(round, waitBeginTime);
+            }
+            this.storeTimestamp = storeTimestamp;
+            WROTE_POSITION_UPDATER.set(this, pos + size);
+        }
+    }
+
+    /**
+     * Appends that do not go through reserve() must not overtake the slices still being written.
+     */
+    private void awaitReservedWritten() {
+        long waitBeginTime = System.currentTimeMillis();
+        for (int round = 0; RESERVED_POSITION_UPDATER.get(this) > WROTE_POSITION_UPDATER.get(this); round++) {
+            waitBackoff(round, waitBeginTime);
+        }
+    }
+
+    /**
+     * The slices reserved before are normally only a copy away from being written, so the waiters spin for a few
+     * rounds, then park for exponentially longer up to 1ms.
+     */
+    private void waitBackoff(final int round, final long waitBeginTime) {
+        if (round < RESERVED_WAIT_SPIN_ROUNDS) {
+            Thread.yield();
+            return;
+        }
+        LockSupport.parkNanos(Math.min(1000L << Math.min(round - RESERVED_WAIT_SPIN_ROUNDS, 10), 1000 * 1000L));
+        if (round % 1000 == 0) {
+            log.warn("Wait {}ms for the reserved slices of file {} to be written, wrotePosition: {} reservedPosition: {}",
+                System.currentTimeMillis() - waitBeginTime, this.fileName, WROTE_POSITION_UPDATER.get(this),
+                RESERVED_POSITION_UPDATER.get(this));
+        }
+    }
+
     protected ByteBuffer appendMessageBuffer() {
         this.mappedByteBufferAccessCountSinceLastSwap++;
         return writeBuffer != null ? writeBuffer : this.mappedByteBuffer;
@@ -314,6 +383,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
 
     @Override
     public boolean appendMessage(ByteBuffer data) {
+        awaitReservedWritten();
         int currentPos = WROTE_POSITION_UPDATER.get(this);
         int remaining = data.remaining();
 
@@ -340,6 +410,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
      */
     @Override
     public boolean appendMessage(final byte[] data, final int offset, final int length) {
+        awaitReservedWritten();
         int currentPos = WROTE_POSITION_UPDATER.get(this);
 
         if ((currentPos + length) <= this.fileSize) {
@@ -359,6 +430,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
 
     @Override
     public boolean appendMessageUsingFileChannel(byte[] data) {
+        awaitReservedWritten();
         int currentPos = WROTE_POSITION_UPDATER.get(this);
 
         if ((currentPos + data.length) <= this.fileSize) {
@@ -602,6 +674,7 @@ public class DefaultMappedFile extends AbstractMappedFile {
     @Override
     public void setWrotePosition(int pos) {
         WROTE_POSITION_UPDATER.set(this, pos);
+        RESERVED_POSITION_UPDATER.set(this, pos);
     }
 
     /**
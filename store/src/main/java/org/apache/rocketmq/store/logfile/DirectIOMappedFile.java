@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.logfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.TransientStorePool;
+import sun.nio.ch.DirectBuffer;
+
+/**
+ * A mapped file committing the data of its {@link TransientStorePool} buffer with direct I/O.
+ * <p>
+ * Committed regions are written through a second channel opened with O_DIRECT, so that commit neither dirties page
+ * cache pages nor leaves them for the flush to write back, and flush only has to ask the device to persist what it
+ * already received. Direct I/O requires the file position, the length and the memory address to be aligned, so
+ * every commit rewrites the partial block it starts in and pads its last partial block with zeros from a scratch
+ * buffer, never exposing the bytes of the pooled buffer beyond the wrote position.
+ * <p>
+ * Reading is still done through the mapping, which the kernel keeps coherent with direct writes. When O_DIRECT is
+ * not supported by the JDK or the file system, or the buffer is not aligned, commit falls back to the positional
+ * write of {@link DefaultMappedFile}.
+ */
+public class DirectIOMappedFile extends DefaultMappedFile {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int BLOCK_SIZE = OS_PAGE_SIZE;
+
+    private static final OpenOption DIRECT_OPTION;
+
+    static {
+        OpenOption direct = null;
+        try {
+            // Available since JDK 10, see com.sun.nio.file.ExtendedOpenOption
+            Class<?> clazz = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object constant : clazz.getEnumConstants()) {
+                if ("DIRECT".equals(((Enum<?>) constant).name())) {
+                    direct = (OpenOption) constant;
+                }
+            }
+        } catch (Throwable ignored) {
+        }
+        DIRECT_OPTION = direct;
+    }
+
+    private FileChannel directChannel;
+    private ByteBuffer tailBlock;
+
+    public DirectIOMappedFile(final String fileName, final int fileSize,
+        final TransientStorePool transientStorePool) throws IOException {
+        super(fileName, fileSize, transientStorePool);
+        openDirectChannel();
+    }
+
+    public static boolean isDirectIOSupported() {
+        return DIRECT_OPTION != null;
+    }
+
+    private void openDirectChannel() {
+        if (DIRECT_OPTION == null || writeBuffer == null || fileSize % BLOCK_SIZE != 0
+            || ((DirectBuffer) writeBuffer).address() % BLOCK_SIZE != 0) {
+            log.warn("Direct I/O is not available for {}, commit with the file channel instead", fileName);
+            return;
+        }
+        try {
+            this.directChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, DIRECT_OPTION);
+            ByteBuffer scratch = ByteBuffer.allocateDirect(BLOCK_SIZE * 2);
+            int offset = (int) (BLOCK_SIZE - ((DirectBuffer) scratch).address() % BLOCK_SIZE) % BLOCK_SIZE;
+            scratch.position(offset);
+            scratch.limit(offset + BLOCK_SIZE);
+            this.tailBlock = scratch.slice();
+        } catch (Throwable e) {
+            log.warn("Failed to open {} with O_DIRECT, commit with the file channel instead", fileName, e);
+            this.directChannel = null;
+        }
+    }
+
+    public boolean isDirectIO() {
+        return directChannel != null;
+    }
+
+    @Override
+    protected void commit0() {
+        if (directChannel == null) {
+            super.commit0();
+            return;
+        }
+
+        int writePos = WROTE_POSITION_UPDATER.get(this);
+        int lastCommittedPosition = COMMITTED_POSITION_UPDATER.get(this);
+
+        if (writePos - lastCommittedPosition > 0) {
+            try {
+                int alignedBegin = lastCommittedPosition - lastCommittedPosition % BLOCK_SIZE;
+                int alignedEnd = writePos - writePos % BLOCK_SIZE;
+
+                if (alignedEnd > alignedBegin) {
+                    ByteBuffer byteBuffer = writeBuffer.slice();
+                    byteBuffer.position(alignedBegin);
+                    byteBuffer.limit(alignedEnd);
+                    writeFully(byteBuffer, alignedBegin);
+                }
+
+                if (writePos > alignedEnd) {
+                    ByteBuffer source = writeBuffer.slice();
+                    source.position(alignedEnd);
+                    source.limit(writePos);
+                    tailBlock.clear();
+                    tailBlock.put(source);
+                    while (tailBlock.hasRemaining()) {
+                        tailBlock.put((byte) 0);
+                    }
+                    tailBlock.flip();
+                    writeFully(tailBlock, alignedEnd);
+                }
+
+                // Keep the position of the regular channel moving, flush relies on it to choose the channel to force
+                this.fileChannel.position(writePos);
+                COMMITTED_POSITION_UPDATER.set(this, writePos);
+            } catch (Throwable e) {
+                log.error("Error occurred when commit data to FileChannel with direct I/O.", e);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            position += directChannel.write(byteBuffer, position);
+        }
+    }
+
+    @Override
+    public boolean cleanup(final long currentRef) {
+        boolean result = super.cleanup(currentRef);
+        if (result && directChannel != null) {
+            try {
+                directChannel.close();
+            } catch (IOException e) {
+                log.warn("close direct channel " + this.fileName + " Failed. ", e);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.logfile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MappedFile} whose appends can be split in two: a slice is reserved under the lock that serializes the
+ * appends, then written without holding it. Callers check for it with {@code instanceof} and fall back to the locked
+ * append methods otherwise.
+ */
+public interface ReservableMappedFile extends MappedFile {
+
+    /**
+     * Returns the position up to which this file has been reserved by {@link #reserve(int)}, which is never behind
+     * the wrote position.
+     *
+     * @return the reserved position
+     */
+    int getReservedPosition();
+
+    /**
+     * Reserves a slice of {@code size} bytes at the reserved position, so that the content can be written by
+     * {@link #writeReserved(int, int, ByteBuffer, long)} without holding the lock that serializes reservations.
+     *
+     * @param size the size of the slice to reserve
+     * @return the start position of the reserved slice, or -1 if the remaining space is not enough
+     */
+    int reserve(int size);
+
+    /**
+     * Writes data into a slice previously reserved by {@link #reserve(int)}, then advances the wrote position over
+     * the slice once every slice reserved before it has been written as well, so readers never observe a gap.
+     *
+     * @param pos the start position of the reserved slice
+     * @param size the size of the reserved slice
+     * @param data the data to write, no longer than the slice
+     * @param storeTimestamp the store timestamp of the written message
+     */
+    void writeReserved(int pos, int size, ByteBuffer data, long storeTimestamp);
+}
@@ -21,6 +21,14 @@ public class DefaultStoreMetricsConstant {
     public static final String GAUGE_STORAGE_FLUSH_BEHIND = "rocketmq_storage_flush_behind_bytes";
     public static final String GAUGE_STORAGE_DISPATCH_BEHIND = "rocketmq_storage_dispatch_behind_bytes";
     public static final String GAUGE_STORAGE_MESSAGE_RESERVE_TIME = "rocketmq_storage_message_reserve_time";
+    public static final String GAUGE_STORAGE_GROUP_COMMIT_WINDOW = "rocketmq_storage_group_commit_window";
+    public static final String GAUGE_STORAGE_GROUP_COMMIT_BATCH_SIZE = "rocketmq_storage_group_commit_batch_size";
+    public static final String GAUGE_STORAGE_TRANSIENT_POOL_AVAILABLE = "rocketmq_storage_transient_store_pool_available_buffers";
+    public static final String GAUGE_STORAGE_TRANSIENT_POOL_HUGE_PAGE = "rocketmq_storage_transient_store_pool_huge_page_buffers";
+    public static final String COUNTER_STORAGE_COMBINED_APPEND_BATCHES_TOTAL = "rocketmq_storage_combined_append_batches_total";
+    public static final String COUNTER_STORAGE_COMBINED_APPEND_REQUESTS_TOTAL = "rocketmq_storage_combined_append_requests_total";
+    public static final String COUNTER_STORAGE_PREFETCH_BYTES_TOTAL = "rocketmq_storage_commitlog_prefetch_bytes_total";
+    public static final String COUNTER_STORAGE_PREFETCH_DROPPED_TOTAL = "rocketmq_storage_commitlog_prefetch_dropped_total";
 
     public static final String GAUGE_TIMER_ENQUEUE_LAG = "rocketmq_timer_enqueue_lag";
     public static final String GAUGE_TIMER_ENQUEUE_LATENCY = "rocketmq_timer_enqueue_latency";
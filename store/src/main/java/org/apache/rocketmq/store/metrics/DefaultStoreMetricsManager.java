@@ -22,6 +22,7 @@ import io.opentelemetry.api.common.AttributesBuilder;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.LongHistogram;
 import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
 import io.opentelemetry.api.metrics.ObservableLongGauge;
 import io.opentelemetry.sdk.metrics.Aggregation;
 import io.opentelemetry.sdk.metrics.InstrumentSelector;
@@ -31,8 +32,12 @@ import io.opentelemetry.sdk.metrics.ViewBuilder;
 import org.apache.rocketmq.common.Pair;
 import org.apache.rocketmq.common.metrics.NopLongCounter;
 import org.apache.rocketmq.common.metrics.NopLongHistogram;
+import org.apache.rocketmq.common.metrics.NopObservableLongCounter;
 import org.apache.rocketmq.common.metrics.NopObservableLongGauge;
+import org.apache.rocketmq.store.AdaptiveGroupCommitWindow;
 import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.PutMessageCombiner;
+import org.apache.rocketmq.store.TransientStorePool;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.timer.Slot;
 import org.apache.rocketmq.store.timer.TimerMessageStore;
@@ -42,16 +47,25 @@ import org.apache.rocketmq.store.timer.TimerWheel;
 import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_STORAGE_COMBINED_APPEND_BATCHES_TOTAL;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_STORAGE_COMBINED_APPEND_REQUESTS_TOTAL;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_STORAGE_PREFETCH_BYTES_TOTAL;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_STORAGE_PREFETCH_DROPPED_TOTAL;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_TIMER_DEQUEUE_TOTAL;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.COUNTER_TIMER_ENQUEUE_TOTAL;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.DEFAULT_STORAGE_MEDIUM;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.DEFAULT_STORAGE_TYPE;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_DISPATCH_BEHIND;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_FLUSH_BEHIND;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_GROUP_COMMIT_BATCH_SIZE;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_GROUP_COMMIT_WINDOW;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_MESSAGE_RESERVE_TIME;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_SIZE;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_TRANSIENT_POOL_AVAILABLE;
+import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_STORAGE_TRANSIENT_POOL_HUGE_PAGE;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_TIMER_DEQUEUE_LAG;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_TIMER_DEQUEUE_LATENCY;
 import static org.apache.rocketmq.store.metrics.DefaultStoreMetricsConstant.GAUGE_TIMER_ENQUEUE_LAG;
@@ -72,6 +86,14 @@ public class DefaultStoreMetricsManager {
     public static ObservableLongGauge flushBehind = new NopObservableLongGauge();
     public static ObservableLongGauge dispatchBehind = new NopObservableLongGauge();
     public static ObservableLongGauge messageReserveTime = new NopObservableLongGauge();
+    public static ObservableLongGauge groupCommitWindow = new NopObservableLongGauge();
+    public static ObservableLongGauge groupCommitBatchSize = new NopObservableLongGauge();
+    public static ObservableLongCounter combinedAppendBatchesTotal = new NopObservableLongCounter();
+    public static ObservableLongCounter combinedAppendRequestsTotal = new NopObservableLongCounter();
+    public static ObservableLongGauge transientPoolAvailableBuffers = new NopObservableLongGauge();
+    public static ObservableLongGauge transientPoolHugePageBuffers = new NopObservableLongGauge();
+    public static LongCounter commitLogPrefetchBytesTotal = new NopLongCounter();
+    public static LongCounter commitLogPrefetchDroppedTotal = new NopLongCounter();
 
     public static ObservableLongGauge timerEnqueueLag = new NopObservableLongGauge();
     public static ObservableLongGauge timerEnqueueLatency = new NopObservableLongGauge();
@@ -146,6 +168,60 @@ public class DefaultStoreMetricsManager {
                 measurement.record(System.currentTimeMillis() - earliestMessageTime, newAttributesBuilder().build());
             });
 
+        AdaptiveGroupCommitWindow adaptiveGroupCommitWindow = messageStore.getCommitLog().getGroupCommitWindow();
+        if (adaptiveGroupCommitWindow != null) {
+            groupCommitWindow = meter.gaugeBuilder(GAUGE_STORAGE_GROUP_COMMIT_WINDOW)
+                .setDescription("Window the sync flush group commit waits for more requests")
+                .setUnit("microseconds")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(
+                    TimeUnit.NANOSECONDS.toMicros(adaptiveGroupCommitWindow.getWindowNanos()), newAttributesBuilder().build()));
+
+            groupCommitBatchSize = meter.gaugeBuilder(GAUGE_STORAGE_GROUP_COMMIT_BATCH_SIZE)
+                .setDescription("Requests completed by the last sync flush group commit")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(
+                    adaptiveGroupCommitWindow.getLastBatchSize(), newAttributesBuilder().build()));
+        }
+
+        PutMessageCombiner<?> putMessageCombiner = messageStore.getCommitLog().getPutMessageCombiner();
+        if (putMessageCombiner != null) {
+            combinedAppendBatchesTotal = meter.counterBuilder(COUNTER_STORAGE_COMBINED_APPEND_BATCHES_TOTAL)
+                .setDescription("Batches appended under the put lock by the combined append")
+                .buildWithCallback(measurement -> measurement.record(
+                    putMessageCombiner.getCombinedBatches(), newAttributesBuilder().build()));
+
+            combinedAppendRequestsTotal = meter.counterBuilder(COUNTER_STORAGE_COMBINED_APPEND_REQUESTS_TOTAL)
+                .setDescription("Requests appended under the put lock by the combined append")
+                .buildWithCallback(measurement -> measurement.record(
+                    putMessageCombiner.getCombinedRequests(), newAttributesBuilder().build()));
+        }
+
+        if (messageStore.isTransientStorePoolEnable()) {
+            TransientStorePool transientStorePool = messageStore.getTransientStorePool();
+            transientPoolAvailableBuffers = meter.gaugeBuilder(GAUGE_STORAGE_TRANSIENT_POOL_AVAILABLE)
+                .setDescription("Buffers of the transient store pool not in use")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(
+                    transientStorePool.availableBufferNums(), newAttributesBuilder().build()));
+
+            transientPoolHugePageBuffers = meter.gaugeBuilder(GAUGE_STORAGE_TRANSIENT_POOL_HUGE_PAGE)
+                .setDescription("Buffers of the transient store pool backed by huge pages")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(
+                    transientStorePool.getHugePageBuffers(), newAttributesBuilder().build()));
+        }
+
+        if (messageStore.getCommitLogPrefetchService() != null) {
+            commitLogPrefetchBytesTotal = meter.counterBuilder(COUNTER_STORAGE_PREFETCH_BYTES_TOTAL)
+                .setDescription("CommitLog bytes read ahead for the consumers catching up")
+                .setUnit("bytes")
+                .build();
+            commitLogPrefetchDroppedTotal = meter.counterBuilder(COUNTER_STORAGE_PREFETCH_DROPPED_TOTAL)
+                .setDescription("CommitLog read ahead requests dropped by the full queue or the budget")
+                .build();
+        }
+
         if (messageStore.getMessageStoreConfig().isTimerWheelEnable()) {
             timerEnqueueLag = meter.gaugeBuilder(GAUGE_TIMER_ENQUEUE_LAG)
                 .setDescription("Timer enqueue messages lag")
@@ -226,6 +302,14 @@ public class DefaultStoreMetricsManager {
         }
     }
 
+    public static void incCommitLogPrefetchBytes(long bytes) {
+        commitLogPrefetchBytesTotal.add(bytes, newAttributesBuilder().build());
+    }
+
+    public static void incCommitLogPrefetchDropped() {
+        commitLogPrefetchDroppedTotal.add(1, newAttributesBuilder().build());
+    }
+
     public static void incTimerDequeueCount(String topic) {
         timerDequeueTotal.add(1, newAttributesBuilder()
             .put(LABEL_TOPIC, topic)
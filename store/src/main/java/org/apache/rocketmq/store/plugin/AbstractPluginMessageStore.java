@@ -252,6 +252,11 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.queryMessageAsync(topic, key, maxNum, begin, end);
     }
 
+    @Override
+    public QueryMessageResult queryCompactedMessage(String topic, String key, boolean prefix, int maxNum) {
+        return next.queryCompactedMessage(topic, key, prefix, maxNum);
+    }
+
     @Override
     public long now() {
         return next.now();
@@ -0,0 +1,1313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.BoundaryType;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.Pair;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.attribute.CQType;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExtBrokerInner;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.MappedFileQueue;
+import org.apache.rocketmq.store.MessageFilter;
+import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.logfile.MappedFile;
+
+/**
+ * Consume queue storing its entries in compressed blocks, for queues whose plain consume queue files would dominate
+ * the page cache and the disk, such as large numbers of LMQ queues.
+ * <p>
+ * CompressedConsumeQueue's block. Format:
+ * <pre>
+ * ┌─────────┬─────────┬─────────┬────────────┬─────────────────────────┬───────────┬────────────┬──────────────┐
+ * │  Magic  │  Count  │Body Size│Queue Offset│CommitLog Physical Offset│ Body Size │Tag HashCode│     Body     │
+ * │(4 Bytes)│(2 Bytes)│(2 Bytes)│ (8 Bytes)  │        (8 Bytes)        │ (4 Bytes) │ (8 Bytes)  │(Body Size)   │
+ * ├─────────┴─────────┴─────────┴────────────┴─────────────────────────┴───────────┴────────────┼──────────────┤
+ * │                                   Header, with the first entry                               │Other entries │
+ * </pre>
+ * The body holds the following entries of the block, each column encoded as the zigzag varint of its delta to the
+ * previous entry: the gap between the end of the previous message and this one in the commit log, the size difference
+ * and the tag hash code difference. A block holds up to {@link #ENTRIES_PER_BLOCK} consecutive queue offsets, its
+ * count and body size are rewritten on every append so that the tail block is always readable.
+ * <p>
+ * A block never crosses files. When the next block may not fit, the file is padded and sealed with the commit log
+ * offset of its last entry in its last {@link #FILE_TRAILER_SIZE} bytes, so that expired files are deleted the way
+ * consume queue files are. Blocks are found through an in-memory index of their position and first queue offset.
+ * The index of a file is persisted in the {@link #BLOCK_INDEX_DIR} directory of the queue when the file is sealed,
+ * so that recover only reads the block headers of the last file.
+ */
+public class CompressedConsumeQueue implements ConsumeQueueInterface {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final Logger LOG_ERROR = LoggerFactory.getLogger(LoggerName.STORE_ERROR_LOGGER_NAME);
+
+    public static final int ENTRIES_PER_BLOCK = 64;
+    public static final int BLOCK_HEADER_SIZE = 36;
+    public static final int FILE_TRAILER_SIZE = 8;
+    public static final String BLOCK_INDEX_DIR = "blockindex";
+
+    private static final int BLOCK_MAGIC_CODE = 0xCC0B10C5;
+    private static final int BLOCK_COUNT_INDEX = 4;
+    private static final int BLOCK_BODY_SIZE_INDEX = 6;
+    private static final int BLOCK_PHY_OFFSET_INDEX = 16;
+    private static final int BLOCK_MSG_SIZE_INDEX = 24;
+    /**
+     * Commit log gap(10) + size difference(5) + tag hash code difference(10)
+     */
+    private static final int MAX_ENCODED_ENTRY_SIZE = 25;
+    private static final int MAX_BLOCK_SIZE = BLOCK_HEADER_SIZE + (ENTRIES_PER_BLOCK - 1) * MAX_ENCODED_ENTRY_SIZE;
+
+    private final MessageStore messageStore;
+    private final MappedFileQueue mappedFileQueue;
+    private final String topic;
+    private final int queueId;
+    private final String storePath;
+    private final String blockIndexPath;
+    private final int mappedFileSize;
+    private final ByteBuffer byteBufferItem;
+
+    private final Object indexLock = new Object();
+    private volatile BlockIndex blockIndex = BlockIndex.EMPTY;
+
+    private volatile long minOffsetInQueue = 0;
+    private volatile long maxOffsetInQueue = 0;
+    private volatile long maxPhysicOffset = -1;
+
+    /**
+     * State of the tail block, only accessed by the thread building the queue.
+     */
+    private long tailBlockPosition = -1;
+    private int tailCount;
+    private int tailBodySize;
+    private long lastPhyOffset;
+    private int lastMsgSize;
+    private long lastTagsCode;
+
+    public CompressedConsumeQueue(
+        final String topic,
+        final int queueId,
+        final String storePath,
+        final int mappedFileSize,
+        final MessageStore messageStore) {
+        this.storePath = storePath;
+        this.mappedFileSize = mappedFileSize;
+        this.messageStore = messageStore;
+
+        this.topic = topic;
+        this.queueId = queueId;
+
+        String queueDir = this.storePath + File.separator + topic + File.separator + queueId;
+        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
+        this.blockIndexPath = queueDir + File.separator + BLOCK_INDEX_DIR;
+
+        this.byteBufferItem = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+    }
+
+    @Override
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        log.info("load compressed consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+    @Override
+    public void recover() {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return;
+        }
+
+        BlockIndex index = BlockIndex.EMPTY;
+        BlockDecoder decoder = new BlockDecoder();
+        long processOffset = mappedFiles.get(0).getFileFromOffset();
+        long nextQueueOffset = -1;
+        this.tailBlockPosition = -1;
+        this.maxPhysicOffset = -1;
+
+        for (int i = 0; i < mappedFiles.size(); i++) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            byteBuffer.limit(this.mappedFileSize - FILE_TRAILER_SIZE);
+            int blocksInFile = 0;
+            int position = 0;
+
+            // Only the last block of a file with a persisted index is decoded
+            BlockIndex fileIndex = i + 1 < mappedFiles.size() ? loadBlockIndex(mappedFile) : null;
+            if (fileIndex != null) {
+                long lastPosition = fileIndex.positions[fileIndex.size - 1];
+                byteBuffer.position((int) (lastPosition - mappedFile.getFileFromOffset()));
+                if (fileIndex.firstOffsets[0] >= nextQueueOffset && decoder.readHeader(byteBuffer, true)
+                    && decoder.firstQueueOffset == fileIndex.firstOffsets[fileIndex.size - 1]
+                    && decoder.phyOffset >= this.maxPhysicOffset && decoder.skipToEnd()) {
+                    for (int j = 0; j < fileIndex.size; j++) {
+                        index = index.append(fileIndex.positions[j], fileIndex.firstOffsets[j]);
+                    }
+                    this.tailBlockPosition = lastPosition;
+                    this.tailCount = decoder.count;
+                    this.tailBodySize = decoder.bodySize;
+                    this.lastPhyOffset = decoder.phyOffset;
+                    this.lastMsgSize = decoder.msgSize;
+                    this.lastTagsCode = decoder.tagsCode;
+                    this.maxPhysicOffset = decoder.phyOffset + decoder.msgSize;
+                    nextQueueOffset = decoder.firstQueueOffset + decoder.count;
+                    position = byteBuffer.position();
+                    blocksInFile = fileIndex.size;
+                } else {
+                    log.warn("block index of {} does not match the file, read its blocks", mappedFile.getFileName());
+                    byteBuffer.position(0);
+                    fileIndex = null;
+                }
+            }
+
+            while (fileIndex == null && decoder.readHeader(byteBuffer, true)) {
+                if (decoder.firstQueueOffset < nextQueueOffset || decoder.phyOffset < this.maxPhysicOffset
+                    || !decoder.skipToEnd()) {
+                    break;
+                }
+                index = index.append(mappedFile.getFileFromOffset() + position, decoder.firstQueueOffset);
+                this.tailBlockPosition = mappedFile.getFileFromOffset() + position;
+                this.tailCount = decoder.count;
+                this.tailBodySize = decoder.bodySize;
+                this.lastPhyOffset = decoder.phyOffset;
+                this.lastMsgSize = decoder.msgSize;
+                this.lastTagsCode = decoder.tagsCode;
+                this.maxPhysicOffset = decoder.phyOffset + decoder.msgSize;
+                nextQueueOffset = decoder.firstQueueOffset + decoder.count;
+                position = byteBuffer.position();
+                blocksInFile++;
+            }
+            processOffset = mappedFile.getFileFromOffset() + position;
+
+            boolean sealed = blocksInFile > 0
+                && position + MAX_BLOCK_SIZE > this.mappedFileSize - FILE_TRAILER_SIZE
+                && mappedFile.sliceByteBuffer().getLong(this.mappedFileSize - FILE_TRAILER_SIZE) == this.lastPhyOffset;
+            if (!sealed) {
+                log.info("recover compressed consume queue over, " + mappedFile.getFileName() + " " + processOffset);
+                break;
+            }
+            if (fileIndex == null) {
+                persistBlockIndex(mappedFile, index);
+            }
+            processOffset = mappedFile.getFileFromOffset() + this.mappedFileSize;
+            log.info("recover next compressed consume queue file, " + mappedFile.getFileName());
+        }
+
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        deleteBlockIndexFiles(0, processOffset - processOffset % this.mappedFileSize);
+        clearStaleHeader();
+
+        synchronized (this.indexLock) {
+            this.blockIndex = index;
+        }
+        if (index.size > 0) {
+            this.minOffsetInQueue = index.firstOffsets[0];
+            this.maxOffsetInQueue = nextQueueOffset;
+        }
+    }
+
+    @Override
+    public void checkSelf() {
+        this.mappedFileQueue.checkSelf();
+    }
+
+    @Override
+    public boolean flush(final int flushLeastPages) {
+        return this.mappedFileQueue.flush(flushLeastPages);
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (this.indexLock) {
+            this.blockIndex = BlockIndex.EMPTY;
+        }
+        this.maxPhysicOffset = -1;
+        this.minOffsetInQueue = 0;
+        this.maxOffsetInQueue = 0;
+        this.tailBlockPosition = -1;
+        UtilAll.deleteFile(new File(this.blockIndexPath));
+        this.mappedFileQueue.destroy();
+    }
+
+    @Override
+    public void truncateDirtyLogicFiles(long phyOffset) {
+        synchronized (this.indexLock) {
+            BlockIndex index = this.blockIndex;
+            int keep = index.size;
+            while (keep > 0 && firstPhyOffsetOfBlock(index, keep - 1) >= phyOffset) {
+                keep--;
+            }
+            if (keep == index.size && this.maxPhysicOffset <= phyOffset) {
+                return;
+            }
+
+            long truncateOffset;
+            if (keep == 0) {
+                if (index.size > 0) {
+                    truncateOffset = index.positions[0];
+                    this.maxOffsetInQueue = index.firstOffsets[0];
+                    this.minOffsetInQueue = Math.min(this.minOffsetInQueue, this.maxOffsetInQueue);
+                } else {
+                    truncateOffset = Math.max(this.mappedFileQueue.getMinOffset(), 0);
+                }
+                this.tailBlockPosition = -1;
+                this.maxPhysicOffset = -1;
+            } else {
+                truncateOffset = truncateBlock(index.positions[keep - 1], phyOffset);
+                if (truncateOffset < 0) {
+                    log.error("[BUG] failed to truncate compressed consume queue {}-{} to {}", topic, queueId, phyOffset);
+                    return;
+                }
+                this.maxOffsetInQueue = index.firstOffsets[keep - 1] + this.tailCount;
+            }
+
+            this.mappedFileQueue.truncateDirtyFiles(truncateOffset);
+            deleteBlockIndexFiles(0, truncateOffset - truncateOffset % this.mappedFileSize);
+            clearStaleHeader();
+            this.blockIndex = index.truncate(keep);
+            log.info("truncate compressed consume queue {}-{} to {}, max offset in queue {}", topic, queueId, phyOffset,
+                this.maxOffsetInQueue);
+        }
+    }
+
+    /**
+     * Keep the entries of the block before {@code phyOffset} and make it the tail block.
+     *
+     * @return the position right after the kept entries, -1 if the block cannot be read
+     */
+    private long truncateBlock(long blockPosition, long phyOffset) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+        if (mappedFile == null) {
+            return -1;
+        }
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        int headerPosition = (int) (blockPosition - mappedFile.getFileFromOffset());
+        byteBuffer.position(headerPosition);
+
+        BlockDecoder decoder = new BlockDecoder();
+        if (!decoder.readHeader(byteBuffer, true)) {
+            return -1;
+        }
+        int count = 0;
+        int bodySize = 0;
+        while (decoder.next() && decoder.phyOffset < phyOffset) {
+            count++;
+            bodySize = byteBuffer.position() - headerPosition - BLOCK_HEADER_SIZE;
+            this.lastPhyOffset = decoder.phyOffset;
+            this.lastMsgSize = decoder.msgSize;
+            this.lastTagsCode = decoder.tagsCode;
+        }
+
+        byteBuffer.putShort(headerPosition + BLOCK_BODY_SIZE_INDEX, (short) bodySize);
+        byteBuffer.putShort(headerPosition + BLOCK_COUNT_INDEX, (short) count);
+        this.tailBlockPosition = blockPosition;
+        this.tailCount = count;
+        this.tailBodySize = bodySize;
+        this.maxPhysicOffset = this.lastPhyOffset + this.lastMsgSize;
+        return blockPosition + BLOCK_HEADER_SIZE + bodySize;
+    }
+
+    /**
+     * Blocks left after the end of the queue by a truncation must not be taken as valid by the next recover.
+     */
+    private void clearStaleHeader() {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        if (mappedFile != null && mappedFile.getWrotePosition() + 4 <= this.mappedFileSize) {
+            mappedFile.sliceByteBuffer().putInt(mappedFile.getWrotePosition(), 0);
+        }
+    }
+
+    @Override
+    public int deleteExpiredFile(long minCommitLogPos) {
+        int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(minCommitLogPos, FILE_TRAILER_SIZE);
+        if (cnt > 0) {
+            long minPosition = this.mappedFileQueue.getMinOffset();
+            deleteBlockIndexFiles(minPosition, Long.MAX_VALUE);
+            synchronized (this.indexLock) {
+                BlockIndex index = this.blockIndex;
+                int expired = 0;
+                while (expired < index.size && index.positions[expired] < minPosition) {
+                    expired++;
+                }
+                this.blockIndex = index.dropHead(expired);
+                if (this.blockIndex.size > 0 && this.minOffsetInQueue < this.blockIndex.firstOffsets[0]) {
+                    this.minOffsetInQueue = this.blockIndex.firstOffsets[0];
+                }
+            }
+        }
+        this.correctMinOffset(minCommitLogPos);
+        return cnt;
+    }
+
+    @Override
+    public void correctMinOffset(long minCommitLogOffset) {
+        long maxOffset = this.maxOffsetInQueue;
+        BlockIndex index = this.blockIndex;
+        long minOffset = this.minOffsetInQueue;
+        if (index.size == 0 || minOffset >= maxOffset) {
+            return;
+        }
+
+        // Last block starting before the min commit log offset, the first valid entry is in it or starts the next one
+        int low = Math.max(index.floor(minOffset), 0);
+        int high = index.size - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstPhyOffsetOfBlock(index, mid) < minCommitLogOffset) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return;
+        }
+
+        long newMinOffset = block + 1 < index.size ? index.firstOffsets[block + 1] : maxOffset;
+        ReferredIterator<CqUnit> it = iterateFrom(Math.max(index.firstOffsets[block], minOffset), maxOffset);
+        if (it != null) {
+            try {
+                while (it.hasNext()) {
+                    CqUnit cqUnit = it.next();
+                    if (cqUnit.getPos() >= minCommitLogOffset) {
+                        newMinOffset = cqUnit.getQueueOffset();
+                        break;
+                    }
+                }
+            } finally {
+                it.release();
+            }
+        }
+
+        if (newMinOffset > this.minOffsetInQueue) {
+            this.minOffsetInQueue = newMinOffset;
+            log.info("Compute logical min offset: {}, topic: {}, queueId: {}", newMinOffset, this.topic, this.queueId);
+        }
+    }
+
+    private long firstPhyOffsetOfBlock(BlockIndex index, int block) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(index.positions[block]);
+        if (mappedFile == null) {
+            return -1;
+        }
+        int position = (int) (index.positions[block] - mappedFile.getFileFromOffset());
+        SelectMappedBufferResult sbr = mappedFile.selectMappedBuffer(position, BLOCK_HEADER_SIZE);
+        if (sbr == null) {
+            return -1;
+        }
+        try {
+            return sbr.getByteBuffer().getLong(BLOCK_PHY_OFFSET_INDEX);
+        } finally {
+            sbr.release();
+        }
+    }
+
+    private long firstStoreTimeOfBlock(BlockIndex index, int block) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(index.positions[block]);
+        if (mappedFile == null) {
+            return -1;
+        }
+        int position = (int) (index.positions[block] - mappedFile.getFileFromOffset());
+        SelectMappedBufferResult sbr = mappedFile.selectMappedBuffer(position, BLOCK_HEADER_SIZE);
+        if (sbr == null) {
+            return -1;
+        }
+        try {
+            ByteBuffer byteBuffer = sbr.getByteBuffer();
+            return this.messageStore.getCommitLog().pickupStoreTimestamp(byteBuffer.getLong(BLOCK_PHY_OFFSET_INDEX),
+                byteBuffer.getInt(BLOCK_MSG_SIZE_INDEX));
+        } finally {
+            sbr.release();
+        }
+    }
+
+    @Override
+    public long rollNextFile(final long nextBeginOffset) {
+        BlockIndex index = this.blockIndex;
+        int block = index.floor(nextBeginOffset);
+        if (block + 1 < index.size) {
+            return index.firstOffsets[block + 1];
+        }
+        return this.maxOffsetInQueue;
+    }
+
+    @Override
+    public boolean isFirstFileAvailable() {
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (mappedFile != null) {
+            return mappedFile.isAvailable();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isFirstFileExist() {
+        return this.mappedFileQueue.getFirstMappedFile() != null;
+    }
+
+    @Override
+    public void swapMap(int reserveNum, long forceSwapIntervalMs, long normalSwapIntervalMs) {
+        this.mappedFileQueue.swapMap(reserveNum, forceSwapIntervalMs, normalSwapIntervalMs);
+    }
+
+    @Override
+    public void cleanSwappedMap(long forceCleanSwapIntervalMs) {
+        this.mappedFileQueue.cleanSwappedMap(forceCleanSwapIntervalMs);
+    }
+
+    @Override
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public int getQueueId() {
+        return queueId;
+    }
+
+    @Override
+    public ReferredIterator<CqUnit> iterateFrom(long startIndex) {
+        return iterateFrom(startIndex, this.maxOffsetInQueue);
+    }
+
+    @Override
+    public ReferredIterator<CqUnit> iterateFrom(long startIndex, int count) {
+        if (count <= 0) {
+            return null;
+        }
+        return iterateFrom(startIndex, Math.min(this.maxOffsetInQueue, startIndex + count));
+    }
+
+    /**
+     * Iterate from the block holding {@code startIndex} to the end of its file.
+     *
+     * @param endIndex read before the block index, so that every entry before it is in the index and written
+     */
+    private ReferredIterator<CqUnit> iterateFrom(long startIndex, long endIndex) {
+        BlockIndex index = this.blockIndex;
+        if (startIndex < this.minOffsetInQueue || startIndex >= endIndex || index.size == 0) {
+            return null;
+        }
+        long blockPosition = index.positions[Math.max(index.floor(startIndex), 0)];
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+        if (mappedFile == null) {
+            return null;
+        }
+        SelectMappedBufferResult sbr = mappedFile.selectMappedBuffer((int) (blockPosition - mappedFile.getFileFromOffset()));
+        if (sbr == null) {
+            return null;
+        }
+        return new CompressedConsumeQueueIterator(sbr, startIndex, endIndex);
+    }
+
+    @Override
+    public CqUnit get(long index) {
+        ReferredIterator<CqUnit> it = iterateFrom(index);
+        if (it == null) {
+            return null;
+        }
+        CqUnit cqUnit = it.nextAndRelease();
+        return cqUnit != null && cqUnit.getQueueOffset() == index ? cqUnit : null;
+    }
+
+    @Override
+    public Pair<CqUnit, Long> getCqUnitAndStoreTime(long index) {
+        CqUnit cqUnit = get(index);
+        Long messageStoreTime = this.messageStore.getQueueStore().getStoreTime(cqUnit);
+        return new Pair<>(cqUnit, messageStoreTime);
+    }
+
+    @Override
+    public Pair<CqUnit, Long> getEarliestUnitAndStoreTime() {
+        CqUnit cqUnit = getEarliestUnit();
+        Long messageStoreTime = this.messageStore.getQueueStore().getStoreTime(cqUnit);
+        return new Pair<>(cqUnit, messageStoreTime);
+    }
+
+    @Override
+    public CqUnit getEarliestUnit() {
+        ReferredIterator<CqUnit> it = iterateFrom(this.minOffsetInQueue);
+        if (it == null) {
+            return null;
+        }
+        return it.nextAndRelease();
+    }
+
+    @Override
+    public CqUnit getLatestUnit() {
+        return get(this.maxOffsetInQueue - 1);
+    }
+
+    @Override
+    public long getLastOffset() {
+        return this.maxPhysicOffset;
+    }
+
+    @Override
+    public long getMinOffsetInQueue() {
+        return this.minOffsetInQueue;
+    }
+
+    @Override
+    public long getMaxOffsetInQueue() {
+        return this.maxOffsetInQueue;
+    }
+
+    @Override
+    public long getMessageTotalInQueue() {
+        return this.getMaxOffsetInQueue() - this.getMinOffsetInQueue();
+    }
+
+    @Override
+    public long getOffsetInQueueByTime(final long timestamp) {
+        return getOffsetInQueueByTime(timestamp, BoundaryType.LOWER);
+    }
+
+    @Override
+    public long getOffsetInQueueByTime(final long timestamp, final BoundaryType boundaryType) {
+        long maxOffset = this.maxOffsetInQueue;
+        BlockIndex index = this.blockIndex;
+        long minOffset = this.minOffsetInQueue;
+        if (index.size == 0 || minOffset >= maxOffset) {
+            return 0;
+        }
+        boolean lower = boundaryType != BoundaryType.UPPER;
+
+        // Last block whose first entry is before the timestamp, or not after it for the upper boundary
+        int low = Math.max(index.floor(minOffset), 0);
+        int high = index.size - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long storeTime = firstStoreTimeOfBlock(index, mid);
+            if (storeTime < timestamp || !lower && storeTime == timestamp) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return lower ? minOffset : 0;
+        }
+
+        long result = lower ? (block + 1 < index.size ? index.firstOffsets[block + 1] : maxOffset) : -1;
+        ReferredIterator<CqUnit> it = iterateFrom(Math.max(index.firstOffsets[block], minOffset), maxOffset);
+        if (it != null) {
+            try {
+                while (it.hasNext()) {
+                    CqUnit cqUnit = it.next();
+                    long storeTime = this.messageStore.getCommitLog().pickupStoreTimestamp(cqUnit.getPos(), cqUnit.getSize());
+                    if (lower && storeTime >= timestamp) {
+                        return cqUnit.getQueueOffset();
+                    }
+                    if (!lower) {
+                        if (storeTime > timestamp) {
+                            break;
+                        }
+                        result = cqUnit.getQueueOffset();
+                    }
+                }
+            } finally {
+                it.release();
+            }
+        }
+        return lower ? result : Math.max(result, 0);
+    }
+
+    @Override
+    public long getMaxPhysicOffset() {
+        return this.maxPhysicOffset;
+    }
+
+    /**
+     * Entries are not addressed by bytes in this queue.
+     *
+     * @return the position of the min offset in queue as if its entries were stored like {@link ConsumeQueue}
+     */
+    @Override
+    public long getMinLogicOffset() {
+        return this.minOffsetInQueue * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+    }
+
+    @Override
+    public CQType getCQType() {
+        return CQType.CompressedCQ;
+    }
+
+    @Override
+    public long getTotalSize() {
+        return this.mappedFileQueue.getTotalFileSize();
+    }
+
+    /**
+     * Entries are smaller once compressed, but the unit size only bounds the number of entries scanned while
+     * filtering messages, so it stays the one of {@link ConsumeQueue} to scan as many entries.
+     */
+    @Override
+    public int getUnitSize() {
+        return ConsumeQueue.CQ_STORE_UNIT_SIZE;
+    }
+
+    @Override
+    public void putMessagePositionInfoWrapper(DispatchRequest request) {
+        final int maxRetries = 30;
+        boolean canWrite = this.messageStore.getRunningFlags().isCQWriteable();
+        for (int i = 0; i < maxRetries && canWrite; i++) {
+            boolean result = this.putMessagePositionInfo(request.getCommitLogOffset(),
+                request.getMsgSize(), request.getTagsCode(), request.getConsumeQueueOffset());
+            if (result) {
+                if (this.messageStore.getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE ||
+                    this.messageStore.getMessageStoreConfig().isEnableDLegerCommitLog()) {
+                    this.messageStore.getStoreCheckpoint().setPhysicMsgTimestamp(request.getStoreTimestamp());
+                }
+                this.messageStore.getStoreCheckpoint().setLogicsMsgTimestamp(request.getStoreTimestamp());
+                if (MultiDispatchUtils.checkMultiDispatchQueue(this.messageStore.getMessageStoreConfig(), request)) {
+                    multiDispatchLmqQueue(request, maxRetries);
+                }
+                return;
+            } else {
+                log.warn("[BUG]put commit log position info to " + topic + ":" + queueId + " " + request.getCommitLogOffset()
+                    + " failed, retry " + i + " times");
+
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    log.warn("", e);
+                }
+            }
+        }
+
+        log.error("[BUG]compressed consume queue can not write, {} {}", this.topic, this.queueId);
+        this.messageStore.getRunningFlags().makeLogicsQueueError();
+    }
+
+    private void multiDispatchLmqQueue(DispatchRequest request, int maxRetries) {
+        Map<String, String> prop = request.getPropertiesMap();
+        String multiDispatchQueue = prop.get(MessageConst.PROPERTY_INNER_MULTI_DISPATCH);
+        String multiQueueOffset = prop.get(MessageConst.PROPERTY_INNER_MULTI_QUEUE_OFFSET);
+        String[] queues = multiDispatchQueue.split(MixAll.LMQ_DISPATCH_SEPARATOR);
+        String[] queueOffsets = multiQueueOffset.split(MixAll.LMQ_DISPATCH_SEPARATOR);
+        if (queues.length != queueOffsets.length) {
+            log.error("[bug] queues.length!=queueOffsets.length ", request.getTopic());
+            return;
+        }
+        for (int i = 0; i < queues.length; i++) {
+            String queueName = queues[i];
+            if (StringUtils.contains(queueName, File.separator)) {
+                continue;
+            }
+            long queueOffset = Long.parseLong(queueOffsets[i]);
+            int queueId = request.getQueueId();
+            if (this.messageStore.getMessageStoreConfig().isEnableLmq() && MixAll.isLmq(queueName)) {
+                queueId = 0;
+            }
+            ConsumeQueueInterface cq = this.messageStore.findConsumeQueue(queueName, queueId);
+            boolean canWrite = this.messageStore.getRunningFlags().isCQWriteable();
+            for (int j = 0; j < maxRetries && canWrite; j++) {
+                boolean result = cq instanceof CompressedConsumeQueue
+                    ? ((CompressedConsumeQueue) cq).putMessagePositionInfo(request.getCommitLogOffset(),
+                        request.getMsgSize(), request.getTagsCode(), queueOffset)
+                    : ((ConsumeQueue) cq).putMessagePositionInfo(request.getCommitLogOffset(),
+                        request.getMsgSize(), request.getTagsCode(), queueOffset);
+                if (result) {
+                    break;
+                }
+                log.warn("[BUG]put commit log position info to " + queueName + ":" + queueId + " "
+                    + request.getCommitLogOffset() + " failed, retry " + j + " times");
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    log.warn("", e);
+                }
+            }
+        }
+    }
+
+    public boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+        final long cqOffset) {
+
+        if (offset + size <= this.maxPhysicOffset) {
+            log.warn("Maybe try to build consume queue repeatedly maxPhysicOffset={} phyOffset={}", this.maxPhysicOffset, offset);
+            return true;
+        }
+
+        long maxOffset = this.maxOffsetInQueue;
+        boolean empty = this.blockIndex.size == 0;
+        if (!empty && cqOffset < maxOffset) {
+            log.warn("Build consume queue repeatedly, expectOffset: {} currentOffset: {} Topic: {} QID: {}",
+                cqOffset, maxOffset, this.topic, this.queueId);
+            return true;
+        }
+        if (!empty && cqOffset != maxOffset) {
+            LOG_ERROR.warn("[BUG]logic queue order maybe wrong, expectOffset: {} currentOffset: {} Topic: {} QID: {} Diff: {}",
+                cqOffset, maxOffset, this.topic, this.queueId, cqOffset - maxOffset);
+        }
+
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        boolean appendToTail = mappedFile != null && !empty && cqOffset == maxOffset
+            && this.tailBlockPosition >= 0 && this.tailCount < ENTRIES_PER_BLOCK
+            && this.tailBlockPosition + BLOCK_HEADER_SIZE + this.tailBodySize
+            == mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+
+        if (appendToTail) {
+            this.byteBufferItem.clear();
+            putVarLong(this.byteBufferItem, zigzag(offset - this.lastPhyOffset - this.lastMsgSize));
+            putVarLong(this.byteBufferItem, zigzag(size - this.lastMsgSize));
+            putVarLong(this.byteBufferItem, zigzag(tagsCode - this.lastTagsCode));
+            int length = this.byteBufferItem.position();
+            if (!mappedFile.appendMessage(this.byteBufferItem.array(), 0, length)) {
+                return false;
+            }
+
+            // The body is written before the header covers it, so the tail block is readable at any time
+            int headerPosition = (int) (this.tailBlockPosition - mappedFile.getFileFromOffset());
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            byteBuffer.putShort(headerPosition + BLOCK_BODY_SIZE_INDEX, (short) (this.tailBodySize + length));
+            byteBuffer.putShort(headerPosition + BLOCK_COUNT_INDEX, (short) (this.tailCount + 1));
+            this.tailCount++;
+            this.tailBodySize += length;
+        } else {
+            mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+            if (mappedFile == null) {
+                return false;
+            }
+            if (mappedFile.getWrotePosition() + MAX_BLOCK_SIZE > this.mappedFileSize - FILE_TRAILER_SIZE) {
+                if (!seal(mappedFile)) {
+                    return false;
+                }
+                mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                if (mappedFile == null) {
+                    return false;
+                }
+            }
+
+            this.byteBufferItem.clear();
+            this.byteBufferItem.putInt(BLOCK_MAGIC_CODE);
+            this.byteBufferItem.putShort((short) 1);
+            this.byteBufferItem.putShort((short) 0);
+            this.byteBufferItem.putLong(cqOffset);
+            this.byteBufferItem.putLong(offset);
+            this.byteBufferItem.putInt(size);
+            this.byteBufferItem.putLong(tagsCode);
+            long blockPosition = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+            if (!mappedFile.appendMessage(this.byteBufferItem.array(), 0, BLOCK_HEADER_SIZE)) {
+                return false;
+            }
+
+            synchronized (this.indexLock) {
+                this.blockIndex = this.blockIndex.append(blockPosition, cqOffset);
+            }
+            if (empty) {
+                this.minOffsetInQueue = cqOffset;
+            }
+            this.tailBlockPosition = blockPosition;
+            this.tailCount = 1;
+            this.tailBodySize = 0;
+        }
+
+        this.lastPhyOffset = offset;
+        this.lastMsgSize = size;
+        this.lastTagsCode = tagsCode;
+        this.maxPhysicOffset = offset + size;
+        this.maxOffsetInQueue = cqOffset + 1;
+        return true;
+    }
+
+    /**
+     * Fill the rest of the file, ending it with the commit log offset of its last entry.
+     */
+    private boolean seal(MappedFile mappedFile) {
+        int padding = this.mappedFileSize - FILE_TRAILER_SIZE - mappedFile.getWrotePosition();
+        byte[] bytes = new byte[padding + FILE_TRAILER_SIZE];
+        ByteBuffer.wrap(bytes).putLong(padding, this.lastPhyOffset);
+        if (!mappedFile.appendMessage(bytes)) {
+            return false;
+        }
+        persistBlockIndex(mappedFile, this.blockIndex);
+        return true;
+    }
+
+    /**
+     * Write the blocks of a sealed file, the file is recovered from its blocks if this fails.
+     * <p>
+     * Format: the commit log offset in the trailer of the file, the block count, then the position in the file and
+     * the first queue offset of each block.
+     */
+    private void persistBlockIndex(MappedFile mappedFile, BlockIndex index) {
+        long fileFromOffset = mappedFile.getFileFromOffset();
+        int from = index.size;
+        while (from > 0 && index.positions[from - 1] >= fileFromOffset) {
+            from--;
+        }
+        int count = index.size - from;
+        if (count == 0) {
+            return;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(12 + count * 12);
+        byteBuffer.putLong(mappedFile.sliceByteBuffer().getLong(this.mappedFileSize - FILE_TRAILER_SIZE));
+        byteBuffer.putInt(count);
+        for (int i = from; i < index.size; i++) {
+            byteBuffer.putInt((int) (index.positions[i] - fileFromOffset));
+            byteBuffer.putLong(index.firstOffsets[i]);
+        }
+        File file = new File(this.blockIndexPath, UtilAll.offset2FileName(fileFromOffset));
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            UtilAll.ensureDirOK(this.blockIndexPath);
+            Files.write(tmpFile.toPath(), byteBuffer.array());
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("persist block index of {} failed", mappedFile.getFileName(), e);
+        }
+    }
+
+    /**
+     * @return the blocks of a sealed file, null if its index is missing or does not match its trailer
+     */
+    private BlockIndex loadBlockIndex(MappedFile mappedFile) {
+        File file = new File(this.blockIndexPath, UtilAll.offset2FileName(mappedFile.getFileFromOffset()));
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (byteBuffer.remaining() < 12 || byteBuffer.getLong()
+                != mappedFile.sliceByteBuffer().getLong(this.mappedFileSize - FILE_TRAILER_SIZE)) {
+                return null;
+            }
+            int count = byteBuffer.getInt();
+            if (count <= 0 || byteBuffer.remaining() != count * 12) {
+                return null;
+            }
+            BlockIndex index = BlockIndex.EMPTY;
+            for (int i = 0; i < count; i++) {
+                int position = byteBuffer.getInt();
+                long firstOffset = byteBuffer.getLong();
+                if (position < 0 || position > this.mappedFileSize - FILE_TRAILER_SIZE - BLOCK_HEADER_SIZE
+                    || index.size > 0 && firstOffset <= index.firstOffsets[index.size - 1]) {
+                    return null;
+                }
+                index = index.append(mappedFile.getFileFromOffset() + position, firstOffset);
+            }
+            return index;
+        } catch (IOException e) {
+            log.warn("load block index of {} failed", mappedFile.getFileName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Delete the block indexes of the files outside [minOffset, maxOffset).
+     */
+    private void deleteBlockIndexFiles(long minOffset, long maxOffset) {
+        File[] files = new File(this.blockIndexPath).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long fileFromOffset;
+            try {
+                fileFromOffset = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                fileFromOffset = -1;
+            }
+            if (fileFromOffset < minOffset || fileFromOffset >= maxOffset) {
+                UtilAll.deleteFile(file);
+            }
+        }
+    }
+
+    @Override
+    public void assignQueueOffset(QueueOffsetOperator queueOffsetOperator, MessageExtBrokerInner msg) {
+        String topicQueueKey = getTopic() + "-" + getQueueId();
+        long queueOffset = queueOffsetOperator.getQueueOffset(topicQueueKey);
+        msg.setQueueOffset(queueOffset);
+    }
+
+    @Override
+    public void increaseQueueOffset(QueueOffsetOperator queueOffsetOperator, MessageExtBrokerInner msg,
+        short messageNum) {
+        String topicQueueKey = getTopic() + "-" + getQueueId();
+        queueOffsetOperator.increaseQueueOffset(topicQueueKey, messageNum);
+    }
+
+    @Override
+    public long estimateMessageCount(long from, long to, MessageFilter filter) {
+        from = Math.max(from, this.minOffsetInQueue);
+        to = Math.min(to, this.maxOffsetInQueue);
+        if (from >= to) {
+            return -1;
+        }
+
+        boolean sample = false;
+        long match = 0;
+        long raw = 0;
+        long next = from;
+
+        while (next < to && !sample) {
+            ReferredIterator<CqUnit> it = iterateFrom(next);
+            if (it == null) {
+                break;
+            }
+            long current = next;
+            try {
+                while (it.hasNext()) {
+                    CqUnit cqUnit = it.next();
+                    if (cqUnit.getQueueOffset() >= to) {
+                        next = to;
+                        break;
+                    }
+                    next = cqUnit.getQueueOffset() + 1;
+                    if (filter.isMatchedByConsumeQueue(cqUnit.getTagsCode(), null)) {
+                        match++;
+                    }
+                    raw++;
+
+                    if (raw >= messageStore.getMessageStoreConfig().getMaxConsumeQueueScan()) {
+                        sample = true;
+                        break;
+                    }
+
+                    if (match > messageStore.getMessageStoreConfig().getSampleCountThreshold()) {
+                        sample = true;
+                        break;
+                    }
+                }
+            } finally {
+                it.release();
+            }
+            if (next == current) {
+                break;
+            }
+        }
+
+        long result = match;
+        if (sample) {
+            if (0 == raw) {
+                log.error("[BUG]. Raw should NOT be 0");
+                return 0;
+            }
+            result = (long) (match * (to - from) * 1.0 / raw);
+        }
+        log.debug("Result={}, raw={}, match={}, sample={}", result, raw, match, sample);
+        return result;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarLong(ByteBuffer byteBuffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            byteBuffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        byteBuffer.put((byte) value);
+    }
+
+    /**
+     * @return the value, or -1 with the position at {@code limit} if the varint does not end before it
+     */
+    static long getVarLong(ByteBuffer byteBuffer, int limit) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && byteBuffer.position() < limit; shift += 7) {
+            byte b = byteBuffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        byteBuffer.position(limit);
+        return -1;
+    }
+
+    /**
+     * Decodes the blocks of a buffer one entry at a time.
+     */
+    private static class BlockDecoder {
+        private ByteBuffer byteBuffer;
+        private int bodyEnd;
+        private int remaining;
+        private boolean first;
+
+        private int count;
+        private int bodySize;
+        private long firstQueueOffset;
+
+        private long queueOffset;
+        private long phyOffset;
+        private int msgSize;
+        private long tagsCode;
+
+        /**
+         * Read the header of the block at the position of the buffer.
+         *
+         * @param strict whether the body must be complete in the buffer, readers may see the header of the tail
+         * block updated after their buffer was selected
+         */
+        boolean readHeader(ByteBuffer byteBuffer, boolean strict) {
+            this.byteBuffer = byteBuffer;
+            int position = byteBuffer.position();
+            if (byteBuffer.remaining() < BLOCK_HEADER_SIZE || byteBuffer.getInt(position) != BLOCK_MAGIC_CODE) {
+                return false;
+            }
+            this.count = byteBuffer.getShort(position + BLOCK_COUNT_INDEX);
+            this.bodySize = byteBuffer.getShort(position + BLOCK_BODY_SIZE_INDEX);
+            if (this.count <= 0 || this.count > ENTRIES_PER_BLOCK || this.bodySize < 0
+                || strict && this.bodySize > byteBuffer.remaining() - BLOCK_HEADER_SIZE) {
+                return false;
+            }
+            this.firstQueueOffset = byteBuffer.getLong(position + 8);
+            this.phyOffset = byteBuffer.getLong(position + BLOCK_PHY_OFFSET_INDEX);
+            this.msgSize = byteBuffer.getInt(position + BLOCK_MSG_SIZE_INDEX);
+            this.tagsCode = byteBuffer.getLong(position + 28);
+            if (this.firstQueueOffset < 0 || this.phyOffset < 0 || this.msgSize <= 0) {
+                return false;
+            }
+            this.queueOffset = this.firstQueueOffset - 1;
+            this.bodyEnd = Math.min(position + BLOCK_HEADER_SIZE + this.bodySize, byteBuffer.limit());
+            this.remaining = this.count;
+            this.first = true;
+            byteBuffer.position(position + BLOCK_HEADER_SIZE);
+            return true;
+        }
+
+        boolean hasRemaining() {
+            return this.remaining > 0;
+        }
+
+        long nextQueueOffset() {
+            return this.queueOffset + 1;
+        }
+
+        boolean next() {
+            if (this.remaining <= 0) {
+                return false;
+            }
+            if (!this.first) {
+                long gap = unzigzag(getVarLong(this.byteBuffer, this.bodyEnd));
+                long sizeDelta = unzigzag(getVarLong(this.byteBuffer, this.bodyEnd));
+                long tagsDelta = unzigzag(getVarLong(this.byteBuffer, this.bodyEnd));
+                if (this.byteBuffer.position() >= this.bodyEnd && this.remaining > 1
+                    || this.byteBuffer.position() > this.bodyEnd) {
+                    this.remaining = 0;
+                    return false;
+                }
+                this.phyOffset += this.msgSize + gap;
+                this.msgSize += (int) sizeDelta;
+                this.tagsCode += tagsDelta;
+            }
+            this.first = false;
+            this.remaining--;
+            this.queueOffset++;
+            return true;
+        }
+
+        /**
+         * Decode the rest of the block, leaving the buffer after it.
+         *
+         * @return false if the block is corrupted
+         */
+        boolean skipToEnd() {
+            while (this.remaining > 0) {
+                if (!next() || this.msgSize <= 0) {
+                    return false;
+                }
+            }
+            return this.byteBuffer.position() == this.bodyEnd;
+        }
+
+        void skipBlock() {
+            this.remaining = 0;
+            this.byteBuffer.position(this.bodyEnd);
+        }
+    }
+
+    private class CompressedConsumeQueueIterator implements ReferredIterator<CqUnit> {
+        private SelectMappedBufferResult sbr;
+        private final BlockDecoder decoder = new BlockDecoder();
+        private final long startIndex;
+        private final long endIndex;
+        private boolean inBlock;
+        private CqUnit nextUnit;
+        private boolean finished;
+
+        public CompressedConsumeQueueIterator(SelectMappedBufferResult sbr, long startIndex, long endIndex) {
+            this.sbr = sbr;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+        }
+
+        private CqUnit advance() {
+            ByteBuffer byteBuffer = sbr.getByteBuffer();
+            while (true) {
+                if (inBlock && decoder.hasRemaining()) {
+                    if (decoder.nextQueueOffset() >= endIndex || !decoder.next()) {
+                        return null;
+                    }
+                    if (decoder.queueOffset >= startIndex) {
+                        return new CqUnit(decoder.queueOffset, decoder.phyOffset, decoder.msgSize, decoder.tagsCode);
+                    }
+                    continue;
+                }
+                if (inBlock) {
+                    decoder.skipBlock();
+                }
+                if (!decoder.readHeader(byteBuffer, false) || decoder.firstQueueOffset >= endIndex) {
+                    return null;
+                }
+                inBlock = true;
+                if (decoder.firstQueueOffset + decoder.count <= startIndex) {
+                    decoder.skipBlock();
+                    inBlock = false;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextUnit == null && !finished && sbr != null) {
+                nextUnit = advance();
+                finished = nextUnit == null;
+            }
+            return nextUnit != null;
+        }
+
+        @Override
+        public CqUnit next() {
+            if (!hasNext()) {
+                return null;
+            }
+            CqUnit cqUnit = nextUnit;
+            nextUnit = null;
+            return cqUnit;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        @Override
+        public void release() {
+            if (sbr != null) {
+                sbr.release();
+                sbr = null;
+            }
+        }
+
+        @Override
+        public CqUnit nextAndRelease() {
+            try {
+                return next();
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Position and first queue offset of the blocks. Appending fills the spare capacity of the shared arrays, the
+     * entries below the size of a published index are never changed, other changes copy the arrays.
+     */
+    private static final class BlockIndex {
+        private static final BlockIndex EMPTY = new BlockIndex(new long[0], new long[0], 0);
+
+        private final long[] positions;
+        private final long[] firstOffsets;
+        private final int size;
+
+        private BlockIndex(long[] positions, long[] firstOffsets, int size) {
+            this.positions = positions;
+            this.firstOffsets = firstOffsets;
+            this.size = size;
+        }
+
+        BlockIndex append(long position, long firstOffset) {
+            long[] newPositions = positions;
+            long[] newFirstOffsets = firstOffsets;
+            if (size == positions.length) {
+                int capacity = Math.max(4, size * 2);
+                newPositions = Arrays.copyOf(positions, capacity);
+                newFirstOffsets = Arrays.copyOf(firstOffsets, capacity);
+            }
+            newPositions[size] = position;
+            newFirstOffsets[size] = firstOffset;
+            return new BlockIndex(newPositions, newFirstOffsets, size + 1);
+        }
+
+        BlockIndex truncate(int newSize) {
+            if (newSize == size) {
+                return this;
+            }
+            return new BlockIndex(Arrays.copyOf(positions, newSize), Arrays.copyOf(firstOffsets, newSize), newSize);
+        }
+
+        BlockIndex dropHead(int count) {
+            if (count == 0) {
+                return this;
+            }
+            return new BlockIndex(Arrays.copyOfRange(positions, count, size),
+                Arrays.copyOfRange(firstOffsets, count, size), size - count);
+        }
+
+        /**
+         * @return the last block starting at or before the queue offset, -1 if none
+         */
+        int floor(long queueOffset) {
+            int low = 0;
+            int high = size - 1;
+            int result = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (firstOffsets[mid] <= queueOffset) {
+                    result = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+    }
+}
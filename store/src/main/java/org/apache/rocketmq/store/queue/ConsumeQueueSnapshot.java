@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.org.slf4j.Logger;
+import org.apache.rocketmq.logging.org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of the recover state of the consume queues, written after they were flushed.
+ * <p>
+ * For each queue it records where its flushed entries end, the commit log offset right after the last of them and
+ * its min logic offset, so that recover can check the last entry and scan from there instead of scanning the tail
+ * files of every queue. The file is rewritten atomically and protected by a CRC, any mismatch makes recover fall back
+ * to scanning.
+ */
+public class ConsumeQueueSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int MAGIC_CODE = 0xC0DE5A9E;
+    private static final int VERSION = 1;
+
+    private final String path;
+
+    public ConsumeQueueSnapshot(String path) {
+        this.path = path;
+    }
+
+    public static String key(String topic, int queueId) {
+        return topic + "-" + queueId;
+    }
+
+    public void persist(Map<String, Entry> entries) throws IOException {
+        File file = new File(path);
+        UtilAll.ensureDirOK(file.getParent());
+        File tmpFile = new File(path + ".tmp");
+
+        CRC32 crc32 = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024), crc32))) {
+            out.writeInt(MAGIC_CODE);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                byte[] topic = entry.topic.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(topic.length);
+                out.write(topic);
+                out.writeInt(entry.queueId);
+                out.writeLong(entry.flushedOffset);
+                out.writeLong(entry.maxPhysicOffset);
+                out.writeLong(entry.minLogicOffset);
+            }
+            out.flush();
+            // Not covered by the CRC any more
+            out.writeLong(crc32.getValue());
+            out.flush();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the entries keyed by {@link #key(String, int)}, empty if there is no valid snapshot
+     */
+    public Map<String, Entry> load() {
+        File file = new File(path);
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+
+        CRC32 crc32 = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+            new BufferedInputStream(new FileInputStream(file), 64 * 1024), crc32))) {
+            if (in.readInt() != MAGIC_CODE || in.readInt() != VERSION) {
+                log.warn("consume queue snapshot {} has unknown format, ignore it", path);
+                return new HashMap<>();
+            }
+            int count = in.readInt();
+            Map<String, Entry> entries = new HashMap<>(Math.max(16, (int) (count / 0.75f) + 1));
+            for (int i = 0; i < count; i++) {
+                byte[] topic = new byte[in.readUnsignedShort()];
+                in.readFully(topic);
+                Entry entry = new Entry(new String(topic, StandardCharsets.UTF_8), in.readInt(),
+                    in.readLong(), in.readLong(), in.readLong());
+                entries.put(key(entry.topic, entry.queueId), entry);
+            }
+            long expectedCrc = crc32.getValue();
+            if (in.readLong() != expectedCrc) {
+                log.warn("consume queue snapshot {} is corrupted, ignore it", path);
+                return new HashMap<>();
+            }
+            return entries;
+        } catch (IOException e) {
+            log.warn("failed to load consume queue snapshot {}, ignore it", path, e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Delete the snapshot once it was loaded, the queues may be truncated or cleaned during the rest of the recover
+     * and a crash before the next persist must not restore them from it.
+     */
+    public void delete() {
+        File file = new File(path);
+        if (file.exists() && !file.delete()) {
+            log.warn("failed to delete consume queue snapshot {}", path);
+        }
+    }
+
+    public static class Entry {
+        private final String topic;
+        private final int queueId;
+        private final long flushedOffset;
+        private final long maxPhysicOffset;
+        private final long minLogicOffset;
+
+        /**
+         * @param flushedOffset end of the flushed entries in the consume queue files
+         * @param maxPhysicOffset commit log offset right after the message of the last flushed entry
+         * @param minLogicOffset min logic offset of the consume queue, in bytes
+         */
+        public Entry(String topic, int queueId, long flushedOffset, long maxPhysicOffset, long minLogicOffset) {
+            this.topic = topic;
+            this.queueId = queueId;
+            this.flushedOffset = flushedOffset;
+            this.maxPhysicOffset = maxPhysicOffset;
+            this.minLogicOffset = minLogicOffset;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public int getQueueId() {
+            return queueId;
+        }
+
+        public long getFlushedOffset() {
+            return flushedOffset;
+        }
+
+        public long getMaxPhysicOffset() {
+            return maxPhysicOffset;
+        }
+
+        public long getMinLogicOffset() {
+            return minLogicOffset;
+        }
+    }
+}
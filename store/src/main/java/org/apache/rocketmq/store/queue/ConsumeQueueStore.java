@@ -17,8 +17,11 @@
 package org.apache.rocketmq.store.queue;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +37,7 @@ import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.common.BoundaryType;
+import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.attribute.CQType;
@@ -50,13 +54,23 @@ import org.apache.rocketmq.store.SelectMappedBufferResult;
 import org.apache.rocketmq.store.exception.StoreException;
 
 import static java.lang.String.format;
+import static org.apache.rocketmq.store.config.StorePathConfigHelper.getConsumeQueueSnapshot;
 import static org.apache.rocketmq.store.config.StorePathConfigHelper.getStorePathBatchConsumeQueue;
+import static org.apache.rocketmq.store.config.StorePathConfigHelper.getStorePathCompressedConsumeQueue;
 import static org.apache.rocketmq.store.config.StorePathConfigHelper.getStorePathConsumeQueue;
 
 public class ConsumeQueueStore extends AbstractConsumeQueueStore {
 
+    private final ConsumeQueueSnapshot snapshot;
+
+    /**
+     * Entries of the snapshot loaded for the ongoing recover, empty otherwise.
+     */
+    private volatile Map<String, ConsumeQueueSnapshot.Entry> snapshotEntries = Collections.emptyMap();
+
     public ConsumeQueueStore(DefaultMessageStore messageStore) {
         super(messageStore);
+        this.snapshot = new ConsumeQueueSnapshot(getConsumeQueueSnapshot(this.messageStoreConfig.getStorePathRootDir()));
     }
 
     @Override
@@ -68,7 +82,8 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
     public boolean load() {
         boolean cqLoadResult = loadConsumeQueues(getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), CQType.SimpleCQ);
         boolean bcqLoadResult = loadConsumeQueues(getStorePathBatchConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), CQType.BatchCQ);
-        return cqLoadResult && bcqLoadResult;
+        boolean ccqLoadResult = loadConsumeQueues(getStorePathCompressedConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), CQType.CompressedCQ);
+        return cqLoadResult && bcqLoadResult && ccqLoadResult;
     }
 
     @Override
@@ -78,10 +93,15 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
 
     @Override
     public void recover() {
-        for (ConcurrentMap<Integer, ConsumeQueueInterface> maps : this.consumeQueueTable.values()) {
-            for (ConsumeQueueInterface logic : maps.values()) {
-                this.recover(logic);
+        loadSnapshot();
+        try {
+            for (ConcurrentMap<Integer, ConsumeQueueInterface> maps : this.consumeQueueTable.values()) {
+                for (ConsumeQueueInterface logic : maps.values()) {
+                    this.recover(logic);
+                }
             }
+        } finally {
+            this.snapshotEntries = Collections.emptyMap();
         }
     }
 
@@ -91,6 +111,7 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
         for (ConcurrentMap<Integer, ConsumeQueueInterface> maps : this.consumeQueueTable.values()) {
             count += maps.values().size();
         }
+        loadSnapshot();
         final CountDownLatch countDownLatch = new CountDownLatch(count);
         BlockingQueue<Runnable> recoverQueue = new LinkedBlockingQueue<>();
         final ExecutorService executor = buildExecutorService(recoverQueue, "RecoverConsumeQueueThread_");
@@ -101,7 +122,7 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
                     FutureTask<Boolean> futureTask = new FutureTask<>(() -> {
                         boolean ret = true;
                         try {
-                            logic.recover();
+                            this.recover(logic);
                         } catch (Throwable e) {
                             ret = false;
                             log.error("Exception occurs while recover consume queue concurrently, " +
@@ -129,6 +150,7 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
             return false;
         } finally {
             executor.shutdown();
+            this.snapshotEntries = Collections.emptyMap();
         }
         return true;
     }
@@ -141,9 +163,43 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
             log.error("Failed to flush all consume queues", e);
             return false;
         }
+        if (this.messageStoreConfig.isEnableConsumeQueueSnapshot()) {
+            persistSnapshot();
+        }
         return true;
     }
 
+    @Override
+    public synchronized void persistSnapshot() {
+        long begin = System.currentTimeMillis();
+        Map<String, ConsumeQueueSnapshot.Entry> entries = new HashMap<>();
+        for (ConcurrentMap<Integer, ConsumeQueueInterface> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueueInterface logic : maps.values()) {
+                if (logic instanceof ConsumeQueue) {
+                    ConsumeQueueSnapshot.Entry entry = ((ConsumeQueue) logic).buildSnapshotEntry();
+                    if (entry != null) {
+                        entries.put(ConsumeQueueSnapshot.key(entry.getTopic(), entry.getQueueId()), entry);
+                    }
+                }
+            }
+        }
+        try {
+            this.snapshot.persist(entries);
+            log.info("persist consume queue snapshot of {} queues, cost {}ms", entries.size(),
+                System.currentTimeMillis() - begin);
+        } catch (IOException e) {
+            log.error("Failed to persist consume queue snapshot", e);
+        }
+    }
+
+    private void loadSnapshot() {
+        if (this.messageStoreConfig.isEnableConsumeQueueSnapshot()) {
+            this.snapshotEntries = this.snapshot.load();
+            this.snapshot.delete();
+            log.info("load consume queue snapshot of {} queues", this.snapshotEntries.size());
+        }
+    }
+
     @Override
     public long rollNextFile(ConsumeQueueInterface consumeQueue, final long offset) {
         FileQueueLifeCycle fileQueueLifeCycle = getLifeCycle(consumeQueue.getTopic(), consumeQueue.getQueueId());
@@ -251,12 +307,23 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
                 storePath,
                 this.messageStoreConfig.getMapperFileSizeBatchConsumeQueue(),
                 this.messageStore);
+        } else if (Objects.equals(CQType.CompressedCQ, cqType)) {
+            return new CompressedConsumeQueue(
+                topic,
+                queueId,
+                storePath,
+                this.messageStoreConfig.getMappedFileSizeCompressedConsumeQueue(),
+                this.messageStore);
         } else {
             throw new RuntimeException(format("queue type %s is not supported.", cqType.toString()));
         }
     }
 
     private void queueTypeShouldBe(String topic, CQType cqTypeExpected) {
+        if (this.messageStoreConfig.isEnableLmq() && MixAll.isLmq(topic)) {
+            // LMQ queues keep the type they were created with
+            return;
+        }
         Optional<TopicConfig> topicConfig = this.messageStore.getTopicConfig(topic);
 
         CQType cqTypeActual = QueueTypeUtils.getCQType(topicConfig);
@@ -266,6 +333,17 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
         }
     }
 
+    /**
+     * LMQ topics have no topic config, the type of their new queues only depends on the store config.
+     */
+    private CQType getCQType(String topic) {
+        if (this.messageStoreConfig.isEnableLmq() && MixAll.isLmq(topic)) {
+            return this.messageStoreConfig.isEnableCompressedLmqConsumeQueue() ? CQType.CompressedCQ : CQType.SimpleCQ;
+        }
+        Optional<TopicConfig> topicConfig = this.messageStore.getTopicConfig(topic);
+        return QueueTypeUtils.getCQType(topicConfig);
+    }
+
     private ExecutorService buildExecutorService(BlockingQueue<Runnable> blockingQueue, String threadNamePrefix) {
         return ThreadUtils.newThreadPoolExecutor(
             this.messageStore.getBrokerConfig().getRecoverThreadPoolNums(),
@@ -277,6 +355,13 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
     }
 
     public void recover(ConsumeQueueInterface consumeQueue) {
+        if (consumeQueue instanceof ConsumeQueue) {
+            ConsumeQueueSnapshot.Entry entry = this.snapshotEntries.get(
+                ConsumeQueueSnapshot.key(consumeQueue.getTopic(), consumeQueue.getQueueId()));
+            if (entry != null && ((ConsumeQueue) consumeQueue).recover(entry)) {
+                return;
+            }
+        }
         FileQueueLifeCycle fileQueueLifeCycle = getLifeCycle(consumeQueue.getTopic(), consumeQueue.getQueueId());
         fileQueueLifeCycle.recover();
     }
@@ -402,15 +487,22 @@ public class ConsumeQueueStore extends AbstractConsumeQueueStore {
 
         ConsumeQueueInterface newLogic;
 
-        Optional<TopicConfig> topicConfig = this.messageStore.getTopicConfig(topic);
         // TODO maybe the topic has been deleted.
-        if (Objects.equals(CQType.BatchCQ, QueueTypeUtils.getCQType(topicConfig))) {
+        CQType cqType = getCQType(topic);
+        if (Objects.equals(CQType.BatchCQ, cqType)) {
             newLogic = new BatchConsumeQueue(
                 topic,
                 queueId,
                 getStorePathBatchConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
                 this.messageStoreConfig.getMapperFileSizeBatchConsumeQueue(),
                 this.messageStore);
+        } else if (Objects.equals(CQType.CompressedCQ, cqType)) {
+            newLogic = new CompressedConsumeQueue(
+                topic,
+                queueId,
+                getStorePathCompressedConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
+                this.messageStoreConfig.getMappedFileSizeCompressedConsumeQueue(),
+                this.messageStore);
         } else {
             newLogic = new ConsumeQueue(
                 topic,
@@ -98,6 +98,11 @@ public interface ConsumeQueueStoreInterface {
      */
     void checkSelf();
 
+    /**
+     * Persist the recover state of the flushed consume queues, so that the next recover can skip scanning them.
+     */
+    void persistSnapshot();
+
     /**
      * Delete expired files ending at min commit log position.
      * @param consumeQueue
@@ -88,6 +88,14 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
 
     private final RocksGroupCommitService groupCommitService;
 
+    /**
+     * Only used by the group commit thread, cleared after each commit. Created on the first commit after RocksDB is
+     * loaded, and closed and released under {@link #groupCommitWriteBatchLock} on shutdown or destroy.
+     */
+    private WriteBatch groupCommitWriteBatch;
+
+    private final Object groupCommitWriteBatchLock = new Object();
+
     private final AtomicReference<ServiceState> serviceState = new AtomicReference<>(ServiceState.CREATE_JUST);
 
     public RocksDBConsumeQueueStore(DefaultMessageStore messageStore) {
@@ -99,7 +107,7 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
         this.rocksDBConsumeQueueOffsetTable = new RocksDBConsumeQueueOffsetTable(rocksDBConsumeQueueTable, rocksDBStorage, messageStore);
 
         this.offsetInitializer = new OffsetInitializerRocksDBImpl(this);
-        this.groupCommitService = new RocksGroupCommitService(this);
+        this.groupCommitService = new RocksGroupCommitService(this, messageStoreConfig);
         this.cqBBPairList = new ArrayList<>(16);
         this.offsetBBPairList = new ArrayList<>(DEFAULT_BYTE_BUFFER_CAPACITY);
         for (int i = 0; i < DEFAULT_BYTE_BUFFER_CAPACITY; i++) {
@@ -140,6 +148,14 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
             this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
                 cleanDirty(messageStore.getTopicConfigs().keySet());
             }, 10, this.messageStoreConfig.getCleanRocksDBDirtyCQIntervalMin(), TimeUnit.MINUTES);
+
+            this.scheduledExecutorService.scheduleWithFixedDelay(() -> {
+                try {
+                    this.rocksDBStorage.evictIdleCQIterators();
+                } catch (Throwable e) {
+                    log.error("evictIdleCQIterators Failed.", e);
+                }
+            }, 1, 1, TimeUnit.SECONDS);
         }
     }
 
@@ -195,7 +211,15 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
     }
 
     private boolean shutdownInner() {
-        return this.rocksDBStorage.shutdown();
+        // Wait for the ongoing group commit, a new one will not hold the storage any more
+        synchronized (this.groupCommitWriteBatchLock) {
+            boolean result = this.rocksDBStorage.shutdown();
+            if (this.groupCommitWriteBatch != null) {
+                this.groupCommitWriteBatch.close();
+                this.groupCommitWriteBatch = null;
+            }
+            return result;
+        }
     }
 
     @Override
@@ -237,11 +261,21 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
     }
 
     private boolean putMessagePosition0(List<DispatchRequest> requests) {
+        synchronized (this.groupCommitWriteBatchLock) {
+            return putMessagePositionLocked(requests);
+        }
+    }
+
+    private boolean putMessagePositionLocked(List<DispatchRequest> requests) {
         if (!this.rocksDBStorage.hold()) {
             return false;
         }
 
-        try (WriteBatch writeBatch = new WriteBatch()) {
+        if (this.groupCommitWriteBatch == null) {
+            this.groupCommitWriteBatch = new WriteBatch();
+        }
+        final WriteBatch writeBatch = this.groupCommitWriteBatch;
+        try {
             final int size = requests.size();
             if (size == 0) {
                 return true;
@@ -278,6 +312,7 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
             ERROR_LOG.error("putMessagePosition0 failed.", e);
             return false;
         } finally {
+            writeBatch.clear();
             tempTopicQueueMaxOffsetMap.clear();
             consumeQueueByteBufferCacheIndex = 0;
             offsetBufferCacheIndex = 0;
@@ -432,6 +467,11 @@ public class RocksDBConsumeQueueStore extends AbstractConsumeQueueStore {
         // ignored
     }
 
+    @Override
+    public void persistSnapshot() {
+        // ignored
+    }
+
     @Override
     public int deleteExpiredFile(ConsumeQueueInterface consumeQueue, long minCommitLogPos) {
         // ignored
@@ -31,6 +31,7 @@ import org.apache.rocketmq.store.queue.RocksDBConsumeQueueOffsetTable.PhyAndCQOf
 import org.apache.rocketmq.store.rocksdb.ConsumeQueueRocksDBStorage;
 import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
 import org.rocksdb.WriteBatch;
 
 import static org.apache.rocketmq.common.config.AbstractRocksDBStorage.CTRL_0;
@@ -124,6 +125,9 @@ public class RocksDBConsumeQueueTable {
 
     public List<ByteBuffer> rangeQuery(final String topic, final int queueId, final long startIndex, final int num) throws RocksDBException {
         final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        if (this.messageStore.getMessageStoreConfig().isRocksdbCQRangeQueryByIterator()) {
+            return rangeQueryByIterator(topicBytes, queueId, startIndex, num);
+        }
         final List<ColumnFamilyHandle> defaultCFHList = new ArrayList<>(num);
         final ByteBuffer[] resultList = new ByteBuffer[num];
         final List<Integer> kvIndexList = new ArrayList<>(num);
@@ -163,6 +167,45 @@ public class RocksDBConsumeQueueTable {
         return bbValueList;
     }
 
+    /**
+     * The units of a queue are stored next to each other in offset order, so they are read by a single seek followed
+     * by a scan, which stops at the first missing offset like the multiGet based query.
+     */
+    private List<ByteBuffer> rangeQueryByIterator(final byte[] topicBytes, final int queueId, final long startIndex,
+        final int num) throws RocksDBException {
+        final byte[] startKey = buildCQKeyByteBuffer(topicBytes, queueId, startIndex).array();
+        final int cqOffsetPos = startKey.length - 8;
+        final List<ByteBuffer> bbValueList = new ArrayList<>(num);
+        final RocksIterator iterator = this.rocksDBStorage.borrowCQIterator();
+        try {
+            iterator.seek(startKey);
+            long cqOffset = startIndex;
+            while (bbValueList.size() < num && iterator.isValid()) {
+                final byte[] key = iterator.key();
+                if (key.length != startKey.length || !samePrefix(key, startKey, cqOffsetPos)
+                    || ByteBuffer.wrap(key, cqOffsetPos, 8).getLong() != cqOffset) {
+                    break;
+                }
+                bbValueList.add(ByteBuffer.wrap(iterator.value()));
+                cqOffset++;
+                iterator.next();
+            }
+            iterator.status();
+        } finally {
+            this.rocksDBStorage.returnCQIterator(iterator);
+        }
+        return bbValueList;
+    }
+
+    private static boolean samePrefix(final byte[] key, final byte[] other, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (key[i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * When topic is deleted, we clean up its CqUnit in rocksdb.
      * @param topic
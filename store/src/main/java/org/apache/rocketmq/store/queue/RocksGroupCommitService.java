@@ -21,25 +21,38 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.rocksdb.RocksDBException;
 
 public class RocksGroupCommitService extends ServiceThread {
 
-    private static final int MAX_BUFFER_SIZE = 100_000;
-
-    private static final int PREFERRED_DISPATCH_REQUEST_COUNT = 256;
-
     private final LinkedBlockingQueue<DispatchRequest> buffer;
 
     private final RocksDBConsumeQueueStore store;
 
-    private final List<DispatchRequest> requests = new ArrayList<>(PREFERRED_DISPATCH_REQUEST_COUNT);
+    private final int preferredDispatchRequestCount;
+
+    /**
+     * When positive, requests are accumulated across dispatch rounds until a full group or this delay
+     */
+    private final long maxWaitMs;
+
+    /**
+     * When the first request of the pending group was queued, 0 if there is none
+     */
+    private final AtomicLong firstQueuedNanos = new AtomicLong();
+
+    private final List<DispatchRequest> requests;
 
-    public RocksGroupCommitService(RocksDBConsumeQueueStore store) {
+    public RocksGroupCommitService(RocksDBConsumeQueueStore store, MessageStoreConfig messageStoreConfig) {
         this.store = store;
-        this.buffer = new LinkedBlockingQueue<>(MAX_BUFFER_SIZE);
+        this.buffer = new LinkedBlockingQueue<>(Math.max(messageStoreConfig.getRocksdbCQGroupCommitBufferSize(), 1));
+        this.preferredDispatchRequestCount = Math.max(messageStoreConfig.getRocksdbCQGroupCommitBatchSize(), 1);
+        this.maxWaitMs = messageStoreConfig.getRocksdbCQGroupCommitMaxWaitMs();
+        this.requests = new ArrayList<>(this.preferredDispatchRequestCount);
     }
 
     @Override
@@ -52,7 +65,23 @@ public class RocksGroupCommitService extends ServiceThread {
         log.info("{} service started", this.getServiceName());
         while (!this.isStopped()) {
             try {
-                this.waitForRunning(10);
+                if (maxWaitMs <= 0) {
+                    this.waitForRunning(10);
+                    this.doCommit();
+                    continue;
+                }
+                long firstQueued = firstQueuedNanos.get();
+                if (firstQueued == 0) {
+                    // Woken up by the first queued request
+                    this.waitForRunning(maxWaitMs);
+                    continue;
+                }
+                long remainingMs = maxWaitMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstQueued);
+                if (remainingMs > 0 && buffer.size() < preferredDispatchRequestCount) {
+                    this.waitForRunning(remainingMs);
+                    continue;
+                }
+                firstQueuedNanos.set(0);
                 this.doCommit();
             } catch (Exception e) {
                 log.warn("{} service has exception. ", this.getServiceName(), e);
@@ -65,7 +94,14 @@ public class RocksGroupCommitService extends ServiceThread {
         while (!buffer.offer(request, 3, TimeUnit.SECONDS)) {
             log.warn("RocksGroupCommitService#buffer is full, 3s elapsed before space becomes available");
         }
-        this.wakeup();
+        if (maxWaitMs <= 0) {
+            this.wakeup();
+            return;
+        }
+        // The max wait is measured from the first request of the group
+        if (firstQueuedNanos.compareAndSet(0, System.nanoTime()) || buffer.size() >= preferredDispatchRequestCount) {
+            this.wakeup();
+        }
     }
 
     private void doCommit() {
@@ -81,7 +117,7 @@ public class RocksGroupCommitService extends ServiceThread {
                     break;
                 }
 
-                if (null == dispatchRequest || requests.size() >= PREFERRED_DISPATCH_REQUEST_COUNT) {
+                if (null == dispatchRequest || requests.size() >= preferredDispatchRequestCount) {
                     groupCommit();
                 }
             }
@@ -19,6 +19,8 @@ package org.apache.rocketmq.store.rocksdb;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.config.AbstractRocksDBStorage;
@@ -39,6 +41,22 @@ public class ConsumeQueueRocksDBStorage extends AbstractRocksDBStorage {
     private final MessageStore messageStore;
     private volatile ColumnFamilyHandle offsetCFHandle;
 
+    /**
+     * Idle iterators of the consume queue column family, the most recently returned first, refreshed when borrowed.
+     * An idle iterator pins the memtables and files it was created on, so it is closed once idle for too long.
+     */
+    private final ConcurrentLinkedDeque<IdleCQIterator> cqIteratorPool = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger cqIteratorPoolSize = new AtomicInteger(0);
+    /**
+     * Set while the column families are closed, guarded by the monitor of the pool
+     */
+    private boolean cqIteratorPoolClosed = false;
+    /**
+     * Iterators borrowed and not returned yet, guarded by the monitor of the pool. The database is not closed while
+     * some of them may still be read.
+     */
+    private int borrowedCQIteratorNum = 0;
+
     public ConsumeQueueRocksDBStorage(final MessageStore messageStore, final String dbPath) {
         super(dbPath);
         this.messageStore = messageStore;
@@ -76,6 +94,9 @@ public class ConsumeQueueRocksDBStorage extends AbstractRocksDBStorage {
             open(cfDescriptors);
             this.defaultCFHandle = cfHandles.get(0);
             this.offsetCFHandle = cfHandles.get(1);
+            synchronized (this.cqIteratorPool) {
+                this.cqIteratorPoolClosed = false;
+            }
         } catch (final Exception e) {
             LOGGER.error("postLoad Failed. {}", this.dbPath, e);
             return false;
@@ -83,11 +104,56 @@ public class ConsumeQueueRocksDBStorage extends AbstractRocksDBStorage {
         return true;
     }
 
+    @Override
+    public synchronized boolean shutdown() {
+        if (this.loaded && !closeCQIteratorPool(this.messageStore.getMessageStoreConfig()
+            .getRocksdbCQIteratorReturnTimeoutMillis())) {
+            LOGGER.error("{} consume queue iterators are still borrowed, give up closing rocksdb {}",
+                getBorrowedCQIteratorNum(), this.dbPath);
+            return false;
+        }
+        return super.shutdown();
+    }
+
     @Override
     protected void preShutdown() {
+        closeCQIteratorPool();
         this.offsetCFHandle.close();
     }
 
+    private void closeCQIteratorPool() {
+        closeCQIteratorPool(0);
+    }
+
+    /**
+     * Stop lending iterators and close the idle ones, the ones returned afterwards are closed instead of pooled
+     *
+     * @param timeoutMillis how long to wait for the borrowed iterators to be returned
+     * @return whether no iterator is borrowed any more
+     */
+    private boolean closeCQIteratorPool(long timeoutMillis) {
+        synchronized (this.cqIteratorPool) {
+            this.cqIteratorPoolClosed = true;
+            IdleCQIterator idle;
+            while ((idle = this.cqIteratorPool.pollFirst()) != null) {
+                idle.iterator.close();
+            }
+            this.cqIteratorPoolSize.set(0);
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining;
+            while (this.borrowedCQIteratorNum > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    this.cqIteratorPool.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return this.borrowedCQIteratorNum == 0;
+        }
+    }
+
     public byte[] getCQ(final byte[] keyBytes) throws RocksDBException {
         return get(this.defaultCFHandle, this.totalOrderReadOptions, keyBytes);
     }
@@ -112,6 +178,109 @@ public class ConsumeQueueRocksDBStorage extends AbstractRocksDBStorage {
         }
     }
 
+    /**
+     * Borrow an iterator of the consume queue column family, which sees the latest writes. It must be given back by
+     * {@link #returnCQIterator(RocksIterator)}.
+     */
+    public RocksIterator borrowCQIterator() throws RocksDBException {
+        if (!hold()) {
+            throw new RocksDBException("rocksDB:" + this + " is not ready");
+        }
+        synchronized (this.cqIteratorPool) {
+            if (this.cqIteratorPoolClosed) {
+                release();
+                throw new RocksDBException("rocksDB:" + this + " is shutting down");
+            }
+            this.borrowedCQIteratorNum++;
+        }
+        long expireBefore = System.currentTimeMillis()
+            - this.messageStore.getMessageStoreConfig().getRocksdbCQIteratorMaxIdleMillis();
+        IdleCQIterator idle;
+        while ((idle = this.cqIteratorPool.pollFirst()) != null) {
+            this.cqIteratorPoolSize.decrementAndGet();
+            if (idle.idleSince < expireBefore) {
+                idle.iterator.close();
+                continue;
+            }
+            try {
+                idle.iterator.refresh();
+            } catch (RocksDBException e) {
+                idle.iterator.close();
+                onCQIteratorReturned();
+                release();
+                throw e;
+            }
+            return idle.iterator;
+        }
+        return this.db.newIterator(this.defaultCFHandle, this.totalOrderReadOptions);
+    }
+
+    public void returnCQIterator(final RocksIterator iterator) {
+        try {
+            int maxPoolSize = this.messageStore.getMessageStoreConfig().getRocksdbCQIteratorPoolSize();
+            synchronized (this.cqIteratorPool) {
+                try {
+                    boolean pooled = false;
+                    if (!this.cqIteratorPoolClosed && this.loaded) {
+                        if (this.cqIteratorPoolSize.incrementAndGet() <= maxPoolSize) {
+                            this.cqIteratorPool.offerFirst(new IdleCQIterator(iterator, System.currentTimeMillis()));
+                            pooled = true;
+                        } else {
+                            this.cqIteratorPoolSize.decrementAndGet();
+                        }
+                    }
+                    if (!pooled) {
+                        // Closed before the shutdown waiting for it may close the database
+                        iterator.close();
+                    }
+                } finally {
+                    onCQIteratorReturned();
+                }
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Close the pooled iterators idle for longer than rocksdbCQIteratorMaxIdleMillis, so that they no longer pin
+     * flushed memtables and compacted files when reads stop
+     */
+    public void evictIdleCQIterators() {
+        long expireBefore = System.currentTimeMillis()
+            - this.messageStore.getMessageStoreConfig().getRocksdbCQIteratorMaxIdleMillis();
+        synchronized (this.cqIteratorPool) {
+            if (this.cqIteratorPoolClosed) {
+                return;
+            }
+            IdleCQIterator idle;
+            while ((idle = this.cqIteratorPool.peekLast()) != null && idle.idleSince < expireBefore) {
+                if (this.cqIteratorPool.removeLastOccurrence(idle)) {
+                    this.cqIteratorPoolSize.decrementAndGet();
+                    idle.iterator.close();
+                }
+            }
+        }
+    }
+
+    private void onCQIteratorReturned() {
+        synchronized (this.cqIteratorPool) {
+            if (--this.borrowedCQIteratorNum == 0) {
+                this.cqIteratorPool.notifyAll();
+            }
+        }
+    }
+
+    public int getBorrowedCQIteratorNum() {
+        synchronized (this.cqIteratorPool) {
+            return this.borrowedCQIteratorNum;
+        }
+    }
+
+    public int getCQIteratorPoolSize() {
+        return this.cqIteratorPoolSize.get();
+    }
+
     public RocksIterator seekOffsetCF() {
         return this.db.newIterator(this.offsetCFHandle, this.totalOrderReadOptions);
     }
@@ -119,4 +288,14 @@ public class ConsumeQueueRocksDBStorage extends AbstractRocksDBStorage {
     public ColumnFamilyHandle getOffsetCFHandle() {
         return this.offsetCFHandle;
     }
+
+    private static class IdleCQIterator {
+        private final RocksIterator iterator;
+        private final long idleSince;
+
+        IdleCQIterator(final RocksIterator iterator, final long idleSince) {
+            this.iterator = iterator;
+            this.idleSince = idleSince;
+        }
+    }
 }
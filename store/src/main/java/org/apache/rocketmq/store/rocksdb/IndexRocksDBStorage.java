@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.rocksdb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.config.AbstractRocksDBStorage;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+
+/**
+ * Storage of the message key index, the default column family holds the index entries and the bucket column family
+ * the bounds of each time bucket of entries.
+ */
+public class IndexRocksDBStorage extends AbstractRocksDBStorage {
+
+    public static final byte[] BUCKET_COLUMN_FAMILY = "bucket".getBytes(StandardCharsets.UTF_8);
+
+    private volatile ColumnFamilyHandle bucketCFHandle;
+
+    public IndexRocksDBStorage(final String dbPath) {
+        super(dbPath);
+        this.readOnly = false;
+    }
+
+    protected void initOptions() {
+        this.options = RocksDBOptionsFactory.createDBOptions();
+        super.initOptions();
+    }
+
+    @Override
+    protected boolean postLoad() {
+        try {
+            UtilAll.ensureDirOK(this.dbPath);
+
+            initOptions();
+
+            final List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>();
+
+            ColumnFamilyOptions indexCfOptions = RocksDBOptionsFactory.createIndexCFOptions();
+            this.cfOptions.add(indexCfOptions);
+            cfDescriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, indexCfOptions));
+
+            ColumnFamilyOptions bucketCfOptions = RocksDBOptionsFactory.createOffsetCFOptions();
+            this.cfOptions.add(bucketCfOptions);
+            cfDescriptors.add(new ColumnFamilyDescriptor(BUCKET_COLUMN_FAMILY, bucketCfOptions));
+            open(cfDescriptors);
+            this.defaultCFHandle = cfHandles.get(0);
+            this.bucketCFHandle = cfHandles.get(1);
+        } catch (final Exception e) {
+            LOGGER.error("postLoad Failed. {}", this.dbPath, e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void preShutdown() {
+        this.bucketCFHandle.close();
+    }
+
+    public void batchPut(final WriteBatch batch) throws RocksDBException {
+        batchPut(this.ableWalWriteOptions, batch);
+    }
+
+    public void deleteBucket(final byte[] bucketKey, final byte[] startKey, final byte[] endKey) throws RocksDBException {
+        rangeDelete(this.defaultCFHandle, this.ableWalWriteOptions, startKey, endKey);
+        delete(this.bucketCFHandle, this.ableWalWriteOptions, bucketKey);
+    }
+
+    /**
+     * The iterator must be closed by the caller, seeks of keys with a different prefix are not supported.
+     */
+    public RocksIterator seekIndex() {
+        return this.db.newIterator(this.defaultCFHandle, this.readOptions);
+    }
+
+    public RocksIterator seekBucket() {
+        return this.db.newIterator(this.bucketCFHandle, this.totalOrderReadOptions);
+    }
+
+    public long getTotalSize() {
+        if (!hold()) {
+            return 0;
+        }
+        try {
+            return this.db.getLongProperty(this.defaultCFHandle, "rocksdb.total-sst-files-size");
+        } catch (RocksDBException e) {
+            LOGGER.error("getTotalSize Failed. {}", this.dbPath, e);
+            return 0;
+        } finally {
+            release();
+        }
+    }
+
+    public ColumnFamilyHandle getBucketCFHandle() {
+        return this.bucketCFHandle;
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.rocketmq.common.config.ConfigHelper;
 import org.apache.rocketmq.store.MessageStore;
 import org.rocksdb.BlockBasedTableConfig;
 import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
 import org.rocksdb.ColumnFamilyOptions;
 import org.rocksdb.CompactionOptionsUniversal;
 import org.rocksdb.CompactionPriority;
@@ -41,6 +42,36 @@ import org.rocksdb.util.SizeUnit;
 
 public class RocksDBOptionsFactory {
 
+    /**
+     * Time bucket(8) + key hash code(4)
+     */
+    public static final int INDEX_KEY_PREFIX_LENGTH = 12;
+
+    private static long sharedBlockCacheCapacity = 0;
+
+    private static Cache sharedBlockCache;
+
+    /**
+     * Share one block cache of the given capacity between all the column families created afterward, in every
+     * RocksDB instance of the process, instead of a cache sized per column family. The first capacity wins.
+     */
+    public static synchronized void initSharedBlockCache(final long capacity) {
+        if (capacity > 0 && sharedBlockCacheCapacity == 0) {
+            sharedBlockCacheCapacity = capacity;
+        }
+    }
+
+    private static synchronized Cache getBlockCache(final long capacity) {
+        if (sharedBlockCacheCapacity <= 0) {
+            return new LRUCache(capacity, 8, false);
+        }
+        if (sharedBlockCache == null) {
+            // Created once the RocksDB library is loaded
+            sharedBlockCache = new LRUCache(sharedBlockCacheCapacity, 8, false);
+        }
+        return sharedBlockCache;
+    }
+
     public static ColumnFamilyOptions createCQCFOptions(final MessageStore messageStore) {
         BlockBasedTableConfig blockBasedTableConfig = new BlockBasedTableConfig().
                 setFormatVersion(5).
@@ -54,7 +85,7 @@ public class RocksDBOptionsFactory {
                 setCacheIndexAndFilterBlocksWithHighPriority(true).
                 setPinL0FilterAndIndexBlocksInCache(false).
                 setPinTopLevelIndexAndFilter(true).
-                setBlockCache(new LRUCache(1024 * SizeUnit.MB, 8, false)).
+                setBlockCache(getBlockCache(1024 * SizeUnit.MB)).
                 setWholeKeyFiltering(true);
 
         ColumnFamilyOptions columnFamilyOptions = new ColumnFamilyOptions();
@@ -108,7 +139,7 @@ public class RocksDBOptionsFactory {
                 setCacheIndexAndFilterBlocksWithHighPriority(true).
                 setPinL0FilterAndIndexBlocksInCache(false).
                 setPinTopLevelIndexAndFilter(true).
-                setBlockCache(new LRUCache(128 * SizeUnit.MB, 8, false)).
+                setBlockCache(getBlockCache(128 * SizeUnit.MB)).
                 setWholeKeyFiltering(true);
 
         ColumnFamilyOptions columnFamilyOptions = new ColumnFamilyOptions();
@@ -144,7 +175,7 @@ public class RocksDBOptionsFactory {
             .setCacheIndexAndFilterBlocksWithHighPriority(true)
             .setPinL0FilterAndIndexBlocksInCache(false)
             .setPinTopLevelIndexAndFilter(true)
-            .setBlockCache(new LRUCache(1024 * SizeUnit.MB, 8, false))
+            .setBlockCache(getBlockCache(1024 * SizeUnit.MB))
             .setWholeKeyFiltering(true);
 
         CompactionOptionsUniversal compactionOption = new CompactionOptionsUniversal()
@@ -182,6 +213,48 @@ public class RocksDBOptionsFactory {
             .setOptimizeFiltersForHits(true);
     }
 
+    /**
+     * Index keys start with their time bucket and key hash code, the bloom filters are built on this prefix so that
+     * seeking a key skips the files without it.
+     */
+    public static ColumnFamilyOptions createIndexCFOptions() {
+        BlockBasedTableConfig blockBasedTableConfig = new BlockBasedTableConfig()
+            .setFormatVersion(5)
+            .setIndexType(IndexType.kBinarySearch)
+            .setDataBlockIndexType(DataBlockIndexType.kDataBlockBinarySearch)
+            .setBlockSize(16 * SizeUnit.KB)
+            .setMetadataBlockSize(4 * SizeUnit.KB)
+            .setFilterPolicy(new BloomFilter(10, false))
+            .setCacheIndexAndFilterBlocks(true)
+            .setCacheIndexAndFilterBlocksWithHighPriority(true)
+            .setPinL0FilterAndIndexBlocksInCache(true)
+            .setPinTopLevelIndexAndFilter(true)
+            .setBlockCache(getBlockCache(256 * SizeUnit.MB))
+            .setWholeKeyFiltering(false);
+
+        //noinspection resource
+        return new ColumnFamilyOptions()
+            .useFixedLengthPrefixExtractor(INDEX_KEY_PREFIX_LENGTH)
+            .setMemtablePrefixBloomSizeRatio(0.1)
+            .setMaxWriteBufferNumber(4)
+            .setWriteBufferSize(64 * SizeUnit.MB)
+            .setMinWriteBufferNumberToMerge(1)
+            .setTableFormatConfig(blockBasedTableConfig)
+            .setMemTableConfig(new SkipListMemTableConfig())
+            .setCompressionType(CompressionType.LZ4_COMPRESSION)
+            .setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION)
+            .setNumLevels(7)
+            .setCompactionStyle(CompactionStyle.LEVEL)
+            .setLevel0FileNumCompactionTrigger(4)
+            .setLevel0SlowdownWritesTrigger(16)
+            .setLevel0StopWritesTrigger(24)
+            .setTargetFileSizeBase(64 * SizeUnit.MB)
+            .setTargetFileSizeMultiplier(2)
+            .setMaxBytesForLevelBase(512 * SizeUnit.MB)
+            .setMaxBytesForLevelMultiplier(10)
+            .setReportBgIoStats(true);
+    }
+
     /**
      * Create a rocksdb db options, the user must take care to close it after closing db.
      * @return
@@ -29,6 +29,14 @@ public interface LibC extends Library {
     int MADV_RANDOM = 1;
     int MADV_WILLNEED = 3;
     int MADV_DONTNEED = 4;
+    int MADV_HUGEPAGE = 14;
+
+    int PROT_READ = 0x1;
+    int PROT_WRITE = 0x2;
+
+    int MAP_PRIVATE = 0x02;
+    int MAP_ANONYMOUS = 0x20;
+    int MAP_HUGETLB = 0x40000;
 
     int MCL_CURRENT = 1;
     int MCL_FUTURE = 2;
@@ -56,4 +64,8 @@ public interface LibC extends Library {
     int mincore(Pointer p, NativeLong length, byte[] vec);
 
     int getpagesize();
+
+    Pointer mmap(Pointer addr, NativeLong length, int prot, int flags, int fd, NativeLong offset);
+
+    int munmap(Pointer addr, NativeLong length);
 }
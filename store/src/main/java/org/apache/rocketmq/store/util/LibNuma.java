@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.util;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * Optional binding to libnuma, null when the library is not installed.
+ */
+public interface LibNuma extends Library {
+    LibNuma INSTANCE = load();
+
+    int numa_available();
+
+    int numa_max_node();
+
+    void numa_tonode_memory(Pointer start, NativeLong size, int node);
+
+    static LibNuma load() {
+        if (!Platform.isLinux()) {
+            return null;
+        }
+        try {
+            LibNuma libNuma = (LibNuma) Native.loadLibrary("numa", LibNuma.class);
+            return libNuma.numa_available() < 0 ? null : libNuma;
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+}
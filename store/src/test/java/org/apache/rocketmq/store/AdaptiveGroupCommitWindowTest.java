@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveGroupCommitWindowTest {
+
+    @Test
+    public void testNoWindowWhenArrivalsAreSparse() throws InterruptedException {
+        AdaptiveGroupCommitWindow window = new AdaptiveGroupCommitWindow(2000, 1000);
+        for (int i = 0; i < 5; i++) {
+            window.onArrival();
+            Thread.sleep(5);
+            window.onFlush(TimeUnit.MICROSECONDS.toNanos(100), 1);
+        }
+        assertEquals(0, window.getWindowNanos());
+        assertEquals(1, window.getLastBatchSize());
+    }
+
+    @Test
+    public void testWindowOpensUnderLoadAndRespectsBounds() {
+        AdaptiveGroupCommitWindow window = new AdaptiveGroupCommitWindow(2000, 1000);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 10000; j++) {
+                window.onArrival();
+            }
+            window.onFlush(TimeUnit.MICROSECONDS.toNanos(100), 10000);
+        }
+        assertTrue(window.getWindowNanos() > 0);
+        assertTrue(window.getWindowNanos() <= TimeUnit.MICROSECONDS.toNanos(1000));
+        assertTrue(window.getWindowNanos() + 2 * window.getTailFlushNanos() <= TimeUnit.MICROSECONDS.toNanos(2000));
+    }
+
+    @Test
+    public void testNoWindowWhenFlushAloneExceedsTarget() {
+        AdaptiveGroupCommitWindow window = new AdaptiveGroupCommitWindow(2000, 1000);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 10000; j++) {
+                window.onArrival();
+            }
+            window.onFlush(TimeUnit.MILLISECONDS.toNanos(5), 10000);
+        }
+        assertEquals(0, window.getWindowNanos());
+    }
+}
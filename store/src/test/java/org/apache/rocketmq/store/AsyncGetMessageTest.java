@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageExtBrokerInner;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.logfile.MappedFile;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+public class AsyncGetMessageTest extends StoreTestBase {
+    private static final String TOPIC = "AsyncGetMessageTest";
+    private static final String GROUP = "AsyncGetMessageGroup";
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 10);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 1024 * 10);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setHaListenPort(0);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setEnableAsyncGetMessage(true);
+        // every message is in the cold area, so that the residency is always checked
+        messageStoreConfig.setAccessMessageInMemoryHotRatio(0);
+        messageStoreConfig.setAsyncGetMessageThreadPoolNums(1);
+        messageStoreConfig.setAsyncGetMessageThreadQueueCapacity(1);
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("simpleTest", true),
+            null, new BrokerConfig(), new ConcurrentHashMap<>());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testGetMessageAsync() throws Exception {
+        for (int i = 0; i < 32; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 32);
+
+        GetMessageResult result = messageStore.getMessageAsync(GROUP, TOPIC, 0, 8, 16, null).get(3, TimeUnit.SECONDS);
+        try {
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            assertThat(result.getMessageCount()).isEqualTo(16);
+            assertThat(result.getNextBeginOffset()).isEqualTo(24);
+        } finally {
+            result.release();
+        }
+
+        result = messageStore.getMessageAsync(GROUP, TOPIC, 0, 32, 16, null).get(3, TimeUnit.SECONDS);
+        assertThat(result.getStatus()).isEqualTo(GetMessageStatus.OFFSET_OVERFLOW_ONE);
+    }
+
+    @Test
+    public void testGetMessageOffPageCacheOnExecutor() throws Exception {
+        putMessages(32);
+        evictFromPageCache();
+
+        ThreadRecordingFilter filter = new ThreadRecordingFilter();
+        GetMessageResult result = messageStore.getMessageAsync(GROUP, TOPIC, 0, 0, 16, filter).get(3, TimeUnit.SECONDS);
+        try {
+            assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            assertThat(result.getMessageCount()).isEqualTo(16);
+        } finally {
+            result.release();
+        }
+        assertThat(filter.threadName).startsWith("GetMessageThread_");
+    }
+
+    @Test
+    public void testGetMessageInlineWhenExecutorBusy() throws Exception {
+        putMessages(32);
+        evictFromPageCache();
+
+        // one task running and one queued fill the executor
+        ExecutorService executor = (ExecutorService) FieldUtils.readField(messageStore, "getMessageExecutor", true);
+        CountDownLatch blocker = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {
+                blocker.await();
+                return null;
+            });
+            executor.submit(() -> {
+                blocker.await();
+                return null;
+            });
+
+            ThreadRecordingFilter filter = new ThreadRecordingFilter();
+            CompletableFuture<GetMessageResult> future = messageStore.getMessageAsync(GROUP, TOPIC, 0, 0, 16, filter);
+            assertThat(future).isDone();
+            GetMessageResult result = future.get();
+            try {
+                assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                assertThat(result.getMessageCount()).isEqualTo(16);
+            } finally {
+                result.release();
+            }
+            assertThat(filter.threadName).isEqualTo(Thread.currentThread().getName());
+        } finally {
+            blocker.countDown();
+        }
+    }
+
+    private void putMessages(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == count);
+    }
+
+    /**
+     * The CommitLog file is freshly written and resident, so its residency is faked to take the off page cache path
+     */
+    private void evictFromPageCache() {
+        List<MappedFile> mappedFiles = messageStore.getCommitLog().getMappedFileQueue().getMappedFiles();
+        MappedFile mappedFile = spy(mappedFiles.get(0));
+        doReturn(false).when(mappedFile).isLoaded(anyLong(), anyInt());
+        mappedFiles.set(0, mappedFile);
+    }
+
+    private static class ThreadRecordingFilter implements MessageFilter {
+        private volatile String threadName;
+
+        @Override
+        public boolean isMatchedByConsumeQueue(Long tagsCode, ConsumeQueueExt.CqExtUnit cqExtUnit) {
+            this.threadName = Thread.currentThread().getName();
+            return true;
+        }
+
+        @Override
+        public boolean isMatchedByCommitLog(ByteBuffer msgBuffer, Map<String, String> properties) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommitLogDispatcherPipelineTest {
+    private static final int MESSAGE_SIZE = 100;
+
+    private static DispatchRequest request(int i) {
+        return new DispatchRequest("TopicTest", 0, (long) MESSAGE_SIZE * i, MESSAGE_SIZE, 0, 0L, i, null, null, 0, 0,
+            null);
+    }
+
+    @Test
+    public void testDispatchInOrder() throws Exception {
+        List<Long> dispatched = new CopyOnWriteArrayList<>();
+        CommitLogDispatcherPipeline pipeline = new CommitLogDispatcherPipeline("",
+            request -> dispatched.add(request.getConsumeQueueOffset()), 16, 4);
+        pipeline.start();
+        for (int i = 0; i < 1000; i++) {
+            pipeline.putRequest(request(i));
+        }
+        assertThat(pipeline.waitForIdle(5000)).isTrue();
+        assertThat(pipeline.getPendingRequestNum()).isEqualTo(0);
+        assertThat(pipeline.getDispatchedOffset()).isEqualTo(MESSAGE_SIZE * 1000L);
+        assertThat(dispatched).hasSize(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(dispatched.get(i)).isEqualTo(i);
+        }
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Long> dispatched = new CopyOnWriteArrayList<>();
+        CommitLogDispatcherPipeline pipeline = new CommitLogDispatcherPipeline("", request -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+            dispatched.add(request.getConsumeQueueOffset());
+        }, 1, 1);
+        pipeline.start();
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5; i++) {
+                    pipeline.putRequest(request(i));
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        producer.start();
+        producer.join(500);
+        // One request is being dispatched and one is queued, the producer waits for the rest
+        assertThat(producer.isAlive()).isTrue();
+        assertThat(pipeline.getPendingRequestNum()).isLessThanOrEqualTo(3);
+
+        blocked.countDown();
+        producer.join(5000);
+        assertThat(producer.isAlive()).isFalse();
+        assertThat(pipeline.waitForIdle(5000)).isTrue();
+        assertThat(dispatched).containsExactly(0L, 1L, 2L, 3L, 4L);
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        List<Long> dispatched = new CopyOnWriteArrayList<>();
+        CommitLogDispatcherPipeline pipeline = new CommitLogDispatcherPipeline("", request -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException ignored) {
+            }
+            dispatched.add(request.getConsumeQueueOffset());
+        }, 1024, 8);
+        pipeline.start();
+        for (int i = 0; i < 100; i++) {
+            pipeline.putRequest(request(i));
+        }
+        pipeline.shutdown();
+        assertThat(dispatched).hasSize(100);
+
+        // Requests are dispatched by the caller once the pipeline is stopped
+        pipeline.putRequest(request(100));
+        assertThat(dispatched).hasSize(101);
+        assertThat(dispatched.get(100)).isEqualTo(100);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageExtBrokerInner;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class CommitLogPrefetchServiceTest extends StoreTestBase {
+    private static final String TOPIC = "PrefetchTest";
+    private static final String GROUP = "PrefetchGroup";
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 10);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 1024 * 10);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setHaListenPort(0);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setEnableCommitLogPrefetch(true);
+        messageStoreConfig.setCommitLogPrefetchMsgNums(16);
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("simpleTest", true),
+            null, new BrokerConfig(), new ConcurrentHashMap<>());
+        assertThat(messageStore.load()).isTrue();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testOnlySequentialColdPullsArePrefetched() {
+        CommitLogPrefetchService prefetchService = messageStore.getCommitLogPrefetchService();
+
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 0, 4, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(0);
+
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 4, 8, false);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(0);
+
+        // hot pulls are not tracked, so the reader is found sequential again from the next cold pull on
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 8, 12, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(0);
+
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 12, 16, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(1);
+
+        // still more than half of the messages read ahead in front of the consumer
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 16, 20, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(1);
+
+        // a seek resets the reader
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 100, 104, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(1);
+
+        prefetchService.onMessagePulled(GROUP, TOPIC, 1, 0, 4, true);
+        prefetchService.onMessagePulled(GROUP, TOPIC, 1, 4, 8, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDroppedRequestIsRequestedAgain() {
+        messageStore.getMessageStoreConfig().setCommitLogPrefetchQueueCapacity(1);
+        CommitLogPrefetchService prefetchService = new CommitLogPrefetchService(messageStore);
+
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 0, 4, true);
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 4, 8, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(1);
+        assertThat(prefetchService.getPrefetchedOffset(GROUP, TOPIC, 0)).isEqualTo(24);
+
+        // the queue is full, the reader stays at the messages it has not prefetched
+        prefetchService.onMessagePulled(GROUP, TOPIC, 1, 0, 4, true);
+        prefetchService.onMessagePulled(GROUP, TOPIC, 1, 4, 8, true);
+        assertThat(prefetchService.getPendingRequestCount()).isEqualTo(1);
+        assertThat(prefetchService.getPrefetchedOffset(GROUP, TOPIC, 1)).isEqualTo(8);
+    }
+
+    @Test
+    public void testRequestOverBudgetIsRequestedAgain() throws Exception {
+        messageStore.getMessageStoreConfig().setCommitLogPrefetchMaxBytesPerSecond(1);
+        messageStore.start();
+        for (int i = 0; i < 64; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 64);
+
+        CommitLogPrefetchService prefetchService = messageStore.getCommitLogPrefetchService();
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 0, 8, true);
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 8, 16, true);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> prefetchService.getPrefetchedOffset(GROUP, TOPIC, 0) == 16);
+    }
+
+    @Test
+    public void testPrefetchRequestsAreConsumed() throws Exception {
+        messageStore.start();
+        for (int i = 0; i < 64; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            assertThat(messageStore.putMessage(msg).isOk()).isTrue();
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 64);
+
+        CommitLogPrefetchService prefetchService = messageStore.getCommitLogPrefetchService();
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 0, 8, true);
+        prefetchService.onMessagePulled(GROUP, TOPIC, 0, 8, 16, true);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> prefetchService.getPendingRequestCount() == 0);
+    }
+}
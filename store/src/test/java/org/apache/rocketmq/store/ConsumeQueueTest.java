@@ -23,6 +23,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -35,7 +37,9 @@ import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExtBrokerInner;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.apache.rocketmq.store.queue.ConsumeQueueInterface;
+import org.apache.rocketmq.store.queue.ConsumeQueueSnapshot;
 import org.apache.rocketmq.store.queue.CqUnit;
 import org.apache.rocketmq.store.queue.ReferredIterator;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
@@ -503,4 +507,85 @@ public class ConsumeQueueTest {
         Assert.assertEquals(max * ConsumeQueue.CQ_STORE_UNIT_SIZE, consumeQueue.getMinLogicOffset());
         consumeQueue.destroy();
     }
+
+    @Test
+    public void testRecoverFromSnapshot() throws Exception {
+        String topic = "T1";
+        int queueId = 0;
+        int messageSize = 100;
+        int cqFileSize = 100 * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"), "test_recover_cq_from_snapshot");
+        UtilAll.deleteFile(tmpDir);
+        storeConfig.setStorePathRootDir(tmpDir.getAbsolutePath());
+        storeConfig.setEnableConsumeQueueExt(false);
+        DefaultMessageStore messageStore = Mockito.mock(DefaultMessageStore.class);
+        Mockito.when(messageStore.getMessageStoreConfig()).thenReturn(storeConfig);
+        Mockito.when(messageStore.getRunningFlags()).thenReturn(new RunningFlags());
+        Mockito.when(messageStore.getStoreCheckpoint()).thenReturn(Mockito.mock(StoreCheckpoint.class));
+
+        ConsumeQueue consumeQueue = new ConsumeQueue(topic, queueId, storeConfig.getStorePathRootDir(), cqFileSize, messageStore);
+        for (int i = 0; i < 250; i++) {
+            consumeQueue.putMessagePositionInfoWrapper(
+                new DispatchRequest(topic, queueId, (long) messageSize * i, messageSize, 0, 0, i, null, null, 0, 0, null));
+        }
+        // Each flush only goes through one file
+        for (int i = 0; i < 3; i++) {
+            consumeQueue.flush(0);
+        }
+
+        String snapshotPath = StorePathConfigHelper.getConsumeQueueSnapshot(tmpDir.getAbsolutePath());
+        ConsumeQueueSnapshot snapshot = new ConsumeQueueSnapshot(snapshotPath);
+        Map<String, ConsumeQueueSnapshot.Entry> entries = new HashMap<>();
+        ConsumeQueueSnapshot.Entry entry = consumeQueue.buildSnapshotEntry();
+        Assert.assertNotNull(entry);
+        entries.put(ConsumeQueueSnapshot.key(topic, queueId), entry);
+        snapshot.persist(entries);
+
+        // Appended after the snapshot, must still be found by recover
+        for (int i = 250; i < 280; i++) {
+            consumeQueue.putMessagePositionInfoWrapper(
+                new DispatchRequest(topic, queueId, (long) messageSize * i, messageSize, 0, 0, i, null, null, 0, 0, null));
+        }
+        // Each flush only goes through one file
+        for (int i = 0; i < 3; i++) {
+            consumeQueue.flush(0);
+        }
+
+        entry = snapshot.load().get(ConsumeQueueSnapshot.key(topic, queueId));
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(250 * ConsumeQueue.CQ_STORE_UNIT_SIZE, entry.getFlushedOffset());
+        Assert.assertEquals(250L * messageSize, entry.getMaxPhysicOffset());
+
+        ConsumeQueue mismatched = new ConsumeQueue(topic, queueId, storeConfig.getStorePathRootDir(), cqFileSize, messageStore);
+        Assert.assertTrue(mismatched.load());
+        Assert.assertFalse(mismatched.recover(new ConsumeQueueSnapshot.Entry(topic, queueId, entry.getFlushedOffset(),
+            entry.getMaxPhysicOffset() + 1, entry.getMinLogicOffset())));
+
+        // A min logic offset outside of the first file is stale
+        ConsumeQueue stale = new ConsumeQueue(topic, queueId, storeConfig.getStorePathRootDir(), cqFileSize, messageStore);
+        Assert.assertTrue(stale.load());
+        Assert.assertFalse(stale.recover(new ConsumeQueueSnapshot.Entry(topic, queueId, entry.getFlushedOffset(),
+            entry.getMaxPhysicOffset(), cqFileSize)));
+        Assert.assertEquals(0, stale.getMinLogicOffset());
+
+        ConsumeQueue recovered = new ConsumeQueue(topic, queueId, storeConfig.getStorePathRootDir(), cqFileSize, messageStore);
+        Assert.assertTrue(recovered.load());
+        Assert.assertTrue(recovered.recover(entry));
+        Assert.assertEquals(280, recovered.getMaxOffsetInQueue());
+        Assert.assertEquals(280L * messageSize, recovered.getMaxPhysicOffset());
+        recovered.destroy();
+
+        snapshot.delete();
+        Assert.assertFalse(new File(snapshotPath).exists());
+        Assert.assertTrue(snapshot.load().isEmpty());
+
+        // A snapshot failing its CRC is ignored
+        snapshot.persist(entries);
+        byte[] content = Files.readAllBytes(new File(snapshotPath).toPath());
+        content[content.length / 2] ^= 1;
+        Files.write(new File(snapshotPath).toPath(), content);
+        Assert.assertTrue(snapshot.load().isEmpty());
+        UtilAll.deleteFile(tmpDir);
+    }
 }
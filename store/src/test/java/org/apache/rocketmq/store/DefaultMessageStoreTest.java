@@ -40,6 +40,8 @@ import java.util.UUID;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.common.BrokerConfig;
@@ -67,6 +69,7 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -722,6 +725,66 @@ public class DefaultMessageStoreTest {
         }
     }
 
+    @Test
+    public void testRecoverAbnormallyInParallel() throws Exception {
+        String topic = "parallelRecoverTopic";
+        messageBody = storeMessage.getBytes();
+        String storeRootDir = System.getProperty("java.io.tmpdir") + File.separator + "store-" + UUID.randomUUID();
+        MessageStore store = buildParallelRecoverMessageStore(storeRootDir, false);
+        try {
+            assertTrue(store.load());
+            store.start();
+            for (int i = 0; i < 1000; i++) {
+                MessageExtBrokerInner messageExtBrokerInner = buildMessage();
+                messageExtBrokerInner.setTopic(topic);
+                messageExtBrokerInner.setQueueId(0);
+                store.putMessage(messageExtBrokerInner);
+            }
+            StoreTestUtil.waitCommitLogReput((DefaultMessageStore) store);
+            long maxPhyOffset = store.getMaxPhyOffset();
+            long maxCqOffset = store.getMaxOffsetInQueue(topic, 0);
+            long flushedSealedOffset = ((DefaultMessageStore) store).getCommitLog().getFlushedSealedOffset();
+            assertTrue(flushedSealedOffset > 0);
+
+            // Check the CRC of every file in parallel, then skip the files flushed before the restart
+            for (boolean skipCheckCRCOfFlushedFiles : new boolean[] {false, true}) {
+                store.shutdown();
+                File file = new File(StorePathConfigHelper.getAbortFile(storeRootDir));
+                UtilAll.ensureDirOK(file.getParent());
+                file.createNewFile();
+
+                store = buildParallelRecoverMessageStore(storeRootDir, skipCheckCRCOfFlushedFiles);
+                assertTrue(store.load());
+                assertEquals(flushedSealedOffset, ((DefaultMessageStore) store).getStoreCheckpoint().getVerifiedPhyOffset());
+                store.start();
+                assertEquals(maxPhyOffset, store.getMaxPhyOffset());
+                assertEquals(maxCqOffset, store.getMaxOffsetInQueue(topic, 0));
+            }
+        } finally {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+
+    private MessageStore buildParallelRecoverMessageStore(String storePathRootDir,
+        boolean skipCheckCRCOfFlushedFiles) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        messageStoreConfig.setFlushIntervalConsumeQueue(1);
+        messageStoreConfig.setHaListenPort(0);
+        messageStoreConfig.setParallelRecoverThreadNum(4);
+        messageStoreConfig.setSkipCheckCRCOfFlushedFilesOnRecover(skipCheckCRCOfFlushedFiles);
+        messageStoreConfig.setStorePathRootDir(storePathRootDir);
+        return new DefaultMessageStore(messageStoreConfig,
+            new BrokerStatsManager("simpleTest", true),
+            new MyMessageArrivingListener(),
+            new BrokerConfig(), new ConcurrentHashMap<>());
+    }
+
     @Test
     public void testStorePathOK() {
         if (messageStore instanceof DefaultMessageStore) {
@@ -945,6 +1008,77 @@ public class DefaultMessageStoreTest {
         Assert.assertEquals(resultSet, consumeQueueTable.keySet());
     }
 
+    @Test
+    public void testTruncateFilesWhenDispatcherPipelineBusy() throws Exception {
+        AppendMessageResult[] appendMessageResults = putMessages(10, "FooBar", 0);
+        DefaultMessageStore defaultMessageStore = getDefaultMessageStore();
+        long maxPhyOffset = defaultMessageStore.getMaxPhyOffset();
+        long truncateOffset = appendMessageResults[5].getWroteOffset();
+        defaultMessageStore.getMessageStoreConfig().setDispatcherPipelineDrainTimeoutMs(200);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        CommitLogDispatcher dispatcher = request -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        };
+        CommitLogDispatcherPipeline pipeline = new CommitLogDispatcherPipeline("", dispatcher, 16, 1);
+        pipeline.start();
+        pipeline.putRequest(new DispatchRequest("FooBar", 0, truncateOffset, 100, 0, 0L, 5, null, null, 0, 0, null));
+        defaultMessageStore.getDispatcherPipelineTable().put(dispatcher, pipeline);
+        try {
+            // Nothing is truncated while the pipeline may still dispatch the dirty messages
+            assertThat(messageStore.truncateFiles(truncateOffset)).isFalse();
+            assertThat(defaultMessageStore.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+
+            blocked.countDown();
+            assertThat(messageStore.truncateFiles(truncateOffset)).isTrue();
+            assertThat(defaultMessageStore.getMaxPhyOffset()).isEqualTo(truncateOffset);
+        } finally {
+            blocked.countDown();
+            defaultMessageStore.getDispatcherPipelineTable().remove(dispatcher);
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplayDispatcherPipelinesOnRestart() throws Exception {
+        AppendMessageResult[] appendMessageResults = putMessages(10, "FooBar", 0);
+        String storePathRootDir = getDefaultMessageStore().getMessageStoreConfig().getStorePathRootDir();
+        messageStore.shutdown();
+
+        // The pipelines had only dispatched the first half of the messages when the broker went down
+        StoreCheckpoint storeCheckpoint = new StoreCheckpoint(StorePathConfigHelper.getStoreCheckpoint(storePathRootDir));
+        storeCheckpoint.setPipelineDispatchedPhyOffset(appendMessageResults[5].getWroteOffset());
+        storeCheckpoint.shutdown();
+
+        messageStore = buildMessageStore(storePathRootDir);
+        DefaultMessageStore defaultMessageStore = getDefaultMessageStore();
+        defaultMessageStore.getMessageStoreConfig().setEnableDispatcherPipeline(true);
+        List<Long> dispatchedOffsets = new CopyOnWriteArrayList<>();
+        defaultMessageStore.addDispatcher(new CommitLogDispatcher() {
+            @Override
+            public void dispatch(DispatchRequest request) {
+                dispatchedOffsets.add(request.getCommitLogOffset());
+            }
+
+            @Override
+            public boolean isPipelineSupported() {
+                return true;
+            }
+        });
+        assertTrue(messageStore.load());
+        messageStore.start();
+
+        List<Long> expectedOffsets = new ArrayList<>();
+        for (int i = 5; i < appendMessageResults.length; i++) {
+            expectedOffsets.add(appendMessageResults[i].getWroteOffset());
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> dispatchedOffsets.size() >= expectedOffsets.size());
+        assertThat(dispatchedOffsets).isEqualTo(expectedOffsets);
+    }
+
     @Test
     public void testChangeStoreConfig() {
         Properties properties = new Properties();
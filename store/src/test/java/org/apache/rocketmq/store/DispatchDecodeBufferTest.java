@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DispatchDecodeBufferTest {
+
+    private static String readTopic(DispatchDecodeBuffer decodeBuffer, String topic) {
+        byte[] bytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length + 4);
+        byteBuffer.put(bytes).putInt(42).flip();
+        String read = decodeBuffer.readTopic(byteBuffer, bytes.length);
+        assertThat(byteBuffer.getInt()).isEqualTo(42);
+        return read;
+    }
+
+    @Test
+    public void testReadTopic() {
+        DispatchDecodeBuffer decodeBuffer = new DispatchDecodeBuffer();
+        String topic = readTopic(decodeBuffer, "TopicTest");
+        assertThat(topic).isEqualTo("TopicTest");
+        assertThat(readTopic(decodeBuffer, "TopicTest")).isSameAs(topic);
+        assertThat(readTopic(decodeBuffer, "TopicTest1")).isEqualTo("TopicTest1");
+        assertThat(readTopic(decodeBuffer, "%LMQ%\u4e3b\u9898")).isEqualTo("%LMQ%\u4e3b\u9898");
+
+        // Topics sharing a slot evict each other but are still decoded correctly
+        for (int i = 0; i < 10000; i++) {
+            assertThat(readTopic(decodeBuffer, "Topic-" + i)).isEqualTo("Topic-" + i);
+        }
+        assertThat(readTopic(decodeBuffer, "TopicTest")).isEqualTo("TopicTest");
+    }
+
+    @Test
+    public void testScratch() {
+        DispatchDecodeBuffer decodeBuffer = new DispatchDecodeBuffer();
+        byte[] scratch = decodeBuffer.scratch(0);
+        assertThat(decodeBuffer.scratch(DispatchDecodeBuffer.SCRATCH_SIZE)).isSameAs(scratch);
+        assertThat(decodeBuffer.scratch(DispatchDecodeBuffer.SCRATCH_SIZE + 1)).hasSize(DispatchDecodeBuffer.SCRATCH_SIZE + 1);
+    }
+}
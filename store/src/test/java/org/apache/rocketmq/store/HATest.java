@@ -32,13 +32,18 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressionType;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageExtBrokerInner;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.FlushDiskType;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.ha.DefaultHAClient;
+import org.apache.rocketmq.store.ha.DefaultHAConnection;
+import org.apache.rocketmq.store.ha.DefaultHAService;
 import org.apache.rocketmq.store.ha.HAConnectionState;
+import org.apache.rocketmq.store.ha.HAFanOutService;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
 import org.junit.After;
 import org.junit.Assume;
@@ -50,6 +55,7 @@ import static org.awaitility.Awaitility.await;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class HATest {
@@ -130,6 +136,135 @@ public class HATest {
         }
     }
 
+    @Test
+    public void testHandleHAByFileChannel() {
+        masterMessageStoreConfig.setHaTransferByFileChannel(true);
+        long totalMsgs = 100;
+        queueTotal = 1;
+        messageBody = storeMessage.getBytes();
+        for (long i = 0; i < totalMsgs; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+        await().atMost(Duration.ofSeconds(5)).until(() -> slaveMessageStore.getMaxPhyOffset() == messageStore.getMaxPhyOffset());
+        for (long i = 0; i < totalMsgs; i++) {
+            GetMessageResult result = slaveMessageStore.getMessage("GROUP_A", "FooBar", 0, i, 1024 * 1024, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+        }
+    }
+
+    @Test
+    public void testHandleHAWithFanOut() throws Exception {
+        slaveMessageStore.shutdown();
+        messageStore.shutdown();
+        masterMessageStoreConfig.setBrokerRole(BrokerRole.ASYNC_MASTER);
+        masterMessageStoreConfig.setHaTransferFanOut(true);
+        masterMessageStoreConfig.setHaFanOutRingSize(4);
+        masterMessageStoreConfig.setHaTransferBatchSize(1024);
+        messageStore = buildMessageStore(masterMessageStoreConfig, 0L);
+        assertTrue(messageStore.load());
+        messageStore.start();
+
+        queueTotal = 1;
+        messageBody = storeMessage.getBytes();
+        for (long i = 0; i < 100; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+
+        // The slave catches up from the CommitLog, then follows the ring
+        slaveMessageStore = buildMessageStore(slaveStoreConfig, 1L);
+        assertTrue(slaveMessageStore.load());
+        slaveMessageStore.start();
+        slaveMessageStore.updateHaMasterAddress("127.0.0.1:" + masterMessageStoreConfig.getHaListenPort());
+        await().atMost(6, SECONDS).until(() -> slaveMessageStore.getHaService().getHAClient().getCurrentState() == HAConnectionState.TRANSFER);
+        for (long i = 0; i < 100; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+
+        await().atMost(Duration.ofSeconds(5)).until(() -> slaveMessageStore.getMaxPhyOffset() == messageStore.getMaxPhyOffset());
+        for (long i = 0; i < 200; i++) {
+            GetMessageResult result = slaveMessageStore.getMessage("GROUP_A", "FooBar", 0, i, 1024 * 1024, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+        }
+        HAFanOutService fanOutService = ((DefaultHAService) messageStore.getHaService()).getFanOutService();
+        assertNotNull(fanOutService);
+        await().atMost(Duration.ofSeconds(5)).until(() -> fanOutService.getNextReadOffset() == messageStore.getMaxPhyOffset());
+    }
+
+    @Test
+    public void testHandleHAWithCompression() throws Exception {
+        slaveMessageStore.shutdown();
+        masterMessageStoreConfig.setHaTransferCompressionType("ZSTD");
+        slaveStoreConfig.setHaTransferCompressionType("ZSTD");
+        slaveMessageStore = buildMessageStore(slaveStoreConfig, 1L);
+        assertTrue(slaveMessageStore.load());
+        slaveMessageStore.start();
+        slaveMessageStore.updateHaMasterAddress("127.0.0.1:" + masterMessageStoreConfig.getHaListenPort());
+        // Announced for the new master address, as the broker does once it has read the master config
+        DefaultHAClient haClient = (DefaultHAClient) slaveMessageStore.getHaService().getHAClient();
+        haClient.updateMasterCompressionSupported(true);
+        await().atMost(10, SECONDS).until(() -> haClient.getCompressionType() == CompressionType.ZSTD
+            && haClient.getCurrentState() == HAConnectionState.TRANSFER);
+
+        long totalMsgs = 100;
+        queueTotal = 1;
+        // Repetitive enough for every transfer to shrink, even one carrying a single message
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            body.append(storeMessage);
+        }
+        messageBody = body.toString().getBytes();
+        for (long i = 0; i < totalMsgs; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+        await().atMost(Duration.ofSeconds(5)).until(() -> slaveMessageStore.getMaxPhyOffset() == messageStore.getMaxPhyOffset());
+        for (long i = 0; i < totalMsgs; i++) {
+            GetMessageResult result = slaveMessageStore.getMessage("GROUP_A", "FooBar", 0, i, 1024 * 1024, null);
+            assertEquals(GetMessageStatus.FOUND, result.getStatus());
+            result.release();
+        }
+
+        DefaultHAConnection connection = (DefaultHAConnection) ((DefaultHAService) messageStore.getHaService())
+            .getConnectionList().get(0);
+        assertEquals(CompressionType.ZSTD, connection.getTransferCompressionType());
+        // Only batches sent compressed raise the ratio above one
+        await().atMost(Duration.ofSeconds(3)).until(() -> connection.getFlowMonitor().getCompressionRatio() > 1.0);
+    }
+
+    @Test
+    public void testHandleHAWithoutMasterCompressionSupport() throws Exception {
+        slaveMessageStore.shutdown();
+        masterMessageStoreConfig.setHaTransferCompressionType("ZSTD");
+        slaveStoreConfig.setHaTransferCompressionType("ZSTD");
+        slaveMessageStore = buildMessageStore(slaveStoreConfig, 1L);
+        assertTrue(slaveMessageStore.load());
+        slaveMessageStore.start();
+        slaveMessageStore.updateHaMasterAddress("127.0.0.1:" + masterMessageStoreConfig.getHaListenPort());
+        await().atMost(6, SECONDS).until(() -> slaveMessageStore.getHaService().getHAClient().getCurrentState() == HAConnectionState.TRANSFER);
+
+        long totalMsgs = 10;
+        queueTotal = 1;
+        messageBody = storeMessage.getBytes();
+        for (long i = 0; i < totalMsgs; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+        await().atMost(Duration.ofSeconds(5)).until(() -> slaveMessageStore.getMaxPhyOffset() == messageStore.getMaxPhyOffset());
+
+        // Without the announcement of the master, the slave never sends the offer
+        DefaultHAClient haClient = (DefaultHAClient) slaveMessageStore.getHaService().getHAClient();
+        assertNull(haClient.getCompressionType());
+        DefaultHAConnection connection = (DefaultHAConnection) ((DefaultHAService) messageStore.getHaService())
+            .getConnectionList().get(0);
+        assertNull(connection.getTransferCompressionType());
+
+        // Once announced, the slave reconnects to offer it
+        haClient.updateMasterCompressionSupported(true);
+        await().atMost(Duration.ofSeconds(10)).until(() -> haClient.getCompressionType() == CompressionType.ZSTD);
+        messageStore.putMessage(buildMessage());
+        await().atMost(Duration.ofSeconds(5)).until(() -> slaveMessageStore.getMaxPhyOffset() == messageStore.getMaxPhyOffset());
+    }
+
     @Test
     public void testSemiSyncReplica() throws Exception {
         long totalMsgs = 5;
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Test;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PutMessageCombinerTest {
+
+    static class TestRequest extends PutMessageCombiner.Request {
+        private final int value;
+        private final boolean endsBatch;
+        private long appendedAt = -1;
+
+        TestRequest(int value) {
+            this(value, false);
+        }
+
+        TestRequest(int value, boolean endsBatch) {
+            this.value = value;
+            this.endsBatch = endsBatch;
+        }
+
+        @Override
+        protected boolean endsBatch() {
+            return endsBatch;
+        }
+    }
+
+    static class QueuedReentrantLock implements PutMessageLock {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override
+        public void lock() {
+            lock.lock();
+        }
+
+        @Override
+        public void unlock() {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testAllRequestsAppendedExclusively() throws InterruptedException {
+        final int threadNum = 16;
+        final int requestsPerThread = 2000;
+        final AtomicInteger inLock = new AtomicInteger(0);
+        final AtomicInteger violations = new AtomicInteger(0);
+        final long[] position = new long[1];
+
+        PutMessageCombiner<TestRequest> combiner = new PutMessageCombiner<>(new PutMessageReentrantLock(), request -> {
+            if (inLock.incrementAndGet() != 1) {
+                violations.incrementAndGet();
+            }
+            request.appendedAt = position[0];
+            position[0] += request.value;
+            inLock.decrementAndGet();
+        }, 32);
+
+        List<TestRequest> requests = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            List<TestRequest> perThread = new ArrayList<>();
+            for (int j = 0; j < requestsPerThread; j++) {
+                perThread.add(new TestRequest(1));
+            }
+            requests.addAll(perThread);
+            new Thread(() -> {
+                for (TestRequest request : perThread) {
+                    combiner.append(request);
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+
+        assertEquals(0, violations.get());
+        assertEquals(threadNum * requestsPerThread, position[0]);
+        assertEquals(threadNum * requestsPerThread, combiner.getCombinedRequests());
+        assertTrue(combiner.getCombinedBatches() <= combiner.getCombinedRequests());
+        for (TestRequest request : requests) {
+            assertTrue(request.isDone());
+            assertTrue(request.appendedAt >= 0);
+            assertNull(request.getError());
+        }
+    }
+
+    @Test
+    public void testBatchEndsAfterRequestLeavingWorkToItsWriter() throws Exception {
+        // The first request leaves work for its writer after the append, like a reserved slice, and the second one
+        // can only be appended once that work is done, like an end of file behind the slice
+        final AtomicBoolean written = new AtomicBoolean(false);
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
+        QueuedReentrantLock putLock = new QueuedReentrantLock();
+        PutMessageCombiner<TestRequest> combiner = new PutMessageCombiner<>(putLock, request -> {
+            if (!request.endsBatch) {
+                long deadline = System.currentTimeMillis() + 3000;
+                while (!written.get()) {
+                    if (System.currentTimeMillis() > deadline) {
+                        timedOut.set(true);
+                        return;
+                    }
+                    Thread.yield();
+                }
+            }
+        }, 8);
+
+        TestRequest reserved = new TestRequest(1, true);
+        TestRequest following = new TestRequest(1);
+        Thread reservedWriter = new Thread(() -> {
+            combiner.append(reserved);
+            written.set(true);
+        });
+        Thread followingWriter = new Thread(() -> combiner.append(following));
+
+        // Hold the put lock until both requests are pending, so that they would be combined into one batch
+        putLock.lock();
+        try {
+            reservedWriter.start();
+            await().atMost(3, TimeUnit.SECONDS).until(putLock.lock::hasQueuedThreads);
+            followingWriter.start();
+            await().atMost(3, TimeUnit.SECONDS).until(() -> followingWriter.getState() == Thread.State.TIMED_WAITING);
+        } finally {
+            putLock.unlock();
+        }
+
+        reservedWriter.join(10_000);
+        followingWriter.join(10_000);
+        assertTrue(reserved.isDone());
+        assertTrue(following.isDone());
+        assertFalse(timedOut.get());
+        assertEquals(2, combiner.getCombinedBatches());
+    }
+
+    @Test
+    public void testAppenderErrorIsReported() {
+        RuntimeException error = new RuntimeException("append failed");
+        PutMessageCombiner<TestRequest> combiner = new PutMessageCombiner<>(new PutMessageSpinLock(), request -> {
+            throw error;
+        }, 8);
+
+        TestRequest request = new TestRequest(1);
+        combiner.append(request);
+        assertTrue(request.isDone());
+        assertSame(error, request.getError());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageExtBrokerInner;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.logfile.MappedFile;
+import org.apache.rocketmq.store.logfile.ReservableMappedFile;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+public class ReservedAppendTest extends StoreTestBase {
+    private static final String TOPIC = "ReservedAppendTest";
+
+    private DefaultMessageStore messageStore;
+
+    private void startMessageStore(boolean combinedAppend, AtomicBoolean failAfterReserve) throws Exception {
+        startMessageStore(combinedAppend, failAfterReserve, 1024 * 1024 * 10);
+    }
+
+    private void startMessageStore(boolean combinedAppend, AtomicBoolean failAfterReserve,
+        int mappedFileSizeCommitLog) throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(mappedFileSizeCommitLog);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 1024 * 10);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setHaListenPort(0);
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setEnableReservedAppend(true);
+        messageStoreConfig.setEnableCombinedAppend(combinedAppend);
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("simpleTest", true),
+            null, new BrokerConfig(), new ConcurrentHashMap<>()) {
+            @Override
+            public void onCommitLogAppend(MessageExtBrokerInner msg, AppendMessageResult result, MappedFile commitLogFile) {
+                if (failAfterReserve.compareAndSet(true, false)) {
+                    throw new IllegalStateException("fail after the reservation");
+                }
+            }
+        };
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        if (messageStore != null) {
+            messageStore.shutdown();
+            messageStore.destroy();
+        }
+    }
+
+    @Test
+    public void testFailureAfterReserveWithCombinedAppend() throws Exception {
+        AtomicBoolean failAfterReserve = new AtomicBoolean(true);
+        startMessageStore(true, failAfterReserve);
+
+        // The reserved slice is written, so the producer is told the message is stored and does not retry it
+        PutMessageResult stored = messageStore.putMessage(buildTopicMessage());
+        assertThat(stored.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        assertThat(stored.getAppendMessageResult().getWroteOffset()).isEqualTo(0);
+        assertReservationResolved();
+    }
+
+    @Test
+    public void testFailureAfterReserveInLock() throws Exception {
+        AtomicBoolean failAfterReserve = new AtomicBoolean(true);
+        startMessageStore(false, failAfterReserve);
+
+        PutMessageResult stored = messageStore.putMessage(buildTopicMessage());
+        assertThat(stored.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        assertThat(stored.getAppendMessageResult().getWroteOffset()).isEqualTo(0);
+        assertReservationResolved();
+    }
+
+    @Test
+    public void testCombinedBatchesCrossFileBoundary() throws Exception {
+        // Small files, so that batches of concurrent writers keep hitting the end of a file behind a reserved slice
+        startMessageStore(true, new AtomicBoolean(false), 16 * 1024);
+
+        final int threadNum = 8;
+        final int messagesPerThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadNum; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < messagesPerThread; j++) {
+                        PutMessageResult result = messageStore.asyncPutMessage(buildTopicMessage()).get(3, TimeUnit.SECONDS);
+                        assertThat(result.isOk()).isTrue();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(messageStore.getCommitLog().getMappedFileQueue().getMappedFiles().size()).isGreaterThan(1);
+        await().atMost(3, TimeUnit.SECONDS)
+            .until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == threadNum * messagesPerThread);
+    }
+
+    private void assertReservationResolved() throws Exception {
+        // the reserved slice is published, so the later writers and readers are not held back by it
+        PutMessageResult ok = messageStore.asyncPutMessage(buildTopicMessage()).get(3, TimeUnit.SECONDS);
+        assertThat(ok.isOk()).isTrue();
+        MappedFile mappedFile = messageStore.getCommitLog().getMappedFileQueue().getLastMappedFile();
+        assertThat(mappedFile.getWrotePosition()).isEqualTo(((ReservableMappedFile) mappedFile).getReservedPosition());
+
+        await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue(TOPIC, 0) == 2);
+        GetMessageResult result = messageStore.getMessage("group", TOPIC, 0, 0, 32, null);
+        try {
+            assertThat(result.getMessageCount()).isEqualTo(2);
+        } finally {
+            result.release();
+        }
+    }
+
+    private MessageExtBrokerInner buildTopicMessage() {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(0);
+        return msg;
+    }
+}
@@ -25,6 +25,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
@@ -148,7 +149,11 @@ public class RocksDBMessageStoreTest {
     }
 
     private MessageStore buildMessageStore(String storePathRootDir, String topic) throws Exception {
-        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        return buildMessageStore(storePathRootDir, topic, new MessageStoreConfig());
+    }
+
+    private MessageStore buildMessageStore(String storePathRootDir, String topic,
+        MessageStoreConfig messageStoreConfig) throws Exception {
         messageStoreConfig.setMappedFileSizeCommitLog(1024 * 1024 * 10);
         messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 1024 * 10);
         messageStoreConfig.setMaxHashSlotNum(10000);
@@ -170,6 +175,69 @@ public class RocksDBMessageStoreTest {
             new BrokerConfig(), topicConfigTable);
     }
 
+    private void restartWithConfig(MessageStoreConfig messageStoreConfig) throws Exception {
+        messageStore.shutdown();
+        messageStore.destroy();
+
+        messageStore = buildMessageStore(null, "", messageStoreConfig);
+        assertTrue(messageStore.load());
+        messageStore.start();
+    }
+
+    private void putMessagesAndWait(long totalMessages) {
+        queueTotal = 1;
+        messageBody = storeMessage.getBytes();
+        for (long i = 0; i < totalMessages; i++) {
+            messageStore.putMessage(buildMessage());
+        }
+
+        StoreTestUtil.waitCommitLogReput((RocksDBMessageStore) messageStore);
+        Awaitility.await().atMost(3, TimeUnit.SECONDS).until(() -> messageStore.getMaxOffsetInQueue("FooBar", 0) == totalMessages);
+    }
+
+    @Test
+    public void testGroupCommitAcrossDispatchRounds() throws Exception {
+        if (notExecuted()) {
+            return;
+        }
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setRocksdbCQGroupCommitBatchSize(16);
+        messageStoreConfig.setRocksdbCQGroupCommitMaxWaitMs(50);
+        restartWithConfig(messageStoreConfig);
+
+        // Less than a batch is left, it is committed after the max wait
+        long totalMessages = 100;
+        putMessagesAndWait(totalMessages);
+
+        for (long i = 0; i < totalMessages; i++) {
+            GetMessageResult result = messageStore.getMessage("GROUP_A", "FooBar", 0, i, 1024 * 1024, null);
+            assertThat(result.getMessageCount()).isEqualTo((int) Math.min(32, totalMessages - i));
+            result.release();
+        }
+    }
+
+    @Test
+    public void testRangeQueryByIterator() throws Exception {
+        if (notExecuted()) {
+            return;
+        }
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setRocksdbCQRangeQueryByIterator(true);
+        messageStoreConfig.setRocksdbCQIteratorPoolSize(2);
+        restartWithConfig(messageStoreConfig);
+
+        putMessagesAndWait(100);
+
+        List<ByteBuffer> byIterator = messageStore.getQueueStore().rangeQuery("FooBar", 0, 10, 32);
+        assertThat(byIterator).hasSize(32);
+        assertThat(messageStore.getQueueStore().rangeQuery("FooBar", 0, 90, 32)).hasSize(10);
+        assertThat(messageStore.getQueueStore().rangeQuery("FooBar", 0, 100, 32)).isEmpty();
+        assertThat(messageStore.getQueueStore().rangeQuery("FooBar", 1, 0, 32)).isEmpty();
+
+        messageStoreConfig.setRocksdbCQRangeQueryByIterator(false);
+        assertThat(messageStore.getQueueStore().rangeQuery("FooBar", 0, 10, 32)).isEqualTo(byIterator);
+    }
+
     @Test
     public void testWriteAndRead() {
         if (notExecuted()) {
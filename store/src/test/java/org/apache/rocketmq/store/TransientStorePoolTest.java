@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.apache.rocketmq.common.MixAll;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransientStorePoolTest {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024 + 4096;
+
+    @Test
+    public void testHugePageAndNumaBackedBuffers() {
+        Assume.assumeFalse(MixAll.isWindows() || MixAll.isMac());
+
+        TransientStorePool transientStorePool = new TransientStorePool(2, FILE_SIZE, true, 0);
+        transientStorePool.init();
+        try {
+            assertEquals(2, transientStorePool.availableBufferNums());
+            assertTrue(transientStorePool.getHugePageBuffers() <= 2);
+
+            ByteBuffer first = transientStorePool.borrowBuffer();
+            ByteBuffer second = transientStorePool.borrowBuffer();
+            assertNotSame(first, second);
+            assertNull(transientStorePool.borrowBuffer());
+
+            for (ByteBuffer buffer : new ByteBuffer[] {first, second}) {
+                assertTrue(buffer.isDirect());
+                assertEquals(FILE_SIZE, buffer.capacity());
+                assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+                buffer.putLong(FILE_SIZE - 8, 0x0102030405060708L);
+                assertEquals(0x0102030405060708L, buffer.getLong(FILE_SIZE - 8));
+                buffer.position(100);
+                transientStorePool.returnBuffer(buffer);
+                assertEquals(0, buffer.position());
+                assertEquals(FILE_SIZE, buffer.limit());
+            }
+            assertEquals(2, transientStorePool.availableBufferNums());
+        } finally {
+            transientStorePool.destroy();
+        }
+    }
+}
@@ -59,4 +59,18 @@ public class FlowMonitorTest {
         flowMonitor.calculateSpeed();
         Assert.assertEquals(5, flowMonitor.getTransferredByteInSecond());
     }
+
+    @Test
+    public void testCompressionRatio() {
+        FlowMonitor flowMonitor = new FlowMonitor(new MessageStoreConfig());
+        Assert.assertEquals(1.0, flowMonitor.getCompressionRatio(), 0.001);
+
+        flowMonitor.addCompressedByteCount(1000, 250);
+        flowMonitor.calculateSpeed();
+        Assert.assertEquals(4.0, flowMonitor.getCompressionRatio(), 0.001);
+
+        // Kept while nothing is transferred
+        flowMonitor.calculateSpeed();
+        Assert.assertEquals(4.0, flowMonitor.getCompressionRatio(), 0.001);
+    }
 }
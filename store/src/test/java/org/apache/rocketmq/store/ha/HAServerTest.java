@@ -113,6 +113,30 @@ public class HAServerTest {
         });
     }
 
+    @Test
+    public void testFanOutOnlyWithMultipleHAClient() throws Exception {
+        this.haService.shutdown();
+        this.storeConfig.setHaListenPort(this.storeConfig.getHaListenPort() + 1);
+        this.storeConfig.setHaTransferFanOut(true);
+        DefaultHAService fanOutHAService = new DefaultHAService();
+        this.haService = fanOutHAService;
+        this.haService.init(this.defaultMessageStore);
+        this.haService.start();
+        HAFanOutService fanOutService = fanOutHAService.getFanOutService();
+
+        setUpOneHAClient();
+        await().atMost(Duration.ofMinutes(1)).until(() -> this.haService.getConnectionCount().get() == 1);
+        // a single slave reads the CommitLog itself, to keep sending by the file channel
+        Thread.sleep(300);
+        assertThat(fanOutService.getNextReadOffset()).isEqualTo(-1);
+
+        setUpOneHAClient();
+        await().atMost(Duration.ofMinutes(1)).until(() -> fanOutService.getNextReadOffset() >= 0);
+
+        tearDownOneHAClient();
+        await().atMost(Duration.ofMinutes(1)).until(() -> fanOutService.getNextReadOffset() == -1);
+    }
+
     @Test
     public void inSyncReplicasNums() throws IOException, RocksDBException {
         DefaultMessageStore messageStore = mockMessageStore();
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.index;
+
+import java.io.File;
+import java.util.UUID;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.RunningFlags;
+import org.apache.rocketmq.store.StoreCheckpoint;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RocksDBIndexServiceTest {
+    private static final String TOPIC = "TopicTest";
+    private static final long BUCKET_INTERVAL = 1000;
+    private static final int MESSAGE_SIZE = 100;
+
+    private String storePath;
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() {
+        Assume.assumeFalse(MixAll.isMac());
+        storePath = System.getProperty("java.io.tmpdir") + File.separator + "unit_test_store" + File.separator
+            + UUID.randomUUID();
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setStorePathRootDir(storePath);
+        storeConfig.setEnableRocksDBIndex(true);
+        storeConfig.setRocksdbIndexBucketIntervalMs(BUCKET_INTERVAL);
+        messageStore = Mockito.mock(DefaultMessageStore.class);
+        Mockito.when(messageStore.getMessageStoreConfig()).thenReturn(storeConfig);
+        Mockito.when(messageStore.getRunningFlags()).thenReturn(new RunningFlags());
+        Mockito.when(messageStore.getStoreCheckpoint()).thenReturn(Mockito.mock(StoreCheckpoint.class));
+    }
+
+    @After
+    public void destroy() {
+        if (storePath != null) {
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
+
+    /**
+     * Message i is stored at i * 10ms with the keys "key-i" and "mod-(i % 10)"
+     */
+    private void buildIndex(IndexServiceInterface indexService, int from, int to) {
+        for (int i = from; i < to; i++) {
+            DispatchRequest request = new DispatchRequest(TOPIC, 0, (long) MESSAGE_SIZE * i, MESSAGE_SIZE, 0,
+                i * 10L, i, "key-" + i + " mod-" + (i % 10), "uniq-" + i, 0, 0, null);
+            indexService.buildIndex(request);
+        }
+    }
+
+    @Test
+    public void testQueryOffset() {
+        IndexServiceInterface indexService = new RocksDBIndexService(messageStore);
+        assertThat(indexService.load(true)).isTrue();
+        buildIndex(indexService, 0, 1000);
+
+        QueryOffsetResult result = indexService.queryOffset(TOPIC, "key-500", 32, 0, Long.MAX_VALUE);
+        assertThat(result.getPhyOffsets()).containsExactly(MESSAGE_SIZE * 500L);
+        assertThat(result.getIndexLastUpdatePhyoffset()).isEqualTo(MESSAGE_SIZE * 999L);
+        assertThat(result.getIndexLastUpdateTimestamp()).isEqualTo(9990);
+
+        result = indexService.queryOffset(TOPIC, "uniq-42", 32, 0, Long.MAX_VALUE);
+        assertThat(result.getPhyOffsets()).containsExactly(MESSAGE_SIZE * 42L);
+
+        // Newest first, bounded by the time range across buckets
+        result = indexService.queryOffset(TOPIC, "mod-3", 32, 1500, 3500);
+        assertThat(result.getPhyOffsets()).hasSize(20);
+        assertThat(result.getPhyOffsets().get(0)).isEqualTo(MESSAGE_SIZE * 343L);
+        assertThat(result.getPhyOffsets().get(19)).isEqualTo(MESSAGE_SIZE * 153L);
+
+        result = indexService.queryOffset(TOPIC, "mod-3", 5, 0, Long.MAX_VALUE);
+        assertThat(result.getPhyOffsets()).hasSize(5);
+
+        assertThat(indexService.queryOffset(TOPIC, "key-1000", 32, 0, Long.MAX_VALUE).getPhyOffsets()).isEmpty();
+        assertThat(indexService.queryOffset("OtherTopic", "key-500", 32, 0, Long.MAX_VALUE).getPhyOffsets()).isEmpty();
+        indexService.shutdown();
+    }
+
+    @Test
+    public void testLoadAndDeleteExpiredFile() {
+        IndexServiceInterface indexService = new RocksDBIndexService(messageStore);
+        assertThat(indexService.load(true)).isTrue();
+        buildIndex(indexService, 0, 500);
+        indexService.shutdown();
+
+        indexService = new RocksDBIndexService(messageStore);
+        assertThat(indexService.load(true)).isTrue();
+        assertThat(indexService.queryOffset(TOPIC, "key-10", 32, 0, Long.MAX_VALUE).getPhyOffsets())
+            .containsExactly(MESSAGE_SIZE * 10L);
+        buildIndex(indexService, 500, 1000);
+
+        // The first two buckets end with message 199, the third one holds message 250
+        indexService.deleteExpiredFile(MESSAGE_SIZE * 250L);
+        assertThat(indexService.queryOffset(TOPIC, "key-10", 32, 0, Long.MAX_VALUE).getPhyOffsets()).isEmpty();
+        assertThat(indexService.queryOffset(TOPIC, "key-199", 32, 0, Long.MAX_VALUE).getPhyOffsets()).isEmpty();
+        assertThat(indexService.queryOffset(TOPIC, "key-200", 32, 0, Long.MAX_VALUE).getPhyOffsets())
+            .containsExactly(MESSAGE_SIZE * 200L);
+        assertThat(indexService.queryOffset(TOPIC, "key-800", 32, 0, Long.MAX_VALUE).getPhyOffsets())
+            .containsExactly(MESSAGE_SIZE * 800L);
+        indexService.destroy();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.kv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactionKeyIndexTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private CompactionKeyIndex keyIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = tmpFolder.newFolder("keyIndex");
+        keyIndex = new CompactionKeyIndex(file.getAbsolutePath());
+        assertTrue(keyIndex.load());
+    }
+
+    @After
+    public void tearDown() {
+        keyIndex.shutdown();
+    }
+
+    @Test
+    public void testUpdateAndGet() throws Exception {
+        keyIndex.update("topic1", "key1", 1, 10, false);
+        keyIndex.update("topic1", "key1", 1, 20, false);
+        keyIndex.update("topic2", "key1", 0, 5, false);
+
+        CompactionKeyIndex.Entry entry = keyIndex.get("topic1", "key1");
+        assertEquals(1, entry.getQueueId());
+        assertEquals(20, entry.getQueueOffset());
+        assertEquals(5, keyIndex.get("topic2", "key1").getQueueOffset());
+
+        keyIndex.update("topic1", "key1", 1, 30, true);
+        assertNull(keyIndex.get("topic1", "key1"));
+        assertEquals(5, keyIndex.get("topic2", "key1").getQueueOffset());
+    }
+
+    @Test
+    public void testIndexedOffset() throws Exception {
+        assertEquals(-1, keyIndex.getIndexedOffset("topic", 1));
+
+        keyIndex.update("topic", "key1", 1, 10, false);
+        keyIndex.update("topic", "key1", 1, 11, true);
+        assertEquals(12, keyIndex.getIndexedOffset("topic", 1));
+        assertEquals(-1, keyIndex.getIndexedOffset("topic", 0));
+        assertEquals(0, keyIndex.scan("topic", "", 10).size());
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        keyIndex.update("topic", "order-1", 0, 1, false);
+        keyIndex.update("topic", "order-2", 1, 2, false);
+        keyIndex.update("topic", "order-3", 0, 3, false);
+        keyIndex.update("topic", "user-1", 0, 4, false);
+        keyIndex.update("topic-other", "order-4", 0, 5, false);
+
+        List<CompactionKeyIndex.Entry> entries = keyIndex.scan("topic", "order-", 10);
+        assertEquals(3, entries.size());
+        assertEquals("order-1", entries.get(0).getKey());
+        assertEquals("order-2", entries.get(1).getKey());
+        assertEquals(1, entries.get(1).getQueueId());
+        assertEquals("order-3", entries.get(2).getKey());
+
+        assertEquals(2, keyIndex.scan("topic", "order-", 2).size());
+        assertEquals(4, keyIndex.scan("topic", "", 10).size());
+    }
+}
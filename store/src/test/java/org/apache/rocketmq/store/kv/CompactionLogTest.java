@@ -66,7 +66,9 @@ import java.util.concurrent.CompletableFuture;
 import static org.apache.rocketmq.store.kv.CompactionLog.COMPACTING_SUB_FOLDER;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doNothing;
@@ -231,6 +233,85 @@ public class CompactionLogTest {
         assertEquals(1023, compactResult.stream().mapToLong(MessageExt::getQueueOffset).max().orElse(0));
     }
 
+    @Test
+    public void testGetFirstFileToCompact() throws DigestException, NoSuchAlgorithmException {
+        MappedFile first = mock(MappedFile.class);
+        Iterator<SelectMappedBufferResult> firstIterator = mock(Iterator.class);
+        when(firstIterator.hasNext()).thenAnswer((Answer<Boolean>)invocationOnMock -> queueOffset < 10);
+        when(firstIterator.next()).thenAnswer((Answer<SelectMappedBufferResult>)invocation ->
+            new SelectMappedBufferResult(0, buildMessage(), 0, null));
+        doReturn(firstIterator).when(first).iterator(0);
+        MappedFile second = mock(MappedFile.class);
+        Iterator<SelectMappedBufferResult> secondIterator = mock(Iterator.class);
+        when(secondIterator.hasNext()).thenAnswer((Answer<Boolean>)invocationOnMock -> queueOffset < 15);
+        when(secondIterator.next()).thenAnswer((Answer<SelectMappedBufferResult>)invocation ->
+            new SelectMappedBufferResult(0, buildMessage(), 0, null));
+        doReturn(secondIterator).when(second).iterator(0);
+        List<MappedFile> mappedFileList = Lists.newArrayList(first, second);
+
+        CompactionLog clog = mock(CompactionLog.class);
+        doCallRealMethod().when(clog).getFirstFileToCompact(anyList(), any(CompactionLog.OffsetMap.class));
+        doCallRealMethod().when(clog).shouldRetainMsg(any(MessageExt.class), any(CompactionLog.OffsetMap.class));
+
+        // keys 0 to 4 are updated after the second file, keys 5 to 9 of the first file are kept
+        CompactionLog.OffsetMap offsetMap = new CompactionLog.OffsetMap(offsetMemorySize, true);
+        for (int i = 0; i < 5; i++) {
+            offsetMap.put(String.valueOf(i), 20 + i);
+        }
+        queueOffset = 5;
+        assertEquals(1, clog.getFirstFileToCompact(mappedFileList, offsetMap));
+        offsetMap.release();
+
+        offsetMap = new CompactionLog.OffsetMap(offsetMemorySize, true);
+        offsetMap.put("20", 20);
+        queueOffset = 5;
+        assertEquals(2, clog.getFirstFileToCompact(mappedFileList, offsetMap));
+        offsetMap.release();
+    }
+
+    @Test
+    public void testGetFirstFileAfterCleanOffset() throws IllegalAccessException {
+        List<MappedFile> mappedFileList = Lists.newArrayList();
+        SparseConsumeQueue cq = mock(SparseConsumeQueue.class);
+        for (int i = 0; i < 3; i++) {
+            MappedFile mf = mock(MappedFile.class);
+            when(mf.getFile()).thenReturn(new File(String.valueOf(i)));
+            when(cq.getMaxMsgOffsetFromFile(String.valueOf(i))).thenReturn(i * 10L + 9);
+            mappedFileList.add(mf);
+        }
+
+        CompactionLog clog = mock(CompactionLog.class);
+        FieldUtils.writeField(clog, "positionMgr", positionMgr, true);
+        doCallRealMethod().when(clog).getFirstFileAfterCleanOffset(anyList());
+        when(clog.getCQ()).thenReturn(cq);
+
+        // never compacted
+        when(positionMgr.getCleanOffset(any(), anyInt())).thenReturn(-1L);
+        assertEquals(0, clog.getFirstFileAfterCleanOffset(mappedFileList));
+        when(positionMgr.getCleanOffset(any(), anyInt())).thenReturn(9L);
+        assertEquals(1, clog.getFirstFileAfterCleanOffset(mappedFileList));
+        when(positionMgr.getCleanOffset(any(), anyInt())).thenReturn(25L);
+        assertEquals(2, clog.getFirstFileAfterCleanOffset(mappedFileList));
+    }
+
+    @Test
+    public void testRetainDeleted() throws DigestException, NoSuchAlgorithmException {
+        CompactionLog clog = mock(CompactionLog.class);
+        doCallRealMethod().when(clog).shouldRetainMsg(any(MessageExt.class), any(CompactionLog.OffsetMap.class));
+
+        CompactionLog.OffsetMap offsetMap = new CompactionLog.OffsetMap(offsetMemorySize);
+        offsetMap.put("1", 1);
+        offsetMap.put("2", 5);
+        MessageExt deleted = new MessageExt();
+        deleted.setKeys("1");
+        deleted.setQueueOffset(1);
+        assertFalse(clog.shouldRetainMsg(deleted, offsetMap));
+
+        // the key may still be in the files the compaction skips
+        offsetMap.setRetainDeleted(true);
+        assertTrue(clog.shouldRetainMsg(deleted, offsetMap));
+    }
+
     @Test
     public void testReplaceFiles() throws IOException, IllegalAccessException {
         Assume.assumeFalse(MixAll.isWindows());
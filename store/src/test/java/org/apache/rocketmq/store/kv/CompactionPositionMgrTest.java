@@ -54,6 +54,7 @@ public class CompactionPositionMgrTest {
         CompactionPositionMgr mgr = new CompactionPositionMgr(file.getAbsolutePath());
         mgr.setOffset("topic1", 1, 2);
         mgr.setOffset("topic1", 2, 1);
+        mgr.setCleanOffset("topic1", 1, 2);
         mgr.persist();
         mgr = null;
 
@@ -61,5 +62,7 @@ public class CompactionPositionMgrTest {
         mgr2.load();
         assertEquals(2, mgr2.getOffset("topic1", 1));
         assertEquals(1, mgr2.getOffset("topic1", 2));
+        assertEquals(2, mgr2.getCleanOffset("topic1", 1));
+        assertEquals(-1, mgr2.getCleanOffset("topic1", 2));
     }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.kv;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.AppendMessageResult;
+import org.apache.rocketmq.store.AppendMessageStatus;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.queue.SparseConsumeQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CompactionStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private CompactionStore compactionStore;
+    private CompactionLog clog;
+    private CompactionKeyIndex keyIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        File root = tmpFolder.newFolder("store");
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setStorePathRootDir(root.getAbsolutePath());
+        storeConfig.setEnableCompactionKeyIndex(true);
+        DefaultMessageStore defaultMessageStore = mock(DefaultMessageStore.class);
+        doReturn(storeConfig).when(defaultMessageStore).getMessageStoreConfig();
+
+        compactionStore = new CompactionStore(defaultMessageStore);
+        compactionStore.load(false);
+        clog = mock(CompactionLog.class);
+        @SuppressWarnings("unchecked")
+        Map<String, CompactionLog> compactionLogTable =
+            (Map<String, CompactionLog>) FieldUtils.readField(compactionStore, "compactionLogTable", true);
+        compactionLogTable.put("ctopic_0", clog);
+        keyIndex = (CompactionKeyIndex) FieldUtils.readField(compactionStore, "keyIndex", true);
+    }
+
+    @After
+    public void tearDown() {
+        compactionStore.shutdown();
+    }
+
+    @Test
+    public void testKeyIndexUpdatedWhenPutCompletes() throws Exception {
+        CompletableFuture<PutMessageResult> putFuture = new CompletableFuture<>();
+        when(clog.asyncPutMessage(any(ByteBuffer.class), any(DispatchRequest.class))).thenReturn(putFuture);
+
+        compactionStore.doDispatch(buildDispatchRequest(3), buildMessage());
+        assertNull(keyIndex.get("ctopic", "key"));
+
+        putFuture.complete(new PutMessageResult(PutMessageStatus.PUT_OK,
+            new AppendMessageResult(AppendMessageStatus.PUT_OK)));
+        assertEquals(3, keyIndex.get("ctopic", "key").getQueueOffset());
+    }
+
+    @Test
+    public void testKeyIndexKeptWhenPutRejected() throws Exception {
+        when(clog.asyncPutMessage(any(ByteBuffer.class), any(DispatchRequest.class)))
+            .thenReturn(CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.PUT_OK,
+                new AppendMessageResult(AppendMessageStatus.PUT_OK))))
+            .thenReturn(CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null)));
+
+        compactionStore.doDispatch(buildDispatchRequest(3), buildMessage());
+        // A duplicate rejected by the compaction log must not move the key
+        compactionStore.doDispatch(buildDispatchRequest(2), buildMessage());
+        assertEquals(3, keyIndex.get("ctopic", "key").getQueueOffset());
+    }
+
+    @Test
+    public void testRebuildKeyIndex() throws Exception {
+        GetMessageResult getResult = new GetMessageResult();
+        Map<String, Long> latestOffsets = new HashMap<>();
+        long maxOffset = 0;
+        for (int i = 0; i < 3; i++) {
+            SelectMappedBufferResult message = buildMessage();
+            MessageExt msg = MessageDecoder.decode(message.getByteBuffer().duplicate(), false, false);
+            latestOffsets.put(msg.getKeys(), msg.getQueueOffset());
+            maxOffset = msg.getQueueOffset() + 1;
+            getResult.addMessage(message);
+        }
+        getResult.setNextBeginOffset(maxOffset);
+        SparseConsumeQueue cq = mock(SparseConsumeQueue.class);
+        when(cq.getMaxOffsetInQueue()).thenReturn(maxOffset);
+        when(clog.getCQ()).thenReturn(cq);
+        when(clog.getMessage(anyString(), anyString(), anyInt(), anyLong(), anyInt(), anyInt())).thenReturn(getResult);
+
+        compactionStore.rebuildKeyIndex("ctopic", 0, clog);
+        for (Map.Entry<String, Long> entry : latestOffsets.entrySet()) {
+            assertEquals(entry.getValue().longValue(), keyIndex.get("ctopic", entry.getKey()).getQueueOffset());
+        }
+        assertEquals(maxOffset, keyIndex.getIndexedOffset("ctopic", 0));
+
+        // Nothing to read once the index has caught up
+        compactionStore.rebuildKeyIndex("ctopic", 0, clog);
+        verify(clog, times(1)).getMessage(anyString(), anyString(), anyInt(), anyLong(), anyInt(), anyInt());
+    }
+
+    private static DispatchRequest buildDispatchRequest(long queueOffset) {
+        return new DispatchRequest("ctopic", 0, 0, 0, 0, 0, queueOffset, "key", null, 0, 0, null);
+    }
+
+    private static SelectMappedBufferResult buildMessage() {
+        ByteBuffer encoded = CompactionLogTest.buildMessage();
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining());
+        buffer.put(encoded).flip();
+        return new SelectMappedBufferResult(0, buffer, buffer.remaining(), null);
+    }
+}
@@ -38,6 +38,18 @@ public class OffsetMapTest {
         assertEquals(offsetMap.getLastOffset(), 9);
     }
 
+    @Test
+    public void testOffHeap() throws Exception {
+        OffsetMap offsetMap = new OffsetMap(1024, true);
+        offsetMap.put("abcde", 1);
+        offsetMap.put("abc", 3);
+        offsetMap.put("abcde", 9);
+        assertEquals(offsetMap.get("abcde"), 9);
+        assertEquals(offsetMap.get("abc"), 3);
+        assertEquals(offsetMap.get("not_exist"), -1);
+        offsetMap.release();
+    }
+
     @Test
     public void testFull() throws Exception {
         OffsetMap offsetMap = new OffsetMap(0);     //min 100 entry
@@ -21,14 +21,19 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DefaultMappedFileTest {
 
@@ -61,4 +66,40 @@ public class DefaultMappedFileTest {
         assertEquals(222, p);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testWriteReservedPublishInOrder() throws Exception {
+        DefaultMappedFile mappedFile = new DefaultMappedFile(path + File.separator + "00000000000000000000", 1024);
+        try {
+            int first = mappedFile.reserve(100);
+            int second = mappedFile.reserve(200);
+            assertEquals(0, first);
+            assertEquals(100, second);
+            assertEquals(300, mappedFile.getReservedPosition());
+            assertEquals(-1, mappedFile.reserve(1024));
+
+            // The later slice is written first, but can not be published before the earlier one
+            CountDownLatch secondWritten = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                mappedFile.writeReserved(second, 200, ByteBuffer.wrap(new byte[200]), 2L);
+                secondWritten.countDown();
+            });
+            writer.start();
+            Thread.sleep(100);
+            assertEquals(0, mappedFile.getWrotePosition());
+            assertEquals(1, secondWritten.getCount());
+
+            mappedFile.writeReserved(first, 100, ByteBuffer.wrap(new byte[100]), 1L);
+            assertTrue(secondWritten.await(3, TimeUnit.SECONDS));
+            assertEquals(300, mappedFile.getWrotePosition());
+            assertEquals(2L, mappedFile.getStoreTimestamp());
+
+            assertTrue(mappedFile.appendMessage(new byte[10]));
+            assertEquals(310, mappedFile.getReservedPosition());
+
+            mappedFile.setWrotePosition(50);
+            assertEquals(50, mappedFile.getReservedPosition());
+        } finally {
+            mappedFile.destroy(1000);
+        }
+    }
+}
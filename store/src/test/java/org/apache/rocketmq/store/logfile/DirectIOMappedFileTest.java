@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.logfile;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import org.apache.rocketmq.store.TransientStorePool;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class DirectIOMappedFileTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private TransientStorePool transientStorePool;
+
+    @Before
+    public void setUp() {
+        transientStorePool = new TransientStorePool(1, FILE_SIZE);
+        try {
+            transientStorePool.init();
+        } catch (IllegalAccessError e) {
+            // sun.nio.ch is not exported to the class path by newer JDKs unless --add-exports is given
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        transientStorePool.destroy();
+    }
+
+    @Test
+    public void testCommitInUnalignedSteps() throws Exception {
+        File file = new File(tmpFolder.newFolder("commitlog"), "00000000000000000000");
+        DirectIOMappedFile mappedFile = new DirectIOMappedFile(file.getPath(), FILE_SIZE, transientStorePool);
+        try {
+            // Leftovers of a previous file in the pooled buffer must never reach the disk
+            for (int i = 0; i < FILE_SIZE; i++) {
+                mappedFile.writeBuffer.put(i, (byte) 0x7F);
+            }
+
+            byte[] expected = new byte[FILE_SIZE];
+            Random random = new Random(0);
+            int position = 0;
+            for (int size : new int[] {100, 5000, 3000, 8192, 1}) {
+                byte[] data = new byte[size];
+                random.nextBytes(data);
+                System.arraycopy(data, 0, expected, position, size);
+
+                int pos = mappedFile.reserve(size);
+                assertEquals(position, pos);
+                mappedFile.writeReserved(pos, size, ByteBuffer.wrap(data), System.currentTimeMillis());
+                position += size;
+
+                assertEquals(position, mappedFile.commit(0));
+                assertEquals(position, mappedFile.flush(0));
+                byte[] actual = Files.readAllBytes(file.toPath());
+                assertEquals(FILE_SIZE, actual.length);
+                for (int i = 0; i < FILE_SIZE; i++) {
+                    assertEquals("byte " + i + " after committing " + position, expected[i], actual[i]);
+                }
+            }
+        } finally {
+            mappedFile.destroy(0);
+        }
+    }
+}
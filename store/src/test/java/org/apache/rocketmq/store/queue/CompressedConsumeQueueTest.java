@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.queue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.RunningFlags;
+import org.apache.rocketmq.store.StoreCheckpoint;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedConsumeQueueTest {
+    private static final String TOPIC = "%LMQ%compressed";
+    private static final int QUEUE_ID = 0;
+    private static final int MAPPED_FILE_SIZE = 4096;
+    private static final int MESSAGE_SIZE = 100;
+
+    private String storePath;
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() {
+        storePath = System.getProperty("java.io.tmpdir") + File.separator + "unit_test_store" + File.separator
+            + UUID.randomUUID();
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setStorePathRootDir(storePath);
+        messageStore = Mockito.mock(DefaultMessageStore.class);
+        Mockito.when(messageStore.getMessageStoreConfig()).thenReturn(storeConfig);
+        Mockito.when(messageStore.getRunningFlags()).thenReturn(new RunningFlags());
+        Mockito.when(messageStore.getStoreCheckpoint()).thenReturn(Mockito.mock(StoreCheckpoint.class));
+    }
+
+    @After
+    public void destroy() {
+        UtilAll.deleteFile(new File(storePath));
+    }
+
+    private CompressedConsumeQueue newQueue() {
+        return new CompressedConsumeQueue(TOPIC, QUEUE_ID, storePath, MAPPED_FILE_SIZE, messageStore);
+    }
+
+    private void putMessages(CompressedConsumeQueue queue, long from, long to) {
+        for (long i = from; i < to; i++) {
+            DispatchRequest request = new DispatchRequest(TOPIC, QUEUE_ID, MESSAGE_SIZE * i, MESSAGE_SIZE, i % 3,
+                0, i, null, null, 0, 0, null);
+            queue.putMessagePositionInfoWrapper(request);
+        }
+    }
+
+    private void assertUnits(CompressedConsumeQueue queue, long from, long to) {
+        for (long i = from; i < to; i++) {
+            CqUnit cqUnit = queue.get(i);
+            assertThat(cqUnit).isNotNull();
+            assertThat(cqUnit.getQueueOffset()).isEqualTo(i);
+            assertThat(cqUnit.getPos()).isEqualTo(MESSAGE_SIZE * i);
+            assertThat(cqUnit.getSize()).isEqualTo(MESSAGE_SIZE);
+            assertThat(cqUnit.getTagsCode()).isEqualTo(i % 3);
+        }
+    }
+
+    @Test
+    public void testPutAndIterate() {
+        CompressedConsumeQueue queue = newQueue();
+        int max = 2000;
+        putMessages(queue, 0, max);
+
+        assertThat(queue.getMinOffsetInQueue()).isEqualTo(0);
+        assertThat(queue.getMaxOffsetInQueue()).isEqualTo(max);
+        assertThat(queue.getMaxPhysicOffset()).isEqualTo((long) MESSAGE_SIZE * max);
+        assertUnits(queue, 0, max);
+        assertThat(queue.get(max)).isNull();
+        assertThat(queue.getEarliestUnit().getQueueOffset()).isEqualTo(0);
+        assertThat(queue.getLatestUnit().getQueueOffset()).isEqualTo(max - 1);
+
+        ReferredIterator<CqUnit> it = queue.iterateFrom(1000);
+        long expected = 1000;
+        try {
+            while (it.hasNext()) {
+                assertThat(it.next().getQueueOffset()).isEqualTo(expected++);
+            }
+        } finally {
+            it.release();
+        }
+        assertThat(expected).isGreaterThan(1000);
+
+        assertThat(queue.getTotalSize()).isLessThan((long) max * ConsumeQueue.CQ_STORE_UNIT_SIZE / 3);
+        queue.destroy();
+    }
+
+    @Test
+    public void testIterateWithCount() {
+        CompressedConsumeQueue queue = newQueue();
+        int max = 2000;
+        putMessages(queue, 0, max);
+
+        ReferredIterator<CqUnit> it = queue.iterateFrom(1000, 10);
+        long expected = 1000;
+        try {
+            while (it.hasNext()) {
+                assertThat(it.next().getQueueOffset()).isEqualTo(expected++);
+            }
+        } finally {
+            it.release();
+        }
+        assertThat(expected).isEqualTo(1010);
+
+        it = queue.iterateFrom(max - 5, 10);
+        expected = max - 5;
+        try {
+            while (it.hasNext()) {
+                assertThat(it.next().getQueueOffset()).isEqualTo(expected++);
+            }
+        } finally {
+            it.release();
+        }
+        assertThat(expected).isEqualTo(max);
+
+        assertThat(queue.iterateFrom(1000, 0)).isNull();
+        queue.destroy();
+    }
+
+    @Test
+    public void testFirstFile() {
+        CompressedConsumeQueue queue = newQueue();
+        assertThat(queue.isFirstFileExist()).isFalse();
+        assertThat(queue.isFirstFileAvailable()).isFalse();
+
+        putMessages(queue, 0, 100);
+        assertThat(queue.isFirstFileExist()).isTrue();
+        assertThat(queue.isFirstFileAvailable()).isTrue();
+        queue.destroy();
+    }
+
+    @Test
+    public void testRecover() {
+        CompressedConsumeQueue queue = newQueue();
+        int max = 2000;
+        putMessages(queue, 0, max);
+        queue.flush(0);
+
+        CompressedConsumeQueue recovered = newQueue();
+        assertThat(recovered.load()).isTrue();
+        recovered.recover();
+        assertThat(recovered.getMinOffsetInQueue()).isEqualTo(0);
+        assertThat(recovered.getMaxOffsetInQueue()).isEqualTo(max);
+        assertThat(recovered.getMaxPhysicOffset()).isEqualTo((long) MESSAGE_SIZE * max);
+        assertUnits(recovered, 0, max);
+
+        putMessages(recovered, max, max + 100);
+        assertUnits(recovered, 0, max + 100);
+        recovered.destroy();
+    }
+
+    @Test
+    public void testRecoverFromBlockIndex() throws Exception {
+        CompressedConsumeQueue queue = newQueue();
+        int max = 2000;
+        putMessages(queue, 0, max);
+        queue.flush(0);
+
+        File blockIndexDir = new File(storePath + File.separator + TOPIC + File.separator + QUEUE_ID,
+            CompressedConsumeQueue.BLOCK_INDEX_DIR);
+        File[] blockIndexFiles = blockIndexDir.listFiles();
+        assertThat(blockIndexFiles).isNotNull();
+        assertThat(blockIndexFiles.length).isGreaterThanOrEqualTo(2);
+        Arrays.sort(blockIndexFiles);
+
+        // A missing or corrupted block index falls back to reading the blocks of the file
+        assertThat(blockIndexFiles[0].delete()).isTrue();
+        Files.write(blockIndexFiles[1].toPath(), new byte[] {1, 2, 3});
+
+        CompressedConsumeQueue recovered = newQueue();
+        assertThat(recovered.load()).isTrue();
+        recovered.recover();
+        assertThat(recovered.getMinOffsetInQueue()).isEqualTo(0);
+        assertThat(recovered.getMaxOffsetInQueue()).isEqualTo(max);
+        assertThat(recovered.getMaxPhysicOffset()).isEqualTo((long) MESSAGE_SIZE * max);
+        assertUnits(recovered, 0, max);
+        assertThat(blockIndexDir.listFiles()).hasSameSizeAs(blockIndexFiles);
+
+        recovered.truncateDirtyLogicFiles(MESSAGE_SIZE * 500L);
+        assertThat(blockIndexDir.listFiles().length).isLessThan(blockIndexFiles.length);
+        recovered.destroy();
+        assertThat(blockIndexDir.exists()).isFalse();
+    }
+
+    @Test
+    public void testTruncateDirtyLogicFiles() {
+        CompressedConsumeQueue queue = newQueue();
+        putMessages(queue, 0, 2000);
+
+        queue.truncateDirtyLogicFiles(MESSAGE_SIZE * 500L);
+        assertThat(queue.getMaxOffsetInQueue()).isEqualTo(500);
+        assertThat(queue.getMaxPhysicOffset()).isEqualTo(MESSAGE_SIZE * 500L);
+        assertUnits(queue, 0, 500);
+        assertThat(queue.get(500)).isNull();
+
+        putMessages(queue, 500, 800);
+        assertUnits(queue, 0, 800);
+
+        CompressedConsumeQueue recovered = newQueue();
+        assertThat(recovered.load()).isTrue();
+        recovered.recover();
+        assertThat(recovered.getMaxOffsetInQueue()).isEqualTo(800);
+        assertUnits(recovered, 0, 800);
+        recovered.destroy();
+    }
+
+    @Test
+    public void testDeleteExpiredFile() {
+        CompressedConsumeQueue queue = newQueue();
+        int max = 3000;
+        putMessages(queue, 0, max);
+        long totalSize = queue.getTotalSize();
+
+        assertThat(queue.deleteExpiredFile(MESSAGE_SIZE * 1500L)).isGreaterThan(0);
+        assertThat(queue.getTotalSize()).isLessThan(totalSize);
+        assertThat(queue.getMinOffsetInQueue()).isEqualTo(1500);
+        assertThat(queue.getMinLogicOffset()).isEqualTo(1500L * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        assertThat(queue.get(1499)).isNull();
+        assertUnits(queue, 1500, max);
+        queue.destroy();
+    }
+}
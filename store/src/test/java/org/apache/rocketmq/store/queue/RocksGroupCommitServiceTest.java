@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.queue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class RocksGroupCommitServiceTest {
+    private static final long MAX_WAIT_MS = 500;
+
+    private final List<Integer> committedGroupSizes = new CopyOnWriteArrayList<>();
+    private final List<Long> commitNanos = new CopyOnWriteArrayList<>();
+    private RocksGroupCommitService groupCommitService;
+
+    @Before
+    public void init() throws Exception {
+        RocksDBConsumeQueueStore store = mock(RocksDBConsumeQueueStore.class);
+        doAnswer(invocation -> {
+            List<DispatchRequest> requests = invocation.getArgument(0);
+            committedGroupSizes.add(requests.size());
+            commitNanos.add(System.nanoTime());
+            requests.clear();
+            return null;
+        }).when(store).putMessagePosition(anyList());
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setRocksdbCQGroupCommitBatchSize(16);
+        messageStoreConfig.setRocksdbCQGroupCommitMaxWaitMs(MAX_WAIT_MS);
+        groupCommitService = new RocksGroupCommitService(store, messageStoreConfig);
+        groupCommitService.start();
+    }
+
+    @After
+    public void destroy() {
+        groupCommitService.shutdown();
+    }
+
+    private static DispatchRequest request(int i) {
+        return new DispatchRequest("TopicTest", 0, 100L * i, 100, 0, 0L, i, null, null, 0, 0, null);
+    }
+
+    @Test
+    public void testGroupCommitAfterMaxWait() throws Exception {
+        // Let the writer go idle before the first request is queued
+        TimeUnit.MILLISECONDS.sleep(MAX_WAIT_MS / 2);
+        long firstQueuedNanos = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            groupCommitService.putRequest(request(i));
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> !committedGroupSizes.isEmpty());
+        // All the puts land in one write batch, committed once the max wait elapsed since the first of them
+        assertThat(committedGroupSizes).containsExactly(10);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(commitNanos.get(0) - firstQueuedNanos))
+            .isGreaterThanOrEqualTo(MAX_WAIT_MS - 10)
+            .isLessThan(MAX_WAIT_MS * 2);
+    }
+
+    @Test
+    public void testGroupCommitWhenBatchIsFull() throws Exception {
+        for (int i = 0; i < 16; i++) {
+            groupCommitService.putRequest(request(i));
+        }
+
+        await().atMost(MAX_WAIT_MS / 2, TimeUnit.MILLISECONDS).until(() -> !committedGroupSizes.isEmpty());
+        assertThat(committedGroupSizes).containsExactly(16);
+    }
+}
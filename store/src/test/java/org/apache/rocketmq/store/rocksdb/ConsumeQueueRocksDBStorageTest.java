@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.rocksdb;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConsumeQueueRocksDBStorageTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private MessageStoreConfig messageStoreConfig;
+    private ConsumeQueueRocksDBStorage storage;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeFalse(MixAll.isMac());
+        File dbPath = tmpFolder.newFolder("rocksdb");
+        messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setRocksdbCQIteratorPoolSize(2);
+        MessageStore messageStore = mock(MessageStore.class);
+        when(messageStore.getMessageStoreConfig()).thenReturn(messageStoreConfig);
+        storage = new ConsumeQueueRocksDBStorage(messageStore, dbPath.getAbsolutePath());
+        assertTrue(storage.start());
+    }
+
+    @After
+    public void tearDown() {
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testIteratorReusedWhileFresh() throws Exception {
+        RocksIterator iterator = storage.borrowCQIterator();
+        storage.returnCQIterator(iterator);
+        assertEquals(1, storage.getCQIteratorPoolSize());
+        assertSame(iterator, storage.borrowCQIterator());
+        assertEquals(0, storage.getCQIteratorPoolSize());
+        storage.returnCQIterator(iterator);
+    }
+
+    @Test
+    public void testIdleIteratorClosed() throws Exception {
+        messageStoreConfig.setRocksdbCQIteratorMaxIdleMillis(10);
+        RocksIterator iterator = storage.borrowCQIterator();
+        storage.returnCQIterator(iterator);
+        Thread.sleep(50);
+
+        storage.evictIdleCQIterators();
+        assertEquals(0, storage.getCQIteratorPoolSize());
+        RocksIterator another = storage.borrowCQIterator();
+        assertNotSame(iterator, another);
+        storage.returnCQIterator(another);
+    }
+
+    @Test
+    public void testShutdownWaitsForBorrowedIterator() throws Exception {
+        RocksIterator pooled = storage.borrowCQIterator();
+        RocksIterator inUse = storage.borrowCQIterator();
+        storage.returnCQIterator(pooled);
+
+        AtomicBoolean shutdownResult = new AtomicBoolean();
+        Thread shutdown = new Thread(() -> shutdownResult.set(storage.shutdown()));
+        shutdown.start();
+        shutdown.join(500);
+        // The database is not closed under the borrowed iterator, which can still be read
+        assertTrue(shutdown.isAlive());
+        assertEquals(0, storage.getCQIteratorPoolSize());
+        inUse.seekToFirst();
+        assertThrows(RocksDBException.class, () -> storage.borrowCQIterator());
+
+        storage.returnCQIterator(inUse);
+        shutdown.join(5000);
+        assertFalse(shutdown.isAlive());
+        assertTrue(shutdownResult.get());
+        assertEquals(0, storage.getBorrowedCQIteratorNum());
+        storage = null;
+    }
+
+    @Test
+    public void testShutdownFailsWhileIteratorBorrowed() throws Exception {
+        messageStoreConfig.setRocksdbCQIteratorReturnTimeoutMillis(100);
+        RocksIterator inUse = storage.borrowCQIterator();
+
+        assertFalse(storage.shutdown());
+        inUse.seekToFirst();
+        storage.returnCQIterator(inUse);
+        assertEquals(0, storage.getBorrowedCQIteratorNum());
+        assertTrue(storage.shutdown());
+        storage = null;
+    }
+
+    @Test
+    public void testBorrowWhenNotReady() {
+        assertTrue(storage.shutdown());
+        assertThrows(RocksDBException.class, () -> storage.borrowCQIterator());
+        storage = null;
+    }
+}
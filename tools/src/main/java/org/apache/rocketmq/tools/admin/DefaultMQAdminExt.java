@@ -726,6 +726,12 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
         return this.defaultMQAdminExtImpl.queryMessage(clusterName, topic, msgId);
     }
 
+    @Override
+    public List<MessageExt> queryCompactedMessage(String topic, String key, boolean prefix, int maxNum)
+        throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
+        return this.defaultMQAdminExtImpl.queryCompactedMessage(topic, key, prefix, maxNum);
+    }
+
     public String getAdminExtGroup() {
         return adminExtGroup;
     }
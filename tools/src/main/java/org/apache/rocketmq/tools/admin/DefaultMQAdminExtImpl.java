@@ -104,6 +104,7 @@ import org.apache.rocketmq.remoting.protocol.body.TopicConfigSerializeWrapper;
 import org.apache.rocketmq.remoting.protocol.body.TopicList;
 import org.apache.rocketmq.remoting.protocol.body.UserInfo;
 import org.apache.rocketmq.remoting.protocol.header.ExportRocksDBConfigToJsonRequestHeader;
+import org.apache.rocketmq.remoting.protocol.header.QueryCompactedMessageRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.UpdateConsumerOffsetRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.UpdateGroupForbiddenRequestHeader;
 import org.apache.rocketmq.remoting.protocol.header.controller.ElectMasterResponseHeader;
@@ -644,6 +645,29 @@ public class DefaultMQAdminExtImpl implements MQAdminExt, MQAdminExtInner {
         return this.mqClientInstance.getMQAdminImpl().queryMessageByUniqKey(clusterName, topic, msgId);
     }
 
+    @Override
+    public List<MessageExt> queryCompactedMessage(String topic, String key, boolean prefix,
+        int maxNum) throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
+        TopicRouteData topicRouteData = this.examineTopicRouteInfo(topic);
+        List<MessageExt> messageList = new ArrayList<>();
+
+        for (BrokerData bd : topicRouteData.getBrokerDatas()) {
+            String addr = bd.selectBrokerAddr();
+            if (addr != null) {
+                QueryCompactedMessageRequestHeader requestHeader = new QueryCompactedMessageRequestHeader();
+                requestHeader.setTopic(topic);
+                requestHeader.setKey(key);
+                requestHeader.setPrefix(prefix);
+                requestHeader.setMaxNum(maxNum);
+                requestHeader.setBrokerName(bd.getBrokerName());
+                messageList.addAll(this.mqClientInstance.getMQClientAPIImpl()
+                    .queryCompactedMessage(addr, requestHeader, timeoutMillis));
+            }
+        }
+
+        return messageList;
+    }
+
     @Override
     public ConsumerConnection examineConsumerConnectionInfo(
         String consumerGroup) throws InterruptedException, MQBrokerException,
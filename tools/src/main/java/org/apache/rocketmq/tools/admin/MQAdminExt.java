@@ -429,6 +429,9 @@ public interface MQAdminExt extends MQAdmin {
         String topic,
         String msgId) throws RemotingException, MQBrokerException, InterruptedException, MQClientException;
 
+    List<MessageExt> queryCompactedMessage(String topic, String key, boolean prefix,
+        int maxNum) throws RemotingException, MQBrokerException, InterruptedException, MQClientException;
+
     HARuntimeInfo getBrokerHAStatus(String brokerAddr) throws RemotingConnectException, RemotingSendRequestException,
         RemotingTimeoutException, InterruptedException, MQBrokerException;
 